@@ -0,0 +1,190 @@
+package com.acme;
+
+import io.helidon.http.HeaderNames;
+import io.helidon.http.Method;
+import io.helidon.http.Status;
+import io.helidon.webserver.http.FilterChain;
+import io.helidon.webserver.http.RoutingRequest;
+import io.helidon.webserver.http.RoutingResponse;
+import io.helidon.webserver.http.ServerRequest;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+/**
+ * Admission control in front of the routes.
+ * <p>
+ * Each request first takes tokens from its client's bucket, then a slot from the
+ * global {@link ConcurrencyLimiter}. Expensive requests, an unpaged
+ * {@code GET /users}, a name/email search, a ranked {@code GET /users/search}, an
+ * export or an import, cost {@code expensiveCost} tokens and
+ * also need a slot from a smaller limiter of their own, so a flood of full scans
+ * cannot crowd out lookups by id. Their latencies only feed their own limiter,
+ * keeping the global baseline about the cheap routes. Anything over a limit is
+ * rejected at once with 429, a {@code Retry-After} header and the usual error body.
+ * <p>
+ * {@code /health} and {@code /metrics} are never limited. The change feed is
+ * rate limited but holds no slot, since a subscriber stays connected indefinitely.
+ * Clients are told apart by remote address, or by the first
+ * {@code X-Forwarded-For} entry when the server sits behind a trusted proxy.
+ * In cluster mode, requests forwarded by a peer skip the client limit but still
+ * need slots.
+ * <p>
+ * Requests under a tenant's {@code /t/{tenant}} prefix are classified by the rest
+ * of their path and take their slots from that {@link UserTenants.Tenant tenant's}
+ * limiters instead of the global and expensive ones, so one tenant running out of
+ * slots turns away only its own requests. The client rate limit is shared.
+ */
+final class AdmissionFilter {
+    private final TokenBucketLimiter clients;
+    private final ConcurrencyLimiter global;
+    private final ConcurrencyLimiter expensive;
+    private final int expensiveCost;
+    private final boolean trustForwardedFor;
+    private final UserCluster cluster;
+    private final UserTenants tenants;
+
+    AdmissionFilter(TokenBucketLimiter clients, ConcurrencyLimiter global, ConcurrencyLimiter expensive,
+                    int expensiveCost, boolean trustForwardedFor) {
+        this(clients, global, expensive, expensiveCost, trustForwardedFor, null);
+    }
+
+    /**
+     * @param cluster when not {@code null}, requests forwarded by its peers skip the
+     *                client rate limit, which the peer already applied
+     */
+    AdmissionFilter(TokenBucketLimiter clients, ConcurrencyLimiter global, ConcurrencyLimiter expensive,
+                    int expensiveCost, boolean trustForwardedFor, UserCluster cluster) {
+        this(clients, global, expensive, expensiveCost, trustForwardedFor, cluster, null);
+    }
+
+    /**
+     * @param tenants when not {@code null}, whose requests use their tenant's limiters
+     */
+    AdmissionFilter(TokenBucketLimiter clients, ConcurrencyLimiter global, ConcurrencyLimiter expensive,
+                    int expensiveCost, boolean trustForwardedFor, UserCluster cluster, UserTenants tenants) {
+        this.clients = clients;
+        this.global = global;
+        this.expensive = expensive;
+        this.expensiveCost = expensiveCost;
+        this.trustForwardedFor = trustForwardedFor;
+        this.cluster = cluster;
+        this.tenants = tenants;
+    }
+
+    void filter(FilterChain chain, RoutingRequest req, RoutingResponse res) {
+        String path = req.path().path();
+        if (path.equals("/health") || path.equals("/metrics")) {
+            chain.proceed();
+            return;
+        }
+        UserTenants.Tenant tenant = tenants == null ? null : tenants.match(path);
+        int local = tenant == null ? 0 : tenant.prefix.length();
+        boolean costly = isExpensive(req, local);
+        boolean fromPeer = cluster != null && cluster.isFromPeer(req);
+        long wait = fromPeer ? 0 : clients.tryAcquire(clientKey(req), costly ? expensiveCost : 1);
+        if (wait > 0) {
+            reject(res, TimeUnit.NANOSECONDS.toSeconds(wait + 999_999_999L),
+                    "Request rate limit exceeded; retry later.");
+            return;
+        }
+        if (pathIs(path, local, "/users/changes")) {
+            chain.proceed();
+            return;
+        }
+        ConcurrencyLimiter requests = tenant == null ? global : tenant.requests;
+        ConcurrencyLimiter scans = tenant == null ? expensive : tenant.expensive;
+        if (!requests.tryAcquire()) {
+            reject(res, 1, tenant == null ? "Server is at capacity; retry later."
+                    : "Tenant " + tenant.name + " is at capacity; retry later.");
+            return;
+        }
+        if (costly && !scans.tryAcquire()) {
+            requests.releaseUnsampled();
+            reject(res, 1, "Too many list and search requests in progress; retry later.");
+            return;
+        }
+        long start = System.nanoTime();
+        try {
+            chain.proceed();
+        } finally {
+            long latency = System.nanoTime() - start;
+            if (costly) {
+                scans.release(latency);
+                requests.releaseUnsampled();
+            } else {
+                requests.release(latency);
+            }
+        }
+    }
+
+    /**
+     * Whether a request scans the store: {@code GET /users} with a name or email
+     * filter, or without {@code limit} and {@code after}, ranked searches, whose
+     * scoring and typo walks cost far more than a lookup, and exports and imports.
+     */
+    static boolean isExpensive(ServerRequest req) {
+        return isExpensive(req, 0);
+    }
+
+    /**
+     * Like {@link #isExpensive(ServerRequest)} for the part of the path from
+     * {@code offset} on, after a tenant prefix.
+     */
+    static boolean isExpensive(ServerRequest req, int offset) {
+        return isExpensive(req.prologue().method(), req.path().path(), offset, req.query()::contains);
+    }
+
+    /**
+     * Like {@link #isExpensive(ServerRequest, int)}, given which query parameters
+     * the request has.
+     */
+    static boolean isExpensive(Method method, String path, int offset, Predicate<String> hasParameter) {
+        if (pathIs(path, offset, "/users/export") || pathIs(path, offset, "/users/import")) {
+            return true;
+        }
+        if (method != Method.GET) {
+            return false;
+        }
+        if (pathIs(path, offset, "/users/search")) {
+            return true;
+        }
+        if (!pathIs(path, offset, "/users")) {
+            return false;
+        }
+        return hasParameter.test("name") || hasParameter.test("email")
+                || (!hasParameter.test("limit") && !hasParameter.test("after"));
+    }
+
+    private static boolean pathIs(String path, int offset, String route) {
+        return path.length() - offset == route.length() && path.startsWith(route, offset);
+    }
+
+    private String clientKey(ServerRequest req) {
+        if (trustForwardedFor) {
+            String forwarded = req.headers().first(HeaderNames.X_FORWARDED_FOR).orElse(null);
+            if (forwarded != null && !forwarded.isBlank()) {
+                int comma = forwarded.indexOf(',');
+                return (comma < 0 ? forwarded : forwarded.substring(0, comma)).trim();
+            }
+        }
+        return req.remotePeer().host();
+    }
+
+    private static void reject(RoutingResponse res, long retryAfterSeconds, String details) {
+        res.header(HeaderNames.RETRY_AFTER, Long.toString(Math.max(1, retryAfterSeconds)));
+        Main.sendError(res, Status.TOO_MANY_REQUESTS_429, "Too many requests", details);
+    }
+
+    TokenBucketLimiter clients() {
+        return clients;
+    }
+
+    ConcurrencyLimiter global() {
+        return global;
+    }
+
+    ConcurrencyLimiter expensive() {
+        return expensive;
+    }
+}
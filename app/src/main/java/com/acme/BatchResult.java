@@ -0,0 +1,65 @@
+package com.acme;
+
+/**
+ * Outcome of one item in a batch request. {@code status} uses the HTTP status the
+ * item would have received as a single request; {@code message} and
+ * {@code details} carry the same text as {@link ErrorResponse} for failed items.
+ */
+public class BatchResult {
+    private int index;
+    private int status;
+    private String id;
+    private String message;
+    private String details;
+
+    public BatchResult() {
+    }
+
+    public BatchResult(int index, int status, String id, String message, String details) {
+        this.index = index;
+        this.status = status;
+        this.id = id;
+        this.message = message;
+        this.details = details;
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    public void setIndex(int index) {
+        this.index = index;
+    }
+
+    public int getStatus() {
+        return status;
+    }
+
+    public void setStatus(int status) {
+        this.status = status;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    public void setMessage(String message) {
+        this.message = message;
+    }
+
+    public String getDetails() {
+        return details;
+    }
+
+    public void setDetails(String details) {
+        this.details = details;
+    }
+}
@@ -0,0 +1,81 @@
+package com.acme;
+
+import java.math.BigDecimal;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Fixed-bucket histogram that records without allocating or locking.
+ * <p>
+ * Bucket bounds are chosen up front; {@link #record(long)} finds the bucket with a
+ * linear scan over a handful of bounds and bumps a striped {@link LongAdder}, so
+ * concurrent writers do not contend on a shared counter. Rendered as a Prometheus
+ * histogram with cumulative {@code le} buckets.
+ */
+final class BucketHistogram {
+    private final long[] bounds;
+    private final String[] boundLabels;
+    private final long unit;
+    private final LongAdder[] buckets;
+    private final LongAdder sum = new LongAdder();
+
+    /**
+     * @param bounds inclusive upper bounds in recorded units, ascending
+     * @param unit   recorded units per exposed unit, e.g. {@code 1_000_000_000} to record
+     *               nanoseconds and expose seconds
+     */
+    BucketHistogram(long[] bounds, long unit) {
+        this.bounds = bounds.clone();
+        this.unit = unit;
+        this.boundLabels = new String[bounds.length];
+        for (int i = 0; i < bounds.length; i++) {
+            boundLabels[i] = BigDecimal.valueOf(bounds[i]).divide(BigDecimal.valueOf(unit))
+                    .stripTrailingZeros().toPlainString();
+        }
+        this.buckets = new LongAdder[bounds.length + 1];
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    void record(long value) {
+        int i = 0;
+        while (i < bounds.length && value > bounds[i]) {
+            i++;
+        }
+        buckets[i].increment();
+        sum.add(value);
+    }
+
+    long count() {
+        long count = 0;
+        for (LongAdder bucket : buckets) {
+            count += bucket.sum();
+        }
+        return count;
+    }
+
+    /**
+     * Append {@code name_bucket}, {@code name_sum} and {@code name_count} series.
+     * {@code labels} is either empty or a comma-terminated label list such as
+     * {@code route="/users",}.
+     */
+    void write(StringBuilder out, String name, String labels) {
+        long cumulative = 0;
+        for (int i = 0; i < buckets.length; i++) {
+            cumulative += buckets[i].sum();
+            String le = i < bounds.length ? boundLabels[i] : "+Inf";
+            out.append(name).append("_bucket{").append(labels).append("le=\"").append(le).append("\"} ")
+                    .append(cumulative).append('\n');
+        }
+        String plainLabels = labels.isEmpty() ? "" : "{" + labels.substring(0, labels.length() - 1) + "}";
+        long total = sum.sum();
+        out.append(name).append("_sum").append(plainLabels).append(' ');
+        if (unit == 1) {
+            out.append(total);
+        } else {
+            out.append((double) total / unit);
+        }
+        out.append('\n');
+        out.append(name).append("_count").append(plainLabels).append(' ').append(cumulative).append('\n');
+    }
+}
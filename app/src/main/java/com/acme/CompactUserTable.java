@@ -0,0 +1,734 @@
+package com.acme;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.UnaryOperator;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Memory-lean layout for very large stores.
+ * <p>
+ * Users with canonical numeric ids (what the id generator produces) live in
+ * {@link #SEGMENTS} lock-striped segments. Each segment has an open-addressing
+ * {@code long} to {@code int} hash table from id to the offset of a record in one
+ * {@code byte[]} arena: the version as a varint, then name and email as
+ * length-prefixed UTF-8. Id order for pagination is a bitmap of ids. That is
+ * under 100 bytes per user against about a kilobyte for the hash layout with its
+ * trigram index. {@link User} objects are only created when a read
+ * returns them.
+ * <p>
+ * The price is that reads build a new {@link UserEntry} each time, so nothing
+ * caches its JSON or ETag: every {@link #get} of a compact user decodes the
+ * record, and responding encodes the JSON again. Keeping the encoded body in the
+ * arena would roughly double each record, and a cache of recent entries would
+ * give back memory with no bound on the hit rate, so both are left to the hash
+ * layout, which keeps every entry and its cached bytes.
+ * <p>
+ * Any other id goes to a {@link HashUserTable}, so the layout accepts every id
+ * the API does. Searches over compact users scan the arenas, matching ASCII
+ * fields byte by byte without decoding them; ranked {@link #search} scores every
+ * entry.
+ */
+final class CompactUserTable implements UserTable {
+    static final int SEGMENTS = 64;
+    private static final int MAX_COMPACT_DIGITS = 18;
+
+    private final Segment[] segments = new Segment[SEGMENTS];
+    private final IdBitmap order = new IdBitmap();
+    private final HashUserTable others = new HashUserTable();
+
+    CompactUserTable() {
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment();
+        }
+    }
+
+    /**
+     * {@code id} as a key of the compact tables, or {@code -1} if it is not a
+     * canonical decimal number of at most {@value #MAX_COMPACT_DIGITS} digits. Only
+     * canonical ids round-trip through {@link Long#toString(long)}.
+     */
+    static long compactKey(String id) {
+        int length = id.length();
+        if (length == 0 || length > MAX_COMPACT_DIGITS || (length > 1 && id.charAt(0) == '0')) {
+            return -1;
+        }
+        long value = 0;
+        for (int i = 0; i < length; i++) {
+            char c = id.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    private static long mix(long key) {
+        key = (key ^ (key >>> 33)) * 0xff51afd7ed558ccdL;
+        key = (key ^ (key >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        return key ^ (key >>> 33);
+    }
+
+    private Segment segment(long hash) {
+        return segments[(int) (hash >>> 58)];
+    }
+
+    @Override
+    public UserEntry get(String id) {
+        long key = compactKey(id);
+        if (key < 0) {
+            return others.get(id);
+        }
+        return segment(mix(key)).get(key, id);
+    }
+
+    @Override
+    public UserEntry compute(String id, UnaryOperator<UserEntry> update) {
+        long key = compactKey(id);
+        if (key < 0) {
+            return others.compute(id, update);
+        }
+        return segment(mix(key)).compute(key, id, update, order);
+    }
+
+    @Override
+    public int size() {
+        int size = others.size();
+        for (Segment segment : segments) {
+            size += segment.count;
+        }
+        return size;
+    }
+
+    @Override
+    public Stream<UserEntry> entries() {
+        Iterator<UserEntry> compact = compactEntriesFrom(0);
+        return Stream.concat(
+                StreamSupport.stream(Spliterators.spliteratorUnknownSize(compact, Spliterator.NONNULL), false),
+                others.entries());
+    }
+
+    @Override
+    public Iterator<UserEntry> entriesAfter(String after) {
+        long start = after == null ? 0 : firstCompactKeyAfter(after);
+        Iterator<UserEntry> compact = start < 0 ? Collections.<UserEntry>emptyIterator() : compactEntriesFrom(start);
+        return new MergingIterator(compact, others.entriesAfter(after));
+    }
+
+    /**
+     * Smallest compact key whose id sorts after {@code after} in {@link UserService#ID_ORDER},
+     * or {@code -1} if none can. Canonical ids of one length sort numerically and ahead of
+     * longer ones; numeric ids sort ahead of all others.
+     */
+    static long firstCompactKeyAfter(String after) {
+        int length = after.length();
+        for (int i = 0; i < length; i++) {
+            char c = after.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+        }
+        if (length == 0) {
+            return 0;
+        }
+        if (length > MAX_COMPACT_DIGITS) {
+            return -1;
+        }
+        long value = Long.parseLong(after);
+        if (length > 1 && after.charAt(0) == '0') {
+            // A leading zero sorts below every canonical id of the same length.
+            return pow10(length - 1);
+        }
+        return value + 1;
+    }
+
+    private static long pow10(int exponent) {
+        long value = 1;
+        for (int i = 0; i < exponent; i++) {
+            value *= 10;
+        }
+        return value;
+    }
+
+    private Iterator<UserEntry> compactEntriesFrom(long start) {
+        PrimitiveIterator.OfLong keys = order.iterator(start);
+        return new Iterator<>() {
+            private UserEntry next;
+
+            @Override
+            public boolean hasNext() {
+                while (next == null && keys.hasNext()) {
+                    long key = keys.nextLong();
+                    // Skips ids deleted between the bitmap and the table lookups.
+                    next = segment(mix(key)).get(key, Long.toString(key));
+                }
+                return next != null;
+            }
+
+            @Override
+            public UserEntry next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                UserEntry entry = next;
+                next = null;
+                return entry;
+            }
+        };
+    }
+
+    @Override
+    public long find(String nameFilter, String emailFilter, Consumer<UserEntry> results) {
+        Filter name = Filter.of(nameFilter);
+        Filter email = Filter.of(emailFilter);
+        long scanned = 0;
+        for (Segment segment : segments) {
+            scanned += segment.scan((arena, record) -> name.contains(arena, record.nameOffset, record.nameLength)
+                    && email.contains(arena, record.emailOffset, record.emailLength), results);
+        }
+        return scanned + others.find(nameFilter, emailFilter, results);
+    }
+
+    @Override
+    public void findByEmail(String emailKey, Consumer<UserEntry> results) {
+        Filter email = Filter.of(emailKey);
+        for (Segment segment : segments) {
+            segment.scan((arena, record) -> email.equalsField(arena, record.emailOffset, record.emailLength), results);
+        }
+        others.findByEmail(emailKey, results);
+    }
+
+    @Override
+    public List<UserEntry> search(UserSearchIndex.Query query, int limit) {
+        return UserSearchIndex.scan(query, limit, entries(), Long.MAX_VALUE, Long.MAX_VALUE);
+    }
+
+    @Override
+    public int indexEmailKeyCount() {
+        return others.indexEmailKeyCount();
+    }
+
+    @Override
+    public int indexGramCount() {
+        return others.indexGramCount();
+    }
+
+    @Override
+    public int indexSaturatedGramCount() {
+        return others.indexSaturatedGramCount();
+    }
+
+    @Override
+    public int searchTokenCount() {
+        return others.searchTokenCount();
+    }
+
+    /**
+     * Bytes held by the compact segments, live and garbage, excluding the other-id table.
+     */
+    long arenaBytes() {
+        long bytes = 0;
+        for (Segment segment : segments) {
+            bytes += segment.arenaBytes();
+        }
+        return bytes;
+    }
+
+    /**
+     * Field positions of one decoded record header; reused across a scan.
+     */
+    private static final class Record {
+        long version;
+        int nameOffset;
+        int nameLength;
+        int emailOffset;
+        int emailLength;
+        int end;
+
+        /**
+         * Decode the record at {@code offset}. Lengths are {@code -1} for null fields.
+         */
+        Record read(byte[] arena, int offset) {
+            int[] position = {offset};
+            version = readVarLong(arena, position);
+            nameLength = (int) readVarLong(arena, position) - 1;
+            nameOffset = position[0];
+            position[0] += Math.max(nameLength, 0);
+            emailLength = (int) readVarLong(arena, position) - 1;
+            emailOffset = position[0];
+            end = emailOffset + Math.max(emailLength, 0);
+            return this;
+        }
+
+        UserEntry toEntry(byte[] arena, String id) {
+            return new UserEntry(new User(id, decode(arena, nameOffset, nameLength),
+                    decode(arena, emailOffset, emailLength), version));
+        }
+
+        private static String decode(byte[] arena, int offset, int length) {
+            return length < 0 ? null : new String(arena, offset, length, StandardCharsets.UTF_8);
+        }
+    }
+
+    @FunctionalInterface
+    private interface RecordPredicate {
+        boolean test(byte[] arena, Record record);
+    }
+
+    /**
+     * A lowercase search filter, matched against stored fields without decoding them
+     * when both are ASCII. Non-ASCII fields are decoded and lowercased like
+     * {@link UserEntry#normalize}, since case folding can map them onto ASCII.
+     */
+    private static final class Filter {
+        private static final Filter ANY = new Filter(null);
+
+        final String text;
+        final byte[] ascii;
+
+        private Filter(String text) {
+            this.text = text;
+            byte[] bytes = null;
+            if (text != null && text.chars().allMatch(c -> c < 0x80)) {
+                bytes = text.getBytes(StandardCharsets.US_ASCII);
+            }
+            this.ascii = bytes;
+        }
+
+        static Filter of(String text) {
+            return text == null ? ANY : new Filter(text);
+        }
+
+        boolean contains(byte[] arena, int offset, int length) {
+            if (text == null) {
+                return true;
+            }
+            if (length < 0) {
+                return false;
+            }
+            if (ascii == null || !isAscii(arena, offset, length)) {
+                return UserEntry.normalize(new String(arena, offset, length, StandardCharsets.UTF_8)).contains(text);
+            }
+            int last = offset + length - ascii.length;
+            for (int start = offset; start <= last; start++) {
+                if (regionMatches(arena, start)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        boolean equalsField(byte[] arena, int offset, int length) {
+            if (length < 0) {
+                return false;
+            }
+            if (ascii == null || !isAscii(arena, offset, length)) {
+                return text.equals(UserEntry.normalize(new String(arena, offset, length, StandardCharsets.UTF_8)));
+            }
+            return length == ascii.length && regionMatches(arena, offset);
+        }
+
+        private boolean regionMatches(byte[] arena, int start) {
+            for (int i = 0; i < ascii.length; i++) {
+                byte b = arena[start + i];
+                if (b >= 'A' && b <= 'Z') {
+                    b += 'a' - 'A';
+                }
+                if (b != ascii[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static boolean isAscii(byte[] arena, int offset, int length) {
+            for (int i = offset; i < offset + length; i++) {
+                if (arena[i] < 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * One lock stripe: an open-addressing table with linear probing and backward-shift
+     * deletion, plus the arena its records live in. Superseded records are garbage
+     * until the arena is compacted.
+     */
+    private static final class Segment {
+        private static final long EMPTY = -1;
+        private static final int MIN_COMPACTION_BYTES = 4096;
+
+        private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+        private long[] keys = newKeys(16);
+        private int[] refs = new int[16];
+        volatile int count;
+        private byte[] arena = new byte[1024];
+        private int arenaLength;
+        private int garbage;
+
+        private static long[] newKeys(int capacity) {
+            long[] keys = new long[capacity];
+            Arrays.fill(keys, EMPTY);
+            return keys;
+        }
+
+        UserEntry get(long key, String id) {
+            lock.readLock().lock();
+            try {
+                int slot = find(key);
+                return slot < 0 ? null : new Record().read(arena, refs[slot]).toEntry(arena, id);
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        UserEntry compute(long key, String id, UnaryOperator<UserEntry> update, IdBitmap order) {
+            lock.writeLock().lock();
+            try {
+                int slot = find(key);
+                Record record = slot < 0 ? null : new Record().read(arena, refs[slot]);
+                UserEntry current = record == null ? null : record.toEntry(arena, id);
+                UserEntry next = update.apply(current);
+                if (next == current) {
+                    return current;
+                }
+                if (record != null) {
+                    garbage += record.end - refs[slot];
+                }
+                if (next == null) {
+                    removeAt(slot);
+                    order.remove(key);
+                } else {
+                    int ref = append(next.user);
+                    if (slot >= 0) {
+                        refs[slot] = ref;
+                    } else {
+                        insert(key, ref);
+                        order.add(key);
+                    }
+                }
+                if (garbage > MIN_COMPACTION_BYTES && garbage > arenaLength / 2) {
+                    compactArena();
+                }
+                return next;
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        /**
+         * Test every record under the read lock, passing matches to {@code results}.
+         *
+         * @return how many records were examined
+         */
+        long scan(RecordPredicate predicate, Consumer<UserEntry> results) {
+            lock.readLock().lock();
+            try {
+                Record record = new Record();
+                long scanned = 0;
+                for (int slot = 0; slot < keys.length; slot++) {
+                    if (keys[slot] == EMPTY) {
+                        continue;
+                    }
+                    scanned++;
+                    record.read(arena, refs[slot]);
+                    if (predicate.test(arena, record)) {
+                        results.accept(record.toEntry(arena, Long.toString(keys[slot])));
+                    }
+                }
+                return scanned;
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        long arenaBytes() {
+            lock.readLock().lock();
+            try {
+                return arena.length;
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        private int find(long key) {
+            int mask = keys.length - 1;
+            for (int slot = (int) mix(key) & mask; ; slot = (slot + 1) & mask) {
+                long k = keys[slot];
+                if (k == key) {
+                    return slot;
+                }
+                if (k == EMPTY) {
+                    return -1;
+                }
+            }
+        }
+
+        private void insert(long key, int ref) {
+            if ((count + 1) * 4L > keys.length * 3L) {
+                resize(keys.length * 2);
+            }
+            int mask = keys.length - 1;
+            int slot = (int) mix(key) & mask;
+            while (keys[slot] != EMPTY) {
+                slot = (slot + 1) & mask;
+            }
+            keys[slot] = key;
+            refs[slot] = ref;
+            count++;
+        }
+
+        private void removeAt(int slot) {
+            int mask = keys.length - 1;
+            int hole = slot;
+            for (int i = (slot + 1) & mask; keys[i] != EMPTY; i = (i + 1) & mask) {
+                int home = (int) mix(keys[i]) & mask;
+                // Move the entry back into the hole unless its home lies cyclically in (hole, i].
+                boolean homeBetween = hole <= i ? (home > hole && home <= i) : (home > hole || home <= i);
+                if (!homeBetween) {
+                    keys[hole] = keys[i];
+                    refs[hole] = refs[i];
+                    hole = i;
+                }
+            }
+            keys[hole] = EMPTY;
+            count--;
+        }
+
+        private void resize(int capacity) {
+            long[] oldKeys = keys;
+            int[] oldRefs = refs;
+            keys = newKeys(capacity);
+            refs = new int[capacity];
+            int mask = capacity - 1;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != EMPTY) {
+                    int slot = (int) mix(oldKeys[i]) & mask;
+                    while (keys[slot] != EMPTY) {
+                        slot = (slot + 1) & mask;
+                    }
+                    keys[slot] = oldKeys[i];
+                    refs[slot] = oldRefs[i];
+                }
+            }
+        }
+
+        private int append(User user) {
+            byte[] name = user.getName() == null ? null : user.getName().getBytes(StandardCharsets.UTF_8);
+            byte[] email = user.getEmail() == null ? null : user.getEmail().getBytes(StandardCharsets.UTF_8);
+            int size = 10 + 5 + (name == null ? 0 : name.length) + 5 + (email == null ? 0 : email.length);
+            ensure(size);
+            int ref = arenaLength;
+            arenaLength = writeVarLong(arena, arenaLength, user.getVersion());
+            arenaLength = writeField(arena, arenaLength, name);
+            arenaLength = writeField(arena, arenaLength, email);
+            return ref;
+        }
+
+        private void ensure(int extra) {
+            if ((long) arenaLength + extra > Integer.MAX_VALUE - 8) {
+                throw new IllegalStateException("Compact user segment is full");
+            }
+            if (arenaLength + extra > arena.length) {
+                long grown = Math.max((long) arena.length * 2, arenaLength + extra);
+                arena = Arrays.copyOf(arena, (int) Math.min(grown, Integer.MAX_VALUE - 8));
+            }
+        }
+
+        /**
+         * Copy live records into a right-sized arena, dropping superseded ones.
+         */
+        private void compactArena() {
+            int live = arenaLength - garbage;
+            byte[] compacted = new byte[Math.max(1024, live + live / 4)];
+            int length = 0;
+            Record record = new Record();
+            for (int slot = 0; slot < keys.length; slot++) {
+                if (keys[slot] != EMPTY) {
+                    int start = refs[slot];
+                    int size = record.read(arena, start).end - start;
+                    System.arraycopy(arena, start, compacted, length, size);
+                    refs[slot] = length;
+                    length += size;
+                }
+            }
+            arena = compacted;
+            arenaLength = length;
+            garbage = 0;
+        }
+
+        private static int writeField(byte[] arena, int offset, byte[] value) {
+            if (value == null) {
+                return writeVarLong(arena, offset, 0);
+            }
+            offset = writeVarLong(arena, offset, value.length + 1L);
+            System.arraycopy(value, 0, arena, offset, value.length);
+            return offset + value.length;
+        }
+    }
+
+    private static int writeVarLong(byte[] arena, int offset, long value) {
+        while ((value & ~0x7FL) != 0) {
+            arena[offset++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        arena[offset++] = (byte) value;
+        return offset;
+    }
+
+    private static long readVarLong(byte[] arena, int[] position) {
+        long value = 0;
+        int shift = 0;
+        int offset = position[0];
+        byte b;
+        do {
+            b = arena[offset++];
+            value |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while (b < 0);
+        position[0] = offset;
+        return value;
+    }
+
+    /**
+     * Ordered set of compact keys: a bitmap split into {@value #CHUNK_IDS}-id chunks,
+     * created as ids appear. Dense generated ids cost well under a byte each. Empty
+     * chunks are kept; they are cheap and likely to be refilled.
+     */
+    static final class IdBitmap {
+        private static final int CHUNK_SHIFT = 9;
+        private static final int CHUNK_IDS = 1 << CHUNK_SHIFT;
+        private static final int WORDS = CHUNK_IDS / 64;
+
+        private final ConcurrentSkipListMap<Long, AtomicLongArray> chunks = new ConcurrentSkipListMap<>();
+
+        void add(long id) {
+            AtomicLongArray words = chunks.computeIfAbsent(id >>> CHUNK_SHIFT, key -> new AtomicLongArray(WORDS));
+            long bit = 1L << (id & 63);
+            words.getAndAccumulate((int) (id & (CHUNK_IDS - 1)) >>> 6, bit, (word, mask) -> word | mask);
+        }
+
+        void remove(long id) {
+            AtomicLongArray words = chunks.get(id >>> CHUNK_SHIFT);
+            if (words != null) {
+                long bit = 1L << (id & 63);
+                words.getAndAccumulate((int) (id & (CHUNK_IDS - 1)) >>> 6, bit, (word, mask) -> word & ~mask);
+            }
+        }
+
+        /**
+         * Set ids {@code >= from} in ascending order, weakly consistent with concurrent changes.
+         */
+        PrimitiveIterator.OfLong iterator(long from) {
+            ConcurrentNavigableMap<Long, AtomicLongArray> tail = chunks.tailMap(from >>> CHUNK_SHIFT, true);
+            Iterator<Map.Entry<Long, AtomicLongArray>> chunkIterator = tail.entrySet().iterator();
+            return new PrimitiveIterator.OfLong() {
+                private long base = -1;
+                private AtomicLongArray words;
+                private long position = from;
+                private long next = -1;
+
+                @Override
+                public boolean hasNext() {
+                    while (next < 0) {
+                        if (words == null) {
+                            if (!chunkIterator.hasNext()) {
+                                return false;
+                            }
+                            Map.Entry<Long, AtomicLongArray> chunk = chunkIterator.next();
+                            base = chunk.getKey() << CHUNK_SHIFT;
+                            words = chunk.getValue();
+                            position = Math.max(position, base);
+                        }
+                        next = nextInChunk();
+                        if (next < 0) {
+                            words = null;
+                        }
+                    }
+                    return true;
+                }
+
+                private long nextInChunk() {
+                    for (int bit = (int) (position - base); bit < CHUNK_IDS; bit = (bit & ~63) + 64) {
+                        long word = words.get(bit >>> 6) & (-1L << (bit & 63));
+                        if (word != 0) {
+                            return base + (bit & ~63) + Long.numberOfTrailingZeros(word);
+                        }
+                    }
+                    return -1;
+                }
+
+                @Override
+                public long nextLong() {
+                    if (!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    long id = next;
+                    next = -1;
+                    position = id + 1;
+                    return id;
+                }
+            };
+        }
+    }
+
+    /**
+     * Merges two iterators that are each in {@link UserService#ID_ORDER}.
+     */
+    private static final class MergingIterator implements Iterator<UserEntry> {
+        private final Iterator<UserEntry> left;
+        private final Iterator<UserEntry> right;
+        private UserEntry leftNext;
+        private UserEntry rightNext;
+
+        MergingIterator(Iterator<UserEntry> left, Iterator<UserEntry> right) {
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (leftNext == null && left.hasNext()) {
+                leftNext = left.next();
+            }
+            if (rightNext == null && right.hasNext()) {
+                rightNext = right.next();
+            }
+            return leftNext != null || rightNext != null;
+        }
+
+        @Override
+        public UserEntry next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            UserEntry entry;
+            if (rightNext == null || (leftNext != null
+                    && UserService.ID_ORDER.compare(leftNext.user.getId(), rightNext.user.getId()) < 0)) {
+                entry = leftNext;
+                leftNext = null;
+            } else {
+                entry = rightNext;
+                rightNext = null;
+            }
+            return entry;
+        }
+    }
+}
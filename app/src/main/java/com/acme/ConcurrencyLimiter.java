@@ -0,0 +1,113 @@
+package com.acme;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Limit on requests in flight that adapts to observed latency.
+ * <p>
+ * Latencies are averaged over windows of {@link #WINDOW_NANOS}. The lowest
+ * window average seen is the no-load baseline; it drifts slowly toward recent
+ * averages so a lasting change in the workload resets it. After each window the
+ * limit moves toward {@code limit * min(1, tolerance * baseline / average)} plus
+ * a small allowance for queueing: it grows while latency stays near the baseline
+ * and shrinks as soon as requests start to queue. Admission is one
+ * compare-and-set on the in-flight count.
+ */
+final class ConcurrencyLimiter {
+    static final long WINDOW_NANOS = 250_000_000L;
+    private static final int MIN_WINDOW_SAMPLES = 10;
+    private static final double TOLERANCE = 2.0;
+    private static final double SMOOTHING = 0.2;
+    private static final double BASELINE_DRIFT = 0.02;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final LongSupplier clock;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final LongAdder windowLatency = new LongAdder();
+    private final LongAdder windowSamples = new LongAdder();
+    private final AtomicLong windowEnd;
+    private volatile double limit;
+    private double baselineNanos = Double.NaN;
+
+    ConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit, LongSupplier clock) {
+        if (minLimit < 1 || minLimit > maxLimit) {
+            throw new IllegalArgumentException("Need 1 <= minLimit <= maxLimit");
+        }
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.clock = clock;
+        this.limit = Math.max(minLimit, Math.min(maxLimit, initialLimit));
+        this.windowEnd = new AtomicLong(clock.getAsLong() + WINDOW_NANOS);
+    }
+
+    /**
+     * Take a slot if fewer than {@link #limit()} requests are in flight. Every
+     * successful call must be paired with a {@code release}.
+     */
+    boolean tryAcquire() {
+        while (true) {
+            int current = inFlight.get();
+            if (current >= (int) limit) {
+                return false;
+            }
+            if (inFlight.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Free a slot, recording how long the request held it.
+     */
+    void release(long latencyNanos) {
+        inFlight.decrementAndGet();
+        windowLatency.add(latencyNanos);
+        windowSamples.increment();
+        long end = windowEnd.get();
+        long now = clock.getAsLong();
+        if (now - end >= 0 && windowEnd.compareAndSet(end, now + WINDOW_NANOS)) {
+            adjust();
+        }
+    }
+
+    /**
+     * Free a slot without a latency sample, e.g. for a request that failed early.
+     */
+    void releaseUnsampled() {
+        inFlight.decrementAndGet();
+    }
+
+    int limit() {
+        return (int) limit;
+    }
+
+    int inFlight() {
+        return inFlight.get();
+    }
+
+    /**
+     * Close the current window. Only the thread that won the window swap calls this.
+     */
+    private void adjust() {
+        long samples = windowSamples.sumThenReset();
+        long total = windowLatency.sumThenReset();
+        if (samples < MIN_WINDOW_SAMPLES) {
+            return;
+        }
+        double average = (double) total / samples;
+        if (Double.isNaN(baselineNanos) || average < baselineNanos) {
+            baselineNanos = average;
+        } else {
+            baselineNanos += (average - baselineNanos) * BASELINE_DRIFT;
+        }
+        double current = limit;
+        double gradient = Math.max(0.5, Math.min(1.0, TOLERANCE * baselineNanos / average));
+        double target = current * gradient + Math.sqrt(current);
+        double next = current * (1 - SMOOTHING) + target * SMOOTHING;
+        limit = Math.max(minLimit, Math.min(maxLimit, next));
+    }
+}
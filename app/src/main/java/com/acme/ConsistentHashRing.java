@@ -0,0 +1,72 @@
+package com.acme;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+/**
+ * Maps keys to nodes by consistent hashing.
+ * <p>
+ * Each node is placed at {@code virtualNodes} points on a 64-bit ring, and a key
+ * belongs to the first point at or after its own hash, wrapping around. With
+ * enough points per node the shares are even, and adding or removing a node only
+ * moves the keys next to its points. The ring is immutable: two sorted arrays
+ * searched with a binary search.
+ */
+final class ConsistentHashRing {
+    static final int DEFAULT_VIRTUAL_NODES = 160;
+
+    private final List<String> nodes;
+    private final long[] points;
+    private final String[] owners;
+
+    ConsistentHashRing(List<String> nodes, int virtualNodes) {
+        this.nodes = List.copyOf(new LinkedHashSet<>(nodes));
+        if (this.nodes.isEmpty() || virtualNodes < 1) {
+            throw new IllegalArgumentException("A ring needs at least one node and one point per node");
+        }
+        long[][] placed = new long[this.nodes.size() * virtualNodes][];
+        int n = 0;
+        for (int node = 0; node < this.nodes.size(); node++) {
+            for (int v = 0; v < virtualNodes; v++) {
+                placed[n++] = new long[]{hash(this.nodes.get(node) + "#" + v), node};
+            }
+        }
+        // Ties are broken by node index so every instance builds the same ring.
+        Arrays.sort(placed, (a, b) -> a[0] != b[0] ? Long.compare(a[0], b[0]) : Long.compare(a[1], b[1]));
+        points = new long[placed.length];
+        owners = new String[placed.length];
+        for (int i = 0; i < placed.length; i++) {
+            points[i] = placed[i][0];
+            owners[i] = this.nodes.get((int) placed[i][1]);
+        }
+    }
+
+    String owner(String key) {
+        int index = Arrays.binarySearch(points, hash(key));
+        if (index < 0) {
+            index = -index - 1;
+        }
+        return owners[index == points.length ? 0 : index];
+    }
+
+    List<String> nodes() {
+        return nodes;
+    }
+
+    /**
+     * 64-bit FNV-1a over the UTF-8 bytes, finished with a murmur mix so that
+     * similar keys such as consecutive ids land far apart. Stable across JVMs.
+     */
+    static long hash(String key) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b & 0xFF;
+            hash *= 0x100000001b3L;
+        }
+        hash = (hash ^ (hash >>> 33)) * 0xff51afd7ed558ccdL;
+        hash = (hash ^ (hash >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        return hash ^ (hash >>> 33);
+    }
+}
@@ -0,0 +1,146 @@
+package com.acme;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.function.Consumer;
+import java.util.function.UnaryOperator;
+import java.util.stream.Stream;
+
+/**
+ * Default layout: entries in a {@link ConcurrentHashMap} keyed by id, searched
+ * through a {@link UserIndex} and a {@link UserSearchIndex}, and paged through a skip list of ids in
+ * {@link UserService#ID_ORDER}. Fast for every query, at the cost of several
+ * objects per user.
+ */
+final class HashUserTable implements UserTable {
+    private final Map<String, UserEntry> users = new ConcurrentHashMap<>();
+    private final UserIndex index = new UserIndex();
+    private final UserSearchIndex searchIndex = new UserSearchIndex();
+    private final NavigableSet<String> order = new ConcurrentSkipListSet<>(UserService.ID_ORDER);
+
+    @Override
+    public UserEntry get(String id) {
+        return users.get(id);
+    }
+
+    @Override
+    public UserEntry compute(String id, UnaryOperator<UserEntry> update) {
+        return users.compute(id, (key, previous) -> {
+            UserEntry next = update.apply(previous);
+            if (next != previous) {
+                index.update(key, previous, next);
+                searchIndex.update(key, previous, next);
+                if (previous == null) {
+                    order.add(key);
+                } else if (next == null) {
+                    order.remove(key);
+                }
+            }
+            return next;
+        });
+    }
+
+    @Override
+    public int size() {
+        return users.size();
+    }
+
+    @Override
+    public Stream<UserEntry> entries() {
+        return users.values().stream();
+    }
+
+    @Override
+    public Iterator<UserEntry> entriesAfter(String after) {
+        Iterator<String> ids = (after == null ? order : order.tailSet(after, false)).iterator();
+        return new Iterator<>() {
+            private UserEntry next;
+
+            @Override
+            public boolean hasNext() {
+                while (next == null && ids.hasNext()) {
+                    // Skips ids deleted between the order and the map lookups.
+                    next = users.get(ids.next());
+                }
+                return next != null;
+            }
+
+            @Override
+            public UserEntry next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                UserEntry entry = next;
+                next = null;
+                return entry;
+            }
+        };
+    }
+
+    /**
+     * Filters of three or more characters are answered from the trigram index;
+     * shorter ones fall back to a scan over the pre-normalized entries.
+     */
+    @Override
+    public long find(String nameFilter, String emailFilter, Consumer<UserEntry> results) {
+        Set<String> candidates = index.candidates(nameFilter, emailFilter);
+        if (candidates == null) {
+            long scanned = 0;
+            for (UserEntry entry : users.values()) {
+                scanned++;
+                if (entry.matches(nameFilter, emailFilter)) {
+                    results.accept(entry);
+                }
+            }
+            return scanned;
+        }
+        for (String id : candidates) {
+            UserEntry entry = users.get(id);
+            if (entry != null && entry.matches(nameFilter, emailFilter)) {
+                results.accept(entry);
+            }
+        }
+        return candidates.size();
+    }
+
+    @Override
+    public void findByEmail(String emailKey, Consumer<UserEntry> results) {
+        for (String id : index.byEmail(emailKey)) {
+            UserEntry entry = users.get(id);
+            if (entry != null && emailKey.equals(entry.emailKey)) {
+                results.accept(entry);
+            }
+        }
+    }
+
+    @Override
+    public List<UserEntry> search(UserSearchIndex.Query query, int limit) {
+        return searchIndex.search(query, limit, users::get, entries());
+    }
+
+    @Override
+    public int indexEmailKeyCount() {
+        return index.emailKeyCount();
+    }
+
+    @Override
+    public int indexGramCount() {
+        return index.gramCount();
+    }
+
+    @Override
+    public int indexSaturatedGramCount() {
+        return index.saturatedGramCount();
+    }
+
+    @Override
+    public int searchTokenCount() {
+        return searchIndex.tokenCount();
+    }
+}
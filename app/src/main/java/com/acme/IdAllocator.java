@@ -0,0 +1,115 @@
+package com.acme;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Generates numeric user ids.
+ * <p>
+ * While inserts are uncontended, ids come straight from one shared sequence and are
+ * dense. The first time two threads race for it, the allocator switches, as
+ * {@link java.util.concurrent.atomic.LongAdder} does, to stripes: each holds a block
+ * of {@link #BLOCK_SIZE} ids carved from the sequence, and threads pick a stripe by
+ * thread id, so concurrent inserts mostly touch different cache lines and the shared
+ * sequence is only hit once per block. Ids then still never repeat, but are no longer
+ * handed out in order, and unused parts of blocks are skipped.
+ * <p>
+ * Ids supplied by clients are {@link #reserve reserved}: the sequence moves past them
+ * and no outstanding block hands them out, which costs one volatile read when the id
+ * is below every reserved id so far.
+ */
+final class IdAllocator {
+    static final int BLOCK_SIZE = 1024;
+
+    private final AtomicLong sequence;
+    /** Lowest id a block may still hand out; raised by {@link #reserve}. */
+    private final AtomicLong floor;
+    private final AtomicReference<AtomicReferenceArray<Block>> stripes = new AtomicReference<>();
+    private final int stripeMask;
+
+    IdAllocator(long first) {
+        this(first, false);
+    }
+
+    /**
+     * @param striped whether to use stripes from the start rather than on first contention
+     */
+    IdAllocator(long first, boolean striped) {
+        this.sequence = new AtomicLong(first);
+        this.floor = new AtomicLong(first);
+        int count = Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors()) * 2 - 1) * 2;
+        this.stripeMask = count - 1;
+        if (striped) {
+            stripes.set(new AtomicReferenceArray<>(count));
+        }
+    }
+
+    long next() {
+        AtomicReferenceArray<Block> blocks = stripes.get();
+        if (blocks == null) {
+            long id = sequence.get();
+            if (sequence.compareAndSet(id, id + 1)) {
+                return id;
+            }
+            stripes.compareAndSet(null, new AtomicReferenceArray<>(stripeMask + 1));
+            blocks = stripes.get();
+        }
+        int index = stripe();
+        Block block = blocks.get(index);
+        if (block != null) {
+            long id = block.cursor.getAndIncrement();
+            if (id < block.end && id >= floor.get()) {
+                return id;
+            }
+        }
+        Block fresh = carve();
+        // Losing this race only wastes the rest of one block.
+        blocks.compareAndSet(index, block, fresh);
+        return fresh.cursor.getAndIncrement();
+    }
+
+    /**
+     * Make sure {@code id} is never generated.
+     */
+    void reserve(long id) {
+        if (id < floor.get()) {
+            return;
+        }
+        floor.accumulateAndGet(id + 1, Math::max);
+        sequence.accumulateAndGet(id + 1, Math::max);
+    }
+
+    /**
+     * Whether ids now come from per-stripe blocks.
+     */
+    boolean isStriped() {
+        return stripes.get() != null;
+    }
+
+    private Block carve() {
+        while (true) {
+            long start = sequence.getAndAdd(BLOCK_SIZE);
+            // A reservation may have raised the floor before moving the sequence.
+            long min = floor.get();
+            if (start + BLOCK_SIZE > min) {
+                return new Block(Math.max(start, min), start + BLOCK_SIZE);
+            }
+        }
+    }
+
+    private int stripe() {
+        long h = Thread.currentThread().threadId() * 0x9E3779B97F4A7C15L;
+        return (int) (h >>> 32) & stripeMask;
+    }
+
+    private static final class Block {
+        final AtomicLong cursor;
+        final long end;
+
+        Block(long start, long end) {
+            this.cursor = new AtomicLong(start);
+            this.end = end;
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package com.acme;
+
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * No-op storage engine: nothing is persisted and nothing is replayed.
+ */
+final class InMemoryUserStorage implements UserStorage {
+    static final InMemoryUserStorage INSTANCE = new InMemoryUserStorage();
+
+    private InMemoryUserStorage() {
+    }
+
+    @Override
+    public void load(BiConsumer<String, User> put, Consumer<String> delete) {
+    }
+
+    @Override
+    public long appendPut(User user) {
+        return 0;
+    }
+
+    @Override
+    public long appendDelete(String id) {
+        return 0;
+    }
+
+    @Override
+    public void await(long position) {
+    }
+
+    @Override
+    public void snapshot() {
+    }
+
+    @Override
+    public void close() {
+    }
+}
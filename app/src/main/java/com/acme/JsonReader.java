@@ -0,0 +1,313 @@
+package com.acme;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Hand-written JSON decoder for {@link User} request bodies.
+ * <p>
+ * Parses the raw request bytes in one pass: known properties are matched against
+ * their UTF-8 names in place and decoded straight into the entity, unknown ones
+ * are skipped without building any tree. Like the default JSON-B mapping, unknown
+ * properties are ignored, {@code null} leaves a property unset and a numeric
+ * {@code id} is taken as its text. Malformed input is reported as
+ * {@link IllegalArgumentException}.
+ */
+final class JsonReader {
+    private static final int MAX_DEPTH = 64;
+    private static final byte[] ID = {'i', 'd'};
+    private static final byte[] NAME = {'n', 'a', 'm', 'e'};
+    private static final byte[] EMAIL = {'e', 'm', 'a', 'i', 'l'};
+
+    private final byte[] data;
+    private final int limit;
+    private int position;
+
+    private JsonReader(byte[] data, int length) {
+        this.data = data;
+        this.limit = length;
+    }
+
+    static User readUser(byte[] data) {
+        return readUser(data, data.length);
+    }
+
+    static User readUser(byte[] data, int length) {
+        JsonReader reader = new JsonReader(data, length);
+        User user = reader.user();
+        reader.end();
+        return user;
+    }
+
+    /**
+     * The string, or {@code null}, that makes up the whole of {@code data}.
+     */
+    static String readString(byte[] data) {
+        JsonReader reader = new JsonReader(data, data.length);
+        String value = reader.nullableString();
+        reader.end();
+        return value;
+    }
+
+    private User user() {
+        expect('{');
+        User user = new User();
+        if (peek() == '}') {
+            position++;
+            return user;
+        }
+        while (true) {
+            expect('"');
+            int start = position;
+            boolean plain = skipStringBody();
+            int end = position - 1;
+            expect(':');
+            if (plain && nameIs(start, end, ID)) {
+                user.setId(peek() == '"' || peek() == 'n' ? nullableString() : numberText());
+            } else if (plain && nameIs(start, end, NAME)) {
+                user.setName(nullableString());
+            } else if (plain && nameIs(start, end, EMAIL)) {
+                user.setEmail(nullableString());
+            } else if (!plain) {
+                // Escaped property name: rare enough to decode and compare.
+                position = start - 1;
+                String name = string();
+                expect(':');
+                switch (name) {
+                    case "id" -> user.setId(peek() == '"' || peek() == 'n' ? nullableString() : numberText());
+                    case "name" -> user.setName(nullableString());
+                    case "email" -> user.setEmail(nullableString());
+                    default -> skipValue(0);
+                }
+            } else {
+                skipValue(0);
+            }
+            int c = next();
+            if (c == '}') {
+                return user;
+            }
+            if (c != ',') {
+                throw error("Expected ',' or '}'");
+            }
+        }
+    }
+
+    private void end() {
+        if (peek() >= 0) {
+            throw error("Unexpected content after JSON value");
+        }
+    }
+
+    private String nullableString() {
+        if (peek() == 'n') {
+            literal("null");
+            return null;
+        }
+        return string();
+    }
+
+    private String string() {
+        expect('"');
+        int start = position;
+        if (skipStringBody()) {
+            return new String(data, start, position - 1 - start, StandardCharsets.UTF_8);
+        }
+        StringBuilder value = new StringBuilder(position - start);
+        position = start;
+        while (true) {
+            int runStart = position;
+            while (data[position] != '"' && data[position] != '\\') {
+                position++;
+            }
+            value.append(new String(data, runStart, position - runStart, StandardCharsets.UTF_8));
+            if (data[position++] == '"') {
+                return value.toString();
+            }
+            char escaped = (char) data[position++];
+            switch (escaped) {
+                case '"', '\\', '/' -> value.append(escaped);
+                case 'b' -> value.append('\b');
+                case 'f' -> value.append('\f');
+                case 'n' -> value.append('\n');
+                case 'r' -> value.append('\r');
+                case 't' -> value.append('\t');
+                case 'u' -> value.append(hexChar());
+                default -> throw error("Invalid escape");
+            }
+        }
+    }
+
+    /**
+     * Skip to just past the closing quote, validating as it goes.
+     *
+     * @return whether the string had no escapes, so its bytes are its UTF-8 value
+     */
+    private boolean skipStringBody() {
+        boolean plain = true;
+        while (true) {
+            if (position >= limit) {
+                throw error("Unterminated string");
+            }
+            int c = data[position++] & 0xFF;
+            if (c == '"') {
+                return plain;
+            }
+            if (c < 0x20) {
+                throw error("Control character in string");
+            }
+            if (c == '\\') {
+                plain = false;
+                if (position >= limit) {
+                    throw error("Unterminated string");
+                }
+                if (data[position++] == 'u') {
+                    if (position + 4 > limit) {
+                        throw error("Unterminated string");
+                    }
+                    hexChar(position);
+                    position += 4;
+                }
+            }
+        }
+    }
+
+    private char hexChar() {
+        char c = hexChar(position);
+        position += 4;
+        return c;
+    }
+
+    private char hexChar(int at) {
+        int value = 0;
+        for (int i = at; i < at + 4; i++) {
+            int digit = Character.digit(data[i], 16);
+            if (digit < 0) {
+                throw error("Invalid unicode escape");
+            }
+            value = (value << 4) | digit;
+        }
+        return (char) value;
+    }
+
+    private String numberText() {
+        int start = position;
+        skipNumber();
+        return new String(data, start, position - start, StandardCharsets.US_ASCII);
+    }
+
+    private void skipNumber() {
+        int start = position;
+        boolean digits = false;
+        while (position < limit) {
+            int c = data[position];
+            if (c >= '0' && c <= '9') {
+                digits = true;
+            } else if (c != '-' && c != '+' && c != '.' && c != 'e' && c != 'E') {
+                break;
+            }
+            position++;
+        }
+        if (!digits || data[start] == '+') {
+            throw error("Invalid value");
+        }
+    }
+
+    private void skipValue(int depth) {
+        if (depth > MAX_DEPTH) {
+            throw error("Nesting too deep");
+        }
+        int c = peek();
+        switch (c) {
+            case '"' -> {
+                position++;
+                skipStringBody();
+            }
+            case '{' -> skipContainer('}', true, depth);
+            case '[' -> skipContainer(']', false, depth);
+            case 't' -> literal("true");
+            case 'f' -> literal("false");
+            case 'n' -> literal("null");
+            default -> skipNumber();
+        }
+    }
+
+    private void skipContainer(char close, boolean object, int depth) {
+        position++;
+        if (peek() == close) {
+            position++;
+            return;
+        }
+        while (true) {
+            if (object) {
+                expect('"');
+                skipStringBody();
+                expect(':');
+            }
+            skipValue(depth + 1);
+            int c = next();
+            if (c == close) {
+                return;
+            }
+            if (c != ',') {
+                throw error("Expected ',' or '" + close + "'");
+            }
+        }
+    }
+
+    private void literal(String text) {
+        skipWhitespace();
+        if (position + text.length() > limit) {
+            throw error("Invalid value");
+        }
+        for (int i = 0; i < text.length(); i++) {
+            if (data[position + i] != text.charAt(i)) {
+                throw error("Invalid value");
+            }
+        }
+        position += text.length();
+    }
+
+    private boolean nameIs(int start, int end, byte[] name) {
+        if (end - start != name.length) {
+            return false;
+        }
+        for (int i = 0; i < name.length; i++) {
+            if (data[start + i] != name[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void expect(char c) {
+        if (next() != c) {
+            throw error("Expected '" + c + "'");
+        }
+    }
+
+    private int next() {
+        skipWhitespace();
+        return position < limit ? data[position++] & 0xFF : -1;
+    }
+
+    /**
+     * Next non-whitespace byte without consuming it, or -1 at the end of input.
+     */
+    private int peek() {
+        skipWhitespace();
+        return position < limit ? data[position] & 0xFF : -1;
+    }
+
+    private void skipWhitespace() {
+        while (position < limit) {
+            byte c = data[position];
+            if (c != ' ' && c != '\n' && c != '\r' && c != '\t') {
+                return;
+            }
+            position++;
+        }
+    }
+
+    private IllegalArgumentException error(String message) {
+        return new IllegalArgumentException(message + " at offset " + position);
+    }
+}
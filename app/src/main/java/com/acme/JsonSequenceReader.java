@@ -0,0 +1,177 @@
+package com.acme;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Splits a request body into its top-level JSON values without parsing them.
+ * <p>
+ * Accepts either a single JSON array ({@code [a, b, c]}) or a sequence of values
+ * separated by whitespace, as in NDJSON. Only one element is held in memory at a
+ * time, so arbitrarily large bodies can be processed in bounded memory.
+ * Structural errors are reported as {@link IllegalArgumentException}.
+ */
+final class JsonSequenceReader {
+    private static final int BUFFER_SIZE = 8192;
+
+    private final InputStream in;
+    private final int maxElementBytes;
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private int position;
+    private int limit;
+    private byte[] element = new byte[256];
+    private int elementLength;
+    private int count;
+    private boolean started;
+    private boolean array;
+    private boolean finished;
+
+    JsonSequenceReader(InputStream in, int maxElementBytes) {
+        this.in = in;
+        this.maxElementBytes = maxElementBytes;
+    }
+
+    /**
+     * Next top-level element, or {@code null} once the array or stream has ended.
+     */
+    byte[] next() throws IOException {
+        if (finished) {
+            return null;
+        }
+        int c = skipWhitespace();
+        if (!started) {
+            started = true;
+            if (c == '[') {
+                array = true;
+                c = skipWhitespace();
+                if (c == ']') {
+                    return finish();
+                }
+            }
+        } else if (array) {
+            if (c == ']') {
+                return finish();
+            }
+            if (c != ',') {
+                throw new IllegalArgumentException("Expected ',' or ']' after element " + count);
+            }
+            c = skipWhitespace();
+        }
+        if (c < 0) {
+            if (array) {
+                throw new IllegalArgumentException("Unterminated JSON array");
+            }
+            finished = true;
+            return null;
+        }
+        elementLength = 0;
+        readElement(c);
+        count++;
+        return Arrays.copyOf(element, elementLength);
+    }
+
+    private byte[] finish() throws IOException {
+        if (skipWhitespace() >= 0) {
+            throw new IllegalArgumentException("Unexpected content after JSON array");
+        }
+        finished = true;
+        return null;
+    }
+
+    private void readElement(int first) throws IOException {
+        append(first);
+        if (first == '"') {
+            readStringTail();
+            return;
+        }
+        if (first != '{' && first != '[') {
+            // Number or literal: runs until a delimiter.
+            int c;
+            while ((c = peek()) >= 0 && !isWhitespace(c) && c != ',' && c != ']') {
+                append(read());
+            }
+            return;
+        }
+        int depth = 1;
+        while (depth > 0) {
+            int c = read();
+            if (c < 0) {
+                throw new IllegalArgumentException("Unterminated JSON value in element " + count);
+            }
+            append(c);
+            if (c == '"') {
+                readStringTail();
+            } else if (c == '{' || c == '[') {
+                depth++;
+            } else if (c == '}' || c == ']') {
+                depth--;
+            }
+        }
+    }
+
+    private void readStringTail() throws IOException {
+        while (true) {
+            int c = read();
+            if (c < 0) {
+                throw new IllegalArgumentException("Unterminated JSON string in element " + count);
+            }
+            append(c);
+            if (c == '\\') {
+                int escaped = read();
+                if (escaped < 0) {
+                    throw new IllegalArgumentException("Unterminated JSON string in element " + count);
+                }
+                append(escaped);
+            } else if (c == '"') {
+                return;
+            }
+        }
+    }
+
+    private void append(int c) {
+        if (elementLength == element.length) {
+            if (elementLength >= maxElementBytes) {
+                throw new IllegalArgumentException("Element " + count + " exceeds " + maxElementBytes + " bytes");
+            }
+            element = Arrays.copyOf(element, Math.min(maxElementBytes, element.length * 2));
+        }
+        element[elementLength++] = (byte) c;
+    }
+
+    private int skipWhitespace() throws IOException {
+        int c;
+        do {
+            c = read();
+        } while (c >= 0 && isWhitespace(c));
+        return c;
+    }
+
+    private static boolean isWhitespace(int c) {
+        return c == ' ' || c == '\n' || c == '\r' || c == '\t';
+    }
+
+    private int peek() throws IOException {
+        if (position == limit && !fill()) {
+            return -1;
+        }
+        return buffer[position] & 0xFF;
+    }
+
+    private int read() throws IOException {
+        if (position == limit && !fill()) {
+            return -1;
+        }
+        return buffer[position++] & 0xFF;
+    }
+
+    private boolean fill() throws IOException {
+        int n = in.read(buffer, 0, buffer.length);
+        if (n <= 0) {
+            return false;
+        }
+        position = 0;
+        limit = n;
+        return true;
+    }
+}
@@ -0,0 +1,262 @@
+package com.acme;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Hand-written JSON encoder for the API's payload types.
+ * <p>
+ * Characters are encoded to UTF-8 straight into a growable byte buffer, with no
+ * intermediate {@code String} per value and no reflection. Output is identical to
+ * the default JSON-B mapping: properties in lexicographic order and {@code null}
+ * properties omitted. A writer can be {@link #reset()} and reused, e.g. once per
+ * element while streaming a large response.
+ */
+final class JsonWriter {
+    private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+
+    private byte[] buffer;
+    private int length;
+
+    JsonWriter() {
+        this(128);
+    }
+
+    JsonWriter(int capacity) {
+        this.buffer = new byte[capacity];
+    }
+
+    static byte[] toBytes(User user) {
+        Tracing.SerializationEvent event = Tracing.beginSerialization("user");
+        byte[] bytes = new JsonWriter().user(user).toByteArray();
+        Tracing.end(event, 1, bytes.length);
+        return bytes;
+    }
+
+    static byte[] toBytes(List<User> users) {
+        Tracing.SerializationEvent event = Tracing.beginSerialization("users");
+        byte[] bytes = new JsonWriter(64 + users.size() * 80).users(users).toByteArray();
+        Tracing.end(event, users.size(), bytes.length);
+        return bytes;
+    }
+
+    static byte[] toBytes(ErrorResponse error) {
+        Tracing.SerializationEvent event = Tracing.beginSerialization("error");
+        byte[] bytes = new JsonWriter().error(error).toByteArray();
+        Tracing.end(event, 0, bytes.length);
+        return bytes;
+    }
+
+    JsonWriter user(User user) {
+        if (user == null) {
+            return literal("null");
+        }
+        int mark = length;
+        append('{');
+        field(mark, "email", user.getEmail());
+        field(mark, "id", user.getId());
+        field(mark, "name", user.getName());
+        if (user.getVersion() != null) {
+            field(mark, "version", user.getVersion());
+        }
+        append('}');
+        return this;
+    }
+
+    JsonWriter users(List<User> users) {
+        append('[');
+        for (int i = 0; i < users.size(); i++) {
+            if (i > 0) {
+                append(',');
+            }
+            user(users.get(i));
+        }
+        append(']');
+        return this;
+    }
+
+    JsonWriter error(ErrorResponse error) {
+        int mark = length;
+        append('{');
+        field(mark, "details", error.getDetails());
+        field(mark, "message", error.getMessage());
+        append('}');
+        return this;
+    }
+
+    JsonWriter batchResult(BatchResult result) {
+        int mark = length;
+        append('{');
+        field(mark, "details", result.getDetails());
+        field(mark, "id", result.getId());
+        field(mark, "index", result.getIndex());
+        field(mark, "message", result.getMessage());
+        field(mark, "status", result.getStatus());
+        append('}');
+        return this;
+    }
+
+    /**
+     * A change feed event; {@code cursor} resumes the feed after it.
+     */
+    JsonWriter change(UserChange change, String cursor) {
+        int mark = length;
+        append('{');
+        field(mark, "cursor", cursor);
+        field(mark, "id", change.id);
+        field(mark, "type", change.type.label());
+        if (change.user != null) {
+            name(mark, "user");
+            user(change.user);
+        }
+        append('}');
+        return this;
+    }
+
+    /**
+     * A change feed event without a user, such as {@code reset} or {@code heartbeat}.
+     */
+    JsonWriter feedEvent(String type, String cursor) {
+        int mark = length;
+        append('{');
+        field(mark, "cursor", cursor);
+        field(mark, "type", type);
+        append('}');
+        return this;
+    }
+
+    /**
+     * Append ASCII text verbatim, for punctuation between values.
+     */
+    JsonWriter literal(String ascii) {
+        ensure(ascii.length());
+        for (int i = 0; i < ascii.length(); i++) {
+            buffer[length++] = (byte) ascii.charAt(i);
+        }
+        return this;
+    }
+
+    /**
+     * Append already-encoded JSON verbatim, such as a user relayed from another node.
+     */
+    JsonWriter raw(byte[] json) {
+        ensure(json.length);
+        System.arraycopy(json, 0, buffer, length, json.length);
+        length += json.length;
+        return this;
+    }
+
+    JsonWriter string(String value) {
+        ensure(value.length() + 2);
+        buffer[length++] = '"';
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c >= 0x20 && c < 0x80 && c != '"' && c != '\\') {
+                ensure(1);
+                buffer[length++] = (byte) c;
+            } else if (c < 0x80) {
+                escape(c);
+            } else if (c < 0x800) {
+                ensure(2);
+                buffer[length++] = (byte) (0xC0 | (c >> 6));
+                buffer[length++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < value.length()
+                    && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, value.charAt(++i));
+                ensure(4);
+                buffer[length++] = (byte) (0xF0 | (cp >> 18));
+                buffer[length++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+                buffer[length++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+                buffer[length++] = (byte) (0x80 | (cp & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                // Unpaired surrogate: same replacement String.getBytes(UTF_8) uses.
+                ensure(1);
+                buffer[length++] = '?';
+            } else {
+                ensure(3);
+                buffer[length++] = (byte) (0xE0 | (c >> 12));
+                buffer[length++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                buffer[length++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        ensure(1);
+        buffer[length++] = '"';
+        return this;
+    }
+
+    int length() {
+        return length;
+    }
+
+    void reset() {
+        length = 0;
+    }
+
+    byte[] toByteArray() {
+        return Arrays.copyOf(buffer, length);
+    }
+
+    void writeTo(OutputStream out) throws IOException {
+        out.write(buffer, 0, length);
+    }
+
+    private void field(int objectStart, String name, String value) {
+        if (value != null) {
+            name(objectStart, name);
+            string(value);
+        }
+    }
+
+    private void field(int objectStart, String name, long value) {
+        name(objectStart, name);
+        literal(Long.toString(value));
+    }
+
+    private void name(int objectStart, String name) {
+        if (length > objectStart + 1) {
+            append(',');
+        }
+        ensure(name.length() + 3);
+        buffer[length++] = '"';
+        for (int i = 0; i < name.length(); i++) {
+            buffer[length++] = (byte) name.charAt(i);
+        }
+        buffer[length++] = '"';
+        buffer[length++] = ':';
+    }
+
+    private void escape(char c) {
+        ensure(6);
+        buffer[length++] = '\\';
+        switch (c) {
+            case '"' -> buffer[length++] = '"';
+            case '\\' -> buffer[length++] = '\\';
+            case '\b' -> buffer[length++] = 'b';
+            case '\f' -> buffer[length++] = 'f';
+            case '\n' -> buffer[length++] = 'n';
+            case '\r' -> buffer[length++] = 'r';
+            case '\t' -> buffer[length++] = 't';
+            default -> {
+                buffer[length++] = 'u';
+                buffer[length++] = '0';
+                buffer[length++] = '0';
+                buffer[length++] = HEX[c >> 4];
+                buffer[length++] = HEX[c & 0xF];
+            }
+        }
+    }
+
+    private void append(char c) {
+        ensure(1);
+        buffer[length++] = (byte) c;
+    }
+
+    private void ensure(int extra) {
+        if (length + extra > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, length + extra));
+        }
+    }
+}
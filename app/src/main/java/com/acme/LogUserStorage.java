@@ -0,0 +1,526 @@
+package com.acme;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * Durable storage engine: an append-only write-ahead log plus compacted snapshots.
+ * <p>
+ * Records ({@link UserRecords}) are appended to numbered segment files
+ * ({@code wal-<n>.log}) through a {@link FileChannel}. When a segment grows past
+ * the configured size it is closed and a background task folds the previous
+ * snapshot and all closed segments into a new {@code users.snapshot}, then deletes
+ * the folded segments. Startup memory-maps the snapshot and replays the segments
+ * written after it; a torn record at the end of the newest segment is truncated
+ * away, and any other record that fails to decode stops startup.
+ * <p>
+ * Durability follows the {@link SyncMode}. In {@link SyncMode#PER_BATCH} mode
+ * concurrent writers share one {@code fsync}: the first waiter forces the channel
+ * and everyone whose record was written before the force returns with it.
+ */
+public final class LogUserStorage implements UserStorage {
+
+    /**
+     * When a write counts as durable.
+     */
+    public enum SyncMode {
+        /** {@code fsync} inside every append. Slowest, never loses an acknowledged write. */
+        PER_WRITE,
+        /** Group commit: writers block until a shared {@code fsync} covers their record. */
+        PER_BATCH,
+        /** Writers never block; the log is forced on a fixed interval. */
+        INTERVAL;
+
+        static SyncMode parse(String value) {
+            return switch (value.trim().toLowerCase(Locale.ROOT)) {
+                case "write", "per_write", "per-write" -> PER_WRITE;
+                case "batch", "per_batch", "per-batch" -> PER_BATCH;
+                case "interval" -> INTERVAL;
+                default -> throw new IllegalArgumentException("Unknown sync mode: " + value);
+            };
+        }
+    }
+
+    static final String SNAPSHOT = "users.snapshot";
+    static final long DEFAULT_SEGMENT_BYTES = 64L * 1024 * 1024;
+    static final Duration DEFAULT_SYNC_INTERVAL = Duration.ofMillis(100);
+
+    private static final String SEGMENT_PREFIX = "wal-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final int SNAPSHOT_MAGIC = 0x55534E50;
+    private static final int SNAPSHOT_VERSION = 1;
+    private static final int SNAPSHOT_HEADER = 16;
+    private static final int BUFFER_SIZE = 256 * 1024;
+    private static final long MAP_WINDOW = 64L * 1024 * 1024;
+
+    private final Path dir;
+    private final SyncMode syncMode;
+    private final Duration syncInterval;
+    private final long segmentBytes;
+    private final ReentrantLock appendLock = new ReentrantLock();
+    private final ReentrantLock syncLock = new ReentrantLock();
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private final AtomicLong durablePosition = new AtomicLong();
+    private final Semaphore compaction = new Semaphore(1);
+    private final ScheduledExecutorService background = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "user-storage");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // Guarded by appendLock
+    private FileChannel segment;
+    private long segmentNumber;
+    private long segmentSize;
+    private long appendedPosition;
+    private boolean closed;
+
+    public LogUserStorage(Path dir, SyncMode syncMode) {
+        this(dir, syncMode, DEFAULT_SYNC_INTERVAL, DEFAULT_SEGMENT_BYTES);
+    }
+
+    public LogUserStorage(Path dir, SyncMode syncMode, Duration syncInterval, long segmentBytes) {
+        this.dir = dir;
+        this.syncMode = syncMode;
+        this.syncInterval = syncInterval;
+        this.segmentBytes = segmentBytes;
+    }
+
+    @Override
+    public void load(BiConsumer<String, User> put, Consumer<String> delete) throws IOException {
+        Files.createDirectories(dir);
+        UserRecords.Sink sink = new UserRecords.Sink() {
+            @Override
+            public void put(String id, String name, String email) {
+                put.accept(id, new User(id, name, email));
+            }
+
+            @Override
+            public void delete(String id) {
+                delete.accept(id);
+            }
+        };
+        long snapshotSegment = readSnapshot(dir.resolve(SNAPSHOT), sink);
+        long lastSegment = snapshotSegment;
+        List<Long> segments = listSegments();
+        for (long number : segments) {
+            Path path = segmentPath(number);
+            if (number <= snapshotSegment) {
+                // Already folded into the snapshot; left over from an interrupted compaction.
+                Files.deleteIfExists(path);
+                continue;
+            }
+            replaySegment(path, sink, number == segments.get(segments.size() - 1));
+            lastSegment = number;
+        }
+        appendLock.lock();
+        try {
+            openSegment(lastSegment + 1);
+        } finally {
+            appendLock.unlock();
+        }
+        if (syncMode == SyncMode.INTERVAL) {
+            long millis = Math.max(1, syncInterval.toMillis());
+            background.scheduleWithFixedDelay(this::syncQuietly, millis, millis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @Override
+    public long appendPut(User user) {
+        return append(UserRecords.encodePut(user));
+    }
+
+    @Override
+    public long appendDelete(String id) {
+        return append(UserRecords.encodeDelete(id));
+    }
+
+    @Override
+    public void await(long position) {
+        if (syncMode == SyncMode.PER_BATCH && durablePosition.get() < position) {
+            sync(position);
+        }
+    }
+
+    /**
+     * Close the current segment and fold everything written so far into a new
+     * snapshot, blocking until it is on disk.
+     */
+    @Override
+    public void snapshot() throws IOException {
+        long upTo;
+        appendLock.lock();
+        try {
+            ensureOpen();
+            upTo = segmentNumber;
+            rotate();
+        } finally {
+            appendLock.unlock();
+        }
+        compaction.acquireUninterruptibly();
+        try {
+            compact(upTo);
+        } finally {
+            compaction.release();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        background.shutdown();
+        try {
+            background.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        appendLock.lock();
+        try {
+            if (closed || segment == null) {
+                closed = true;
+                return;
+            }
+            drain();
+            segment.force(false);
+            durablePosition.accumulateAndGet(appendedPosition, Math::max);
+            segment.close();
+            closed = true;
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    private long append(byte[] record) {
+        appendLock.lock();
+        try {
+            ensureOpen();
+            if (record.length > buffer.remaining()) {
+                drain();
+            }
+            if (record.length > buffer.capacity()) {
+                writeFully(segment, ByteBuffer.wrap(record));
+            } else {
+                buffer.put(record);
+            }
+            segmentSize += record.length;
+            appendedPosition += record.length;
+            long position = appendedPosition;
+            if (syncMode == SyncMode.PER_WRITE) {
+                drain();
+                segment.force(false);
+                durablePosition.accumulateAndGet(position, Math::max);
+            }
+            if (segmentSize >= segmentBytes && compaction.tryAcquire()) {
+                long upTo = segmentNumber;
+                rotate();
+                background.execute(() -> {
+                    try {
+                        compact(upTo);
+                    } catch (IOException e) {
+                        System.err.println("User snapshot failed: " + e);
+                    } finally {
+                        compaction.release();
+                    }
+                });
+            }
+            return position;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    /**
+     * Group commit. Whoever holds the sync lock writes out the buffer and forces the
+     * channel on behalf of every record appended so far; threads queued behind it
+     * usually find their position already covered and return without an fsync.
+     */
+    private void sync(long position) {
+        syncLock.lock();
+        try {
+            if (durablePosition.get() >= position) {
+                return;
+            }
+            FileChannel channel;
+            long target;
+            appendLock.lock();
+            try {
+                ensureOpen();
+                drain();
+                channel = segment;
+                target = appendedPosition;
+            } finally {
+                appendLock.unlock();
+            }
+            try {
+                channel.force(false);
+            } catch (ClosedChannelException e) {
+                // Rotated or closed under us; both force the segment before closing it.
+                if (durablePosition.get() < target) {
+                    throw e;
+                }
+            }
+            durablePosition.accumulateAndGet(target, Math::max);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            syncLock.unlock();
+        }
+    }
+
+    private void syncQuietly() {
+        try {
+            sync(Long.MAX_VALUE);
+        } catch (RuntimeException e) {
+            System.err.println("User log sync failed: " + e);
+        }
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new ClosedChannelException();
+        }
+        if (segment == null) {
+            throw new IllegalStateException("load() must be called before writing");
+        }
+    }
+
+    private void drain() throws IOException {
+        buffer.flip();
+        writeFully(segment, buffer);
+        buffer.clear();
+    }
+
+    private void rotate() throws IOException {
+        drain();
+        segment.force(false);
+        durablePosition.accumulateAndGet(appendedPosition, Math::max);
+        segment.close();
+        openSegment(segmentNumber + 1);
+    }
+
+    private void openSegment(long number) throws IOException {
+        segment = FileChannel.open(segmentPath(number),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        segmentNumber = number;
+        segmentSize = segment.size();
+    }
+
+    /**
+     * Fold the current snapshot and every segment up to {@code upTo} into a new snapshot.
+     */
+    private void compact(long upTo) throws IOException {
+        Map<String, User> state = new HashMap<>();
+        UserRecords.Sink fold = new UserRecords.Sink() {
+            @Override
+            public void put(String id, String name, String email) {
+                state.put(id, new User(id, name, email));
+            }
+
+            @Override
+            public void delete(String id) {
+                state.remove(id);
+            }
+        };
+        Path snapshotPath = dir.resolve(SNAPSHOT);
+        long snapshotSegment = readSnapshot(snapshotPath, fold);
+        List<Path> folded = new ArrayList<>();
+        for (long number : listSegments()) {
+            if (number > snapshotSegment && number <= upTo) {
+                Path path = segmentPath(number);
+                replaySegment(path, fold, false);
+                folded.add(path);
+            }
+        }
+        Path tmp = dir.resolve(SNAPSHOT + ".tmp");
+        try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer header = ByteBuffer.allocate(SNAPSHOT_HEADER);
+            header.putInt(SNAPSHOT_MAGIC).putInt(SNAPSHOT_VERSION).putLong(upTo).flip();
+            writeFully(out, header);
+            ByteBuffer chunk = ByteBuffer.allocate(BUFFER_SIZE);
+            for (User user : state.values()) {
+                byte[] record = UserRecords.encodePut(user);
+                if (record.length > chunk.remaining()) {
+                    chunk.flip();
+                    writeFully(out, chunk);
+                    chunk.clear();
+                }
+                if (record.length > chunk.capacity()) {
+                    writeFully(out, ByteBuffer.wrap(record));
+                } else {
+                    chunk.put(record);
+                }
+            }
+            chunk.flip();
+            writeFully(out, chunk);
+            out.force(true);
+        }
+        Files.move(tmp, snapshotPath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        for (Path path : folded) {
+            Files.deleteIfExists(path);
+        }
+    }
+
+    /**
+     * @return the last segment number folded into the snapshot, or {@code 0} if there is none
+     */
+    private static long readSnapshot(Path path, UserRecords.Sink sink) throws IOException {
+        if (!Files.exists(path)) {
+            return 0;
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(SNAPSHOT_HEADER);
+            while (header.hasRemaining() && channel.read(header) >= 0) {
+                // fill header
+            }
+            header.flip();
+            if (header.remaining() < SNAPSHOT_HEADER
+                    || header.getInt() != SNAPSHOT_MAGIC
+                    || header.getInt() != SNAPSHOT_VERSION) {
+                throw new IOException("Not a user snapshot: " + path);
+            }
+            long lastSegment = header.getLong();
+            long end = replay(channel, SNAPSHOT_HEADER, sink);
+            if (end != channel.size()) {
+                throw new IOException("Corrupt user snapshot at byte " + end + ": " + path);
+            }
+            return lastSegment;
+        }
+    }
+
+    /**
+     * Replay a segment. Only the newest segment can end in a torn write, the record
+     * being appended when the process died; that one is truncated away. Anything
+     * else that fails to decode would drop the records after it, so startup fails.
+     */
+    private static void replaySegment(Path path, UserRecords.Sink sink, boolean newest) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long end = replay(channel, 0, sink);
+            if (end == channel.size()) {
+                return;
+            }
+            if (!newest || !isTornTail(channel, end)) {
+                throw new IOException("Corrupt user log record at byte " + end + " of " + channel.size() + ": " + path);
+            }
+            channel.truncate(end);
+            channel.force(true);
+        }
+    }
+
+    /**
+     * Whether the bad record at {@code position} is the last one in the file: its
+     * header is cut short, its declared length reaches the end of the file, or only
+     * zeros follow, as a file system may leave after a crash.
+     */
+    private static boolean isTornTail(FileChannel channel, long position) throws IOException {
+        long size = channel.size();
+        if (size - position < UserRecords.HEADER) {
+            return true;
+        }
+        ByteBuffer header = ByteBuffer.allocate(UserRecords.HEADER);
+        readFully(channel, position, header);
+        int payload = header.getInt(0);
+        if (payload > 0 && payload <= UserRecords.MAX_PAYLOAD && position + UserRecords.HEADER + payload >= size) {
+            return true;
+        }
+        ByteBuffer rest = ByteBuffer.allocate(BUFFER_SIZE);
+        for (long at = position; at < size; at += rest.limit()) {
+            rest.clear().limit((int) Math.min(rest.capacity(), size - at));
+            readFully(channel, at, rest);
+            for (int i = 0; i < rest.limit(); i++) {
+                if (rest.get(i) != 0) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private static void readFully(FileChannel channel, long position, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of file");
+            }
+        }
+    }
+
+    /**
+     * Decode records from memory-mapped windows of the file.
+     *
+     * @return position just past the last valid record
+     */
+    private static long replay(FileChannel channel, long start, UserRecords.Sink sink) throws IOException {
+        long size = channel.size();
+        long position = start;
+        while (position < size) {
+            long windowStart = position;
+            long window = Math.min(MAP_WINDOW, size - windowStart);
+            MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, windowStart, window);
+            int consumed;
+            while ((consumed = UserRecords.decode(map, sink)) > 0) {
+                position += consumed;
+            }
+            if (consumed < 0 || windowStart + window == size || position == windowStart) {
+                // Corrupt record, a partial record at the end of the file, or a record
+                // longer than a whole window (which the encoder never produces).
+                return position;
+            }
+            // The next record straddles the window boundary: remap starting at it.
+        }
+        return position;
+    }
+
+    private List<Long> listSegments() throws IOException {
+        List<Long> numbers = new ArrayList<>();
+        try (Stream<Path> files = Files.list(dir)) {
+            files.forEach(path -> {
+                String name = path.getFileName().toString();
+                if (name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX)) {
+                    try {
+                        numbers.add(Long.parseLong(name.substring(SEGMENT_PREFIX.length(),
+                                name.length() - SEGMENT_SUFFIX.length())));
+                    } catch (NumberFormatException ignored) {
+                        // Not one of ours.
+                    }
+                }
+            });
+        }
+        Collections.sort(numbers);
+        return numbers;
+    }
+
+    private Path segmentPath(long number) {
+        return dir.resolve(String.format("%s%016d%s", SEGMENT_PREFIX, number, SEGMENT_SUFFIX));
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer source) throws IOException {
+        while (source.hasRemaining()) {
+            channel.write(source);
+        }
+    }
+}
@@ -1,140 +1,531 @@
 package com.acme;
 
+import io.helidon.common.socket.SocketOptions;
+import io.helidon.http.HeaderName;
+import io.helidon.http.HeaderNames;
 import io.helidon.http.Status;
 import io.helidon.webserver.WebServer;
+import io.helidon.webserver.WebServerConfig;
 import io.helidon.webserver.http.HttpRouting;
 import io.helidon.webserver.http.ServerRequest;
 import io.helidon.webserver.http.ServerResponse;
+import io.helidon.webserver.http2.Http2Config;
 
-import java.util.concurrent.CountDownLatch;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
 
 public final class Main {
 
-    private static final UserService userService = new UserService();
+    static final int DEFAULT_PAGE_SIZE = 100;
+    static final int MAX_PAGE_SIZE = 1000;
+    static final int MAX_BODY_BYTES = 64 * 1024;
+    static final HeaderName NEXT_CURSOR = HeaderNames.create("X-Next-Cursor");
+    private static final String JSON = "application/json";
+    /**
+     * Smallest body worth compressing; below it the encoding overhead outweighs the savings.
+     */
+    static final int COMPRESSION_MIN_BYTES = Integer.getInteger("users.compression.min-bytes", 1024);
+    /**
+     * Unpaged listings of stores up to this size are built in memory and cached;
+     * larger ones are streamed.
+     */
+    static final int MAX_CACHED_LIST_USERS = 2000;
+
+    private static final String VALIDATION_ERROR = "Validation error";
+    private static final String PAYLOAD_REQUIRED = "User payload is required.";
+    private static final String NAME_REQUIRED = "name is required.";
+    private static final String EMAIL_REQUIRED = "email is required.";
+    private static final String EMAIL_NEEDS_AT = "email must contain '@'.";
+    private static final Map<String, byte[]> VALIDATION_ERRORS = Map.of(
+            PAYLOAD_REQUIRED, errorJson(VALIDATION_ERROR, PAYLOAD_REQUIRED),
+            NAME_REQUIRED, errorJson(VALIDATION_ERROR, NAME_REQUIRED),
+            EMAIL_REQUIRED, errorJson(VALIDATION_ERROR, EMAIL_REQUIRED),
+            EMAIL_NEEDS_AT, errorJson(VALIDATION_ERROR, EMAIL_NEEDS_AT));
+
+    private static final List<String> USER_ROUTES = List.of(
+            "/users", "/users:batch", "/users:batchDelete", "/users/changes", "/users/search",
+            "/users/export", "/users/import", "/users/{id}");
+    /**
+     * Every path registered in {@link #routing}, used to label request metrics.
+     * Tenant routes share one template per endpoint.
+     */
+    static final List<String> ROUTES = Stream.of(
+                    List.of("/hello", "/health", "/metrics", "/echo/{msg}"),
+                    USER_ROUTES,
+                    USER_ROUTES.stream().map(route -> UserTenants.ROUTE_PREFIX + route).toList())
+            .flatMap(List::stream)
+            .toList();
+
+    private static final TraceRecorder traces = createTraceRecorder();
+    private static final UserRoutes users = new UserRoutes(createUserService(), createCluster());
+    private static final UserTenants tenants = createTenants();
+    private static final Metrics metrics = new Metrics(ROUTES);
+    private static final AdmissionFilter admission = createAdmissionFilter();
+    private static final ServerLifecycle lifecycle = createLifecycle();
 
     public static void main(String[] args) {
         int port = Integer.parseInt(System.getProperty("server.port", "8080"));
 
-        WebServer server = WebServer.builder()
-                .port(port)
-                .routing(Main::routing)
-                .build();
+        WebServer server = serverConfig(port).build();
 
         server.start();
+        shutdownSteps(lifecycle, server, users.service(), tenants);
+        Runtime.getRuntime().addShutdownHook(new Thread(lifecycle::shutdown, "shutdown"));
 
         System.out.println("Helidon SE started: http://localhost:" + port);
         System.out.println("Try: curl http://localhost:" + port + "/hello");
         System.out.println("Try: curl http://localhost:" + port + "/health");
 
-        // Keep JVM alive (useful when running outside Gradle, too)
-        waitForever();
+        // Keep JVM alive (useful when running outside Gradle, too) until shutdown has finished
+        lifecycle.awaitStopped();
     }
 
-    public static void routing(HttpRouting.Builder rules) {
-        rules.get("/hello", (req, res) -> res.send("Hello from Helidon SE"));
-        rules.get("/health", (req, res) -> res.status(Status.OK_200).send("OK"));
-        rules.get("/echo/{msg}", (req, res) -> {
-            String msg = req.path().pathParameters().get("msg");
-            res.send("echo: " + msg);
-        });
+    /**
+     * Server on {@code port} with the application's routing. HTTP/1.1 connections are
+     * kept alive and serve pipelined requests in order; HTTP/2 is accepted as prior
+     * knowledge or as an {@code h2c} upgrade, multiplexing up to
+     * {@code server.http2.max-concurrent-streams} requests on one connection. The
+     * listener is tuned by {@code server.backlog}, {@code server.max-tcp-connections},
+     * {@code server.max-concurrent-requests} (across connections),
+     * {@code server.idle-timeout-ms} and {@code server.write-buffer}; each connection
+     * by {@code server.socket.receive-buffer}, {@code server.socket.send-buffer} and
+     * {@code server.socket.tcp-no-delay}. Unset buffer sizes keep the OS defaults.
+     * Helidon's shutdown hook is off, so only the {@link ServerLifecycle} stops the server.
+     */
+    static WebServerConfig.Builder serverConfig(int port) {
+        SocketOptions.Builder socket = SocketOptions.builder()
+                // Small responses on kept-alive connections would otherwise wait on delayed ACKs.
+                .tcpNoDelay(Boolean.parseBoolean(System.getProperty("server.socket.tcp-no-delay", "true")));
+        Integer receiveBuffer = Integer.getInteger("server.socket.receive-buffer");
+        if (receiveBuffer != null) {
+            socket.socketReceiveBufferSize(receiveBuffer);
+        }
+        Integer sendBuffer = Integer.getInteger("server.socket.send-buffer");
+        if (sendBuffer != null) {
+            socket.socketSendBufferSize(sendBuffer);
+        }
+        return WebServer.builder()
+                .port(port)
+                // ServerLifecycle stops the server once it has drained; Helidon's own hook would stop it at once.
+                .shutdownHook(false)
+                .backlog(Integer.getInteger("server.backlog", 1024))
+                .maxTcpConnections(Integer.getInteger("server.max-tcp-connections", -1))
+                .maxConcurrentRequests(Integer.getInteger("server.max-concurrent-requests", -1))
+                .idleConnectionTimeout(Duration.ofMillis(Long.getLong("server.idle-timeout-ms", 300_000)))
+                .writeBufferSize(Integer.getInteger("server.write-buffer", 4096))
+                .connectionOptions(socket.build())
+                .addProtocol(Http2Config.builder()
+                        .maxConcurrentStreams(Long.getLong("server.http2.max-concurrent-streams", 8192))
+                        .build())
+                .routing(Main::routing);
+    }
 
-        // User CRUD endpoints
-        rules.get("/users", (req, res) -> {
-            String name = req.query().first("name").orElse(null);
-            String email = req.query().first("email").orElse(null);
-            var users = (isBlank(name) && isBlank(email))
-                    ? userService.getAllUsers()
-                    : userService.findUsers(name, email);
-            res.send(users);
-        });
+    /**
+     * In-memory store with sample data unless {@code users.storage.dir} is set, in which
+     * case users are persisted there by a {@link LogUserStorage}. Durability is chosen with
+     * {@code users.storage.sync} ({@code write}, {@code batch} or {@code interval}) and
+     * {@code users.storage.sync-interval-ms}. {@code users.store.layout} ({@code hash} or
+     * {@code compact}) selects the in-memory {@link UserService.Layout}; a compact store
+     * starts without sample data.
+     */
+    static UserService createUserService() {
+        String dir = System.getProperty("users.storage.dir");
+        UserService.Layout layout = storeLayout();
+        if (isBlank(dir)) {
+            return layout == UserService.Layout.HASH
+                    ? new UserService()
+                    : new UserService(UserStorage.inMemory(), layout);
+        }
+        return new UserService(logStorage(Path.of(dir)), layout);
+    }
 
-        rules.get("/users/{id}", (req, res) -> {
-            String id = req.path().pathParameters().get("id");
-            userService.getUserById(id)
-                    .ifPresentOrElse(
-                            res::send,
-                            () -> sendError(res, Status.NOT_FOUND_404, "User not found", "No user with id: " + id));
-        });
+    private static UserService.Layout storeLayout() {
+        return UserService.Layout.parse(System.getProperty("users.store.layout", "hash"));
+    }
 
-        rules.post("/users", (req, res) -> {
-            User user = readUser(req, res);
-            if (user == null) {
-                return;
-            }
-            String validationError = validateUser(user);
-            if (validationError != null) {
-                sendError(res, Status.BAD_REQUEST_400, "Validation error", validationError);
-                return;
+    private static LogUserStorage logStorage(Path dir) {
+        LogUserStorage.SyncMode syncMode =
+                LogUserStorage.SyncMode.parse(System.getProperty("users.storage.sync", "batch"));
+        Duration syncInterval = Duration.ofMillis(
+                Long.getLong("users.storage.sync-interval-ms", LogUserStorage.DEFAULT_SYNC_INTERVAL.toMillis()));
+        return new LogUserStorage(dir, syncMode, syncInterval, LogUserStorage.DEFAULT_SEGMENT_BYTES);
+    }
+
+    /**
+     * Tenants named by {@code users.tenants}, comma-separated. Each starts empty, or
+     * from {@code tenants/<name>} under {@code users.storage.dir}, with the main
+     * store's layout and durability. Quotas and request budgets default to
+     * {@code users.tenant.max-users}, {@code users.tenant.max-bytes},
+     * {@code users.tenant.concurrency.max} and
+     * {@code users.tenant.concurrency.expensive-max}; each can be set per tenant by
+     * putting its name after {@code users.tenant.}, e.g.
+     * {@code users.tenant.search.max-users}.
+     *
+     * @return the tenants, or {@code null} when none are configured
+     */
+    static UserTenants createTenants() {
+        String names = System.getProperty("users.tenants");
+        if (isBlank(names)) {
+            return null;
+        }
+        String dir = System.getProperty("users.storage.dir");
+        List<UserTenants.Tenant> list = new ArrayList<>();
+        for (String name : names.split(",")) {
+            name = name.trim();
+            if (name.isEmpty()) {
+                continue;
             }
-            User created = userService.createUser(user);
-            res.status(Status.CREATED_201).send(created);
-        });
+            UserQuota quota = new UserQuota(
+                    tenantProperty(name, "max-users", 1_000_000).intValue(),
+                    tenantProperty(name, "max-bytes", 512L * 1024 * 1024));
+            UserStorage storage = isBlank(dir) ? UserStorage.inMemory() : logStorage(Path.of(dir, "tenants", name));
+            int maxConcurrency = tenantProperty(name, "concurrency.max", 64).intValue();
+            int expensiveMax = tenantProperty(name, "concurrency.expensive-max", 4).intValue();
+            list.add(new UserTenants.Tenant(name, new UserService(storage, storeLayout(), quota),
+                    new ConcurrencyLimiter(Math.min(16, maxConcurrency), Math.min(4, maxConcurrency),
+                            maxConcurrency, System::nanoTime),
+                    new ConcurrencyLimiter(expensiveMax, 1, expensiveMax, System::nanoTime)));
+        }
+        return new UserTenants(list);
+    }
+
+    private static Long tenantProperty(String tenant, String key, long defaultValue) {
+        return Long.getLong("users.tenant." + tenant + "." + key,
+                Long.getLong("users.tenant." + key, defaultValue));
+    }
+
+    /**
+     * Admission control sized by system properties: {@code users.ratelimit.rps} and
+     * {@code users.ratelimit.burst} per client, {@code users.ratelimit.expensive-cost}
+     * tokens per list or search, {@code users.concurrency.max} requests in flight and
+     * {@code users.concurrency.expensive-max} of them scanning the store; tenant
+     * requests take their slots from the tenant's own budget instead. Set
+     * {@code users.ratelimit.trust-forwarded-for} behind a proxy, and
+     * {@code users.admission.enabled=false} to turn it all off.
+     *
+     * @return the filter, or {@code null} when disabled
+     */
+    static AdmissionFilter createAdmissionFilter() {
+        if (!Boolean.parseBoolean(System.getProperty("users.admission.enabled", "true"))) {
+            return null;
+        }
+        int maxConcurrency = Integer.getInteger("users.concurrency.max", 512);
+        int expensiveMax = Integer.getInteger("users.concurrency.expensive-max", 16);
+        return new AdmissionFilter(
+                new TokenBucketLimiter(Double.parseDouble(System.getProperty("users.ratelimit.rps", "200")),
+                        Integer.getInteger("users.ratelimit.burst", 400), System::nanoTime),
+                new ConcurrencyLimiter(Math.min(64, maxConcurrency), Math.min(8, maxConcurrency), maxConcurrency,
+                        System::nanoTime),
+                new ConcurrencyLimiter(expensiveMax, 1, expensiveMax, System::nanoTime),
+                Integer.getInteger("users.ratelimit.expensive-cost", 10),
+                Boolean.getBoolean("users.ratelimit.trust-forwarded-for"), users.cluster(), tenants);
+    }
+
+    /**
+     * Cluster membership from {@code users.cluster.nodes}, the comma-separated base
+     * URLs of every node, and {@code users.cluster.self}, this node's URL among them.
+     * Every node must be given the same list. With {@code users.cluster.cache.ttl-ms}
+     * set, other nodes' users are cached for that long, up to
+     * {@code users.cluster.cache.size} of them, and missing ones for
+     * {@code users.cluster.cache.negative-ttl-ms}.
+     *
+     * @return the cluster, or {@code null} when no nodes are configured
+     */
+    static UserCluster createCluster() {
+        String nodes = System.getProperty("users.cluster.nodes");
+        if (isBlank(nodes)) {
+            return null;
+        }
+        List<String> urls = Stream.of(nodes.split(",")).map(String::trim).filter(url -> !url.isEmpty()).toList();
+        String self = System.getProperty("users.cluster.self");
+        if (isBlank(self)) {
+            throw new IllegalArgumentException("users.cluster.self is required with users.cluster.nodes");
+        }
+        UserCluster cluster = new UserCluster(self.trim(), urls);
+        long ttlMillis = Long.getLong("users.cluster.cache.ttl-ms", 0);
+        if (ttlMillis > 0) {
+            cluster.cacheRemoteUsers(Integer.getInteger("users.cluster.cache.size", 10_000),
+                    Duration.ofMillis(ttlMillis),
+                    Duration.ofMillis(Long.getLong("users.cluster.cache.negative-ttl-ms", ttlMillis)));
+        }
+        return cluster;
+    }
+
+    /**
+     * Sampled request tracing from {@code users.trace.sample-rate}, the fraction of
+     * requests to trace (default 0, off), keeping the last {@code users.trace.max-spans}
+     * spans. They are written to {@code users.trace.file} (default
+     * {@code users-trace.json}) at shutdown.
+     *
+     * @return the installed recorder, or {@code null} when sampling is off
+     */
+    static TraceRecorder createTraceRecorder() {
+        double sampleRate = Double.parseDouble(System.getProperty("users.trace.sample-rate", "0"));
+        if (sampleRate <= 0) {
+            return null;
+        }
+        TraceRecorder recorder = new TraceRecorder(sampleRate, Integer.getInteger("users.trace.max-spans", 100_000));
+        Tracing.install(recorder);
+        return recorder;
+    }
+
+    private static void exportTraces() {
+        Path file = Path.of(System.getProperty("users.trace.file", "users-trace.json"));
+        try {
+            int spans = traces.export(file);
+            System.out.println("Wrote " + spans + " trace spans to " + file.toAbsolutePath());
+        } catch (IOException e) {
+            System.err.println("Failed to write traces: " + e);
+        }
+    }
+
+    /**
+     * Drain on shutdown, keeping {@code /health} at 503 for
+     * {@code server.shutdown.readiness-delay-ms} (default 0) before refusing new requests,
+     * then waiting up to {@code server.shutdown.drain-timeout-ms} (default 20000) for
+     * those in flight.
+     */
+    static ServerLifecycle createLifecycle() {
+        return new ServerLifecycle(
+                Duration.ofMillis(Long.getLong("server.shutdown.readiness-delay-ms", 0)),
+                Duration.ofMillis(Long.getLong("server.shutdown.drain-timeout-ms", 20_000)));
+    }
+
+    /**
+     * Register the shutdown steps, in order: snapshot the stores unless
+     * {@code users.storage.snapshot-on-shutdown} is {@code false}, stop the server,
+     * close the stores, and export traces when they are recorded.
+     */
+    static void shutdownSteps(ServerLifecycle lifecycle, WebServer server, UserService service,
+                              UserTenants tenants) {
+        if (Boolean.parseBoolean(System.getProperty("users.storage.snapshot-on-shutdown", "true"))) {
+            lifecycle.onShutdown("snapshot user storage", () -> snapshotUserService(service, tenants));
+        }
+        lifecycle.onShutdown("stop the server", server::stop)
+                .onShutdown("close user storage", () -> closeUserService(service, tenants));
+        if (traces != null) {
+            lifecycle.onShutdown("export traces", Main::exportTraces);
+        }
+    }
 
-        rules.put("/users/{id}", (req, res) -> {
-            String id = req.path().pathParameters().get("id");
-            User user = readUser(req, res);
-            if (user == null) {
-                return;
+    /**
+     * Snapshot the stores so the next start loads a snapshot instead of replaying the log.
+     */
+    private static void snapshotUserService(UserService service, UserTenants tenants) {
+        try {
+            service.snapshot();
+        } catch (IOException e) {
+            System.err.println("Failed to snapshot user storage: " + e);
+        }
+        if (tenants != null) {
+            try {
+                tenants.snapshot();
+            } catch (IOException e) {
+                System.err.println("Failed to snapshot tenant storage: " + e);
             }
-            String validationError = validateUser(user);
-            if (validationError != null) {
-                sendError(res, Status.BAD_REQUEST_400, "Validation error", validationError);
-                return;
+        }
+    }
+
+    private static void closeUserService(UserService service, UserTenants tenants) {
+        try {
+            service.close();
+        } catch (IOException e) {
+            System.err.println("Failed to close user storage: " + e);
+        }
+        if (tenants != null) {
+            try {
+                tenants.close();
+            } catch (IOException e) {
+                System.err.println("Failed to close tenant storage: " + e);
             }
-            userService.updateUser(id, user)
-                    .ifPresentOrElse(
-                            res::send,
-                            () -> sendError(res, Status.NOT_FOUND_404, "User not found", "No user with id: " + id));
-        });
+        }
+    }
+
+    public static void routing(HttpRouting.Builder rules) {
+        routing(rules, users);
+    }
 
-        rules.delete("/users/{id}", (req, res) -> {
-            String id = req.path().pathParameters().get("id");
-            if (userService.deleteUser(id)) {
-                res.status(Status.NO_CONTENT_204).send();
+    /**
+     * Routing with the {@code /users} endpoints served by {@code users}, so that tests
+     * can run several nodes, each with its own store, in one JVM.
+     */
+    static void routing(HttpRouting.Builder rules, UserRoutes users) {
+        routing(rules, users, lifecycle);
+    }
+
+    /**
+     * Like {@link #routing(HttpRouting.Builder, UserRoutes)}, draining through
+     * {@code lifecycle}, so that tests can shut a server down without the JVM's.
+     */
+    static void routing(HttpRouting.Builder rules, UserRoutes users, ServerLifecycle lifecycle) {
+        rules.addFilter(metrics::filter);
+        rules.addFilter(lifecycle::filter);
+        rules.addFilter(Tracing::filter);
+        if (admission != null) {
+            rules.addFilter(admission::filter);
+        }
+
+        rules.get("/hello", (req, res) -> res.send("Hello from Helidon SE"));
+        rules.get("/health", (req, res) -> {
+            if (lifecycle.state() == ServerLifecycle.State.RUNNING) {
+                res.status(Status.OK_200).send("OK");
             } else {
-                sendError(res, Status.NOT_FOUND_404, "User not found", "No user with id: " + id);
+                res.status(Status.SERVICE_UNAVAILABLE_503).send("DRAINING");
             }
         });
+        rules.get("/metrics", (req, res) -> {
+            res.header(HeaderNames.CONTENT_TYPE, Metrics.CONTENT_TYPE);
+            res.send(metrics.scrape(new Metrics.Sources(users.service())
+                    .admission(admission)
+                    .remoteUsers(users.cluster() == null ? null : users.cluster().remoteUsers())
+                    .tenants(tenants)));
+        });
+        rules.get("/echo/{msg}", (req, res) -> {
+            String msg = req.path().pathParameters().get("msg");
+            res.send("echo: " + msg);
+        });
+
+        users.register(rules);
+        if (tenants != null) {
+            tenants.register(rules);
+        }
     }
 
-    private static User readUser(ServerRequest req, ServerResponse res) {
-        try {
-            return req.content().as(User.class);
-        } catch (RuntimeException ex) {
-            sendError(res, Status.BAD_REQUEST_400, "Invalid JSON", "Request body must be valid JSON.");
-            return null;
+    /**
+     * {@link #etagMatches} for {@code etag} or the tag of any of its encoded representations.
+     */
+    static boolean matchesAnyCoding(String header, String etag, boolean weak) {
+        for (ResponseEncoding.Coding coding : ResponseEncoding.Coding.values()) {
+            if (etagMatches(header, ResponseEncoding.etag(etag, coding), weak)) {
+                return true;
+            }
         }
+        return false;
     }
 
-    private static String validateUser(User user) {
+    /**
+     * Whether an {@code If-None-Match} / {@code If-Match} list names {@code etag}.
+     * {@code *} matches any current representation. With {@code weak} comparison, as
+     * {@code If-None-Match} uses, {@code W/} tags compare by their opaque part; with
+     * strong comparison, as {@code If-Match} requires, they never match.
+     */
+    static boolean etagMatches(String header, String etag, boolean weak) {
+        int start = 0;
+        while (start < header.length()) {
+            int end = header.indexOf(',', start);
+            if (end < 0) {
+                end = header.length();
+            }
+            String candidate = header.substring(start, end).trim();
+            if (candidate.startsWith("W/")) {
+                candidate = weak ? candidate.substring(2) : null;
+            }
+            if (candidate != null && (candidate.equals("*") || candidate.equals(etag))) {
+                return true;
+            }
+            start = end + 1;
+        }
+        return false;
+    }
+
+    /**
+     * The problem with {@code user} as a write, or {@code null} if it is valid. The
+     * result is always one of a few constants, so {@link #sendValidationError} can
+     * answer with bytes encoded once.
+     */
+    static String validateUser(User user) {
         if (user == null) {
-            return "User payload is required.";
+            return PAYLOAD_REQUIRED;
         }
         if (isBlank(user.getName())) {
-            return "name is required.";
+            return NAME_REQUIRED;
         }
         if (isBlank(user.getEmail())) {
-            return "email is required.";
+            return EMAIL_REQUIRED;
         }
-        if (!user.getEmail().contains("@")) {
-            return "email must contain '@'.";
+        if (user.getEmail().indexOf('@') < 0) {
+            return EMAIL_NEEDS_AT;
         }
         return null;
     }
 
-    private static boolean isBlank(String value) {
-        return value == null || value.trim().isEmpty();
+    /**
+     * Whether {@code value} is {@code null} or holds only whitespace and control
+     * characters, the ones {@link String#trim()} removes, without trimming a copy.
+     */
+    static boolean isBlank(String value) {
+        if (value == null) {
+            return true;
+        }
+        for (int i = 0, n = value.length(); i < n; i++) {
+            if (value.charAt(i) > ' ') {
+                return false;
+            }
+        }
+        return true;
     }
 
-    private static void sendError(ServerResponse res, Status status, String message, String details) {
-        res.status(status).send(new ErrorResponse(message, details));
+    static void sendError(ServerResponse res, Status status, String message, String details) {
+        sendError(res, status, errorJson(message, details));
     }
 
-    private static void waitForever() {
-        try {
-            new CountDownLatch(1).await();
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
+    /**
+     * Send an error payload from {@link #errorJson}. The array is sent as is and must
+     * not be modified, so one can be shared by every response with the same error.
+     */
+    static void sendError(ServerResponse res, Status status, byte[] json) {
+        res.status(status);
+        sendJson(res, json);
+    }
+
+    static byte[] errorJson(String message, String details) {
+        return JsonWriter.toBytes(new ErrorResponse(message, details));
+    }
+
+    /**
+     * 400 for a {@link #validateUser} result.
+     */
+    static void sendValidationError(ServerResponse res, String details) {
+        byte[] json = VALIDATION_ERRORS.get(details);
+        sendError(res, Status.BAD_REQUEST_400, json != null ? json : errorJson(VALIDATION_ERROR, details));
+    }
+
+    static void sendJson(ServerResponse res, byte[] json) {
+        res.header(HeaderNames.CONTENT_TYPE, JSON);
+        res.send(json);
+    }
+
+    /**
+     * Send JSON, compressed when it reaches {@link #COMPRESSION_MIN_BYTES} and the
+     * client accepts an encoding. {@code etag}, if not {@code null}, is adjusted to
+     * the encoding sent.
+     */
+    static void sendJson(ServerRequest req, ServerResponse res, byte[] json, String etag) {
+        ResponseEncoding.Coding coding = coding(req, json.length);
+        encodingHeaders(res, coding, etag);
+        res.header(HeaderNames.CONTENT_TYPE, JSON);
+        res.send(ResponseEncoding.encode(json, coding));
+    }
+
+    static ResponseEncoding.Coding coding(ServerRequest req, int length) {
+        if (length < COMPRESSION_MIN_BYTES) {
+            return ResponseEncoding.Coding.IDENTITY;
+        }
+        return ResponseEncoding.negotiate(req.headers().first(HeaderNames.ACCEPT_ENCODING).orElse(null));
+    }
+
+    static void encodingHeaders(ServerResponse res, ResponseEncoding.Coding coding, String etag) {
+        res.header(HeaderNames.VARY, "Accept-Encoding");
+        if (coding != ResponseEncoding.Coding.IDENTITY) {
+            res.header(HeaderNames.CONTENT_ENCODING, coding.token);
+            if (etag != null) {
+                res.header(HeaderNames.ETAG, ResponseEncoding.etag(etag, coding));
+            }
         }
     }
 
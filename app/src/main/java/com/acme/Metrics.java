@@ -0,0 +1,308 @@
+package com.acme;
+
+import io.helidon.http.Method;
+import io.helidon.webserver.http.FilterChain;
+import io.helidon.webserver.http.RoutingRequest;
+import io.helidon.webserver.http.RoutingResponse;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToLongFunction;
+
+/**
+ * Request metrics recorded by a routing filter and rendered in the Prometheus
+ * text format by {@code GET /metrics}.
+ * <p>
+ * Each request is attributed to one of the route templates given at construction
+ * (ids collapse into {@code /users/{id}}) and its method, and counted by response
+ * status, so the 400 and 404 responses produced by {@link Main#sendError} show up
+ * as their own series. Latency goes into a {@link BucketHistogram}. All counters
+ * are preallocated per route and method, and route matching walks the path in
+ * place, so recording a request allocates nothing after a status code is first
+ * seen.
+ */
+final class Metrics {
+    static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+    static final String OTHER_ROUTE = "other";
+
+    /** Request latency bounds, 0.5 ms to 10 s. */
+    private static final long[] LATENCY_BOUNDS_NANOS = {
+            500_000L, 1_000_000L, 2_500_000L, 5_000_000L, 10_000_000L, 25_000_000L, 50_000_000L,
+            100_000_000L, 250_000_000L, 500_000_000L, 1_000_000_000L, 2_500_000_000L,
+            5_000_000_000L, 10_000_000_000L};
+    /** Entries examined by one search, from an index hit to a full scan of a large store. */
+    static final long[] SCAN_BOUNDS = {0, 10, 100, 1_000, 10_000, 100_000, 1_000_000};
+
+    private static final Method[] METHODS = {Method.GET, Method.POST, Method.PUT, Method.DELETE};
+    private static final String[] METHOD_NAMES = {"GET", "POST", "PUT", "DELETE", "OTHER"};
+    private static final int MAX_STATUS = 600;
+
+    private final String[] templates;
+    private final String[][] segments;
+    private final RouteMetrics[][] routes;
+
+    /**
+     * @param templates route paths as registered, with {@code {name}} path parameters
+     */
+    Metrics(List<String> templates) {
+        int count = templates.size() + 1;
+        this.templates = new String[count];
+        this.segments = new String[count][];
+        this.routes = new RouteMetrics[count][METHOD_NAMES.length];
+        for (int i = 0; i < count; i++) {
+            String template = i < templates.size() ? templates.get(i) : OTHER_ROUTE;
+            this.templates[i] = template;
+            if (i < templates.size()) {
+                segments[i] = parseTemplate(template);
+            }
+            for (int m = 0; m < METHOD_NAMES.length; m++) {
+                routes[i][m] = new RouteMetrics();
+            }
+        }
+    }
+
+    /**
+     * Routing filter: times the rest of the chain and records it against the matched route.
+     */
+    void filter(FilterChain chain, RoutingRequest req, RoutingResponse res) {
+        long start = System.nanoTime();
+        int status = 500;
+        try {
+            chain.proceed();
+            status = res.status().code();
+        } finally {
+            record(req.prologue().method(), req.path().path(), status, System.nanoTime() - start);
+        }
+    }
+
+    void record(Method method, String path, int status, long nanos) {
+        RouteMetrics metrics = routes[routeIndex(path)][methodIndex(method)];
+        metrics.status(status).increment();
+        metrics.latency.record(nanos);
+    }
+
+    /**
+     * Render every route that has seen traffic, followed by the gauges of each of
+     * {@code sources} that is set.
+     */
+    String scrape(Sources sources) {
+        UserService userService = sources.userService;
+        AdmissionFilter admission = sources.admission;
+        ReadThroughCache<?, ?> remoteUsers = sources.remoteUsers;
+        UserTenants tenants = sources.tenants;
+        StringBuilder out = new StringBuilder(4096);
+        out.append("# HELP http_requests_total Requests by route, method and response status.\n");
+        out.append("# TYPE http_requests_total counter\n");
+        for (int r = 0; r < routes.length; r++) {
+            for (int m = 0; m < METHOD_NAMES.length; m++) {
+                RouteMetrics metrics = routes[r][m];
+                for (int status = 0; status < MAX_STATUS; status++) {
+                    LongAdder counter = metrics.statuses.get(status);
+                    if (counter != null) {
+                        out.append("http_requests_total{").append(labels(r, m))
+                                .append("status=\"").append(status).append("\"} ")
+                                .append(counter.sum()).append('\n');
+                    }
+                }
+            }
+        }
+        out.append("# HELP http_request_duration_seconds Request latency by route and method.\n");
+        out.append("# TYPE http_request_duration_seconds histogram\n");
+        for (int r = 0; r < routes.length; r++) {
+            for (int m = 0; m < METHOD_NAMES.length; m++) {
+                BucketHistogram latency = routes[r][m].latency;
+                if (latency.count() > 0) {
+                    latency.write(out, "http_request_duration_seconds", labels(r, m));
+                }
+            }
+        }
+        gauge(out, "users_total", "Users in the store.", userService.size());
+        gauge(out, "users_index_email_keys", "Distinct emails in the exact-match index.",
+                userService.indexEmailKeyCount());
+        gauge(out, "users_index_grams", "Trigrams in the search index.", userService.indexGramCount());
+        gauge(out, "users_index_saturated_grams",
+                "Trigrams too common to index; searches on them fall back to other grams or a scan.",
+                userService.indexSaturatedGramCount());
+        gauge(out, "users_search_tokens", "Distinct name and email words in the ranked search index.",
+                userService.searchTokenCount());
+        if (admission != null) {
+            gauge(out, "admission_clients", "Clients with a rate limit bucket.", admission.clients().size());
+            gauge(out, "admission_concurrency_limit", "Adaptive limit on requests in flight.",
+                    admission.global().limit());
+            gauge(out, "admission_in_flight", "Requests holding a concurrency slot.", admission.global().inFlight());
+            gauge(out, "admission_expensive_in_flight", "List and search requests holding a slot.",
+                    admission.expensive().inFlight());
+        }
+        if (remoteUsers != null) {
+            gauge(out, "cluster_cache_entries", "Other nodes' users, and missing ids, held in the cache.",
+                    remoteUsers.size());
+            counter(out, "cluster_cache_hits_total", "Reads of other nodes' users served from the cache.",
+                    remoteUsers.hits());
+            counter(out, "cluster_cache_misses_total", "Reads of other nodes' users not in the cache.",
+                    remoteUsers.misses());
+            counter(out, "cluster_cache_loads_total", "Users fetched from their owner; misses share a fetch.",
+                    remoteUsers.loads());
+            counter(out, "cluster_cache_load_failures_total", "Fetches from an owner that failed.",
+                    remoteUsers.loadFailures());
+            counter(out, "cluster_cache_evictions_total", "Entries evicted to stay within the size limit.",
+                    remoteUsers.evictions());
+        }
+        if (tenants != null) {
+            tenantGauge(out, "users_tenant_users", "Users in each tenant's store.", tenants,
+                    tenant -> tenant.service().quota().users());
+            tenantGauge(out, "users_tenant_max_users", "Most users each tenant may hold.", tenants,
+                    tenant -> tenant.service().quota().maxUsers());
+            tenantGauge(out, "users_tenant_bytes", "Estimated bytes held by each tenant's users.", tenants,
+                    tenant -> tenant.service().quota().bytes());
+            tenantGauge(out, "users_tenant_max_bytes", "Most estimated bytes each tenant may hold.", tenants,
+                    tenant -> tenant.service().quota().maxBytes());
+            tenantGauge(out, "admission_tenant_concurrency_limit", "Adaptive limit on each tenant's requests in flight.",
+                    tenants, tenant -> tenant.requests.limit());
+            tenantGauge(out, "admission_tenant_in_flight", "Each tenant's requests holding a concurrency slot.",
+                    tenants, tenant -> tenant.requests.inFlight());
+        }
+        gauge(out, "users_change_subscribers", "Clients following GET /users/changes.",
+                userService.changes().subscribers());
+        gauge(out, "users_change_sequence", "Sequence number of the last published user change.",
+                userService.changes().lastSequence());
+        out.append("# HELP users_find_scanned_entries Entries examined per name/email search.\n");
+        out.append("# TYPE users_find_scanned_entries histogram\n");
+        userService.findScanLength().write(out, "users_find_scanned_entries", "");
+        return out.toString();
+    }
+
+    private String labels(int route, int method) {
+        return "route=\"" + templates[route] + "\",method=\"" + METHOD_NAMES[method] + "\",";
+    }
+
+    private static void gauge(StringBuilder out, String name, String help, long value) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(" gauge\n");
+        out.append(name).append(' ').append(value).append('\n');
+    }
+
+    private static void tenantGauge(StringBuilder out, String name, String help, UserTenants tenants,
+                                    ToLongFunction<UserTenants.Tenant> value) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(" gauge\n");
+        for (UserTenants.Tenant tenant : tenants.all()) {
+            out.append(name).append("{tenant=\"").append(tenant.name).append("\"} ")
+                    .append(value.applyAsLong(tenant)).append('\n');
+        }
+    }
+
+    private static void counter(StringBuilder out, String name, String help, long value) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(" counter\n");
+        out.append(name).append(' ').append(value).append('\n');
+    }
+
+    private int routeIndex(String path) {
+        for (int i = 0; i < segments.length - 1; i++) {
+            if (matches(segments[i], path)) {
+                return i;
+            }
+        }
+        return segments.length - 1;
+    }
+
+    private static int methodIndex(Method method) {
+        for (int i = 0; i < METHODS.length; i++) {
+            if (METHODS[i].equals(method)) {
+                return i;
+            }
+        }
+        return METHODS.length;
+    }
+
+    /**
+     * Literal segments of {@code template}, with {@code null} for each path parameter.
+     */
+    private static String[] parseTemplate(String template) {
+        String[] parts = template.substring(1).split("/");
+        for (int i = 0; i < parts.length; i++) {
+            if (parts[i].startsWith("{") && parts[i].endsWith("}")) {
+                parts[i] = null;
+            }
+        }
+        return parts;
+    }
+
+    /**
+     * Whether {@code path} has exactly the template's segments; a parameter matches any
+     * non-empty segment. Compares in place rather than splitting the path.
+     */
+    static boolean matches(String[] template, String path) {
+        int pos = 0;
+        for (String segment : template) {
+            if (pos >= path.length() || path.charAt(pos) != '/') {
+                return false;
+            }
+            int start = pos + 1;
+            int end = path.indexOf('/', start);
+            if (end < 0) {
+                end = path.length();
+            }
+            if (segment == null) {
+                if (end == start) {
+                    return false;
+                }
+            } else if (end - start != segment.length() || !path.regionMatches(start, segment, 0, segment.length())) {
+                return false;
+            }
+            pos = end;
+        }
+        return pos == path.length();
+    }
+
+    /**
+     * What {@link #scrape} reports on besides requests: store gauges from the user
+     * service, and, for each optional source set to something other than
+     * {@code null}, its own gauges.
+     */
+    static final class Sources {
+        private final UserService userService;
+        private AdmissionFilter admission;
+        private ReadThroughCache<?, ?> remoteUsers;
+        private UserTenants tenants;
+
+        Sources(UserService userService) {
+            this.userService = userService;
+        }
+
+        /** Admission control limits and requests in flight. */
+        Sources admission(AdmissionFilter admission) {
+            this.admission = admission;
+            return this;
+        }
+
+        /** Hits, misses and loads of the cache of other nodes' users. */
+        Sources remoteUsers(ReadThroughCache<?, ?> remoteUsers) {
+            this.remoteUsers = remoteUsers;
+            return this;
+        }
+
+        /** Each tenant's usage, quota and request budget, labeled by tenant. */
+        Sources tenants(UserTenants tenants) {
+            this.tenants = tenants;
+            return this;
+        }
+    }
+
+    private static final class RouteMetrics {
+        final AtomicReferenceArray<LongAdder> statuses = new AtomicReferenceArray<>(MAX_STATUS);
+        final BucketHistogram latency = new BucketHistogram(LATENCY_BOUNDS_NANOS, TimeUnit.SECONDS.toNanos(1));
+
+        LongAdder status(int code) {
+            int slot = code >= 0 && code < MAX_STATUS ? code : 500;
+            LongAdder counter = statuses.get(slot);
+            if (counter == null) {
+                statuses.compareAndSet(slot, null, new LongAdder());
+                counter = statuses.get(slot);
+            }
+            return counter;
+        }
+    }
+}
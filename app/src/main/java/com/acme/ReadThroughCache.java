@@ -0,0 +1,287 @@
+package com.acme;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+
+/**
+ * Bounded read-through cache in front of a slow lookup, such as a user on another
+ * cluster node.
+ * <p>
+ * Keys are spread over {@link #SEGMENTS} segments, each a segmented LRU behind its
+ * own lock: new entries go to a probation list, and entries hit again move to a
+ * protected list holding up to {@link #PROTECTED_SHARE} of the segment. The
+ * least recently used probation entry is evicted first, so a burst of one-off
+ * lookups cannot flush the keys that are read repeatedly. Entries expire after a
+ * TTL; absent values are cached too, for their own TTL.
+ * <p>
+ * Concurrent misses for one key share a single load. A key invalidated while it is
+ * loading is not cached from that load, so a write through {@link #invalidate}
+ * is never undone by an older read.
+ *
+ * @param <K> key type
+ * @param <V> value type; a {@code null} value means absent
+ */
+final class ReadThroughCache<K, V> {
+    static final int SEGMENTS = 16;
+    static final double PROTECTED_SHARE = 0.8;
+
+    /**
+     * The slow lookup behind the cache.
+     */
+    @FunctionalInterface
+    interface Loader<K, V> {
+        /**
+         * @return the value, or {@code null} if there is none
+         */
+        V load(K key) throws IOException;
+    }
+
+    private final Loader<K, V> loader;
+    private final long ttlNanos;
+    private final long negativeTtlNanos;
+    private final LongSupplier clock;
+    private final Segment<K, V>[] segments;
+    private final ConcurrentHashMap<K, CompletableFuture<V>> loading = new ConcurrentHashMap<>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder loads = new LongAdder();
+    private final LongAdder loadFailures = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * @param maxEntries       upper bound on cached keys, present and absent
+     * @param ttlNanos         how long a loaded value is served
+     * @param negativeTtlNanos how long an absent value is served; {@code 0} to not cache absence
+     * @param clock            nanosecond time source
+     */
+    @SuppressWarnings("unchecked")
+    ReadThroughCache(Loader<K, V> loader, int maxEntries, long ttlNanos, long negativeTtlNanos,
+                     LongSupplier clock) {
+        this.loader = loader;
+        this.ttlNanos = ttlNanos;
+        this.negativeTtlNanos = negativeTtlNanos;
+        this.clock = clock;
+        this.segments = (Segment<K, V>[]) new Segment<?, ?>[SEGMENTS];
+        int perSegment = Math.max(1, (maxEntries + SEGMENTS - 1) / SEGMENTS);
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment<>(perSegment);
+        }
+    }
+
+    /**
+     * The cached value for {@code key}, loading it on a miss.
+     *
+     * @return the value, or {@code null} if the loader found none
+     * @throws IOException if the load failed; failures are not cached
+     */
+    V get(K key) throws IOException {
+        Segment<K, V> segment = segment(key);
+        long now = clock.getAsLong();
+        segment.lock.lock();
+        try {
+            Entry<V> entry = segment.get(key, now);
+            if (entry != null) {
+                hits.increment();
+                return entry.value;
+            }
+        } finally {
+            segment.lock.unlock();
+        }
+        misses.increment();
+        CompletableFuture<V> load = new CompletableFuture<>();
+        CompletableFuture<V> running = loading.putIfAbsent(key, load);
+        if (running != null) {
+            return await(running);
+        }
+        V value;
+        try {
+            loads.increment();
+            value = loader.load(key);
+        } catch (IOException | RuntimeException e) {
+            loadFailures.increment();
+            loading.remove(key, load);
+            load.completeExceptionally(e);
+            throw e;
+        }
+        long ttl = value == null ? negativeTtlNanos : ttlNanos;
+        segment.lock.lock();
+        try {
+            // Not there any more if the key was invalidated during the load.
+            if (loading.remove(key, load) && ttl > 0) {
+                evictions.add(segment.put(key, new Entry<>(value, clock.getAsLong() + ttl)));
+            }
+        } finally {
+            segment.lock.unlock();
+        }
+        load.complete(value);
+        return value;
+    }
+
+    /**
+     * Drop {@code key}, and keep any load already running for it from being cached.
+     */
+    void invalidate(K key) {
+        Segment<K, V> segment = segment(key);
+        segment.lock.lock();
+        try {
+            loading.remove(key);
+            segment.remove(key);
+        } finally {
+            segment.lock.unlock();
+        }
+    }
+
+    int size() {
+        int size = 0;
+        for (Segment<K, V> segment : segments) {
+            segment.lock.lock();
+            try {
+                size += segment.size();
+            } finally {
+                segment.lock.unlock();
+            }
+        }
+        return size;
+    }
+
+    long hits() {
+        return hits.sum();
+    }
+
+    long misses() {
+        return misses.sum();
+    }
+
+    long loads() {
+        return loads.sum();
+    }
+
+    long loadFailures() {
+        return loadFailures.sum();
+    }
+
+    long evictions() {
+        return evictions.sum();
+    }
+
+    private Segment<K, V> segment(K key) {
+        int h = key.hashCode();
+        return segments[(h ^ (h >>> 16)) & (SEGMENTS - 1)];
+    }
+
+    private static <V> V await(CompletableFuture<V> load) throws IOException {
+        try {
+            return load.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted waiting for a load", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException io) {
+                throw io;
+            }
+            if (e.getCause() instanceof RuntimeException runtime) {
+                throw runtime;
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+    private static final class Entry<V> {
+        final V value;
+        final long expiresAt;
+
+        Entry(V value, long expiresAt) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    /**
+     * One lock's worth of keys. Both lists are in least recently used first order.
+     */
+    private static final class Segment<K, V> {
+        final ReentrantLock lock = new ReentrantLock();
+        final LinkedHashMap<K, Entry<V>> probation = new LinkedHashMap<>();
+        final LinkedHashMap<K, Entry<V>> protectedEntries = new LinkedHashMap<>();
+        final int capacity;
+        final int protectedCapacity;
+
+        Segment(int capacity) {
+            this.capacity = capacity;
+            this.protectedCapacity = (int) (capacity * PROTECTED_SHARE);
+        }
+
+        Entry<V> get(K key, long now) {
+            Entry<V> entry = protectedEntries.get(key);
+            if (entry != null) {
+                if (expired(entry, now)) {
+                    protectedEntries.remove(key);
+                    return null;
+                }
+                // Move to the most recently used end.
+                protectedEntries.remove(key);
+                protectedEntries.put(key, entry);
+                return entry;
+            }
+            entry = probation.remove(key);
+            if (entry == null || expired(entry, now)) {
+                return null;
+            }
+            if (protectedCapacity == 0) {
+                probation.put(key, entry);
+                return entry;
+            }
+            protectedEntries.put(key, entry);
+            if (protectedEntries.size() > protectedCapacity) {
+                Iterator<Map.Entry<K, Entry<V>>> oldest = protectedEntries.entrySet().iterator();
+                Map.Entry<K, Entry<V>> demoted = oldest.next();
+                oldest.remove();
+                probation.put(demoted.getKey(), demoted.getValue());
+            }
+            return entry;
+        }
+
+        /**
+         * @return how many entries were evicted to make room
+         */
+        int put(K key, Entry<V> entry) {
+            if (protectedEntries.containsKey(key)) {
+                protectedEntries.put(key, entry);
+                return 0;
+            }
+            probation.remove(key);
+            probation.put(key, entry);
+            int evicted = 0;
+            while (size() > capacity) {
+                LinkedHashMap<K, Entry<V>> victims = probation.isEmpty() ? protectedEntries : probation;
+                Iterator<K> oldest = victims.keySet().iterator();
+                oldest.next();
+                oldest.remove();
+                evicted++;
+            }
+            return evicted;
+        }
+
+        void remove(K key) {
+            if (probation.remove(key) == null) {
+                protectedEntries.remove(key);
+            }
+        }
+
+        int size() {
+            return probation.size() + protectedEntries.size();
+        }
+
+        private static boolean expired(Entry<?> entry, long now) {
+            return now - entry.expiresAt >= 0;
+        }
+    }
+}
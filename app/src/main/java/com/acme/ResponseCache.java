@@ -0,0 +1,110 @@
+package com.acme;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Serialized listings by request, valid for one {@link UserService#version() store
+ * version}.
+ * <p>
+ * Each entry keeps its JSON and, once a client has asked for them, its encoded
+ * forms, so a hot listing is serialized and compressed once per store change
+ * instead of once per request. Any write makes every entry stale; stale entries
+ * are dropped first when the cache is full, and bodies over {@code maxEntryBytes}
+ * are never cached.
+ */
+final class ResponseCache {
+    private final int maxEntries;
+    private final int maxEntryBytes;
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+
+    ResponseCache(int maxEntries, int maxEntryBytes) {
+        this.maxEntries = maxEntries;
+        this.maxEntryBytes = maxEntryBytes;
+    }
+
+    /**
+     * Key for a response of {@code kind} built from {@code parts}. Each part is
+     * prefixed by its length, or is {@code -1} when {@code null}, so different parts
+     * never share a key, whatever characters they contain.
+     */
+    static String key(String kind, String... parts) {
+        StringBuilder key = new StringBuilder(kind);
+        for (String part : parts) {
+            key.append('\n');
+            if (part == null) {
+                key.append(-1);
+            } else {
+                key.append(part.length()).append(':').append(part);
+            }
+        }
+        return key.toString();
+    }
+
+    /**
+     * Entry for {@code key} built at {@code version}, or {@code null}.
+     */
+    Entry get(String key, long version) {
+        Entry entry = entries.get(key);
+        return entry != null && entry.version == version ? entry : null;
+    }
+
+    /**
+     * Cache {@code entry} under {@code key} if it is small enough.
+     *
+     * @return {@code entry}
+     */
+    Entry put(String key, Entry entry) {
+        if (entry.body.length > maxEntryBytes) {
+            return entry;
+        }
+        if (entries.size() >= maxEntries && !entries.containsKey(key)) {
+            entries.values().removeIf(cached -> cached.version != entry.version);
+            if (entries.size() >= maxEntries) {
+                // All current: no way to tell which are hot, so start over.
+                entries.clear();
+            }
+        }
+        entries.merge(key, entry, (old, fresh) -> fresh.version >= old.version ? fresh : old);
+        return entry;
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    static final class Entry {
+        final long version;
+        final String contentType;
+        final byte[] body;
+        /**
+         * Value for the next-cursor header, or {@code null}.
+         */
+        final String nextCursor;
+        private final AtomicReferenceArray<byte[]> encoded =
+                new AtomicReferenceArray<>(ResponseEncoding.Coding.values().length);
+
+        Entry(long version, String contentType, byte[] body, String nextCursor) {
+            this.version = version;
+            this.contentType = contentType;
+            this.body = body;
+            this.nextCursor = nextCursor;
+        }
+
+        /**
+         * {@link #body} in {@code coding}, encoded on first use. Concurrent first
+         * requests may both encode; they produce identical bytes.
+         */
+        byte[] body(ResponseEncoding.Coding coding) {
+            if (coding == ResponseEncoding.Coding.IDENTITY) {
+                return body;
+            }
+            byte[] bytes = encoded.get(coding.ordinal());
+            if (bytes == null) {
+                bytes = ResponseEncoding.encode(body, coding);
+                encoded.set(coding.ordinal(), bytes);
+            }
+            return bytes;
+        }
+    }
+}
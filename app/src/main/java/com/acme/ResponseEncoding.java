@@ -0,0 +1,126 @@
+package com.acme;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.Locale;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Content codings for response bodies, negotiated from {@code Accept-Encoding}.
+ * <p>
+ * {@code gzip} is preferred over {@code deflate} (the zlib format, as HTTP defines
+ * it) when a client accepts both. An encoded body is a different representation,
+ * so its strong entity tag gets the coding as a suffix.
+ */
+final class ResponseEncoding {
+
+    enum Coding {
+        IDENTITY(null), GZIP("gzip"), DEFLATE("deflate");
+
+        /**
+         * {@code Content-Encoding} value, or {@code null} for identity.
+         */
+        final String token;
+
+        Coding(String token) {
+            this.token = token;
+        }
+    }
+
+    /**
+     * Best coding {@code acceptEncoding} allows. Codings listed with {@code q=0} are
+     * refused, and {@code *} stands for any coding not listed.
+     */
+    static Coding negotiate(String acceptEncoding) {
+        if (acceptEncoding == null || acceptEncoding.isBlank()) {
+            return Coding.IDENTITY;
+        }
+        double gzip = -1;
+        double deflate = -1;
+        double any = -1;
+        for (String part : acceptEncoding.split(",")) {
+            int semicolon = part.indexOf(';');
+            String coding = (semicolon < 0 ? part : part.substring(0, semicolon)).trim().toLowerCase(Locale.ROOT);
+            double quality = semicolon < 0 ? 1 : quality(part.substring(semicolon + 1));
+            switch (coding) {
+                case "gzip", "x-gzip" -> gzip = quality;
+                case "deflate" -> deflate = quality;
+                case "*" -> any = quality;
+                default -> {
+                    // Codings this server cannot produce.
+                }
+            }
+        }
+        gzip = gzip < 0 ? any : gzip;
+        deflate = deflate < 0 ? any : deflate;
+        if (gzip > 0 && gzip >= deflate) {
+            return Coding.GZIP;
+        }
+        return deflate > 0 ? Coding.DEFLATE : Coding.IDENTITY;
+    }
+
+    private static double quality(String parameters) {
+        for (String parameter : parameters.split(";")) {
+            String trimmed = parameter.trim();
+            if (trimmed.startsWith("q=")) {
+                try {
+                    return Double.parseDouble(trimmed.substring(2).trim());
+                } catch (NumberFormatException e) {
+                    return 0;
+                }
+            }
+        }
+        return 1;
+    }
+
+    static byte[] encode(byte[] data, Coding coding) {
+        if (coding == Coding.IDENTITY) {
+            return data;
+        }
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(Math.max(64, data.length / 4));
+        try (OutputStream out = wrap(buffer, coding)) {
+            out.write(data);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return buffer.toByteArray();
+    }
+
+    /**
+     * Stream that encodes into {@code out}; closing it finishes the encoding and closes {@code out}.
+     */
+    static OutputStream wrap(OutputStream out, Coding coding) throws IOException {
+        return switch (coding) {
+            case IDENTITY -> out;
+            case GZIP -> new GZIPOutputStream(out, 8192);
+            case DEFLATE -> new DeflaterOutputStream(out, new Deflater(), 8192, false) {
+                @Override
+                public void close() throws IOException {
+                    try {
+                        super.close();
+                    } finally {
+                        // A Deflater passed in is not ended by the stream itself.
+                        def.end();
+                    }
+                }
+            };
+        };
+    }
+
+    /**
+     * Entity tag of {@code etag}'s representation in {@code coding}.
+     */
+    static String etag(String etag, Coding coding) {
+        if (coding == Coding.IDENTITY || !etag.endsWith("\"")) {
+            return etag;
+        }
+        return etag.substring(0, etag.length() - 1) + "-" + coding.token + "\"";
+    }
+
+    private ResponseEncoding() {
+    }
+}
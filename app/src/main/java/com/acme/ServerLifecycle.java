@@ -0,0 +1,234 @@
+package com.acme;
+
+import io.helidon.http.HeaderNames;
+import io.helidon.http.Status;
+import io.helidon.webserver.http.FilterChain;
+import io.helidon.webserver.http.RoutingRequest;
+import io.helidon.webserver.http.RoutingResponse;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Orderly shutdown for a rolling deploy: stop taking work, let the requests in
+ * flight finish, then run the shutdown steps in order.
+ * <p>
+ * {@link #shutdown()}, run from the JVM shutdown hook on SIGTERM, first reports
+ * {@link State#DRAINING} on {@code /health} while still serving everything, for
+ * {@code readinessDelay}, so load balancers polling it stop sending traffic. It then
+ * refuses new requests with 503, waits up to {@code drainTimeout} for those already
+ * running, and runs the steps, e.g. flushing storage and stopping the server. A step
+ * that fails is reported and the rest still run. The whole time, HTTP/1.1 responses
+ * carry {@code Connection: close}, so kept-alive clients reconnect, and reach
+ * another instance, rather than reuse a connection that is about to go away.
+ * <p>
+ * The change feed is not counted: its streams stay open until the server stops,
+ * and subscribers resume from their last sequence elsewhere.
+ */
+final class ServerLifecycle {
+    private static final byte[] SHUTTING_DOWN = Main.errorJson("Service unavailable",
+            "Server is shutting down; retry on another instance.");
+
+    /**
+     * Where the server is in its life.
+     */
+    enum State {
+        /** Serving; {@code /health} reports OK. */
+        RUNNING,
+        /** Shutting down; {@code /health} reports 503 and, after the readiness delay, new requests are refused. */
+        DRAINING,
+        /** Every shutdown step has run. */
+        STOPPED
+    }
+
+    /**
+     * One thing to do at shutdown, after the requests have drained.
+     */
+    @FunctionalInterface
+    interface Step {
+        void run() throws Exception;
+    }
+
+    private final Duration readinessDelay;
+    private final Duration drainTimeout;
+    private final List<String> stepNames = new ArrayList<>();
+    private final List<Step> steps = new ArrayList<>();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final Object idle = new Object();
+    private final CountDownLatch stopped = new CountDownLatch(1);
+    private volatile State state = State.RUNNING;
+    private volatile boolean refusing;
+
+    /**
+     * @param readinessDelay how long to keep serving after {@code /health} turns to draining
+     * @param drainTimeout   longest wait for requests in flight before running the steps anyway
+     */
+    ServerLifecycle(Duration readinessDelay, Duration drainTimeout) {
+        this.readinessDelay = readinessDelay;
+        this.drainTimeout = drainTimeout;
+    }
+
+    /**
+     * Run {@code step} at shutdown, after those added before it.
+     */
+    synchronized ServerLifecycle onShutdown(String name, Step step) {
+        stepNames.add(name);
+        steps.add(step);
+        return this;
+    }
+
+    /**
+     * Names of the shutdown steps, in the order they run.
+     */
+    synchronized List<String> steps() {
+        return List.copyOf(stepNames);
+    }
+
+    State state() {
+        return state;
+    }
+
+    int inFlight() {
+        return inFlight.get();
+    }
+
+    /**
+     * Routing filter: counts requests in flight and, once draining, asks clients to
+     * close their connections and refuses new requests other than {@code /health}.
+     */
+    void filter(FilterChain chain, RoutingRequest req, RoutingResponse res) {
+        String path = req.path().path();
+        if (state != State.RUNNING && req.prologue().protocolVersion().startsWith("1.")) {
+            res.header(HeaderNames.CONNECTION, "close");
+        }
+        if (path.equals("/health") || path.endsWith("/users/changes")) {
+            chain.proceed();
+            return;
+        }
+        if (!enter()) {
+            res.header(HeaderNames.RETRY_AFTER, "1");
+            Main.sendError(res, Status.SERVICE_UNAVAILABLE_503, SHUTTING_DOWN);
+            return;
+        }
+        try {
+            chain.proceed();
+        } finally {
+            exit();
+        }
+    }
+
+    /**
+     * Count a request in, unless new requests are being refused.
+     *
+     * @return whether the request may run; if so, it must call {@link #exit()}
+     */
+    boolean enter() {
+        // Counted before the check, so shutdown either sees this request or it sees the refusal.
+        inFlight.incrementAndGet();
+        if (refusing) {
+            exit();
+            return false;
+        }
+        return true;
+    }
+
+    void exit() {
+        if (inFlight.decrementAndGet() == 0 && refusing) {
+            synchronized (idle) {
+                idle.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Drain and run the shutdown steps. Only the first call does anything; later
+     * ones wait for it to finish.
+     */
+    void shutdown() {
+        boolean first;
+        synchronized (this) {
+            first = state == State.RUNNING;
+            if (first) {
+                state = State.DRAINING;
+            }
+        }
+        if (!first) {
+            awaitStopped();
+            return;
+        }
+        long start = System.nanoTime();
+        sleep(readinessDelay);
+        refusing = true;
+        int abandoned = awaitIdle(drainTimeout);
+        if (abandoned > 0) {
+            System.err.println("Shutdown: " + abandoned + " requests still running after " + drainTimeout.toMillis()
+                    + " ms; stopping anyway");
+        }
+        List<String> names;
+        List<Step> toRun;
+        synchronized (this) {
+            names = List.copyOf(stepNames);
+            toRun = List.copyOf(steps);
+        }
+        for (int i = 0; i < toRun.size(); i++) {
+            try {
+                toRun.get(i).run();
+            } catch (Exception e) {
+                System.err.println("Shutdown: failed to " + names.get(i) + ": " + e);
+            }
+        }
+        state = State.STOPPED;
+        stopped.countDown();
+        System.out.println("Shutdown complete in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms");
+    }
+
+    /**
+     * Block until {@link #shutdown()} has run every step.
+     */
+    void awaitStopped() {
+        try {
+            stopped.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Wait until no counted request is running or {@code timeout} passes.
+     *
+     * @return requests still running
+     */
+    private int awaitIdle(Duration timeout) {
+        long deadline = System.nanoTime() + timeout.toNanos();
+        synchronized (idle) {
+            while (inFlight.get() > 0) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    break;
+                }
+                try {
+                    TimeUnit.NANOSECONDS.timedWait(idle, remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+        }
+        return inFlight.get();
+    }
+
+    private static void sleep(Duration duration) {
+        if (duration.isZero() || duration.isNegative()) {
+            return;
+        }
+        try {
+            Thread.sleep(duration);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package com.acme;
+
+import io.helidon.webserver.WebServer;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+
+/**
+ * Training run for the class-data sharing archive.
+ * <p>
+ * Starts the server on a free port, exercises every route a typical request
+ * touches (plain text, user CRUD with ETags, listings in each format and
+ * encoding, search, batch, JSON parsing and encoding, error bodies) over
+ * HTTP/1.1 and HTTP/2 in turn, and exits.
+ * Run under {@code -XX:ArchiveClassesAtExit}, every class loaded on the way is
+ * written to the archive, so a server started with {@code -XX:SharedArchiveFile}
+ * maps them instead of loading and verifying them again. Used by
+ * {@code ./gradlew :app:cdsArchive} and the container build.
+ */
+public final class StartupTraining {
+    private static final int ROUNDS = 50;
+
+    public static void main(String[] args) throws Exception {
+        // Read when Main initializes; keeps admission control in the archive without
+        // rate limiting the training client.
+        if (System.getProperty("users.ratelimit.rps") == null) {
+            System.setProperty("users.ratelimit.rps", "1000000");
+            System.setProperty("users.ratelimit.burst", "1000000");
+        }
+        WebServer server = Main.serverConfig(0).build().start();
+        try {
+            HttpClient http1 = HttpClient.newBuilder()
+                    .version(HttpClient.Version.HTTP_1_1)
+                    .connectTimeout(Duration.ofSeconds(5))
+                    .build();
+            HttpClient http2 = HttpClient.newBuilder()
+                    .version(HttpClient.Version.HTTP_2)
+                    .connectTimeout(Duration.ofSeconds(5))
+                    .build();
+            String base = "http://localhost:" + server.port();
+            for (int i = 0; i < ROUNDS; i++) {
+                round(i % 2 == 0 ? http1 : http2, base, i);
+            }
+            System.out.println("Training finished: " + ROUNDS + " rounds against " + base);
+        } finally {
+            server.stop();
+        }
+    }
+
+    private static void round(HttpClient client, String base, int i) throws IOException, InterruptedException {
+        expect(client, "GET", base + "/hello", null, null, 200);
+        expect(client, "GET", base + "/health", null, null, 200);
+        expect(client, "GET", base + "/echo/training", null, null, 200);
+
+        HttpResponse<String> created = expect(client, "POST", base + "/users",
+                "{\"name\":\"Training " + i + "\",\"email\":\"training" + i + "@example.com\"}", null, 201);
+        String id = JsonReader.readUser(created.body().getBytes(StandardCharsets.UTF_8)).getId();
+        String etag = created.headers().firstValue("ETag").orElse("*");
+        expect(client, "GET", base + "/users/" + id, null, null, 200);
+        expect(client, "GET", base + "/users/" + id, null, new String[]{"If-None-Match", etag}, 304);
+        expect(client, "PUT", base + "/users/" + id,
+                "{\"name\":\"Trained " + i + "\",\"email\":\"trained" + i + "@example.com\"}",
+                new String[]{"If-Match", etag}, 200);
+
+        expect(client, "GET", base + "/users", null, null, 200);
+        expect(client, "GET", base + "/users", null, new String[]{"Accept", "application/x-ndjson"}, 200);
+        expect(client, "GET", base + "/users", null, new String[]{"Accept-Encoding", "gzip"}, 200);
+        expect(client, "GET", base + "/users?limit=10", null, null, 200);
+        expect(client, "GET", base + "/users?name=train", null, null, 200);
+        expect(client, "GET", base + "/users?email=example.com", null, new String[]{"Accept-Encoding", "deflate"},
+                200);
+
+        expect(client, "POST", base + "/users:batch",
+                "[{\"name\":\"Batch " + i + "\",\"email\":\"batch" + i + "@example.com\"},{\"name\":\"\"}]",
+                null, 200);
+        expect(client, "POST", base + "/users", "{not json", null, 400);
+        expect(client, "GET", base + "/users/missing-" + i, null, null, 404);
+        expect(client, "DELETE", base + "/users/" + id, null, null, 204);
+        expect(client, "GET", base + "/metrics", null, null, 200);
+    }
+
+    private static HttpResponse<String> expect(HttpClient client, String method, String url, String body,
+                                               String[] header, int status)
+            throws IOException, InterruptedException {
+        HttpRequest.Builder request = HttpRequest.newBuilder(URI.create(url))
+                .header("Content-Type", "application/json")
+                .method(method, body == null
+                        ? HttpRequest.BodyPublishers.noBody()
+                        : HttpRequest.BodyPublishers.ofString(body));
+        if (header != null) {
+            request.header(header[0], header[1]);
+        }
+        HttpResponse<String> response = client.send(request.build(), HttpResponse.BodyHandlers.ofString());
+        if (response.statusCode() != status) {
+            throw new IllegalStateException(method + " " + url + " answered " + response.statusCode()
+                    + ", expected " + status);
+        }
+        return response;
+    }
+
+    private StartupTraining() {
+    }
+}
@@ -0,0 +1,107 @@
+package com.acme;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Per-client token buckets, one {@link AtomicLong} each.
+ * <p>
+ * A bucket is kept in its "theoretical arrival time" form (the generic cell rate
+ * algorithm): the time at which it would be full again. Taking {@code cost}
+ * tokens moves that time forward by {@code cost} emission intervals, and is
+ * allowed while it stays within {@code burst} intervals of now. That is one
+ * compare-and-set per request, with no lock and no refill thread. Buckets live in
+ * {@link #SHARDS} maps by key hash; full buckets are indistinguishable from new
+ * ones, so they are dropped whenever a shard grows past its threshold.
+ */
+final class TokenBucketLimiter {
+    static final int SHARDS = 16;
+    private static final int MIN_PURGE_THRESHOLD = 4096;
+
+    private final long emissionNanos;
+    private final long toleranceNanos;
+    private final LongSupplier clock;
+    private final Shard[] shards = new Shard[SHARDS];
+
+    /**
+     * @param ratePerSecond tokens each client regains per second
+     * @param burst         tokens a client can spend at once after being idle
+     */
+    TokenBucketLimiter(double ratePerSecond, int burst, LongSupplier clock) {
+        if (ratePerSecond <= 0 || burst < 1) {
+            throw new IllegalArgumentException("rate and burst must be positive");
+        }
+        this.emissionNanos = Math.max(1, (long) (1_000_000_000L / ratePerSecond));
+        this.toleranceNanos = emissionNanos * burst;
+        this.clock = clock;
+        for (int i = 0; i < SHARDS; i++) {
+            shards[i] = new Shard();
+        }
+    }
+
+    /**
+     * Take {@code cost} tokens from {@code key}'s bucket if it has them.
+     *
+     * @return {@code 0} if taken, otherwise nanoseconds until they will be available
+     */
+    long tryAcquire(String key, int cost) {
+        long now = clock.getAsLong();
+        AtomicLong bucket = shard(key).bucket(key, now);
+        long increment = emissionNanos * cost;
+        while (true) {
+            long arrival = bucket.get();
+            // An idle bucket is full: its arrival time is in the past.
+            long next = Math.max(arrival, now) + increment;
+            long wait = next - toleranceNanos - now;
+            if (wait > 0) {
+                return wait;
+            }
+            if (bucket.compareAndSet(arrival, next)) {
+                return 0;
+            }
+        }
+    }
+
+    int size() {
+        int size = 0;
+        for (Shard shard : shards) {
+            size += shard.buckets.size();
+        }
+        return size;
+    }
+
+    private Shard shard(String key) {
+        int hash = key.hashCode();
+        return shards[(hash ^ (hash >>> 16)) & (SHARDS - 1)];
+    }
+
+    private static final class Shard {
+        final ConcurrentHashMap<String, AtomicLong> buckets = new ConcurrentHashMap<>();
+        volatile int purgeThreshold = MIN_PURGE_THRESHOLD;
+
+        AtomicLong bucket(String key, long now) {
+            AtomicLong bucket = buckets.get(key);
+            if (bucket != null) {
+                return bucket;
+            }
+            if (buckets.size() >= purgeThreshold) {
+                purge(now);
+            }
+            return buckets.computeIfAbsent(key, k -> new AtomicLong(now));
+        }
+
+        /**
+         * Drop full buckets. A request racing the purge may update a dropped bucket,
+         * which at worst grants that client one extra burst.
+         */
+        private synchronized void purge(long now) {
+            if (buckets.size() < purgeThreshold) {
+                return;
+            }
+            buckets.values().removeIf(bucket -> bucket.get() <= now);
+            // Active clients may outnumber the threshold; don't rescan on every new one.
+            purgeThreshold = Math.max(MIN_PURGE_THRESHOLD, buckets.size() * 2);
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package com.acme;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Spans of a sample of requests, kept in a ring of the most recent
+ * {@code capacity} and exported in the Chrome trace event format, which
+ * Perfetto and {@code chrome://tracing} open directly.
+ * <p>
+ * A request is sampled with probability {@code sampleRate} when it starts; every
+ * span it records, its own and those of the service calls and serialization it
+ * makes, then goes into the ring. Each trace gets a row of its own in the export,
+ * so a request's spans nest under it by time. Unsampled requests touch nothing
+ * here beyond the sampling draw.
+ */
+final class TraceRecorder {
+    private final double sampleRate;
+    private final AtomicReferenceArray<Span> spans;
+    private final AtomicLong next = new AtomicLong();
+    private final AtomicLong traceIds = new AtomicLong();
+    private final long originNanos = System.nanoTime();
+
+    /**
+     * @param sampleRate fraction of requests to trace, from 0 to 1
+     * @param capacity   most recent spans kept
+     */
+    TraceRecorder(double sampleRate, int capacity) {
+        if (!(sampleRate >= 0 && sampleRate <= 1) || capacity < 1) {
+            throw new IllegalArgumentException("Need 0 <= sampleRate <= 1 and capacity >= 1");
+        }
+        this.sampleRate = sampleRate;
+        this.spans = new AtomicReferenceArray<>(capacity);
+    }
+
+    /**
+     * One sampled request, collecting its spans.
+     */
+    final class Trace {
+        final long id = traceIds.incrementAndGet();
+
+        /**
+         * Record a span that ran from {@code startNanos} to {@code endNanos}, per
+         * {@link System#nanoTime()}.
+         *
+         * @param args JSON object members describing the span, e.g. {@code "status":200}, or {@code null}
+         */
+        void span(String name, String category, long startNanos, long endNanos, String args) {
+            Span span = new Span(id, name, category, startNanos - originNanos, endNanos - startNanos, args);
+            spans.set((int) (next.getAndIncrement() % spans.length()), span);
+        }
+    }
+
+    /**
+     * A new trace for a request that drew a sample, or {@code null}.
+     */
+    Trace sample() {
+        if (sampleRate < 1 && ThreadLocalRandom.current().nextDouble() >= sampleRate) {
+            return null;
+        }
+        return new Trace();
+    }
+
+    /**
+     * The spans still in the ring, oldest first.
+     */
+    List<Span> spans() {
+        long end = next.get();
+        long start = Math.max(0, end - spans.length());
+        List<Span> result = new ArrayList<>((int) (end - start));
+        for (long i = start; i < end; i++) {
+            Span span = spans.get((int) (i % spans.length()));
+            if (span != null) {
+                result.add(span);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Write {@link #spans()} to {@code file} as a Chrome trace, replacing it atomically.
+     *
+     * @return the number of spans written
+     */
+    int export(Path file) throws IOException {
+        List<Span> snapshot = spans();
+        Path absolute = file.toAbsolutePath();
+        Path temp = Files.createTempFile(absolute.getParent(), absolute.getFileName().toString(), ".tmp");
+        try {
+            try (Writer out = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+                write(snapshot, out);
+            }
+            Files.move(temp, absolute, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+        return snapshot.size();
+    }
+
+    /**
+     * Complete ({@code "ph":"X"}) events with microsecond times, one thread row per trace.
+     */
+    static void write(List<Span> spans, Writer out) throws IOException {
+        out.write("{\"displayTimeUnit\":\"ms\",\"traceEvents\":[");
+        boolean first = true;
+        for (Span span : spans) {
+            if (!first) {
+                out.write(',');
+            }
+            first = false;
+            out.write("\n{\"name\":");
+            string(out, span.name);
+            out.write(",\"cat\":");
+            string(out, span.category);
+            out.write(",\"ph\":\"X\",\"pid\":1,\"tid\":");
+            out.write(Long.toString(span.traceId));
+            out.write(",\"ts\":");
+            out.write(micros(span.startNanos));
+            out.write(",\"dur\":");
+            out.write(micros(span.durationNanos));
+            out.write(",\"args\":{\"trace\":");
+            out.write(Long.toString(span.traceId));
+            if (span.args != null) {
+                out.write(',');
+                out.write(span.args);
+            }
+            out.write("}}");
+        }
+        out.write("\n]}\n");
+    }
+
+    private static String micros(long nanos) {
+        return nanos / 1000 + "." + String.format("%03d", nanos % 1000);
+    }
+
+    private static void string(Writer out, String value) throws IOException {
+        out.write('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                out.write('\\');
+                out.write(c);
+            } else if (c < 0x20) {
+                out.write(String.format("\\u%04x", (int) c));
+            } else {
+                out.write(c);
+            }
+        }
+        out.write('"');
+    }
+
+    /**
+     * One timed step of a trace, with times relative to the recorder's creation.
+     */
+    static final class Span {
+        final long traceId;
+        final String name;
+        final String category;
+        final long startNanos;
+        final long durationNanos;
+        final String args;
+
+        Span(long traceId, String name, String category, long startNanos, long durationNanos, String args) {
+            this.traceId = traceId;
+            this.name = name;
+            this.category = category;
+            this.startNanos = startNanos;
+            this.durationNanos = durationNanos;
+            this.args = args;
+        }
+    }
+}
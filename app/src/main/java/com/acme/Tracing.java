@@ -0,0 +1,271 @@
+package com.acme;
+
+import io.helidon.webserver.http.FilterChain;
+import io.helidon.webserver.http.RoutingRequest;
+import io.helidon.webserver.http.RoutingResponse;
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.FlightRecorderListener;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Recording;
+import jdk.jfr.RecordingState;
+
+/**
+ * Where request time goes: JDK Flight Recorder events for requests, service
+ * operations and JSON serialization, and the same steps as spans of the sampled
+ * requests when a {@link TraceRecorder} is {@link #install installed}.
+ * <p>
+ * Instrumented code brackets a step with {@code begin...} and {@code end}. When
+ * no recording is running and the request is not sampled, {@code begin...}
+ * returns a shared event that {@code end} ignores, so a step costs a field read
+ * or two and allocates nothing. Whether a recording is running is only asked
+ * once JFR has been started by someone else, with a recording option, {@code jcmd}
+ * or the API, and is then kept up to date by a listener: asking JFR up front
+ * would start it, adding hundreds of milliseconds to startup. A sampled request
+ * carries its trace in a thread local from the {@link #filter} to the steps it
+ * runs.
+ * <p>
+ * Record with e.g. {@code -XX:StartFlightRecording=filename=users.jfr}; the events
+ * are under the "Acme Users" category.
+ */
+final class Tracing {
+    private static final ThreadLocal<TraceRecorder.Trace> CURRENT = new ThreadLocal<>();
+    private static final RequestEvent NO_REQUEST = new RequestEvent();
+    private static final OperationEvent NO_OPERATION = new OperationEvent();
+    private static final SerializationEvent NO_SERIALIZATION = new SerializationEvent();
+    private static volatile TraceRecorder recorder;
+    private static volatile boolean listening;
+    private static volatile boolean recording;
+
+    private Tracing() {
+    }
+
+    @Name("com.acme.Request")
+    @Label("HTTP Request")
+    @Category({"Acme Users"})
+    @Description("A request, from the routing filters to the response status")
+    static final class RequestEvent extends Event {
+        @Label("Method")
+        String method;
+        @Label("Path")
+        String path;
+        @Label("Status")
+        int status;
+        @Label("Sampled Trace")
+        @Description("Trace id in the exported spans, or 0 if the request was not sampled")
+        long trace;
+        transient TraceRecorder.Trace sampled;
+        transient long startNanos;
+    }
+
+    @Name("com.acme.UserOperation")
+    @Label("User Service Operation")
+    @Category({"Acme Users"})
+    static final class OperationEvent extends Event {
+        @Label("Operation")
+        String operation;
+        @Label("Entries Scanned")
+        @Description("Index postings or entries examined, or -1 if the operation does not count them")
+        long scanned;
+        @Label("Results")
+        int results;
+        transient TraceRecorder.Trace sampled;
+        transient long startNanos;
+    }
+
+    @Name("com.acme.Serialization")
+    @Label("JSON Serialization")
+    @Category({"Acme Users"})
+    static final class SerializationEvent extends Event {
+        @Label("Payload")
+        String payload;
+        @Label("Users")
+        int users;
+        @Label("Bytes")
+        int bytes;
+        transient TraceRecorder.Trace sampled;
+        transient long startNanos;
+    }
+
+    /**
+     * Trace a sample of requests into {@code recorder} from now on, or none if it is {@code null}.
+     */
+    static void install(TraceRecorder recorder) {
+        Tracing.recorder = recorder;
+    }
+
+    static TraceRecorder recorder() {
+        return recorder;
+    }
+
+    /**
+     * Whether any flight recording is running. False without asking while JFR has
+     * not been started.
+     */
+    static boolean recording() {
+        if (!listening) {
+            if (!FlightRecorder.isInitialized()) {
+                return false;
+            }
+            listen();
+        }
+        return recording;
+    }
+
+    private static synchronized void listen() {
+        if (listening) {
+            return;
+        }
+        FlightRecorder.addListener(new FlightRecorderListener() {
+            @Override
+            public void recordingStateChanged(Recording changed) {
+                recording = anyRunning();
+            }
+        });
+        recording = anyRunning();
+        listening = true;
+    }
+
+    private static boolean anyRunning() {
+        for (Recording running : FlightRecorder.getFlightRecorder().getRecordings()) {
+            if (running.getState() == RecordingState.RUNNING) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Routing filter: times the rest of the chain as a request event and, if the
+     * request is sampled, the root span of its trace.
+     */
+    static void filter(FilterChain chain, RoutingRequest req, RoutingResponse res) {
+        RequestEvent event = beginRequest(req.prologue().method().text(), req.path().path());
+        int status = 500;
+        try {
+            chain.proceed();
+            status = res.status().code();
+        } finally {
+            endRequest(event, status);
+        }
+    }
+
+    /**
+     * Start a request, drawing its sample.
+     *
+     * @return the event to pass to {@link #endRequest}
+     */
+    static RequestEvent beginRequest(String method, String path) {
+        TraceRecorder current = recorder;
+        TraceRecorder.Trace trace = current == null ? null : current.sample();
+        if (trace == null && !recording()) {
+            return NO_REQUEST;
+        }
+        RequestEvent event = new RequestEvent();
+        event.method = method;
+        event.path = path;
+        if (trace != null) {
+            event.sampled = trace;
+            event.trace = trace.id;
+            event.startNanos = System.nanoTime();
+            CURRENT.set(trace);
+        }
+        event.begin();
+        return event;
+    }
+
+    static void endRequest(RequestEvent event, int status) {
+        if (event == NO_REQUEST) {
+            return;
+        }
+        event.end();
+        event.status = status;
+        if (event.shouldCommit()) {
+            event.commit();
+        }
+        if (event.sampled != null) {
+            CURRENT.remove();
+            event.sampled.span(event.method + " " + event.path, "request", event.startNanos, System.nanoTime(),
+                    "\"status\":" + status);
+        }
+    }
+
+    /**
+     * Start a {@link UserService} operation.
+     *
+     * @return the event to pass to {@link #end(OperationEvent, long, int)}
+     */
+    static OperationEvent beginOperation(String operation) {
+        TraceRecorder.Trace trace = recorder == null ? null : CURRENT.get();
+        if (trace == null && !recording()) {
+            return NO_OPERATION;
+        }
+        OperationEvent event = new OperationEvent();
+        event.operation = operation;
+        event.sampled = trace;
+        event.startNanos = trace == null ? 0 : System.nanoTime();
+        event.begin();
+        return event;
+    }
+
+    /**
+     * Finish an operation from {@link #beginOperation}.
+     *
+     * @param scanned entries examined, or {@code -1} if not counted
+     */
+    static void end(OperationEvent event, long scanned, int results) {
+        if (event == NO_OPERATION) {
+            return;
+        }
+        event.end();
+        event.scanned = scanned;
+        event.results = results;
+        if (event.shouldCommit()) {
+            event.commit();
+        }
+        if (event.sampled != null) {
+            event.sampled.span("UserService." + event.operation, "service", event.startNanos, System.nanoTime(),
+                    "\"scanned\":" + scanned + ",\"results\":" + results);
+        }
+    }
+
+    /**
+     * Start encoding a payload of the given kind, e.g. {@code "user"}.
+     *
+     * @return the event to pass to {@link #end(SerializationEvent, int, int)}
+     */
+    static SerializationEvent beginSerialization(String payload) {
+        TraceRecorder.Trace trace = recorder == null ? null : CURRENT.get();
+        if (trace == null && !recording()) {
+            return NO_SERIALIZATION;
+        }
+        SerializationEvent event = new SerializationEvent();
+        event.payload = payload;
+        event.sampled = trace;
+        event.startNanos = trace == null ? 0 : System.nanoTime();
+        event.begin();
+        return event;
+    }
+
+    /**
+     * Finish encoding from {@link #beginSerialization}.
+     */
+    static void end(SerializationEvent event, int users, int bytes) {
+        if (event == NO_SERIALIZATION) {
+            return;
+        }
+        event.end();
+        event.users = users;
+        event.bytes = bytes;
+        if (event.shouldCommit()) {
+            event.commit();
+        }
+        if (event.sampled != null) {
+            event.sampled.span("json " + event.payload, "serialization", event.startNanos, System.nanoTime(),
+                    "\"users\":" + users + ",\"bytes\":" + bytes);
+        }
+    }
+}
@@ -3,11 +3,15 @@ package com.acme;
 /**
  * User entity for CRUD operations.
  * Simple POJO for JSON serialization/deserialization.
+ * <p>
+ * {@code version} is assigned by {@link UserService} on every write and is
+ * {@code null} on users that have not been stored.
  */
 public class User {
     private String id;
     private String name;
     private String email;
+    private Long version;
 
     // Default constructor needed for JSON deserialization
     public User() {
@@ -19,6 +23,11 @@ public class User {
         this.email = email;
     }
 
+    public User(String id, String name, String email, Long version) {
+        this(id, name, email);
+        this.version = version;
+    }
+
     public String getId() {
         return id;
     }
@@ -43,8 +52,16 @@ public class User {
         this.email = email;
     }
 
+    public Long getVersion() {
+        return version;
+    }
+
+    public void setVersion(Long version) {
+        this.version = version;
+    }
+
     @Override
     public String toString() {
-        return "User{id='" + id + "', name='" + name + "', email='" + email + "'}";
+        return "User{id='" + id + "', name='" + name + "', email='" + email + "', version=" + version + "}";
     }
 }
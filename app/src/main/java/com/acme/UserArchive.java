@@ -0,0 +1,367 @@
+package com.acme;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.zip.CRC32C;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Binary format for exporting and importing whole stores.
+ * <pre>
+ * 8 bytes  magic "ACMEUSR1"
+ * block*   int user count (&gt; 0), int payload length, int CRC32C of the payload,
+ *          payload: the block's ids, then its names, then its emails
+ * trailer  int 0, long user count, int CRC32C of the block checksums in order
+ * </pre>
+ * An id is a varint byte length and its UTF-8 bytes; a name or email is a varint of
+ * its byte length plus one, {@code 0} for null, and its bytes. Keeping each column
+ * of a block together puts similar text side by side, which the optional gzip
+ * layer over the whole archive compresses well; readers detect it.
+ * <p>
+ * Files are {@link #verify verified} before they are {@link #read}: every block
+ * checksum, the user count and the chain of block checksums in the trailer, so a
+ * corrupt, truncated or spliced archive is rejected before anything is loaded,
+ * and loading then decodes without checking again.
+ */
+final class UserArchive {
+    static final String CONTENT_TYPE = "application/vnd.acme.users";
+    static final int BLOCK_USERS = 4096;
+    static final int BLOCK_CHARS = 1 << 20;
+    static final int MAX_BLOCK_BYTES = 64 * 1024 * 1024;
+
+    private static final byte[] MAGIC = "ACMEUSR1".getBytes(StandardCharsets.US_ASCII);
+    private static final int BLOCK_HEADER = 12;
+    private static final int TRAILER = 4 + 8 + 4;
+
+    private UserArchive() {
+    }
+
+    /**
+     * Outcome of an import.
+     */
+    static final class Imported {
+        /** Users stored. */
+        final long imported;
+        /** Users left out because another cluster node owns them or the quota was full. */
+        final long skipped;
+
+        Imported(long imported, long skipped) {
+            this.imported = imported;
+            this.skipped = skipped;
+        }
+    }
+
+    /**
+     * Writes users in blocks of {@link #BLOCK_USERS}, or fewer once they hold
+     * {@link #BLOCK_CHARS} characters. Only {@link #finish} writes the
+     * trailer, so an export cut short never reads back as a smaller valid archive.
+     */
+    static final class Writer {
+        private final DataOutputStream out;
+        private final List<User> block = new ArrayList<>(BLOCK_USERS);
+        private final ByteArrayOutputStream payload = new ByteArrayOutputStream(256 * 1024);
+        private final CRC32C chain = new CRC32C();
+        private long count;
+        private int blockChars;
+
+        Writer(OutputStream out) throws IOException {
+            this.out = new DataOutputStream(out);
+            this.out.write(MAGIC);
+        }
+
+        void write(User user) throws IOException {
+            block.add(user);
+            blockChars += user.getId().length() + length(user.getName()) + length(user.getEmail());
+            if (block.size() == BLOCK_USERS || blockChars >= BLOCK_CHARS) {
+                flushBlock();
+            }
+        }
+
+        long count() {
+            return count;
+        }
+
+        /**
+         * Write the last block and the trailer, and close the underlying stream.
+         */
+        void finish() throws IOException {
+            flushBlock();
+            out.writeInt(0);
+            out.writeLong(count);
+            out.writeInt((int) chain.getValue());
+            out.close();
+        }
+
+        private void flushBlock() throws IOException {
+            if (block.isEmpty()) {
+                return;
+            }
+            payload.reset();
+            for (User user : block) {
+                writeBytes(user.getId().getBytes(StandardCharsets.UTF_8), 0);
+            }
+            for (User user : block) {
+                writeNullable(user.getName());
+            }
+            for (User user : block) {
+                writeNullable(user.getEmail());
+            }
+            if (payload.size() > MAX_BLOCK_BYTES) {
+                throw new IOException("Archive block too large: " + payload.size() + " bytes");
+            }
+            CRC32C crc = new CRC32C();
+            crc.update(payload.toByteArray());
+            int checksum = (int) crc.getValue();
+            out.writeInt(block.size());
+            out.writeInt(payload.size());
+            out.writeInt(checksum);
+            payload.writeTo(out);
+            chain.update(ByteBuffer.allocate(4).putInt(0, checksum));
+            count += block.size();
+            block.clear();
+            blockChars = 0;
+        }
+
+        private static int length(String value) {
+            return value == null ? 0 : value.length();
+        }
+
+        private void writeNullable(String value) {
+            if (value == null) {
+                writeVarInt(0);
+            } else {
+                writeBytes(value.getBytes(StandardCharsets.UTF_8), 1);
+            }
+        }
+
+        private void writeBytes(byte[] bytes, int lengthBias) {
+            writeVarInt(bytes.length + lengthBias);
+            payload.write(bytes, 0, bytes.length);
+        }
+
+        private void writeVarInt(int value) {
+            while ((value & ~0x7F) != 0) {
+                payload.write((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            payload.write(value);
+        }
+    }
+
+    /**
+     * Check that {@code channel} holds one complete, uncorrupted archive.
+     *
+     * @return the number of users in it
+     * @throws IllegalArgumentException describing the first problem found
+     */
+    static long verify(FileChannel channel) throws IOException {
+        return scan(channel, null);
+    }
+
+    /**
+     * Pass every user of a {@link #verify verified} archive to {@code sink}, in order.
+     *
+     * Exceptions thrown by {@code sink} propagate unchanged.
+     *
+     * @throws IllegalArgumentException if a block cannot be decoded after all, which a
+     *                                  verified archive only does when built to pass the checks
+     */
+    static void read(FileChannel channel, Consumer<User> sink) throws IOException {
+        scan(channel, sink);
+    }
+
+    /**
+     * Copy {@code in} to a new temporary file in {@code dir}, gunzipping it on the way
+     * if it is gzipped, and close it.
+     *
+     * @return the file, which the caller deletes
+     */
+    static Path spool(InputStream in, Path dir) throws IOException {
+        Path file = Files.createTempFile(dir, "users-import-", ".bin");
+        try (InputStream source = gunzipIfNeeded(in);
+             FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            ReadableByteChannel from = Channels.newChannel(source);
+            long position = 0;
+            for (long copied; (copied = channel.transferFrom(from, position, 1 << 24)) > 0; ) {
+                position += copied;
+            }
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(file);
+            throw e;
+        }
+        return file;
+    }
+
+    /**
+     * Whether {@code file} starts with the gzip magic number.
+     */
+    static boolean isGzipped(Path file) throws IOException {
+        try (InputStream in = Files.newInputStream(file)) {
+            return in.read() == 0x1f && in.read() == 0x8b;
+        }
+    }
+
+    private static InputStream gunzipIfNeeded(InputStream in) throws IOException {
+        BufferedInputStream buffered = new BufferedInputStream(in, 64 * 1024);
+        buffered.mark(2);
+        boolean gzipped = buffered.read() == 0x1f && buffered.read() == 0x8b;
+        buffered.reset();
+        return gzipped ? new GZIPInputStream(buffered, 64 * 1024) : buffered;
+    }
+
+    /**
+     * Walk the blocks: with a {@code sink}, decode them; without one, check them.
+     */
+    private static long scan(FileChannel channel, Consumer<User> sink) throws IOException {
+        long size = channel.size();
+        ByteBuffer magic = readFully(channel, 0, MAGIC.length, size);
+        if (!Arrays.equals(magic.array(), MAGIC)) {
+            throw new IllegalArgumentException("Not a user archive");
+        }
+        CRC32C chain = new CRC32C();
+        ByteBuffer checksum = ByteBuffer.allocate(4);
+        long position = MAGIC.length;
+        long count = 0;
+        ByteBuffer payload = ByteBuffer.allocate(0);
+        while (true) {
+            ByteBuffer header = readFully(channel, position, 4, size);
+            int users = header.getInt(0);
+            if (users == 0) {
+                break;
+            }
+            header = readFully(channel, position, BLOCK_HEADER, size);
+            int length = header.getInt(4);
+            int crc = header.getInt(8);
+            if (users < 0 || length < users || length > MAX_BLOCK_BYTES) {
+                throw new IllegalArgumentException("Corrupt archive block header at byte " + position);
+            }
+            position += BLOCK_HEADER;
+            if (payload.capacity() < length) {
+                payload = ByteBuffer.allocate(length);
+            }
+            payload.clear().limit(length);
+            readFully(channel, position, payload, size);
+            payload.flip();
+            if (sink == null) {
+                CRC32C actual = new CRC32C();
+                actual.update(payload.array(), 0, length);
+                if ((int) actual.getValue() != crc) {
+                    throw new IllegalArgumentException(
+                            "Archive checksum mismatch in block at byte " + (position - BLOCK_HEADER));
+                }
+                chain.update(checksum.putInt(0, crc));
+                checksum.clear();
+            } else {
+                User[] decoded;
+                try {
+                    decoded = decode(payload, users);
+                } catch (BufferUnderflowException e) {
+                    throw new IllegalArgumentException("Corrupt archive block at byte " + (position - BLOCK_HEADER), e);
+                }
+                // Outside the try: a sink failing to store a user is not a corrupt archive.
+                for (User user : decoded) {
+                    sink.accept(user);
+                }
+            }
+            position += length;
+            count += users;
+        }
+        ByteBuffer trailer = readFully(channel, position, TRAILER, size);
+        if (sink == null) {
+            if (trailer.getLong(4) != count || trailer.getInt(12) != (int) chain.getValue()) {
+                throw new IllegalArgumentException("Archive trailer does not match its blocks");
+            }
+            if (position + TRAILER != size) {
+                throw new IllegalArgumentException("Unexpected bytes after the archive trailer");
+            }
+        }
+        return count;
+    }
+
+    /**
+     * The users of one block.
+     *
+     * @throws BufferUnderflowException if a length or string runs past the payload
+     */
+    private static User[] decode(ByteBuffer payload, int users) {
+        String[] ids = new String[users];
+        String[] names = new String[users];
+        for (int i = 0; i < users; i++) {
+            ids[i] = readString(payload, readVarInt(payload));
+        }
+        for (int i = 0; i < users; i++) {
+            names[i] = readNullable(payload);
+        }
+        User[] decoded = new User[users];
+        for (int i = 0; i < users; i++) {
+            decoded[i] = new User(ids[i], names[i], readNullable(payload));
+        }
+        return decoded;
+    }
+
+    private static String readNullable(ByteBuffer payload) {
+        int length = readVarInt(payload);
+        return length == 0 ? null : readString(payload, length - 1);
+    }
+
+    private static String readString(ByteBuffer payload, int length) {
+        if (length < 0 || length > payload.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        String value = new String(payload.array(), payload.position(), length, StandardCharsets.UTF_8);
+        payload.position(payload.position() + length);
+        return value;
+    }
+
+    private static int readVarInt(ByteBuffer payload) {
+        int value = 0;
+        for (int shift = 0; ; shift += 7) {
+            if (shift > 28) {
+                throw new BufferUnderflowException();
+            }
+            byte b = payload.get();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+    }
+
+    private static ByteBuffer readFully(FileChannel channel, long position, int length, long size)
+            throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        readFully(channel, position, buffer, size);
+        return buffer;
+    }
+
+    private static void readFully(FileChannel channel, long position, ByteBuffer buffer, long size)
+            throws IOException {
+        if (position + buffer.remaining() > size) {
+            throw new IllegalArgumentException("User archive is truncated at byte " + size);
+        }
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new IOException("User archive shrank while being read");
+            }
+            position += read;
+        }
+    }
+}
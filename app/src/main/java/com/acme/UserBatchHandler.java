@@ -0,0 +1,272 @@
+package com.acme;
+
+import io.helidon.http.HeaderNames;
+import io.helidon.http.Status;
+import io.helidon.webserver.http.ServerRequest;
+import io.helidon.webserver.http.ServerResponse;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Bulk create, update and delete.
+ * <p>
+ * The body is a JSON array or an NDJSON stream. Items are read one at a time,
+ * validated like their single-item routes, and applied in chunks of
+ * {@link #CHUNK_SIZE} through the batch methods of {@link UserService}, so a chunk
+ * waits for storage durability once. Per-item results are streamed back as soon
+ * as their chunk is applied:
+ * <pre>
+ * {"results":[{"index":0,"status":201,"id":"3"}, ...],"succeeded":1,"failed":0}
+ * </pre>
+ * Memory stays bounded by the chunk size however large the import is. Items the
+ * store's {@link UserQuota} has no room for fail with 507 and the rest still apply.
+ */
+final class UserBatchHandler {
+    static final int CHUNK_SIZE = 500;
+    static final int MAX_ITEM_BYTES = 64 * 1024;
+
+    enum Operation {
+        CREATE, UPDATE, DELETE
+    }
+
+    static final Status MISDIRECTED_421 = Status.create(421, "Misdirected Request");
+
+    private final UserService userService;
+    private final UserCluster cluster;
+
+    UserBatchHandler(UserService userService) {
+        this(userService, null);
+    }
+
+    /**
+     * @param cluster when not {@code null}, items for ids another node owns are
+     *                rejected with 421 naming the owner instead of being applied here
+     */
+    UserBatchHandler(UserService userService, UserCluster cluster) {
+        this.userService = userService;
+        this.cluster = cluster;
+    }
+
+    void handle(ServerRequest req, ServerResponse res, Operation operation) throws IOException {
+        JsonSequenceReader reader = new JsonSequenceReader(req.content().inputStream(), MAX_ITEM_BYTES);
+        byte[] element;
+        try {
+            element = reader.next();
+        } catch (IllegalArgumentException e) {
+            Main.sendError(res, Status.BAD_REQUEST_400, "Invalid JSON", e.getMessage());
+            return;
+        }
+        res.header(HeaderNames.CONTENT_TYPE, "application/json");
+        try (OutputStream out = res.outputStream()) {
+            Results results = new Results(out);
+            List<Item> chunk = new ArrayList<>(CHUNK_SIZE);
+            int index = 0;
+            while (element != null) {
+                chunk.add(parse(element, index++, operation));
+                if (chunk.size() == CHUNK_SIZE) {
+                    apply(chunk, operation, results);
+                }
+                try {
+                    element = reader.next();
+                } catch (IllegalArgumentException e) {
+                    // The stream cannot be resynchronized; report and stop.
+                    apply(chunk, operation, results);
+                    results.write(new BatchResult(index, Status.BAD_REQUEST_400.code(), null,
+                            "Invalid JSON", e.getMessage()));
+                    break;
+                }
+            }
+            apply(chunk, operation, results);
+            results.finish();
+        }
+    }
+
+    private Item parse(byte[] element, int index, Operation operation) {
+        if (operation == Operation.DELETE) {
+            String id = parseId(element);
+            if (isBlankId(id)) {
+                return Item.failed(index, Status.BAD_REQUEST_400, "Validation error", "id is required.");
+            }
+            return isMisdirected(id) ? Item.misdirected(index, id, cluster.owner(id)) : Item.delete(index, id);
+        }
+        User user;
+        try {
+            user = JsonReader.readUser(element);
+        } catch (IllegalArgumentException e) {
+            return Item.failed(index, Status.BAD_REQUEST_400, "Invalid JSON", "Item must be a valid user object.");
+        }
+        if (operation == Operation.UPDATE && (user == null || isBlankId(user.getId()))) {
+            return Item.failed(index, Status.BAD_REQUEST_400, "Validation error", "id is required.");
+        }
+        String validationError = Main.validateUser(user);
+        if (validationError != null) {
+            return Item.failed(index, Status.BAD_REQUEST_400, "Validation error", validationError);
+        }
+        if (!isBlankId(user.getId()) && isMisdirected(user.getId())) {
+            return Item.misdirected(index, user.getId(), cluster.owner(user.getId()));
+        }
+        return Item.user(index, user);
+    }
+
+    private boolean isMisdirected(String id) {
+        return cluster != null && !cluster.owns(id);
+    }
+
+    /**
+     * Delete items may be {@code "id"}, a bare number, or an object with an {@code id} field.
+     */
+    private String parseId(byte[] element) {
+        try {
+            byte first = element[0];
+            if (first == '"') {
+                return JsonReader.readString(element);
+            }
+            if (first == '{') {
+                return JsonReader.readUser(element).getId();
+            }
+            if (first == '-' || (first >= '0' && first <= '9')) {
+                return new String(element, StandardCharsets.US_ASCII);
+            }
+        } catch (IllegalArgumentException ignored) {
+            // Reported as a missing id below.
+        }
+        return null;
+    }
+
+    private static boolean isBlankId(String id) {
+        return id == null || id.isBlank();
+    }
+
+    private void apply(List<Item> chunk, Operation operation, Results results) throws IOException {
+        if (chunk.isEmpty()) {
+            return;
+        }
+        List<Item> valid = new ArrayList<>(chunk.size());
+        for (Item item : chunk) {
+            if (item.result == null) {
+                valid.add(item);
+            }
+        }
+        switch (operation) {
+            case CREATE -> {
+                List<User> users = new ArrayList<>(valid.size());
+                valid.forEach(item -> users.add(item.user));
+                List<User> created = userService.createUsers(users);
+                for (int i = 0; i < valid.size(); i++) {
+                    Item item = valid.get(i);
+                    User user = created.get(i);
+                    item.result = user == null
+                            ? quotaExceeded(item.index, item.user.getId())
+                            : new BatchResult(item.index, Status.CREATED_201.code(), user.getId(), null, null);
+                }
+            }
+            case UPDATE -> {
+                List<User> users = new ArrayList<>(valid.size());
+                valid.forEach(item -> users.add(item.user));
+                List<Optional<User>> updated = userService.updateUsers(users);
+                for (int i = 0; i < valid.size(); i++) {
+                    Item item = valid.get(i);
+                    Optional<User> user = updated.get(i);
+                    if (user == null) {
+                        item.result = quotaExceeded(item.index, item.user.getId());
+                    } else {
+                        item.result = user.isPresent()
+                                ? new BatchResult(item.index, Status.OK_200.code(), item.user.getId(), null, null)
+                                : notFound(item.index, item.user.getId());
+                    }
+                }
+            }
+            case DELETE -> {
+                List<String> ids = new ArrayList<>(valid.size());
+                valid.forEach(item -> ids.add(item.id));
+                List<Boolean> deleted = userService.deleteUsers(ids);
+                for (int i = 0; i < valid.size(); i++) {
+                    Item item = valid.get(i);
+                    item.result = deleted.get(i)
+                            ? new BatchResult(item.index, Status.NO_CONTENT_204.code(), item.id, null, null)
+                            : notFound(item.index, item.id);
+                }
+            }
+        }
+        for (Item item : chunk) {
+            results.write(item.result);
+        }
+        chunk.clear();
+    }
+
+    private BatchResult quotaExceeded(int index, String id) {
+        UserQuota quota = userService.quota();
+        return new BatchResult(index, UserRoutes.INSUFFICIENT_STORAGE_507.code(), id, UserRoutes.QUOTA_EXCEEDED,
+                "Quota of " + quota.maxUsers() + " users or " + quota.maxBytes() + " bytes reached.");
+    }
+
+    private static BatchResult notFound(int index, String id) {
+        return new BatchResult(index, Status.NOT_FOUND_404.code(), id, "User not found", "No user with id: " + id);
+    }
+
+    private static final class Item {
+        final int index;
+        final User user;
+        final String id;
+        BatchResult result;
+
+        private Item(int index, User user, String id, BatchResult result) {
+            this.index = index;
+            this.user = user;
+            this.id = id;
+            this.result = result;
+        }
+
+        static Item user(int index, User user) {
+            return new Item(index, user, null, null);
+        }
+
+        static Item delete(int index, String id) {
+            return new Item(index, null, id, null);
+        }
+
+        static Item failed(int index, Status status, String message, String details) {
+            return new Item(index, null, null, new BatchResult(index, status.code(), null, message, details));
+        }
+
+        static Item misdirected(int index, String id, String owner) {
+            return new Item(index, null, null, new BatchResult(index, MISDIRECTED_421.code(), id,
+                    "Misdirected request", "User " + id + " is owned by " + owner));
+        }
+    }
+
+    private static final class Results {
+        private final OutputStream out;
+        private final JsonWriter writer = new JsonWriter();
+        private int succeeded;
+        private int failed;
+
+        Results(OutputStream out) throws IOException {
+            this.out = out;
+            out.write("{\"results\":[".getBytes(StandardCharsets.UTF_8));
+        }
+
+        void write(BatchResult result) throws IOException {
+            if (succeeded + failed > 0) {
+                out.write(',');
+            }
+            writer.reset();
+            writer.batchResult(result).writeTo(out);
+            if (result.getStatus() < 300) {
+                succeeded++;
+            } else {
+                failed++;
+            }
+        }
+
+        void finish() throws IOException {
+            out.write(("],\"succeeded\":" + succeeded + ",\"failed\":" + failed + "}")
+                    .getBytes(StandardCharsets.UTF_8));
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package com.acme;
+
+/**
+ * One mutation published on the {@link UserChangeFeed}: the user as written for a
+ * create or update, or just the id for a delete.
+ */
+final class UserChange {
+
+    enum Type {
+        CREATED, UPDATED, DELETED;
+
+        /**
+         * Name used on the wire.
+         */
+        String label() {
+            return switch (this) {
+                case CREATED -> "create";
+                case UPDATED -> "update";
+                case DELETED -> "delete";
+            };
+        }
+    }
+
+    final long sequence;
+    final Type type;
+    final String id;
+    final User user;
+
+    UserChange(long sequence, Type type, String id, User user) {
+        this.sequence = sequence;
+        this.type = type;
+        this.id = id;
+        this.user = user;
+    }
+}
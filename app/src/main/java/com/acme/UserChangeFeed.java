@@ -0,0 +1,202 @@
+package com.acme;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Recent user mutations, for clients that follow changes instead of polling.
+ * <p>
+ * Changes are numbered and kept in a fixed-size ring, so memory is bounded no
+ * matter how many clients follow the feed or how far behind they are. Each
+ * {@link Subscription} is only a position in the ring: publishing never waits for
+ * a subscriber, and a subscriber that falls more than the ring's capacity behind
+ * skips to the oldest change still held and is told it lost some. Clients resume
+ * after a reconnect from a {@link #cursor(long) cursor}; cursors carry a
+ * per-instance epoch so one issued before a restart is recognized as lost too.
+ * <p>
+ * Publishing takes no lock: a writer claims a sequence number, stores its change
+ * in the slot with a volatile write and unparks subscribers only if some are
+ * waiting. Writers to different ids may fill their slots out of order; readers
+ * stop at the first slot that does not hold the change they expect yet, so they
+ * still see every change in sequence order.
+ */
+final class UserChangeFeed {
+    static final int DEFAULT_CAPACITY = 10_000;
+
+    private final AtomicReferenceArray<UserChange> ring;
+    private final AtomicLong lastSequence = new AtomicLong();
+    private final Queue<Thread> waiting = new ConcurrentLinkedQueue<>();
+    private final String epoch = Long.toHexString(ThreadLocalRandom.current().nextLong());
+    private final AtomicInteger subscribers = new AtomicInteger();
+
+    UserChangeFeed(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        this.ring = new AtomicReferenceArray<>(capacity);
+    }
+
+    /**
+     * Append a change and wake waiting subscribers. {@link UserService} calls this
+     * under the id's lock, so changes to one user are numbered in the order they
+     * were applied.
+     */
+    void publish(UserChange.Type type, String id, User user) {
+        long sequence = lastSequence.incrementAndGet();
+        UserChange change = new UserChange(sequence, type, id, user);
+        int slot = slot(sequence);
+        UserChange current = ring.get(slot);
+        // A writer a whole ring ahead may have filled the slot already; never put an older change back.
+        while ((current == null || current.sequence < sequence) && !ring.compareAndSet(slot, current, change)) {
+            current = ring.get(slot);
+        }
+        if (!waiting.isEmpty()) {
+            for (Thread subscriber : waiting) {
+                LockSupport.unpark(subscriber);
+            }
+        }
+    }
+
+    /**
+     * Sequence of the last change claimed by a writer; it may still be on its way into the ring.
+     */
+    long lastSequence() {
+        return lastSequence.get();
+    }
+
+    private int slot(long sequence) {
+        return (int) (sequence % ring.length());
+    }
+
+    /**
+     * Opaque resume token for the position just after change {@code sequence}.
+     */
+    String cursor(long sequence) {
+        return epoch + "-" + Long.toHexString(sequence);
+    }
+
+    /**
+     * Sequence a cursor points after, or {@code -1} if it was not issued by this
+     * instance or is malformed.
+     */
+    long parseCursor(String cursor) {
+        int dash = cursor.lastIndexOf('-');
+        if (dash < 0 || !cursor.substring(0, dash).equals(epoch)) {
+            return -1;
+        }
+        try {
+            long sequence = Long.parseUnsignedLong(cursor.substring(dash + 1), 16);
+            return sequence <= lastSequence() ? sequence : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Follow changes published after {@code after}.
+     */
+    Subscription subscribe(long after) {
+        return new Subscription(after);
+    }
+
+    int subscribers() {
+        return subscribers.get();
+    }
+
+    /**
+     * A reader's position in the feed. Not thread-safe; each client has its own.
+     */
+    final class Subscription implements AutoCloseable {
+        private long position;
+        private boolean closed;
+
+        private Subscription(long after) {
+            this.position = after;
+            subscribers.incrementAndGet();
+        }
+
+        /**
+         * Sequence of the last change returned, or the starting point.
+         */
+        long position() {
+            return position;
+        }
+
+        /**
+         * Up to {@code max} changes after {@link #position()}, waiting up to
+         * {@code timeout} for the first. If older changes have already been
+         * overwritten, the result starts at the oldest change held; the caller can
+         * detect that from its first sequence.
+         *
+         * @return the changes, or an empty list if none arrived in time
+         */
+        List<UserChange> poll(int max, long timeout, TimeUnit unit) throws InterruptedException {
+            List<UserChange> changes = read(max);
+            if (changes.isEmpty()) {
+                long deadline = System.nanoTime() + unit.toNanos(timeout);
+                Thread self = Thread.currentThread();
+                waiting.add(self);
+                try {
+                    // Registered before reading again, so a change published in between unparks us.
+                    while ((changes = read(max)).isEmpty()) {
+                        long remaining = deadline - System.nanoTime();
+                        if (remaining <= 0) {
+                            return changes;
+                        }
+                        LockSupport.parkNanos(this, remaining);
+                        if (Thread.interrupted()) {
+                            throw new InterruptedException();
+                        }
+                    }
+                } finally {
+                    waiting.remove(self);
+                }
+            }
+            position = changes.get(changes.size() - 1).sequence;
+            return changes;
+        }
+
+        /**
+         * The changes after {@link #position()} that are in the ring, up to the first
+         * one not published yet.
+         */
+        private List<UserChange> read(int max) {
+            while (true) {
+                long from = Math.max(position + 1, lastSequence.get() - ring.length() + 1);
+                List<UserChange> changes = new ArrayList<>();
+                boolean overwritten = false;
+                for (long sequence = from; changes.size() < max; sequence++) {
+                    UserChange change = ring.get(slot(sequence));
+                    if (change == null || change.sequence < sequence) {
+                        break;
+                    }
+                    if (change.sequence > sequence) {
+                        overwritten = true;
+                        break;
+                    }
+                    changes.add(change);
+                }
+                if (!overwritten) {
+                    return changes;
+                }
+                // Writers lapped us while reading: start again from the oldest change held now.
+            }
+        }
+
+        @Override
+        public void close() {
+            if (!closed) {
+                closed = true;
+                subscribers.decrementAndGet();
+            }
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package com.acme;
+
+import io.helidon.http.HeaderName;
+import io.helidon.http.HeaderNames;
+import io.helidon.webserver.http.ServerRequest;
+import io.helidon.webserver.http.ServerResponse;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@code GET /users/changes}: the {@link UserChangeFeed} as a long-lived stream.
+ * <p>
+ * Clients that accept {@code text/event-stream} get Server-Sent Events whose
+ * {@code id} is the resume cursor, so a browser {@code EventSource} reconnects
+ * with {@code Last-Event-ID} on its own; everyone else gets NDJSON:
+ * <pre>
+ * {"cursor":"6c1f...-2a","id":"7","type":"update","user":{"email":...,"version":42}}
+ * </pre>
+ * The stream starts after {@code ?after=} or {@code Last-Event-ID} when given,
+ * otherwise at the current end of the feed. A {@code reset} event means changes
+ * before its cursor were lost, because the client fell behind, resumed from too
+ * far back or from before a restart; the client should reload the users and
+ * carry on from that cursor. Idle streams get a heartbeat every
+ * {@link #HEARTBEAT_SECONDS} seconds, which also detects disconnected clients.
+ */
+final class UserChangeStreamHandler {
+    static final String EVENT_STREAM = "text/event-stream";
+    static final int HEARTBEAT_SECONDS = 15;
+    static final HeaderName LAST_EVENT_ID = HeaderNames.create("Last-Event-ID");
+    private static final int MAX_BATCH = 256;
+
+    private final UserChangeFeed feed;
+
+    UserChangeStreamHandler(UserChangeFeed feed) {
+        this.feed = feed;
+    }
+
+    void handle(ServerRequest req, ServerResponse res) throws IOException {
+        boolean sse = req.headers().first(HeaderNames.ACCEPT)
+                .map(accept -> accept.contains(EVENT_STREAM))
+                .orElse(false);
+        String cursor = req.query().first("after").orElse(null);
+        if (cursor == null) {
+            cursor = req.headers().first(LAST_EVENT_ID).orElse(null);
+        }
+        long after = cursor == null || cursor.isBlank() ? feed.lastSequence() : feed.parseCursor(cursor.trim());
+        boolean lost = after < 0;
+        if (lost) {
+            after = feed.lastSequence();
+        }
+
+        res.header(HeaderNames.CONTENT_TYPE, sse ? EVENT_STREAM : "application/x-ndjson");
+        res.header(HeaderNames.CACHE_CONTROL, "no-cache");
+        JsonWriter writer = new JsonWriter(4096);
+        try (UserChangeFeed.Subscription subscription = feed.subscribe(after);
+             OutputStream out = res.outputStream()) {
+            if (lost) {
+                reset(writer, sse, after);
+            }
+            // Opens the stream right away, before the first change arrives.
+            heartbeat(writer, sse, after);
+            flush(writer, out);
+            while (true) {
+                long position = subscription.position();
+                List<UserChange> changes = subscription.poll(MAX_BATCH, HEARTBEAT_SECONDS, TimeUnit.SECONDS);
+                if (changes.isEmpty()) {
+                    heartbeat(writer, sse, position);
+                } else {
+                    long first = changes.get(0).sequence;
+                    if (first != position + 1) {
+                        reset(writer, sse, first - 1);
+                    }
+                    for (UserChange change : changes) {
+                        String changeCursor = feed.cursor(change.sequence);
+                        if (sse) {
+                            sseHeader(writer, changeCursor, change.type.label());
+                        }
+                        writer.change(change, changeCursor);
+                        writer.literal(sse ? "\n\n" : "\n");
+                    }
+                }
+                flush(writer, out);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void reset(JsonWriter writer, boolean sse, long sequence) {
+        String cursor = feed.cursor(sequence);
+        if (sse) {
+            sseHeader(writer, cursor, "reset");
+        }
+        writer.feedEvent("reset", cursor);
+        writer.literal(sse ? "\n\n" : "\n");
+    }
+
+    private void heartbeat(JsonWriter writer, boolean sse, long sequence) {
+        if (sse) {
+            // A comment, so it does not move the client's Last-Event-ID.
+            writer.literal(": heartbeat\n\n");
+        } else {
+            writer.feedEvent("heartbeat", feed.cursor(sequence)).literal("\n");
+        }
+    }
+
+    private static void sseHeader(JsonWriter writer, String cursor, String event) {
+        writer.literal("id: ").literal(cursor).literal("\nevent: ").literal(event).literal("\ndata: ");
+    }
+
+    private static void flush(JsonWriter writer, OutputStream out) throws IOException {
+        writer.writeTo(out);
+        out.flush();
+        writer.reset();
+    }
+}
@@ -0,0 +1,319 @@
+package com.acme;
+
+import io.helidon.http.HeaderName;
+import io.helidon.http.HeaderNames;
+import io.helidon.http.Method;
+import io.helidon.http.Status;
+import io.helidon.webserver.http.ServerRequest;
+import io.helidon.webserver.http.ServerResponse;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.UnknownHostException;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+
+/**
+ * This instance's view of a cluster that shards users by id.
+ * <p>
+ * Every node is configured with the same node list, so every node builds the
+ * same {@link ConsistentHashRing} and agrees on who owns an id. Requests for an
+ * id owned elsewhere are forwarded to the owner and its response relayed as is;
+ * listings and searches are scattered to every peer and gathered. Peers are
+ * called over one {@link HttpClient}, which keeps connections to each of them
+ * open between requests. Calls between nodes carry {@link #FORWARDED}, which
+ * tells the receiver to answer from its own shard only, so a request is never
+ * forwarded twice.
+ */
+final class UserCluster {
+    static final HeaderName FORWARDED = HeaderNames.create("X-Cluster-Forwarded");
+    static final Duration TIMEOUT = Duration.ofSeconds(10);
+    private static final int MAX_ELEMENT_BYTES = 1024 * 1024;
+    private static final List<HeaderName> REQUEST_HEADERS = List.of(HeaderNames.CONTENT_TYPE,
+            HeaderNames.ACCEPT, HeaderNames.ACCEPT_ENCODING, HeaderNames.IF_MATCH, HeaderNames.IF_NONE_MATCH);
+    private static final List<HeaderName> RESPONSE_HEADERS = List.of(HeaderNames.CONTENT_TYPE,
+            HeaderNames.CONTENT_ENCODING, HeaderNames.ETAG, HeaderNames.VARY, HeaderNames.RETRY_AFTER,
+            Main.NEXT_CURSOR);
+
+    private final String self;
+    private final ConsistentHashRing ring;
+    private final List<String> peers;
+    private final Set<String> peerHosts = new HashSet<>();
+    private final HttpClient client;
+    private ReadThroughCache<String, RemoteUser> remoteUsers;
+
+    /**
+     * @param self  this node's base URL, as it appears in {@code nodes}
+     * @param nodes base URLs of every node, this one included
+     */
+    UserCluster(String self, List<String> nodes) {
+        this.ring = new ConsistentHashRing(nodes, ConsistentHashRing.DEFAULT_VIRTUAL_NODES);
+        if (!ring.nodes().contains(self)) {
+            throw new IllegalArgumentException("Cluster nodes " + nodes + " do not include this node, " + self);
+        }
+        this.self = self;
+        this.peers = ring.nodes().stream().filter(node -> !node.equals(self)).toList();
+        for (String peer : peers) {
+            String host = URI.create(peer).getHost();
+            peerHosts.add(host);
+            try {
+                for (InetAddress address : InetAddress.getAllByName(host)) {
+                    peerHosts.add(address.getHostAddress());
+                }
+            } catch (UnknownHostException e) {
+                // Matched by name only until the host resolves.
+            }
+        }
+        this.client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(2))
+                .executor(Executors.newVirtualThreadPerTaskExecutor())
+                .build();
+    }
+
+    /**
+     * Serve reads of other nodes' users from a {@link ReadThroughCache}. A cached
+     * user can be up to {@code ttl} old when it was changed through another node;
+     * changes forwarded by this node invalidate it at once.
+     *
+     * @param negativeTtl how long a missing user is remembered, or zero not to
+     */
+    UserCluster cacheRemoteUsers(int maxEntries, Duration ttl, Duration negativeTtl) {
+        remoteUsers = new ReadThroughCache<>(this::fetch, maxEntries, ttl.toNanos(), negativeTtl.toNanos(),
+                System::nanoTime);
+        return this;
+    }
+
+    /**
+     * The cache of other nodes' users, or {@code null} if reads are always forwarded.
+     */
+    ReadThroughCache<String, RemoteUser> remoteUsers() {
+        return remoteUsers;
+    }
+
+    /**
+     * Forget any cached copy of {@code id} after a change was forwarded to its owner.
+     */
+    void invalidate(String id) {
+        if (remoteUsers != null) {
+            remoteUsers.invalidate(id);
+        }
+    }
+
+    String self() {
+        return self;
+    }
+
+    String owner(String id) {
+        return ring.owner(id);
+    }
+
+    boolean owns(String id) {
+        return ring.owner(id).equals(self);
+    }
+
+    List<String> peers() {
+        return peers;
+    }
+
+    /**
+     * Whether {@code req} came from another node and must be answered locally.
+     */
+    static boolean isForwarded(ServerRequest req) {
+        return req.headers().first(FORWARDED).isPresent();
+    }
+
+    /**
+     * Whether {@code req} was forwarded by a peer, as opposed to merely carrying the
+     * header. The client it came from was already rate limited by that peer.
+     */
+    boolean isFromPeer(ServerRequest req) {
+        return isForwarded(req) && peerHosts.contains(req.remotePeer().host());
+    }
+
+    /**
+     * Send {@code req} to {@code owner} with {@code body} and relay the answer.
+     * Sends 502 if the owner cannot be reached.
+     */
+    void forward(ServerRequest req, ServerResponse res, String owner, String path, byte[] body) {
+        Method method = req.prologue().method();
+        HttpRequest.Builder request = HttpRequest.newBuilder(URI.create(owner + path))
+                .timeout(TIMEOUT)
+                .header(FORWARDED.defaultCase(), self)
+                .method(method.text(), body == null
+                        ? HttpRequest.BodyPublishers.noBody()
+                        : HttpRequest.BodyPublishers.ofByteArray(body));
+        for (HeaderName name : REQUEST_HEADERS) {
+            req.headers().first(name).ifPresent(value -> request.header(name.defaultCase(), value));
+        }
+        HttpResponse<byte[]> response;
+        try {
+            response = client.send(request.build(), HttpResponse.BodyHandlers.ofByteArray());
+        } catch (IOException e) {
+            sendUnavailable(res, owner + ": " + e.getMessage());
+            return;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            sendUnavailable(res, owner + ": " + e.getMessage());
+            return;
+        }
+        res.status(Status.create(response.statusCode()));
+        for (HeaderName name : RESPONSE_HEADERS) {
+            response.headers().firstValue(name.defaultCase()).ifPresent(value -> res.header(name, value));
+        }
+        if (response.body().length == 0) {
+            res.send();
+        } else {
+            res.send(response.body());
+        }
+    }
+
+    /**
+     * {@code GET /users/{id}} from the node that owns {@code id}.
+     *
+     * @return the user's JSON and tag, or {@code null} if there is no such user
+     */
+    RemoteUser fetch(String id) throws IOException {
+        URI uri = URI.create(owner(id) + userPath(id));
+        HttpResponse<byte[]> response;
+        try {
+            response = client.send(peerRequest(uri, "application/json"), HttpResponse.BodyHandlers.ofByteArray());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted calling " + uri, e);
+        }
+        if (response.statusCode() == 404) {
+            return null;
+        }
+        checkStatus(uri, response.statusCode());
+        return new RemoteUser(response.body(), response.headers().firstValue(HeaderNames.ETAG.defaultCase())
+                .orElse(null));
+    }
+
+    /**
+     * A user as its owner serves it.
+     */
+    static final class RemoteUser {
+        final byte[] json;
+        final String etag;
+
+        RemoteUser(byte[] json, String etag) {
+            this.json = json;
+            this.etag = etag;
+        }
+    }
+
+    /**
+     * {@code GET path} with {@code query} on every peer at once, each answering from
+     * its own shard with a JSON array.
+     *
+     * @return every peer's elements, unparsed, in peer order
+     * @throws IOException if any peer failed; a partial result would silently lose users
+     */
+    List<byte[]> gather(String path, String... query) throws IOException {
+        URI[] uris = new URI[peers.size()];
+        List<CompletableFuture<HttpResponse<byte[]>>> calls = new ArrayList<>(peers.size());
+        for (int i = 0; i < peers.size(); i++) {
+            uris[i] = URI.create(peers.get(i) + path + queryString(query));
+            calls.add(client.sendAsync(peerRequest(uris[i], "application/json"),
+                    HttpResponse.BodyHandlers.ofByteArray()));
+        }
+        List<byte[]> elements = new ArrayList<>();
+        for (int i = 0; i < calls.size(); i++) {
+            HttpResponse<byte[]> response;
+            try {
+                response = calls.get(i).get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted calling " + uris[i], e);
+            } catch (ExecutionException e) {
+                throw new IOException("Failed calling " + uris[i], e.getCause());
+            }
+            checkStatus(uris[i], response.statusCode());
+            readElements(new ByteArrayInputStream(response.body()), elements::add);
+        }
+        return elements;
+    }
+
+    /**
+     * Stream every element of {@code peer}'s NDJSON answer to {@code GET path} into {@code elements}.
+     */
+    void stream(String peer, String path, ElementSink elements) throws IOException {
+        URI uri = URI.create(peer + path);
+        HttpResponse<InputStream> response;
+        try {
+            response = client.send(peerRequest(uri, "application/x-ndjson"), HttpResponse.BodyHandlers.ofInputStream());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted calling " + uri, e);
+        }
+        try (InputStream body = response.body()) {
+            checkStatus(uri, response.statusCode());
+            readElements(body, elements);
+        }
+    }
+
+    @FunctionalInterface
+    interface ElementSink {
+        void accept(byte[] element) throws IOException;
+    }
+
+    static void sendUnavailable(ServerResponse res, String details) {
+        Main.sendError(res, Status.BAD_GATEWAY_502, "Cluster node unavailable", details);
+    }
+
+    private HttpRequest peerRequest(URI uri, String accept) {
+        return HttpRequest.newBuilder(uri)
+                .timeout(TIMEOUT)
+                .header(FORWARDED.defaultCase(), self)
+                .header(HeaderNames.ACCEPT.defaultCase(), accept)
+                .GET()
+                .build();
+    }
+
+    private static void checkStatus(URI uri, int status) throws IOException {
+        if (status != 200) {
+            throw new IOException(uri + " answered " + status);
+        }
+    }
+
+    private static void readElements(InputStream in, ElementSink elements) throws IOException {
+        JsonSequenceReader reader = new JsonSequenceReader(in, MAX_ELEMENT_BYTES);
+        for (byte[] element = reader.next(); element != null; element = reader.next()) {
+            elements.accept(element);
+        }
+    }
+
+    private static String queryString(String... nameValues) {
+        StringBuilder query = new StringBuilder();
+        for (int i = 0; i + 1 < nameValues.length; i += 2) {
+            if (nameValues[i + 1] != null) {
+                query.append(query.isEmpty() ? '?' : '&')
+                        .append(nameValues[i]).append('=')
+                        .append(URLEncoder.encode(nameValues[i + 1], StandardCharsets.UTF_8));
+            }
+        }
+        return query.toString();
+    }
+
+    /**
+     * {@code /users/{id}} with {@code id} percent-encoded as a path segment.
+     */
+    static String userPath(String id) {
+        return "/users/" + URLEncoder.encode(id, StandardCharsets.UTF_8).replace("+", "%20");
+    }
+}
@@ -0,0 +1,63 @@
+package com.acme;
+
+import java.util.Locale;
+
+/**
+ * Stored form of a user: the immutable {@link User} handed out by the API plus
+ * its lowercase name and email, computed once on write so searches never
+ * lowercase per request.
+ * <p>
+ * Entries are never modified; every write replaces the entry with a newly
+ * versioned user, so the cached JSON bytes always describe this exact version
+ * and an update or delete invalidates them simply by dropping the entry.
+ */
+final class UserEntry {
+    final User user;
+    final String nameKey;
+    final String emailKey;
+    private volatile byte[] json;
+    /** Cached by {@link UserService#etag(UserEntry)}, which owns the format. */
+    volatile String etag;
+
+    UserEntry(User user) {
+        this.user = user;
+        this.nameKey = normalize(user.getName());
+        this.emailKey = normalize(user.getEmail());
+    }
+
+    long version() {
+        return user.getVersion();
+    }
+
+    /**
+     * Serialized form of {@link #user}, encoded on first use. Concurrent first reads
+     * may both encode; they produce identical bytes.
+     */
+    byte[] json() {
+        byte[] bytes = json;
+        if (bytes == null) {
+            bytes = JsonWriter.toBytes(user);
+            json = bytes;
+        }
+        return bytes;
+    }
+
+    /**
+     * Case-insensitive substring match; a {@code null} filter matches everything.
+     * Filters must already be lowercase.
+     */
+    boolean matches(String nameFilter, String emailFilter) {
+        return contains(nameKey, nameFilter) && contains(emailKey, emailFilter);
+    }
+
+    private static boolean contains(String key, String filter) {
+        if (filter == null) {
+            return true;
+        }
+        return key != null && key.contains(filter);
+    }
+
+    static String normalize(String value) {
+        return value == null ? null : value.toLowerCase(Locale.ROOT);
+    }
+}
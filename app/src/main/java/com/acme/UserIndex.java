@@ -0,0 +1,180 @@
+package com.acme;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Secondary indexes over {@link UserEntry} keys.
+ * <p>
+ * Keeps an exact-match index on the lowercase email and trigram posting lists
+ * for name and email, so substring filters of three or more characters only
+ * visit users that share every trigram of the filter. Callers must serialize
+ * updates for the same user id (UserService does so inside
+ * {@code ConcurrentHashMap.compute}); updates for different ids may run
+ * concurrently. Lookups return candidates only; the caller re-checks each one
+ * against the current entry.
+ * <p>
+ * A trigram whose posting list grows past {@link #MAX_POSTING} (think {@code "com"}
+ * in every email) is marked saturated and its postings dropped: it no longer
+ * narrows a search enough to be worth its memory and write cost. Lookups skip
+ * saturated trigrams and fall back to a scan when a filter has nothing else.
+ */
+final class UserIndex {
+    static final int GRAM = 3;
+    static final int MAX_POSTING = 20_000;
+
+    private final Map<String, Set<String>> emailExact = new ConcurrentHashMap<>();
+    private final Map<String, Set<String>> nameGrams = new ConcurrentHashMap<>();
+    private final Map<String, Set<String>> emailGrams = new ConcurrentHashMap<>();
+    private final Set<String> saturatedNameGrams = ConcurrentHashMap.newKeySet();
+    private final Set<String> saturatedEmailGrams = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Move {@code id} from the postings of {@code previous} to those of {@code current}.
+     * Either side may be {@code null} for inserts and deletes.
+     */
+    void update(String id, UserEntry previous, UserEntry current) {
+        String oldEmail = previous == null ? null : previous.emailKey;
+        String newEmail = current == null ? null : current.emailKey;
+        if (!Objects.equals(oldEmail, newEmail)) {
+            if (oldEmail != null) {
+                removePosting(emailExact, oldEmail, id);
+            }
+            if (newEmail != null) {
+                addPosting(emailExact, newEmail, id);
+            }
+        }
+        updateGrams(nameGrams, saturatedNameGrams, id,
+                previous == null ? null : previous.nameKey,
+                current == null ? null : current.nameKey);
+        updateGrams(emailGrams, saturatedEmailGrams, id, oldEmail, newEmail);
+    }
+
+    /**
+     * Ids whose lowercase email equals {@code emailKey}.
+     */
+    Set<String> byEmail(String emailKey) {
+        Set<String> ids = emailExact.get(emailKey);
+        return ids == null ? Collections.emptySet() : ids;
+    }
+
+    /**
+     * Smallest posting list that every match for the given lowercase filters must
+     * appear in, or {@code null} when neither filter is long enough to use the
+     * trigram index and the caller has to scan.
+     */
+    Set<String> candidates(String nameFilter, String emailFilter) {
+        Set<String> best = null;
+        if (nameFilter != null && nameFilter.length() >= GRAM) {
+            best = smallestPosting(nameGrams, saturatedNameGrams, nameFilter);
+        }
+        if (emailFilter != null && emailFilter.length() >= GRAM) {
+            Set<String> emailBest = smallestPosting(emailGrams, saturatedEmailGrams, emailFilter);
+            if (best == null || (emailBest != null && emailBest.size() < best.size())) {
+                best = emailBest;
+            }
+        }
+        return best;
+    }
+
+    int emailKeyCount() {
+        return emailExact.size();
+    }
+
+    int gramCount() {
+        return nameGrams.size() + emailGrams.size();
+    }
+
+    int saturatedGramCount() {
+        return saturatedNameGrams.size() + saturatedEmailGrams.size();
+    }
+
+    // Null when every trigram of the filter is saturated.
+    private static Set<String> smallestPosting(Map<String, Set<String>> postings, Set<String> saturated,
+                                               String filter) {
+        Set<String> best = null;
+        for (int i = 0; i + GRAM <= filter.length(); i++) {
+            String gram = filter.substring(i, i + GRAM);
+            Set<String> ids = postings.get(gram);
+            if (ids == null) {
+                // Saturation is marked before the postings are dropped, so a missing
+                // list that is not saturated really has no users.
+                if (saturated.contains(gram)) {
+                    continue;
+                }
+                return Collections.emptySet();
+            }
+            if (best == null || ids.size() < best.size()) {
+                best = ids;
+            }
+        }
+        return best;
+    }
+
+    private static void updateGrams(Map<String, Set<String>> postings, Set<String> saturated, String id,
+                                    String oldKey, String newKey) {
+        if (Objects.equals(oldKey, newKey)) {
+            return;
+        }
+        Set<String> oldGrams = grams(oldKey);
+        Set<String> newGrams = grams(newKey);
+        for (String gram : oldGrams) {
+            if (!newGrams.contains(gram) && !saturated.contains(gram)) {
+                removePosting(postings, gram, id);
+            }
+        }
+        for (String gram : newGrams) {
+            if (!oldGrams.contains(gram) && !saturated.contains(gram)) {
+                addGramPosting(postings, saturated, gram, id);
+            }
+        }
+    }
+
+    static Set<String> grams(String key) {
+        if (key == null || key.length() < GRAM) {
+            return Collections.emptySet();
+        }
+        Set<String> grams = new HashSet<>();
+        for (int i = 0; i + GRAM <= key.length(); i++) {
+            grams.add(key.substring(i, i + GRAM));
+        }
+        return grams;
+    }
+
+    // Both mutations run under the posting key's bin lock, so an add can never land
+    // in a set that a concurrent remove has just dropped from the map.
+    private static void addPosting(Map<String, Set<String>> postings, String key, String id) {
+        postings.compute(key, (k, ids) -> {
+            Set<String> target = ids == null ? ConcurrentHashMap.newKeySet() : ids;
+            target.add(id);
+            return target;
+        });
+    }
+
+    private static void addGramPosting(Map<String, Set<String>> postings, Set<String> saturated,
+                                       String gram, String id) {
+        postings.compute(gram, (k, ids) -> {
+            if (saturated.contains(k)) {
+                return null;
+            }
+            Set<String> target = ids == null ? ConcurrentHashMap.newKeySet() : ids;
+            target.add(id);
+            if (target.size() > MAX_POSTING) {
+                saturated.add(k);
+                return null;
+            }
+            return target;
+        });
+    }
+
+    private static void removePosting(Map<String, Set<String>> postings, String key, String id) {
+        postings.computeIfPresent(key, (k, ids) -> {
+            ids.remove(id);
+            return ids.isEmpty() ? null : ids;
+        });
+    }
+}
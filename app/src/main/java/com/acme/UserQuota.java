@@ -0,0 +1,135 @@
+package com.acme;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Limits on how many users a {@link UserService} holds and roughly how much heap
+ * they take, charged by every write under the id's lock.
+ * <p>
+ * Bytes are an estimate: two per character of the id, name and email plus
+ * {@link #ENTRY_OVERHEAD_BYTES} for the objects and index entries around them,
+ * about what the {@link UserService.Layout#HASH hash} layout retains. A write is
+ * refused with {@link Exceeded} before it reaches storage or the change feed if
+ * it would take the store past either limit. Updates that shrink a user and
+ * deletes always succeed, so a full store can still be cleaned up.
+ * <p>
+ * Both counters are per service, so stores with separate quotas never contend on
+ * them.
+ */
+final class UserQuota {
+    static final int ENTRY_OVERHEAD_BYTES = 320;
+
+    private final int maxUsers;
+    private final long maxBytes;
+    private final AtomicInteger users = new AtomicInteger();
+    private final AtomicLong bytes = new AtomicLong();
+
+    /**
+     * @param maxUsers most users the store may hold
+     * @param maxBytes most estimated bytes the store may hold
+     */
+    UserQuota(int maxUsers, long maxBytes) {
+        if (maxUsers < 0 || maxBytes < 0) {
+            throw new IllegalArgumentException("Quota limits must not be negative");
+        }
+        this.maxUsers = maxUsers;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Thrown by a write the quota has no room for; nothing was written.
+     */
+    static final class Exceeded extends RuntimeException {
+        Exceeded(String message) {
+            super(message, null, false, false);
+        }
+    }
+
+    /**
+     * Account for {@code previous} being replaced by {@code next}, either of which may
+     * be {@code null}, or refuse it.
+     *
+     * @throws Exceeded if the write adds a user or bytes past a limit
+     */
+    void charge(User previous, User next) {
+        int userDelta = (next == null ? 0 : 1) - (previous == null ? 0 : 1);
+        long byteDelta = bytes(next) - bytes(previous);
+        if (userDelta > 0 && !tryAdd(users, userDelta, maxUsers)) {
+            throw new Exceeded("Quota of " + maxUsers + " users reached.");
+        }
+        if (byteDelta > 0 && !tryAdd(bytes, byteDelta, maxBytes)) {
+            if (userDelta > 0) {
+                users.addAndGet(-userDelta);
+            }
+            throw new Exceeded("Quota of " + maxBytes + " bytes reached.");
+        }
+        if (userDelta <= 0) {
+            users.addAndGet(userDelta);
+        }
+        if (byteDelta <= 0) {
+            bytes.addAndGet(byteDelta);
+        }
+    }
+
+    /**
+     * Like {@link #charge} without the limits, for users replayed from storage,
+     * which are already stored whatever the quota says now.
+     */
+    void force(User previous, User next) {
+        users.addAndGet((next == null ? 0 : 1) - (previous == null ? 0 : 1));
+        bytes.addAndGet(bytes(next) - bytes(previous));
+    }
+
+    int maxUsers() {
+        return maxUsers;
+    }
+
+    long maxBytes() {
+        return maxBytes;
+    }
+
+    int users() {
+        return users.get();
+    }
+
+    long bytes() {
+        return bytes.get();
+    }
+
+    static long bytes(User user) {
+        if (user == null) {
+            return 0;
+        }
+        return ENTRY_OVERHEAD_BYTES
+                + 2L * (length(user.getId()) + length(user.getName()) + length(user.getEmail()));
+    }
+
+    private static int length(String value) {
+        return value == null ? 0 : value.length();
+    }
+
+    private static boolean tryAdd(AtomicInteger counter, int delta, int max) {
+        while (true) {
+            int current = counter.get();
+            if (current + delta > max) {
+                return false;
+            }
+            if (counter.compareAndSet(current, current + delta)) {
+                return true;
+            }
+        }
+    }
+
+    private static boolean tryAdd(AtomicLong counter, long delta, long max) {
+        while (true) {
+            long current = counter.get();
+            if (current + delta > max) {
+                return false;
+            }
+            if (counter.compareAndSet(current, current + delta)) {
+                return true;
+            }
+        }
+    }
+}
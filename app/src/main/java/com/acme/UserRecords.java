@@ -0,0 +1,149 @@
+package com.acme;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32C;
+
+/**
+ * Binary record format shared by the write-ahead log and snapshots.
+ * <pre>
+ * int   payload length
+ * int   CRC32C of the payload
+ * byte  type (PUT or DELETE)
+ * str   id
+ * str   name, str email (PUT only)
+ * </pre>
+ * where {@code str} is an int byte length ({@code -1} for null) followed by UTF-8 bytes.
+ */
+final class UserRecords {
+    static final byte PUT = 1;
+    static final byte DELETE = 2;
+    static final int HEADER = 8;
+    static final int MAX_PAYLOAD = 16 * 1024 * 1024;
+
+    /**
+     * Receives decoded records.
+     */
+    interface Sink {
+        void put(String id, String name, String email);
+
+        void delete(String id);
+    }
+
+    private UserRecords() {
+    }
+
+    static byte[] encodePut(User user) {
+        return encode(PUT, user.getId(), user.getName(), user.getEmail());
+    }
+
+    static byte[] encodeDelete(String id) {
+        return encode(DELETE, id, null, null);
+    }
+
+    private static byte[] encode(byte type, String id, String name, String email) {
+        byte[] idBytes = utf8(id);
+        byte[] nameBytes = type == PUT ? utf8(name) : null;
+        byte[] emailBytes = type == PUT ? utf8(email) : null;
+        int payload = 1 + sizeOf(idBytes) + (type == PUT ? sizeOf(nameBytes) + sizeOf(emailBytes) : 0);
+        if (payload > MAX_PAYLOAD) {
+            throw new IllegalArgumentException("User record too large: " + payload + " bytes");
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER + payload);
+        buffer.putInt(payload);
+        buffer.putInt(0);
+        buffer.put(type);
+        putString(buffer, idBytes);
+        if (type == PUT) {
+            putString(buffer, nameBytes);
+            putString(buffer, emailBytes);
+        }
+        CRC32C crc = new CRC32C();
+        crc.update(buffer.array(), HEADER, payload);
+        buffer.putInt(4, (int) crc.getValue());
+        return buffer.array();
+    }
+
+    /**
+     * Decode one record at the buffer's position.
+     *
+     * @return bytes consumed, {@code 0} if the buffer ends before the record does,
+     *         or {@code -1} if the record is corrupt
+     */
+    static int decode(ByteBuffer buffer, Sink sink) {
+        int start = buffer.position();
+        int available = buffer.limit() - start;
+        if (available < HEADER) {
+            return 0;
+        }
+        int payload = buffer.getInt(start);
+        if (payload <= 0 || payload > MAX_PAYLOAD) {
+            return -1;
+        }
+        if (available < HEADER + payload) {
+            return 0;
+        }
+        CRC32C crc = new CRC32C();
+        crc.update(buffer.slice(start + HEADER, payload));
+        if ((int) crc.getValue() != buffer.getInt(start + 4)) {
+            return -1;
+        }
+        ByteBuffer body = buffer.slice(start + HEADER, payload);
+        byte type;
+        String id;
+        String name = null;
+        String email = null;
+        try {
+            type = body.get();
+            id = getString(body);
+            if (type == PUT) {
+                name = getString(body);
+                email = getString(body);
+            } else if (type != DELETE) {
+                return -1;
+            }
+        } catch (BufferUnderflowException e) {
+            // A string length running past the payload.
+            return -1;
+        }
+        buffer.position(start + HEADER + payload);
+        // Outside the try: a failing sink is not a corrupt record and must not be mistaken for one.
+        if (type == PUT) {
+            sink.put(id, name, email);
+        } else {
+            sink.delete(id);
+        }
+        return HEADER + payload;
+    }
+
+    private static byte[] utf8(String value) {
+        return value == null ? null : value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static int sizeOf(byte[] bytes) {
+        return 4 + (bytes == null ? 0 : bytes.length);
+    }
+
+    private static void putString(ByteBuffer buffer, byte[] bytes) {
+        if (bytes == null) {
+            buffer.putInt(-1);
+        } else {
+            buffer.putInt(bytes.length);
+            buffer.put(bytes);
+        }
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length == -1) {
+            return null;
+        }
+        if (length < 0 || length > buffer.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,725 @@
+package com.acme;
+
+import io.helidon.http.HeaderNames;
+import io.helidon.http.Method;
+import io.helidon.http.Status;
+import io.helidon.webserver.http.HttpRouting;
+import io.helidon.webserver.http.ServerRequest;
+import io.helidon.webserver.http.ServerResponse;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
+import java.util.zip.ZipException;
+
+/**
+ * The {@code /users} endpoints over one {@link UserService}.
+ * <p>
+ * With a {@link UserCluster}, the service holds only the users this node owns:
+ * requests for a single user another node owns are forwarded to it, and listings
+ * and searches gather every node's share. Requests that were themselves forwarded
+ * are answered from the local shard only.
+ */
+final class UserRoutes {
+    private static final String JSON = "application/json";
+    private static final String NDJSON = "application/x-ndjson";
+    private static final ResponseEncoding.Coding[] CODINGS = ResponseEncoding.Coding.values();
+    private static final Comparator<Shared> SHARED_ORDER = Comparator.comparing(shared -> shared.id,
+            UserService.ID_ORDER);
+    private static final int DEFAULT_SEARCH_LIMIT = 10;
+    static final Status INSUFFICIENT_STORAGE_507 = Status.create(507, "Insufficient Storage");
+    static final String QUOTA_EXCEEDED = "Quota exceeded";
+    private static final byte[] MISSING_QUERY = Main.errorJson("Missing query", "Query parameter q is required.");
+    private static final byte[] INVALID_LIMIT = Main.errorJson("Invalid limit",
+            "limit must be an integer between 1 and " + Main.MAX_PAGE_SIZE + ".");
+    private static final byte[] INVALID_JSON = Main.errorJson("Invalid JSON", "Request body must be valid JSON.");
+    private static final byte[] BODY_TOO_LARGE = Main.errorJson("Invalid JSON",
+            "Request body must not exceed " + Main.MAX_BODY_BYTES + " bytes.");
+    /**
+     * The 404 payload around the id, split where {@link #notFoundJson} splices it in.
+     */
+    private static final byte[] NOT_FOUND_HEAD;
+    private static final byte[] NOT_FOUND_TAIL;
+
+    static {
+        byte[] template = Main.errorJson("User not found", "No user with id: %s");
+        int marker = indexOf(template, "%s".getBytes(StandardCharsets.US_ASCII));
+        NOT_FOUND_HEAD = Arrays.copyOfRange(template, 0, marker);
+        NOT_FOUND_TAIL = Arrays.copyOfRange(template, marker + 2, template.length);
+    }
+
+    private final UserService userService;
+    private final UserCluster cluster;
+    private final UserBatchHandler batchHandler;
+    private final UserChangeStreamHandler changeStreamHandler;
+    private final ResponseCache responses = new ResponseCache(256, 256 * 1024);
+
+    UserRoutes(UserService userService) {
+        this(userService, null);
+    }
+
+    /**
+     * @param cluster the cluster this node belongs to, or {@code null} to serve every user locally
+     */
+    UserRoutes(UserService userService, UserCluster cluster) {
+        this.userService = userService;
+        this.cluster = cluster;
+        this.batchHandler = new UserBatchHandler(userService, cluster);
+        this.changeStreamHandler = new UserChangeStreamHandler(userService.changes());
+        if (cluster != null) {
+            userService.generatedIdFilter(cluster::owns);
+        }
+    }
+
+    UserService service() {
+        return userService;
+    }
+
+    UserCluster cluster() {
+        return cluster;
+    }
+
+    void register(HttpRouting.Builder rules) {
+        register(rules, "");
+    }
+
+    /**
+     * Register the endpoints under {@code prefix}, e.g. {@code /t/acme} for
+     * {@code /t/acme/users}, or {@code ""} for {@code /users}.
+     */
+    void register(HttpRouting.Builder rules, String prefix) {
+        rules.get(prefix + "/users", this::list);
+        // Registered before /users/{id} so "changes" is not taken for an id.
+        rules.get(prefix + "/users/changes", changeStreamHandler::handle);
+        rules.get(prefix + "/users/search", this::search);
+        rules.get(prefix + "/users/export", this::export);
+        rules.get(prefix + "/users/{id}", this::get);
+        rules.post(prefix + "/users", this::create);
+        rules.post(prefix + "/users/import", this::importArchive);
+
+        // Bulk endpoints: JSON array or NDJSON body, per-item results in one response
+        rules.post(prefix + "/users:batch",
+                (req, res) -> batchHandler.handle(req, res, UserBatchHandler.Operation.CREATE));
+        rules.put(prefix + "/users:batch",
+                (req, res) -> batchHandler.handle(req, res, UserBatchHandler.Operation.UPDATE));
+        rules.post(prefix + "/users:batchDelete",
+                (req, res) -> batchHandler.handle(req, res, UserBatchHandler.Operation.DELETE));
+
+        rules.put(prefix + "/users/{id}", this::update);
+        rules.delete(prefix + "/users/{id}", this::delete);
+    }
+
+    private void list(ServerRequest req, ServerResponse res) throws IOException {
+        if (isClustered(req)) {
+            listCluster(req, res);
+            return;
+        }
+        // Any change to any user changes every listing, so one store-wide tag covers them all.
+        // The same version keys the cached responses; reading it first means a cached
+        // listing is never older than its version.
+        long version = userService.version();
+        String etag = userService.etag(version);
+        if (notModified(req, res, etag)) {
+            return;
+        }
+        String name = req.query().first("name").orElse(null);
+        String email = req.query().first("email").orElse(null);
+        if (!Main.isBlank(name) || !Main.isBlank(email)) {
+            String key = ResponseCache.key("search", name, email);
+            ResponseCache.Entry cached = responses.get(key, version);
+            if (cached == null) {
+                cached = responses.put(key, new ResponseCache.Entry(version, JSON,
+                        JsonWriter.toBytes(userService.findUsers(name, email)), null));
+            }
+            sendCached(req, res, cached, etag);
+            return;
+        }
+        String limitParam = req.query().first("limit").orElse(null);
+        String after = req.query().first("after").orElse(null);
+        if (limitParam == null && after == null) {
+            boolean ndjson = acceptsNdjson(req);
+            if (userService.size() > Main.MAX_CACHED_LIST_USERS) {
+                streamUsers(req, res, ndjson, etag);
+                return;
+            }
+            String key = ResponseCache.key("all", ndjson ? "ndjson" : "json");
+            ResponseCache.Entry cached = responses.get(key, version);
+            if (cached == null) {
+                cached = responses.put(key, new ResponseCache.Entry(version, ndjson ? NDJSON : JSON,
+                        listUsers(ndjson), null));
+            }
+            sendCached(req, res, cached, etag);
+            return;
+        }
+        int limit = parseLimit(limitParam);
+        if (limit < 0) {
+            sendInvalidLimit(res);
+            return;
+        }
+        String start = Main.isBlank(after) ? null : after;
+        String key = ResponseCache.key("page", Integer.toString(limit), start);
+        ResponseCache.Entry cached = responses.get(key, version);
+        if (cached == null) {
+            List<User> page = userService.getUsersPage(start, limit);
+            String nextCursor = page.size() == limit ? page.get(page.size() - 1).getId() : null;
+            cached = responses.put(key, new ResponseCache.Entry(version, JSON, JsonWriter.toBytes(page),
+                    nextCursor));
+        }
+        sendCached(req, res, cached, etag);
+    }
+
+    /**
+     * {@code GET /users} across the cluster. There is no cluster-wide version, so
+     * these responses carry no {@code ETag} and are not cached. Searches return this
+     * node's matches followed by each peer's; pages merge every node's page of the
+     * same size in {@link UserService#ID_ORDER}, so cursors work as on one node;
+     * unpaged listings stream each node's users in turn.
+     */
+    private void listCluster(ServerRequest req, ServerResponse res) throws IOException {
+        String name = req.query().first("name").orElse(null);
+        String email = req.query().first("email").orElse(null);
+        String limitParam = req.query().first("limit").orElse(null);
+        String after = req.query().first("after").orElse(null);
+        boolean search = !Main.isBlank(name) || !Main.isBlank(email);
+        if (!search && limitParam == null && after == null) {
+            streamCluster(req, res, acceptsNdjson(req));
+            return;
+        }
+        int limit = search ? 0 : parseLimit(limitParam);
+        if (limit < 0) {
+            sendInvalidLimit(res);
+            return;
+        }
+        String start = Main.isBlank(after) ? null : after;
+        List<byte[]> remote;
+        try {
+            remote = search
+                    ? cluster.gather("/users", "name", name, "email", email)
+                    : cluster.gather("/users", "limit", String.valueOf(limit), "after", start);
+        } catch (IOException e) {
+            UserCluster.sendUnavailable(res, e.getMessage());
+            return;
+        }
+        JsonWriter body = new JsonWriter(4096).literal("[");
+        if (search) {
+            List<User> local = userService.findUsers(name, email);
+            for (User user : local) {
+                separate(body).user(user);
+            }
+            for (byte[] element : remote) {
+                separate(body).raw(element);
+            }
+        } else {
+            List<Shared> page = new ArrayList<>();
+            for (User user : userService.getUsersPage(start, limit)) {
+                page.add(new Shared(user.getId(), JsonWriter.toBytes(user)));
+            }
+            for (byte[] element : remote) {
+                page.add(new Shared(JsonReader.readUser(element).getId(), element));
+            }
+            page.sort(SHARED_ORDER);
+            int size = Math.min(limit, page.size());
+            for (int i = 0; i < size; i++) {
+                separate(body).raw(page.get(i).json);
+            }
+            if (size == limit) {
+                res.header(Main.NEXT_CURSOR, page.get(size - 1).id);
+            }
+        }
+        Main.sendJson(req, res, body.literal("]").toByteArray(), null);
+    }
+
+    private static JsonWriter separate(JsonWriter body) {
+        return body.length() > 1 ? body.literal(",") : body;
+    }
+
+    /**
+     * {@code GET /users/search?q=}: ranked prefix and typo-tolerant search, top
+     * {@code limit} (default {@value #DEFAULT_SEARCH_LIMIT}) first. Across a cluster,
+     * every node's top results are scored again here and merged, since scores depend
+     * only on the query and the user.
+     */
+    private void search(ServerRequest req, ServerResponse res) throws IOException {
+        String q = req.query().first("q").orElse(null);
+        if (Main.isBlank(q)) {
+            Main.sendError(res, Status.BAD_REQUEST_400, MISSING_QUERY);
+            return;
+        }
+        String limitParam = req.query().first("limit").orElse(null);
+        int limit = limitParam == null ? DEFAULT_SEARCH_LIMIT : parseLimit(limitParam);
+        if (limit < 0) {
+            sendInvalidLimit(res);
+            return;
+        }
+        if (isClustered(req)) {
+            searchCluster(req, res, q, limit);
+            return;
+        }
+        long version = userService.version();
+        String etag = userService.etag(version);
+        if (notModified(req, res, etag)) {
+            return;
+        }
+        String key = ResponseCache.key("rank", Integer.toString(limit), q);
+        ResponseCache.Entry cached = responses.get(key, version);
+        if (cached == null) {
+            cached = responses.put(key, new ResponseCache.Entry(version, JSON,
+                    JsonWriter.toBytes(userService.searchUsers(q, limit)), null));
+        }
+        sendCached(req, res, cached, etag);
+    }
+
+    private void searchCluster(ServerRequest req, ServerResponse res, String q, int limit) throws IOException {
+        List<byte[]> remote;
+        try {
+            remote = cluster.gather("/users/search", "q", q, "limit", String.valueOf(limit));
+        } catch (IOException e) {
+            UserCluster.sendUnavailable(res, e.getMessage());
+            return;
+        }
+        UserSearchIndex.Query query = UserSearchIndex.Query.parse(q);
+        List<Ranked> ranked = new ArrayList<>();
+        for (User user : userService.searchUsers(q, limit)) {
+            ranked.add(new Ranked(user, JsonWriter.toBytes(user), query));
+        }
+        for (byte[] element : remote) {
+            ranked.add(new Ranked(JsonReader.readUser(element), element, query));
+        }
+        ranked.sort(Comparator.comparingDouble((Ranked r) -> r.score).reversed()
+                .thenComparing(r -> r.id, UserService.ID_ORDER));
+        JsonWriter body = new JsonWriter(4096).literal("[");
+        for (int i = 0; i < Math.min(limit, ranked.size()); i++) {
+            separate(body).raw(ranked.get(i).json);
+        }
+        Main.sendJson(req, res, body.literal("]").toByteArray(), null);
+    }
+
+    /**
+     * {@code GET /users/export}: every local user as a {@link UserArchive}, gzipped with
+     * {@code ?compress=gzip}. In a cluster each node exports its own share.
+     */
+    private void export(ServerRequest req, ServerResponse res) throws IOException {
+        boolean compress = "gzip".equalsIgnoreCase(req.query().first("compress").orElse(null));
+        res.header(HeaderNames.CONTENT_TYPE, compress ? "application/gzip" : UserArchive.CONTENT_TYPE);
+        res.header(HeaderNames.CONTENT_DISPOSITION,
+                "attachment; filename=\"users" + (compress ? ".bin.gz" : ".bin") + "\"");
+        userService.exportUsers(res.outputStream(), compress);
+    }
+
+    /**
+     * {@code POST /users/import}: load an export, gzipped or not, and report how many
+     * users were imported. In a cluster only the users this node owns are kept, so
+     * the same archive can be posted to every node.
+     */
+    private void importArchive(ServerRequest req, ServerResponse res) throws IOException {
+        UserArchive.Imported result;
+        try {
+            result = userService.importUsers(req.content().inputStream(),
+                    cluster == null ? id -> true : cluster::owns);
+        } catch (IllegalArgumentException | ZipException e) {
+            Main.sendError(res, Status.BAD_REQUEST_400, "Invalid archive", e.getMessage());
+            return;
+        }
+        Main.sendJson(req, res, new JsonWriter(64)
+                .literal("{\"imported\":" + result.imported + ",\"skipped\":" + result.skipped + "}")
+                .toByteArray(), null);
+    }
+
+    private void streamCluster(ServerRequest req, ServerResponse res, boolean ndjson) throws IOException {
+        ResponseEncoding.Coding coding = ResponseEncoding.negotiate(
+                req.headers().first(HeaderNames.ACCEPT_ENCODING).orElse(null));
+        Main.encodingHeaders(res, coding, null);
+        res.header(HeaderNames.CONTENT_TYPE, ndjson ? NDJSON : JSON);
+        try (Stream<UserEntry> entries = userService.streamAllEntries();
+             OutputStream out = ResponseEncoding.wrap(res.outputStream(), coding)) {
+            boolean[] first = {true};
+            if (!ndjson) {
+                out.write('[');
+            }
+            UserCluster.ElementSink sink = element -> {
+                if (!ndjson && !first[0]) {
+                    out.write(',');
+                }
+                out.write(element);
+                if (ndjson) {
+                    out.write('\n');
+                }
+                first[0] = false;
+            };
+            for (Iterator<UserEntry> it = entries.iterator(); it.hasNext(); ) {
+                sink.accept(it.next().json());
+            }
+            // The status is already sent, so a failing peer can only cut the body short.
+            for (String peer : cluster.peers()) {
+                cluster.stream(peer, "/users", sink);
+            }
+            if (!ndjson) {
+                out.write(']');
+            }
+        }
+    }
+
+    private void get(ServerRequest req, ServerResponse res) {
+        String id = req.path().pathParameters().get("id");
+        if (ownedElsewhere(req, id) && cluster.remoteUsers() != null) {
+            getRemote(req, res, id);
+            return;
+        }
+        if (forwarded(req, res, id)) {
+            return;
+        }
+        UserEntry entry = userService.getEntry(id);
+        if (entry == null) {
+            sendNotFound(res, id);
+            return;
+        }
+        String etag = userService.etag(entry);
+        if (!notModified(req, res, etag)) {
+            Main.sendJson(req, res, entry.json(), etag);
+        }
+    }
+
+    private void getRemote(ServerRequest req, ServerResponse res, String id) {
+        UserCluster.RemoteUser user;
+        try {
+            user = cluster.remoteUsers().get(id);
+        } catch (IOException e) {
+            UserCluster.sendUnavailable(res, e.getMessage());
+            return;
+        }
+        if (user == null) {
+            sendNotFound(res, id);
+        } else if (user.etag == null || !notModified(req, res, user.etag)) {
+            Main.sendJson(req, res, user.json, user.etag);
+        }
+    }
+
+    private void create(ServerRequest req, ServerResponse res) throws IOException {
+        User user = readUser(req, res);
+        if (user == null) {
+            return;
+        }
+        String validationError = Main.validateUser(user);
+        if (validationError != null) {
+            Main.sendValidationError(res, validationError);
+            return;
+        }
+        if (!Main.isBlank(user.getId()) && ownedElsewhere(req, user.getId())) {
+            forward(req, res, user.getId(), "/users", JsonWriter.toBytes(user));
+            return;
+        }
+        User created;
+        try {
+            created = userService.createUser(user);
+        } catch (UserQuota.Exceeded e) {
+            sendQuotaExceeded(res, e);
+            return;
+        }
+        res.status(Status.CREATED_201);
+        res.header(HeaderNames.ETAG, userService.etag(created.getVersion()));
+        Main.sendJson(res, JsonWriter.toBytes(created));
+    }
+
+    private void update(ServerRequest req, ServerResponse res) throws IOException {
+        String id = req.path().pathParameters().get("id");
+        User user = readUser(req, res);
+        if (user == null) {
+            return;
+        }
+        String validationError = Main.validateUser(user);
+        if (validationError != null) {
+            Main.sendValidationError(res, validationError);
+            return;
+        }
+        if (ownedElsewhere(req, id)) {
+            forward(req, res, id, UserCluster.userPath(id), JsonWriter.toBytes(user));
+            return;
+        }
+        String ifMatch = req.headers().first(HeaderNames.IF_MATCH).orElse(null);
+        long expectedVersion = UserService.ANY_VERSION;
+        if (ifMatch != null) {
+            // The current version is the only one the update can succeed against; the
+            // compare-and-set below catches a change after this read.
+            UserEntry current = userService.getEntry(id);
+            if (current == null || !Main.matchesAnyCoding(ifMatch, userService.etag(current.version()), false)) {
+                sendPreconditionFailed(res, id);
+                return;
+            }
+            expectedVersion = current.version();
+        }
+        Optional<User> updated;
+        try {
+            updated = userService.updateUser(id, user, expectedVersion);
+        } catch (ConcurrentModificationException e) {
+            sendPreconditionFailed(res, id);
+            return;
+        } catch (UserQuota.Exceeded e) {
+            sendQuotaExceeded(res, e);
+            return;
+        }
+        if (updated.isEmpty()) {
+            if (ifMatch != null) {
+                sendPreconditionFailed(res, id);
+            } else {
+                sendNotFound(res, id);
+            }
+            return;
+        }
+        res.header(HeaderNames.ETAG, userService.etag(updated.get().getVersion()));
+        Main.sendJson(res, JsonWriter.toBytes(updated.get()));
+    }
+
+    private void delete(ServerRequest req, ServerResponse res) {
+        String id = req.path().pathParameters().get("id");
+        if (forwarded(req, res, id)) {
+            return;
+        }
+        if (userService.deleteUser(id)) {
+            res.status(Status.NO_CONTENT_204).send();
+        } else {
+            sendNotFound(res, id);
+        }
+    }
+
+    private boolean isClustered(ServerRequest req) {
+        return cluster != null && !UserCluster.isForwarded(req);
+    }
+
+    /**
+     * Whether user {@code id} belongs to another node and this request should go there.
+     * Checked before building a forwarded body, so local writes never encode the user.
+     */
+    private boolean ownedElsewhere(ServerRequest req, String id) {
+        return isClustered(req) && !cluster.owns(id);
+    }
+
+    /**
+     * Forward a bodiless request for user {@code id} to its owner when that is another node.
+     *
+     * @return whether the request was forwarded and answered
+     */
+    private boolean forwarded(ServerRequest req, ServerResponse res, String id) {
+        if (!ownedElsewhere(req, id)) {
+            return false;
+        }
+        forward(req, res, id, UserCluster.userPath(id), null);
+        return true;
+    }
+
+    private void forward(ServerRequest req, ServerResponse res, String id, String path, byte[] body) {
+        cluster.forward(req, res, cluster.owner(id), path, body);
+        if (req.prologue().method() != Method.GET) {
+            cluster.invalidate(id);
+        }
+    }
+
+    /**
+     * Write every user straight to the response as a chunked JSON array, or as
+     * newline-delimited JSON, so memory per request stays flat regardless of the
+     * store size. Each user's JSON comes from its entry's cache. The stream is
+     * compressed whenever the client accepts it, since a store this size is well
+     * over {@link Main#COMPRESSION_MIN_BYTES}.
+     */
+    private void streamUsers(ServerRequest req, ServerResponse res, boolean ndjson, String etag)
+            throws IOException {
+        ResponseEncoding.Coding coding = ResponseEncoding.negotiate(
+                req.headers().first(HeaderNames.ACCEPT_ENCODING).orElse(null));
+        Main.encodingHeaders(res, coding, etag);
+        res.header(HeaderNames.CONTENT_TYPE, ndjson ? NDJSON : JSON);
+        try (Stream<UserEntry> entries = userService.streamAllEntries();
+             OutputStream out = ResponseEncoding.wrap(res.outputStream(), coding)) {
+            writeUsers(entries.iterator(), out, ndjson);
+        }
+    }
+
+    /**
+     * Every user as one JSON array or NDJSON body, for caching.
+     */
+    private byte[] listUsers(boolean ndjson) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(userService.size() * 80 + 2);
+        try (Stream<UserEntry> entries = userService.streamAllEntries()) {
+            writeUsers(entries.iterator(), out, ndjson);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out.toByteArray();
+    }
+
+    private static void writeUsers(Iterator<UserEntry> it, OutputStream out, boolean ndjson) throws IOException {
+        if (!ndjson) {
+            out.write('[');
+        }
+        boolean first = true;
+        while (it.hasNext()) {
+            if (!ndjson && !first) {
+                out.write(',');
+            }
+            out.write(it.next().json());
+            if (ndjson) {
+                out.write('\n');
+            }
+            first = false;
+        }
+        if (!ndjson) {
+            out.write(']');
+        }
+    }
+
+    private static boolean acceptsNdjson(ServerRequest req) {
+        return req.headers().first(HeaderNames.ACCEPT)
+                .map(accept -> accept.contains(NDJSON))
+                .orElse(false);
+    }
+
+    /**
+     * Set {@code ETag} and, when {@code If-None-Match} already names it or one of its
+     * encoded variants, answer 304 without a body.
+     *
+     * @return whether the response has been sent
+     */
+    private static boolean notModified(ServerRequest req, ServerResponse res, String etag) {
+        res.header(HeaderNames.ETAG, etag);
+        String ifNoneMatch = req.headers().first(HeaderNames.IF_NONE_MATCH).orElse(null);
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (ResponseEncoding.Coding coding : CODINGS) {
+            String tag = ResponseEncoding.etag(etag, coding);
+            if (Main.etagMatches(ifNoneMatch, tag, true)) {
+                res.header(HeaderNames.ETAG, tag);
+                res.status(Status.NOT_MODIFIED_304).send();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void sendNotFound(ServerResponse res, String id) {
+        Main.sendError(res, Status.NOT_FOUND_404, notFoundJson(id));
+    }
+
+    /**
+     * The 404 payload for {@code id}: the cached head and tail around the id's bytes
+     * in one array of the exact size, or a full encode when the id needs escaping.
+     */
+    static byte[] notFoundJson(String id) {
+        int length = id.length();
+        for (int i = 0; i < length; i++) {
+            char c = id.charAt(i);
+            if (c < 0x20 || c >= 0x7f || c == '"' || c == '\\') {
+                return Main.errorJson("User not found", "No user with id: " + id);
+            }
+        }
+        byte[] json = new byte[NOT_FOUND_HEAD.length + length + NOT_FOUND_TAIL.length];
+        System.arraycopy(NOT_FOUND_HEAD, 0, json, 0, NOT_FOUND_HEAD.length);
+        for (int i = 0; i < length; i++) {
+            json[NOT_FOUND_HEAD.length + i] = (byte) id.charAt(i);
+        }
+        System.arraycopy(NOT_FOUND_TAIL, 0, json, NOT_FOUND_HEAD.length + length, NOT_FOUND_TAIL.length);
+        return json;
+    }
+
+    private static int indexOf(byte[] bytes, byte[] part) {
+        for (int i = 0; i <= bytes.length - part.length; i++) {
+            if (Arrays.equals(bytes, i, i + part.length, part, 0, part.length)) {
+                return i;
+            }
+        }
+        throw new IllegalStateException("Marker not found");
+    }
+
+    private static void sendPreconditionFailed(ServerResponse res, String id) {
+        Main.sendError(res, Status.PRECONDITION_FAILED_412, "Precondition failed",
+                "User " + id + " does not match If-Match; fetch it again and retry.");
+    }
+
+    static void sendQuotaExceeded(ServerResponse res, UserQuota.Exceeded e) {
+        Main.sendError(res, INSUFFICIENT_STORAGE_507, QUOTA_EXCEEDED, e.getMessage());
+    }
+
+    private static void sendInvalidLimit(ServerResponse res) {
+        Main.sendError(res, Status.BAD_REQUEST_400, INVALID_LIMIT);
+    }
+
+    private static int parseLimit(String value) {
+        if (value == null) {
+            return Main.DEFAULT_PAGE_SIZE;
+        }
+        try {
+            int limit = Integer.parseInt(value.trim());
+            return (limit < 1 || limit > Main.MAX_PAGE_SIZE) ? -1 : limit;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Decode the body with {@link JsonReader}. Sends a 400 and returns {@code null}
+     * when it is missing, malformed or larger than {@link Main#MAX_BODY_BYTES}.
+     */
+    private static User readUser(ServerRequest req, ServerResponse res) throws IOException {
+        byte[] body = req.content().inputStream().readNBytes(Main.MAX_BODY_BYTES + 1);
+        if (body.length > Main.MAX_BODY_BYTES) {
+            Main.sendError(res, Status.BAD_REQUEST_400, BODY_TOO_LARGE);
+            return null;
+        }
+        try {
+            return JsonReader.readUser(body);
+        } catch (IllegalArgumentException ex) {
+            Main.sendError(res, Status.BAD_REQUEST_400, INVALID_JSON);
+            return null;
+        }
+    }
+
+    /**
+     * Like {@link Main#sendJson(ServerRequest, ServerResponse, byte[], String)}, with the
+     * encoded body taken from, or added to, the cache entry.
+     */
+    private static void sendCached(ServerRequest req, ServerResponse res, ResponseCache.Entry entry, String etag) {
+        if (entry.nextCursor != null) {
+            res.header(Main.NEXT_CURSOR, entry.nextCursor);
+        }
+        ResponseEncoding.Coding coding = Main.coding(req, entry.body.length);
+        Main.encodingHeaders(res, coding, etag);
+        res.header(HeaderNames.CONTENT_TYPE, entry.contentType);
+        res.send(entry.body(coding));
+    }
+
+    /**
+     * One search result as received from a node, with its score for merging.
+     */
+    private static final class Ranked {
+        final String id;
+        final byte[] json;
+        final double score;
+
+        Ranked(User user, byte[] json, UserSearchIndex.Query query) {
+            this.id = user.getId();
+            this.json = json;
+            this.score = UserSearchIndex.score(new UserEntry(user), query);
+        }
+    }
+
+    /**
+     * One user's JSON as received from a node, with its id for merging.
+     */
+    private static final class Shared {
+        final String id;
+        final byte[] json;
+
+        Shared(String id, byte[] json) {
+            this.id = id;
+            this.json = json;
+        }
+    }
+}
@@ -0,0 +1,494 @@
+package com.acme;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+/**
+ * Ranked prefix and typo-tolerant search over the words of names and emails.
+ * <p>
+ * Names and emails are split into lowercase tokens at anything that is not a
+ * letter or digit ({@code "alice.j@example.com"} gives {@code alice}, {@code j},
+ * {@code example} and {@code com}). Tokens are kept in one sorted map per token
+ * length, each token with the ids of the users that contain it, and maintained on
+ * every write like {@link UserIndex}. A query term matches a token that equals it,
+ * starts with it, or, for terms of {@link #fuzziness three or more characters},
+ * is within one or two edits of it and starts with the same character:
+ * <ul>
+ * <li>prefixes walk the range of tokens starting with the term in each longer
+ * length, shortest first;</li>
+ * <li>typos, looked for only when prefixes leave the results short, walk only
+ * the lengths within the edit distance, computing a Levenshtein row per character
+ * and skipping every token under a prefix that can no longer end within the
+ * distance, the way a trie search would.</li>
+ * </ul>
+ * A token held by more than {@link #MAX_POSTING} users is saturated like a
+ * trigram: it still matches, but when every term of a query only matches
+ * saturated tokens, its users are found by scanning, and ranked among the first
+ * {@link #SATURATED_SAMPLE} scanned once that fills the top {@code limit}.
+ * <p>
+ * Each candidate user is scored from its own current entry, so results never
+ * depend on stale postings: per term, the best match among its name tokens, or
+ * email tokens at {@link #EMAIL_WEIGHT}, averaged over the terms, and every term
+ * must match. Candidates come from the term with the fewest users, best matches
+ * first, and the search stops once nothing left can reach the top {@code limit},
+ * or after {@link #MAX_CANDIDATES} candidates.
+ */
+final class UserSearchIndex {
+    static final int MAX_TOKEN_LENGTH = 32;
+    static final int MAX_TERMS = 8;
+    static final int MAX_POSTING = UserIndex.MAX_POSTING;
+    static final int MAX_EXPANSIONS = 64;
+    static final int MAX_CANDIDATES = 50_000;
+    static final int SATURATED_SAMPLE = 1_000;
+    static final double EMAIL_WEIGHT = 0.8;
+
+    private static final Set<String> SATURATED = Collections.emptySet();
+
+    // byLength[n] holds the tokens of length n.
+    private final List<ConcurrentSkipListMap<String, Set<String>>> byLength = new ArrayList<>();
+    private final Set<String> saturated = ConcurrentHashMap.newKeySet();
+
+    UserSearchIndex() {
+        for (int length = 0; length <= MAX_TOKEN_LENGTH; length++) {
+            byLength.add(new ConcurrentSkipListMap<>());
+        }
+    }
+
+    /**
+     * Move {@code id} from the tokens of {@code previous} to those of {@code current}.
+     * Either side may be {@code null}; calls for one id must be serialized.
+     */
+    void update(String id, UserEntry previous, UserEntry current) {
+        Set<String> oldTokens = previous == null ? Set.of() : entryTokens(previous);
+        Set<String> newTokens = current == null ? Set.of() : entryTokens(current);
+        for (String token : oldTokens) {
+            if (!newTokens.contains(token)) {
+                byLength.get(token.length()).computeIfPresent(token, (k, ids) -> {
+                    if (ids == SATURATED) {
+                        return ids;
+                    }
+                    ids.remove(id);
+                    return ids.isEmpty() ? null : ids;
+                });
+            }
+        }
+        for (String token : newTokens) {
+            if (!oldTokens.contains(token)) {
+                byLength.get(token.length()).compute(token, (k, ids) -> {
+                    if (ids == SATURATED) {
+                        return ids;
+                    }
+                    Set<String> target = ids == null ? ConcurrentHashMap.newKeySet() : ids;
+                    target.add(id);
+                    if (target.size() > MAX_POSTING) {
+                        saturated.add(k);
+                        return SATURATED;
+                    }
+                    return target;
+                });
+            }
+        }
+    }
+
+    int tokenCount() {
+        int count = 0;
+        for (Map<String, Set<String>> tokens : byLength) {
+            count += tokens.size();
+        }
+        return count;
+    }
+
+    int saturatedTokenCount() {
+        return saturated.size();
+    }
+
+    /**
+     * Up to {@code limit} users matching {@code query}, best first.
+     *
+     * @param lookup current entry by id, {@code null} if it has gone
+     * @param scan   every entry, for queries whose every term only matches saturated tokens
+     */
+    List<UserEntry> search(Query query, int limit, Function<String, UserEntry> lookup, Stream<UserEntry> scan) {
+        if (query.terms.isEmpty()) {
+            return List.of();
+        }
+        List<Expansion> driver = null;
+        long driverCost = Long.MAX_VALUE;
+        for (String term : query.terms) {
+            List<Expansion> expansions = expand(term, limit);
+            if (expansions.isEmpty()) {
+                // Every term must match, and this one matches nothing.
+                return List.of();
+            }
+            long cost = 0;
+            for (Expansion expansion : expansions) {
+                cost = expansion.ids == SATURATED ? Long.MAX_VALUE : cost + expansion.ids.size();
+                if (cost == Long.MAX_VALUE) {
+                    break;
+                }
+            }
+            if (cost < driverCost) {
+                driver = expansions;
+                driverCost = cost;
+            }
+        }
+        if (driver == null) {
+            return scan(query, limit, scan, MAX_CANDIDATES, SATURATED_SAMPLE);
+        }
+        TopK top = new TopK(limit);
+        Set<String> seen = new HashSet<>();
+        int candidates = 0;
+        int others = query.terms.size() - 1;
+        for (Expansion expansion : driver) {
+            // The best any user reached through this token can do: a perfect match on every other term.
+            double bound = (expansion.score + others) / query.terms.size();
+            if (top.isFull() && top.min() >= bound) {
+                break;
+            }
+            for (String id : expansion.ids) {
+                if (!seen.add(id)) {
+                    continue;
+                }
+                UserEntry entry = lookup.apply(id);
+                if (entry != null) {
+                    top.offer(entry, score(entry, query));
+                }
+                if (++candidates >= MAX_CANDIDATES) {
+                    return top.results();
+                }
+            }
+        }
+        return top.results();
+    }
+
+    /**
+     * Score entries until {@code budget} have been seen, or {@code sample} have been
+     * seen and the top {@code limit} is full; the fallback for saturated terms and for
+     * layouts without this index.
+     */
+    static List<UserEntry> scan(Query query, int limit, Stream<UserEntry> entries, long budget, long sample) {
+        TopK top = new TopK(limit);
+        Iterator<UserEntry> it = entries.iterator();
+        for (long scanned = 0; it.hasNext() && scanned < budget; scanned++) {
+            UserEntry entry = it.next();
+            top.offer(entry, score(entry, query));
+            if (top.isFull() && (scanned >= sample || top.min() >= 1.0)) {
+                break;
+            }
+        }
+        return top.results();
+    }
+
+    /**
+     * How well {@code entry} matches {@code query}, from 0 (some term does not match)
+     * to 1 (every term is a whole word of the name).
+     */
+    static double score(UserEntry entry, Query query) {
+        List<String> nameTokens = tokens(entry.nameKey);
+        List<String> emailTokens = tokens(entry.emailKey);
+        double total = 0;
+        for (String term : query.terms) {
+            double best = 0;
+            for (String token : nameTokens) {
+                best = Math.max(best, match(term, token));
+            }
+            for (String token : emailTokens) {
+                best = Math.max(best, EMAIL_WEIGHT * match(term, token));
+            }
+            if (best == 0) {
+                return 0;
+            }
+            total += best;
+        }
+        return total / query.terms.size();
+    }
+
+    /**
+     * 1 for the same token, 0.6 to 0.9 when {@code token} starts with {@code term}
+     * (more for shorter tokens), 0.5 or 0.35 for one or two typos, otherwise 0.
+     */
+    static double match(String term, String token) {
+        if (token.startsWith(term)) {
+            int extra = token.length() - term.length();
+            return extra == 0 ? 1.0 : 0.9 - 0.3 * extra / token.length();
+        }
+        int maxEdits = fuzziness(term.length());
+        if (maxEdits == 0 || Math.abs(token.length() - term.length()) > maxEdits
+                || token.charAt(0) != term.charAt(0)) {
+            return 0;
+        }
+        int edits = distance(term, token, maxEdits);
+        return edits > maxEdits ? 0 : edits == 1 ? 0.5 : 0.35;
+    }
+
+    /**
+     * Typos tolerated in a term of {@code length} characters: none below three,
+     * one up to five, two from six.
+     */
+    static int fuzziness(int length) {
+        return length < 3 ? 0 : length < 6 ? 1 : 2;
+    }
+
+    /**
+     * Tokens matching {@code term}, best first, at most {@link #MAX_EXPANSIONS}. Typos
+     * only rank below prefixes, so they are looked for only when the tokens equal to
+     * or starting with the term hold fewer than {@code wanted} users.
+     */
+    private List<Expansion> expand(String term, int wanted) {
+        List<Expansion> expansions = new ArrayList<>();
+        long users = 0;
+        for (int length = term.length(); length <= MAX_TOKEN_LENGTH && expansions.size() < MAX_EXPANSIONS; length++) {
+            NavigableMap<String, Set<String>> range = byLength.get(length)
+                    .subMap(term, true, term + Character.MAX_VALUE, false);
+            for (Map.Entry<String, Set<String>> token : range.entrySet()) {
+                Set<String> ids = token.getValue();
+                users = ids == SATURATED ? Long.MAX_VALUE : users + ids.size();
+                expansions.add(new Expansion(match(term, token.getKey()), ids));
+                if (expansions.size() >= MAX_EXPANSIONS) {
+                    break;
+                }
+            }
+        }
+        int maxEdits = fuzziness(term.length());
+        if (users < wanted) {
+            for (int length = Math.max(1, term.length() - maxEdits);
+                 maxEdits > 0 && length <= Math.min(MAX_TOKEN_LENGTH, term.length() + maxEdits); length++) {
+                fuzzy(term, maxEdits, length, byLength.get(length), expansions);
+            }
+        }
+        expansions.sort(Comparator.comparingDouble((Expansion expansion) -> expansion.score).reversed());
+        return expansions.size() > MAX_EXPANSIONS ? expansions.subList(0, MAX_EXPANSIONS) : expansions;
+    }
+
+    /**
+     * Add the tokens of {@code tokens}, all {@code length} long, within {@code maxEdits}
+     * of {@code term} that do not start with it (those are prefix matches). Walks the
+     * sorted tokens sharing the term's first character, reusing the Levenshtein rows of
+     * the common prefix with the previous token. A prefix is dead once each cell of its
+     * last row plus the difference between what is left of the token and of the term is
+     * over {@code maxEdits}; only a character of the term can then revive its parent, so
+     * the walk seeks straight to the next sibling starting with one that does.
+     */
+    private static void fuzzy(String term, int maxEdits, int length,
+                              ConcurrentSkipListMap<String, Set<String>> tokens, List<Expansion> expansions) {
+        char first = term.charAt(0);
+        String end = String.valueOf((char) (first + 1));
+        char[] termChars = term.chars().distinct().sorted().collect(StringBuilder::new,
+                StringBuilder::appendCodePoint, StringBuilder::append).toString().toCharArray();
+        int[][] rows = new int[MAX_TOKEN_LENGTH + 1][term.length() + 1];
+        int[] scratch = new int[term.length() + 1];
+        for (int j = 0; j <= term.length(); j++) {
+            rows[0][j] = j;
+        }
+        String previous = "";
+        Map.Entry<String, Set<String>> current = tokens.ceilingEntry(String.valueOf(first));
+        while (current != null && current.getKey().compareTo(end) < 0) {
+            String token = current.getKey();
+            int common = 0;
+            while (common < previous.length() && common < token.length()
+                    && previous.charAt(common) == token.charAt(common)) {
+                common++;
+            }
+            int dead = -1;
+            for (int i = common + 1; i <= token.length(); i++) {
+                if (fill(rows[i - 1], rows[i], token.charAt(i - 1), i, term, length) > maxEdits) {
+                    dead = i;
+                    break;
+                }
+            }
+            if (dead > 0) {
+                // Rows up to the parent of the dead prefix stay valid for the next token.
+                previous = token.substring(0, dead - 1);
+                String next = previous + Character.MAX_VALUE;
+                for (char c : termChars) {
+                    if (c > token.charAt(dead - 1)
+                            && fill(rows[dead - 1], scratch, c, dead, term, length) <= maxEdits) {
+                        next = previous + c;
+                        break;
+                    }
+                }
+                current = tokens.ceilingEntry(next);
+                continue;
+            }
+            int edits = rows[token.length()][term.length()];
+            if (edits > 0 && edits <= maxEdits && !token.startsWith(term)) {
+                expansions.add(new Expansion(edits == 1 ? 0.5 : 0.35, current.getValue()));
+            }
+            previous = token;
+            current = tokens.higherEntry(token);
+        }
+    }
+
+    /**
+     * Compute into {@code row} the Levenshtein row of {@code term} after character
+     * {@code c} at position {@code i} of a {@code length}-character token.
+     *
+     * @return the fewest edits any token continuing this prefix can be from {@code term}
+     */
+    private static int fill(int[] above, int[] row, char c, int i, String term, int length) {
+        row[0] = i;
+        int min = i + Math.abs(length - i - term.length());
+        for (int j = 1; j <= term.length(); j++) {
+            int cost = c == term.charAt(j - 1) ? 0 : 1;
+            row[j] = Math.min(Math.min(above[j] + 1, row[j - 1] + 1), above[j - 1] + cost);
+            min = Math.min(min, row[j] + Math.abs((length - i) - (term.length() - j)));
+        }
+        return min;
+    }
+
+    /**
+     * Levenshtein distance, or {@code maxEdits + 1} once it is certain to exceed {@code maxEdits}.
+     */
+    static int distance(String a, String b, int maxEdits) {
+        int[] above = new int[b.length() + 1];
+        int[] row = new int[b.length() + 1];
+        for (int j = 0; j <= b.length(); j++) {
+            above[j] = j;
+        }
+        for (int i = 1; i <= a.length(); i++) {
+            row[0] = i;
+            int min = i;
+            for (int j = 1; j <= b.length(); j++) {
+                int cost = a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1;
+                row[j] = Math.min(Math.min(above[j] + 1, row[j - 1] + 1), above[j - 1] + cost);
+                min = Math.min(min, row[j]);
+            }
+            if (min > maxEdits) {
+                return maxEdits + 1;
+            }
+            int[] swap = above;
+            above = row;
+            row = swap;
+        }
+        return Math.min(above[b.length()], maxEdits + 1);
+    }
+
+    private static Set<String> entryTokens(UserEntry entry) {
+        Set<String> tokens = new HashSet<>(tokens(entry.nameKey));
+        tokens.addAll(tokens(entry.emailKey));
+        return tokens;
+    }
+
+    /**
+     * Lowercase input split at every character that is not a letter or digit, each
+     * token cut to {@link #MAX_TOKEN_LENGTH}.
+     */
+    static List<String> tokens(String key) {
+        List<String> tokens = new ArrayList<>(4);
+        if (key == null) {
+            return tokens;
+        }
+        int start = -1;
+        for (int i = 0; i <= key.length(); i++) {
+            boolean word = i < key.length() && Character.isLetterOrDigit(key.charAt(i));
+            if (word && start < 0) {
+                start = i;
+            } else if (!word && start >= 0) {
+                tokens.add(key.substring(start, Math.min(i, start + MAX_TOKEN_LENGTH)));
+                start = -1;
+            }
+        }
+        return tokens;
+    }
+
+    /**
+     * A parsed {@code q}: its distinct terms, at most {@link #MAX_TERMS}.
+     */
+    static final class Query {
+        final List<String> terms;
+
+        private Query(List<String> terms) {
+            this.terms = terms;
+        }
+
+        static Query parse(String q) {
+            List<String> terms = new ArrayList<>();
+            if (q != null) {
+                for (String token : tokens(UserEntry.normalize(q))) {
+                    if (!terms.contains(token) && terms.size() < MAX_TERMS) {
+                        terms.add(token);
+                    }
+                }
+            }
+            return new Query(List.copyOf(terms));
+        }
+    }
+
+    private static final class Expansion {
+        final double score;
+        final Set<String> ids;
+
+        Expansion(double score, Set<String> ids) {
+            this.score = score;
+            this.ids = ids;
+        }
+    }
+
+    /**
+     * The best {@code limit} entries offered so far; ties go to the lower id.
+     */
+    private static final class TopK {
+        private static final Comparator<Scored> WORST_FIRST = Comparator
+                .comparingDouble((Scored scored) -> scored.score)
+                .thenComparing((Scored scored) -> scored.entry.user.getId(), UserService.ID_ORDER.reversed());
+
+        private final int limit;
+        private final PriorityQueue<Scored> heap;
+
+        TopK(int limit) {
+            this.limit = limit;
+            this.heap = new PriorityQueue<>(limit + 1, WORST_FIRST);
+        }
+
+        void offer(UserEntry entry, double score) {
+            if (score <= 0) {
+                return;
+            }
+            Scored scored = new Scored(entry, score);
+            if (heap.size() < limit) {
+                heap.add(scored);
+            } else if (WORST_FIRST.compare(scored, heap.peek()) > 0) {
+                heap.poll();
+                heap.add(scored);
+            }
+        }
+
+        boolean isFull() {
+            return heap.size() >= limit;
+        }
+
+        double min() {
+            return heap.isEmpty() ? 0 : heap.peek().score;
+        }
+
+        List<UserEntry> results() {
+            List<Scored> sorted = new ArrayList<>(heap);
+            sorted.sort(WORST_FIRST.reversed());
+            List<UserEntry> results = new ArrayList<>(sorted.size());
+            sorted.forEach(scored -> results.add(scored.entry));
+            return results;
+        }
+    }
+
+    private static final class Scored {
+        final UserEntry entry;
+        final double score;
+
+        Scored(UserEntry entry, double score) {
+            this.entry = entry;
+            this.score = score;
+        }
+    }
+}
@@ -1,118 +1,815 @@
 package com.acme;
 
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
-import java.util.Map;
 import java.util.Optional;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
 
 /**
  * In-memory storage for User entities.
- * Thread-safe implementation using ConcurrentHashMap.
+ * Thread-safe implementation over a {@link UserTable}: by default a
+ * ConcurrentHashMap with trigram and ordering indexes, or the
+ * {@link Layout#COMPACT compact} byte-array layout for very large stores.
+ * <p>
+ * Every mutation runs inside {@link UserTable#compute} for its id, which also
+ * updates the table's secondary indexes, so the map and the indexes never
+ * disagree about a completed write. The same step keeps {@link #ID_ORDER}
+ * ordering of ids for keyset pagination. Each mutation is also appended to the
+ * {@link UserStorage} while the id is locked, and the caller waits for
+ * durability after the lock is released.
+ * <p>
+ * Every mutation also takes a fresh value from a version allocator under the id's
+ * lock, which becomes the {@link User#getVersion() version} of the user it writes,
+ * so a user's version changes on each update and never repeats, even across
+ * delete and re-create. Versions are only compared for equality; under concurrent
+ * writes they come from per-stripe blocks and are not ordered. {@link #updateUser(String, User, long)} uses it for
+ * compare-and-set updates without any lock beyond the id's own.
+ * The {@link #version() store version} is bumped after the mutation is visible,
+ * so a reader that sees a store version also sees every write it counts. It stays
+ * a single counter, as does the change feed's sequence: listing caches and their
+ * tags need one total order of writes, so these two atomic increments are what
+ * concurrent writers to different ids still share. Both are
+ * exposed as entity tags through {@link #etag(long)}.
+ * <p>
+ * Mutations are published on the {@link #changes() change feed} in the same
+ * step, so a user's changes appear there in the order they were applied. A
+ * change may be published before the storage has made it durable.
+ * <p>
+ * A service created with a {@link UserQuota} charges each mutation to it in the
+ * same step too, and a write the quota has no room for fails with
+ * {@link UserQuota.Exceeded} before anything is stored or published.
  */
-public class UserService {
-    private final Map<String, User> users = new ConcurrentHashMap<>();
-    private final AtomicLong idGenerator = new AtomicLong(1);
+public class UserService implements AutoCloseable {
+    /**
+     * Order used for pagination cursors: numeric ids by value, then all other ids
+     * lexicographically.
+     */
+    public static final Comparator<String> ID_ORDER = UserService::compareIds;
+
+    /**
+     * Expected version that matches whatever version a user is at.
+     */
+    public static final long ANY_VERSION = -1;
+
+    /**
+     * In-memory representation of the users.
+     */
+    public enum Layout {
+        /** Objects per user, indexed for fast search. */
+        HASH,
+        /**
+         * Numeric ids in primitive hash tables with names and emails as UTF-8 bytes;
+         * a small fraction of the heap per user, but searches scan, and every read
+         * decodes the user and encodes its JSON and ETag again.
+         */
+        COMPACT;
+
+        static Layout parse(String value) {
+            return switch (value.trim().toLowerCase(Locale.ROOT)) {
+                case "hash" -> HASH;
+                case "compact" -> COMPACT;
+                default -> throw new IllegalArgumentException("Unknown user layout: " + value);
+            };
+        }
+    }
+
+    private final UserTable users;
+    private final IdAllocator idAllocator = new IdAllocator(1);
+    /** User versions only need to be unique, so they come from striped blocks like ids. */
+    private final IdAllocator entryVersions = new IdAllocator(1);
+    private final AtomicLong storeVersion = new AtomicLong();
+    // Distinguishes tags from different runs, whose version counters both start at zero.
+    private final String etagEpoch = Long.toHexString(ThreadLocalRandom.current().nextLong());
+    private final BucketHistogram findScanLength = new BucketHistogram(Metrics.SCAN_BOUNDS, 1);
+    private final UserChangeFeed changes = new UserChangeFeed(UserChangeFeed.DEFAULT_CAPACITY);
+    private final UserStorage storage;
+    private final UserQuota quota;
+    private volatile Predicate<String> generatedIds = id -> true;
 
     public UserService() {
+        this.storage = UserStorage.inMemory();
+        this.users = new HashUserTable();
+        this.quota = null;
         // Add some sample data
         seedUser(new User("1", "Alice Johnson", "alice@example.com"));
         seedUser(new User("2", "Bob Smith", "bob@example.com"));
     }
 
+    /**
+     * Create a service backed by {@code storage}, replaying whatever it holds.
+     * No sample data is added.
+     */
+    public UserService(UserStorage storage) {
+        this(storage, Layout.HASH);
+    }
+
+    /**
+     * Create a service backed by {@code storage} with the given in-memory layout,
+     * replaying whatever the storage holds. No sample data is added.
+     */
+    public UserService(UserStorage storage, Layout layout) {
+        this(storage, layout, null);
+    }
+
+    /**
+     * Like {@link #UserService(UserStorage, Layout)}, with writes limited by
+     * {@code quota}, or unlimited if it is {@code null}. Users replayed from storage
+     * count against the quota but are never refused.
+     */
+    UserService(UserStorage storage, Layout layout, UserQuota quota) {
+        this.storage = storage;
+        this.users = layout == Layout.COMPACT ? new CompactUserTable() : new HashUserTable();
+        this.quota = quota;
+        try {
+            storage.load(this::restore, this::restoreDelete);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to load users", e);
+        }
+    }
+
+    private void restore(String id, User user) {
+        users.compute(id, previous -> {
+            UserEntry entry = new UserEntry(versioned(id, user));
+            if (quota != null) {
+                quota.force(previous == null ? null : previous.user, entry.user);
+            }
+            return entry;
+        });
+        storeVersion.incrementAndGet();
+        reserveId(id);
+    }
+
+    private void restoreDelete(String id) {
+        boolean[] removed = new boolean[1];
+        users.compute(id, previous -> {
+            removed[0] = previous != null;
+            if (removed[0] && quota != null) {
+                quota.force(previous.user, null);
+            }
+            return null;
+        });
+        if (removed[0]) {
+            storeVersion.incrementAndGet();
+        }
+    }
+
     private void seedUser(User user) {
-        users.put(user.getId(), user);
-        trackId(user.getId());
+        long[] position = new long[1];
+        reserveId(user.getId());
+        store(user.getId(), user, position);
+        storage.await(position[0]);
+    }
+
+    /**
+     * Keep a client-supplied numeric id out of the generated ones. Other ids never
+     * collide with generated ids and are ignored.
+     */
+    private void reserveId(String id) {
+        // Longer ids cannot be generated before the sequence overflows.
+        if (id.length() <= 18 && isDigits(id)) {
+            idAllocator.reserve(Long.parseLong(id));
+        }
+    }
+
+    /**
+     * Copy of {@code user} under {@code id} with the next version. Called under the id's lock.
+     */
+    private User versioned(String id, User user) {
+        return new User(id, user.getName(), user.getEmail(), entryVersions.next());
+    }
+
+    /**
+     * Insert or replace under the id's lock; {@code position} receives the storage
+     * position to await.
+     *
+     * @return the stored entry
+     */
+    private UserEntry store(String id, User user, long[] position) {
+        UserEntry stored = users.compute(id, previous -> {
+            UserEntry entry = new UserEntry(versioned(id, user));
+            position[0] = append(id, previous, entry);
+            changes.publish(previous == null ? UserChange.Type.CREATED : UserChange.Type.UPDATED, id, entry.user);
+            return entry;
+        });
+        storeVersion.incrementAndGet();
+        return stored;
+    }
+
+    /**
+     * Insert under the id's lock unless the id is taken; {@code position} receives
+     * the storage position to await.
+     *
+     * @return the stored entry, or {@code null} if there already is a user with that id
+     */
+    private UserEntry insert(String id, User user, long[] position) {
+        position[0] = -1;
+        UserEntry stored = users.compute(id, previous -> {
+            if (previous != null) {
+                return previous;
+            }
+            UserEntry entry = new UserEntry(versioned(id, user));
+            position[0] = append(id, null, entry);
+            changes.publish(UserChange.Type.CREATED, id, entry.user);
+            return entry;
+        });
+        if (position[0] < 0) {
+            return null;
+        }
+        storeVersion.incrementAndGet();
+        return stored;
+    }
+
+    /**
+     * Replace an existing user under the id's lock, provided its version is
+     * {@code expectedVersion} or {@code expectedVersion} is {@link #ANY_VERSION}.
+     * {@code position} receives the storage position to await, or {@code -1} if
+     * the version did not match and nothing was written.
+     *
+     * @return the new entry, the unchanged current entry on a version mismatch, or
+     * {@code null} if there is no user with that id
+     */
+    private UserEntry replace(String id, User user, long expectedVersion, long[] position) {
+        position[0] = -1;
+        UserEntry updated = users.compute(id, previous -> {
+            if (previous == null
+                    || (expectedVersion != ANY_VERSION && previous.version() != expectedVersion)) {
+                return previous;
+            }
+            UserEntry replacement = new UserEntry(versioned(id, user));
+            position[0] = append(id, previous, replacement);
+            changes.publish(UserChange.Type.UPDATED, id, replacement.user);
+            return replacement;
+        });
+        if (position[0] >= 0) {
+            storeVersion.incrementAndGet();
+        }
+        return updated;
     }
 
-    private void trackId(String id) {
-        if (id == null || id.isEmpty()) {
-            return;
+    /**
+     * Remove under the id's lock.
+     *
+     * @return storage position to await, or {@code -1} if there was no such user
+     */
+    private long remove(String id) {
+        long[] position = {-1};
+        users.compute(id, previous -> {
+            if (previous != null) {
+                position[0] = append(id, previous, null);
+                changes.publish(UserChange.Type.DELETED, id, null);
+            }
+            return null;
+        });
+        if (position[0] >= 0) {
+            storeVersion.incrementAndGet();
+        }
+        return position[0];
+    }
+
+    /**
+     * Charge replacing {@code previous} with {@code next} to the quota, if there is
+     * one, and append {@code next}, or the removal of {@code id} if it is {@code null},
+     * to storage. Called under the id's lock. If the append fails the charge is
+     * refunded, since {@code compute} then leaves the entry as it was.
+     *
+     * @return storage position to await
+     * @throws UserQuota.Exceeded if the quota has no room for it
+     */
+    private long append(String id, UserEntry previous, UserEntry next) {
+        User before = previous == null ? null : previous.user;
+        User after = next == null ? null : next.user;
+        if (quota != null) {
+            quota.charge(before, after);
         }
         try {
-            long numericId = Long.parseLong(id);
-            idGenerator.updateAndGet(current -> Math.max(current, numericId + 1));
-        } catch (NumberFormatException ignored) {
-            // Ignore non-numeric IDs for the auto-increment sequence.
+            return after == null ? storage.appendDelete(id) : storage.appendPut(after);
+        } catch (RuntimeException e) {
+            if (quota != null) {
+                quota.force(after, before);
+            }
+            throw e;
         }
     }
 
+    private static int compareIds(String left, String right) {
+        boolean leftNumeric = isDigits(left);
+        boolean rightNumeric = isDigits(right);
+        if (leftNumeric != rightNumeric) {
+            return leftNumeric ? -1 : 1;
+        }
+        if (leftNumeric && left.length() != right.length()) {
+            return Integer.compare(left.length(), right.length());
+        }
+        return left.compareTo(right);
+    }
+
+    private static boolean isDigits(String value) {
+        if (value.isEmpty()) {
+            return false;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < '0' || c > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+
     /**
      * Create a new user, generating an ID if not provided.
+     *
+     * @throws UserQuota.Exceeded if the service's quota has no room for it
      */
     public User createUser(User user) {
+        Tracing.OperationEvent event = Tracing.beginOperation("createUser");
+        long[] position = new long[1];
+        UserEntry created = create(user, position);
+        storage.await(position[0]);
+        Tracing.end(event, -1, 1);
+        return created.user;
+    }
+
+    /**
+     * Create several users, waiting for durability once for the whole batch.
+     *
+     * @return the created users, in input order, with {@code null} for each one the
+     * service's quota had no room for
+     */
+    public List<User> createUsers(List<User> batch) {
+        Tracing.OperationEvent event = Tracing.beginOperation("createUsers");
+        List<User> created = new ArrayList<>(batch.size());
+        long[] position = new long[1];
+        long last = 0;
+        for (User user : batch) {
+            try {
+                UserEntry entry = create(user, position);
+                last = Math.max(last, position[0]);
+                created.add(entry.user);
+            } catch (UserQuota.Exceeded e) {
+                created.add(null);
+            }
+        }
+        storage.await(last);
+        Tracing.end(event, -1, created.size());
+        return created;
+    }
+
+    /**
+     * Store {@code user} under its own id, or under a generated one when it has none.
+     * A generated id is only ever inserted, never replacing a user, so it cannot
+     * clash with an id a client chose concurrently.
+     */
+    private UserEntry create(User user, long[] position) {
         String id = user.getId();
-        if (id == null || id.isEmpty()) {
-            id = String.valueOf(idGenerator.getAndIncrement());
+        if (id != null && !id.isEmpty()) {
+            reserveId(id);
+            return store(id, user, position);
         }
-        User newUser = new User(id, user.getName(), user.getEmail());
-        users.put(id, newUser);
-        trackId(id);
-        return newUser;
+        Predicate<String> accept = generatedIds;
+        while (true) {
+            String generated = String.valueOf(idAllocator.next());
+            if (accept.test(generated)) {
+                UserEntry entry = insert(generated, user, position);
+                if (entry != null) {
+                    return entry;
+                }
+            }
+        }
+    }
+
+    /**
+     * Only generate ids that {@code accept} allows, skipping the rest; in cluster
+     * mode, the ids this node owns.
+     */
+    void generatedIdFilter(Predicate<String> accept) {
+        this.generatedIds = accept;
     }
 
     /**
      * Get all users.
      */
     public List<User> getAllUsers() {
-        return new ArrayList<>(users.values());
+        List<User> results = new ArrayList<>(users.size());
+        users.entries().forEach(entry -> results.add(entry.user));
+        return results;
+    }
+
+    /**
+     * Stream all users without copying them into an intermediate list.
+     * The view is weakly consistent with concurrent writes.
+     */
+    public Stream<User> streamAllUsers() {
+        return users.entries().map(entry -> entry.user);
+    }
+
+    /**
+     * Like {@link #streamAllUsers()}, but with each user's cached JSON.
+     */
+    Stream<UserEntry> streamAllEntries() {
+        return users.entries();
+    }
+
+    /**
+     * Write every user to {@code out} as a {@link UserArchive}, gzipped if
+     * {@code compress}, and close it. The view is weakly consistent with concurrent
+     * writes. If writing fails, {@code out} is closed without the archive's trailer,
+     * so the partial archive will not import.
+     *
+     * @return how many users were written
+     */
+    public long exportUsers(OutputStream out, boolean compress) throws IOException {
+        Tracing.OperationEvent event = Tracing.beginOperation("exportUsers");
+        long count = 0;
+        try {
+            OutputStream target = new BufferedOutputStream(compress ? new GZIPOutputStream(out, 64 * 1024) : out,
+                    64 * 1024);
+            UserArchive.Writer writer = new UserArchive.Writer(target);
+            for (Iterator<UserEntry> it = users.entries().iterator(); it.hasNext(); ) {
+                writer.write(it.next().user);
+            }
+            writer.finish();
+            count = writer.count();
+        } catch (IOException | RuntimeException e) {
+            try {
+                out.close();
+            } catch (IOException suppressed) {
+                e.addSuppressed(suppressed);
+            }
+            throw e;
+        } finally {
+            Tracing.end(event, count, (int) Math.min(Integer.MAX_VALUE, count));
+        }
+        return count;
+    }
+
+    /**
+     * Like {@link #exportUsers(OutputStream, boolean)}, into {@code file}, which is only
+     * replaced once the archive is complete. If the export fails, the partial file is
+     * deleted and {@code file} is left as it was.
+     */
+    public long exportUsers(Path file, boolean compress) throws IOException {
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            long count = exportUsers(Files.newOutputStream(tmp), compress);
+            Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            return count;
+        } catch (IOException | RuntimeException e) {
+            try {
+                Files.deleteIfExists(tmp);
+            } catch (IOException suppressed) {
+                e.addSuppressed(suppressed);
+            }
+            throw e;
+        }
     }
 
+    /**
+     * Load a {@link UserArchive} file, gzipped or not. The whole archive is verified
+     * first, so nothing is imported from a corrupt one; its users are then stored
+     * without the checks API writes go through, replacing users with the same ids,
+     * and made durable together.
+     *
+     * @param accept which ids to import; the rest, and any the quota has no room for,
+     *               are counted as skipped
+     * @throws IllegalArgumentException if the file is not a complete, valid archive
+     */
+    UserArchive.Imported importUsers(Path file, Predicate<String> accept) throws IOException {
+        if (UserArchive.isGzipped(file)) {
+            Path plain;
+            try (InputStream in = Files.newInputStream(file)) {
+                plain = UserArchive.spool(in, file.toAbsolutePath().getParent());
+            }
+            try {
+                return importUsers(plain, accept);
+            } finally {
+                Files.deleteIfExists(plain);
+            }
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            Tracing.OperationEvent event = Tracing.beginOperation("importUsers");
+            long total = UserArchive.verify(channel);
+            long[] position = new long[1];
+            long[] last = new long[1];
+            long[] imported = new long[1];
+            UserArchive.read(channel, user -> {
+                if (accept.test(user.getId())) {
+                    reserveId(user.getId());
+                    try {
+                        store(user.getId(), user, position);
+                    } catch (UserQuota.Exceeded e) {
+                        return;
+                    }
+                    last[0] = Math.max(last[0], position[0]);
+                    imported[0]++;
+                }
+            });
+            storage.await(last[0]);
+            Tracing.end(event, total, (int) Math.min(Integer.MAX_VALUE, imported[0]));
+            return new UserArchive.Imported(imported[0], total - imported[0]);
+        }
+    }
+
+    /**
+     * Like {@link #importUsers(Path, Predicate)}, for an archive read from {@code in},
+     * which is first copied to a temporary file so it can be verified before loading.
+     */
+    UserArchive.Imported importUsers(InputStream in, Predicate<String> accept) throws IOException {
+        Path file = UserArchive.spool(in, Path.of(System.getProperty("java.io.tmpdir")));
+        try {
+            return importUsers(file, accept);
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    /**
+     * Keyset pagination: up to {@code limit} users whose ids sort after {@code after}
+     * in {@link #ID_ORDER}, or from the start when {@code after} is {@code null}.
+     * The last id of a page is the cursor for the next one.
+     */
+    public List<User> getUsersPage(String after, int limit) {
+        Tracing.OperationEvent event = Tracing.beginOperation("getUsersPage");
+        Iterator<UserEntry> entries = users.entriesAfter(after);
+        List<User> page = new ArrayList<>(Math.min(limit, 256));
+        while (page.size() < limit && entries.hasNext()) {
+            page.add(entries.next().user);
+        }
+        Tracing.end(event, page.size(), page.size());
+        return page;
+    }
+
+    /**
+     * Case-insensitive substring search on name and email. With the hash layout,
+     * filters of three or more characters are answered from the trigram index and
+     * shorter ones scan the pre-normalized entries; the compact layout always scans.
+     */
     public List<User> findUsers(String name, String email) {
+        Tracing.OperationEvent event = Tracing.beginOperation("findUsers");
         String nameFilter = normalizeFilter(name);
         String emailFilter = normalizeFilter(email);
         List<User> results = new ArrayList<>();
-        for (User user : users.values()) {
-            if (matchesFilter(user.getName(), nameFilter)
-                    && matchesFilter(user.getEmail(), emailFilter)) {
-                results.add(user);
-            }
-        }
+        long scanned = users.find(nameFilter, emailFilter, entry -> results.add(entry.user));
+        findScanLength.record(scanned);
+        Tracing.end(event, scanned, results.size());
         return results;
     }
 
-    private String normalizeFilter(String value) {
-        if (value == null || value.trim().isEmpty()) {
-            return null;
+    /**
+     * Up to {@code limit} users whose name or email words start with, or are a typo
+     * or two away from, the words of {@code q}, most relevant first. See
+     * {@link UserSearchIndex} for matching and ranking.
+     */
+    public List<User> searchUsers(String q, int limit) {
+        UserSearchIndex.Query query = UserSearchIndex.Query.parse(q);
+        List<User> results = new ArrayList<>();
+        if (query.terms.isEmpty() || limit <= 0) {
+            return results;
+        }
+        Tracing.OperationEvent event = Tracing.beginOperation("searchUsers");
+        for (UserEntry entry : users.search(query, limit)) {
+            results.add(entry.user);
         }
-        return value.trim().toLowerCase(Locale.ROOT);
+        Tracing.end(event, -1, results.size());
+        return results;
     }
 
-    private boolean matchesFilter(String value, String filter) {
-        if (filter == null) {
-            return true;
+    /**
+     * Users whose email equals {@code email}, ignoring case.
+     */
+    public List<User> findUsersByExactEmail(String email) {
+        String emailKey = normalizeFilter(email);
+        List<User> results = new ArrayList<>();
+        if (emailKey == null) {
+            return results;
         }
-        if (value == null) {
-            return false;
+        Tracing.OperationEvent event = Tracing.beginOperation("findUsersByExactEmail");
+        users.findByEmail(emailKey, entry -> results.add(entry.user));
+        Tracing.end(event, -1, results.size());
+        return results;
+    }
+
+    private String normalizeFilter(String value) {
+        if (value == null || value.trim().isEmpty()) {
+            return null;
         }
-        return value.toLowerCase(Locale.ROOT).contains(filter);
+        return UserEntry.normalize(value.trim());
     }
 
     /**
      * Get user by ID.
      */
     public Optional<User> getUserById(String id) {
-        return Optional.ofNullable(users.get(id));
+        UserEntry entry = users.get(id);
+        return entry == null ? Optional.empty() : Optional.of(entry.user);
+    }
+
+    /**
+     * Stored entry for {@code id}, with its version and cached JSON, or {@code null}.
+     */
+    UserEntry getEntry(String id) {
+        return users.get(id);
+    }
+
+    /**
+     * Feed of every create, update and delete made through this service. Changes
+     * replayed from storage at startup are not published.
+     */
+    UserChangeFeed changes() {
+        return changes;
+    }
+
+    /**
+     * Changes whenever any user is created, updated or deleted.
+     */
+    public long version() {
+        return storeVersion.get();
+    }
+
+    /**
+     * Strong entity tag for a user or store version. Tags include a per-instance
+     * epoch, so a restarted server never matches a tag issued before the restart.
+     */
+    public String etag(long version) {
+        return "\"" + etagEpoch + "-" + Long.toHexString(version) + "\"";
+    }
+
+    /**
+     * {@link #etag(long)} of {@code entry}'s version, built once per entry so reads
+     * of an unchanged user do not format it again.
+     */
+    String etag(UserEntry entry) {
+        String etag = entry.etag;
+        if (etag == null) {
+            etag = etag(entry.version());
+            entry.etag = etag;
+        }
+        return etag;
     }
 
     /**
      * Update an existing user.
      */
     public Optional<User> updateUser(String id, User user) {
-        if (!users.containsKey(id)) {
+        return updateUser(id, user, ANY_VERSION);
+    }
+
+    /**
+     * Compare-and-set update: replace the user only if its current version is
+     * {@code expectedVersion}. The check and the write happen atomically under the
+     * id's lock, so a concurrent update or delete can neither be lost nor undone.
+     *
+     * @return the updated user, or empty if there is no user with that id
+     * @throws ConcurrentModificationException if the user's version is no longer {@code expectedVersion}
+     * @throws UserQuota.Exceeded if the user grows past the service's quota
+     */
+    public Optional<User> updateUser(String id, User user, long expectedVersion) {
+        Tracing.OperationEvent event = Tracing.beginOperation("updateUser");
+        long[] position = new long[1];
+        UserEntry updated = replace(id, user, expectedVersion, position);
+        if (updated == null) {
+            Tracing.end(event, -1, 0);
             return Optional.empty();
         }
-        User updated = new User(id, user.getName(), user.getEmail());
-        users.put(id, updated);
-        return Optional.of(updated);
+        if (position[0] < 0) {
+            Tracing.end(event, -1, 0);
+            throw new ConcurrentModificationException("User " + id + " is at version " + updated.version()
+                    + ", not " + expectedVersion);
+        }
+        storage.await(position[0]);
+        Tracing.end(event, -1, 1);
+        return Optional.of(updated.user);
+    }
+
+    /**
+     * Update several users, each identified by its own id, waiting for durability once
+     * for the whole batch.
+     *
+     * @return per input user, the updated user, empty if no user has that id, or
+     * {@code null} if the update would take the user past the service's quota
+     */
+    public List<Optional<User>> updateUsers(List<User> batch) {
+        Tracing.OperationEvent event = Tracing.beginOperation("updateUsers");
+        List<Optional<User>> results = new ArrayList<>(batch.size());
+        long[] position = new long[1];
+        long last = 0;
+        for (User user : batch) {
+            UserEntry updated;
+            try {
+                updated = user.getId() == null ? null : replace(user.getId(), user, ANY_VERSION, position);
+            } catch (UserQuota.Exceeded e) {
+                results.add(null);
+                continue;
+            }
+            if (updated == null) {
+                results.add(Optional.empty());
+            } else {
+                last = Math.max(last, position[0]);
+                results.add(Optional.of(updated.user));
+            }
+        }
+        storage.await(last);
+        Tracing.end(event, -1, results.size());
+        return results;
     }
 
     /**
      * Delete a user.
      */
     public boolean deleteUser(String id) {
-        return users.remove(id) != null;
+        Tracing.OperationEvent event = Tracing.beginOperation("deleteUser");
+        long position = remove(id);
+        if (position >= 0) {
+            storage.await(position);
+        }
+        Tracing.end(event, -1, position < 0 ? 0 : 1);
+        return position >= 0;
+    }
+
+    /**
+     * Delete several users, waiting for durability once for the whole batch.
+     *
+     * @return per input id, whether a user was deleted
+     */
+    public List<Boolean> deleteUsers(List<String> ids) {
+        Tracing.OperationEvent event = Tracing.beginOperation("deleteUsers");
+        List<Boolean> results = new ArrayList<>(ids.size());
+        long last = 0;
+        for (String id : ids) {
+            long position = id == null ? -1 : remove(id);
+            results.add(position >= 0);
+            last = Math.max(last, position);
+        }
+        storage.await(last);
+        Tracing.end(event, -1, results.size());
+        return results;
+    }
+
+    int size() {
+        return users.size();
+    }
+
+    /**
+     * The quota writes are charged to, or {@code null} if the service is unlimited.
+     */
+    UserQuota quota() {
+        return quota;
+    }
+
+    int indexEmailKeyCount() {
+        return users.indexEmailKeyCount();
+    }
+
+    int indexGramCount() {
+        return users.indexGramCount();
+    }
+
+    int indexSaturatedGramCount() {
+        return users.indexSaturatedGramCount();
+    }
+
+    int searchTokenCount() {
+        return users.searchTokenCount();
+    }
+
+    /**
+     * Entries examined per {@link #findUsers} call: candidate postings, or the whole
+     * store when the filters are too short for the index.
+     */
+    BucketHistogram findScanLength() {
+        return findScanLength;
+    }
+
+    /**
+     * Fold the storage engine's log into a snapshot, so a restart loads it quickly.
+     */
+    public void snapshot() throws IOException {
+        storage.snapshot();
+    }
+
+    /**
+     * Flush pending writes and close the storage engine.
+     */
+    @Override
+    public void close() throws IOException {
+        storage.close();
     }
 }
@@ -0,0 +1,62 @@
+package com.acme;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * Storage engine behind {@link UserService}.
+ * <p>
+ * The service keeps the full user set in memory; a storage engine only records
+ * mutations and replays them on startup. Appends are called while the service
+ * holds the per-id lock, so the log order for one id matches the order in the
+ * map; {@link #await(long)} is called after the lock is released and blocks until
+ * the write is as durable as the engine's policy requires.
+ */
+public interface UserStorage extends Closeable {
+
+    /**
+     * Engine that keeps nothing; state lives only in the service's map.
+     */
+    static UserStorage inMemory() {
+        return InMemoryUserStorage.INSTANCE;
+    }
+
+    /**
+     * Replay persisted state, calling {@code put} and {@code delete} in log order.
+     * Must be called once, before the first append.
+     */
+    void load(BiConsumer<String, User> put, Consumer<String> delete) throws IOException;
+
+    /**
+     * Record the current state of a user.
+     *
+     * @return log position to pass to {@link #await(long)}
+     */
+    long appendPut(User user);
+
+    /**
+     * Record the removal of a user.
+     *
+     * @return log position to pass to {@link #await(long)}
+     */
+    long appendDelete(String id);
+
+    /**
+     * Block until everything up to {@code position} is durable under this engine's policy.
+     */
+    void await(long position);
+
+    /**
+     * Make everything appended so far durable in a form that is quick to load, so
+     * the next startup replays as little as possible. Blocks until done.
+     */
+    void snapshot() throws IOException;
+
+    /**
+     * Flush and release resources. Pending writes are made durable first.
+     */
+    @Override
+    void close() throws IOException;
+}
@@ -0,0 +1,73 @@
+package com.acme;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.UnaryOperator;
+import java.util.stream.Stream;
+
+/**
+ * Primary storage of {@link UserService}: the users by id together with whatever
+ * ordering and search structures the layout keeps for them.
+ * <p>
+ * All writes go through {@link #compute}, which applies the change under the id's
+ * lock and keeps the table's own structures in step with it. Reads are weakly
+ * consistent with concurrent writes.
+ */
+interface UserTable {
+
+    /**
+     * Current entry for {@code id}, or {@code null}.
+     */
+    UserEntry get(String id);
+
+    /**
+     * Atomically replace the entry for {@code id} with {@code update.apply(current)},
+     * where {@code current} is {@code null} for a missing id and a {@code null}
+     * result removes it. {@code update} runs under the id's lock and may return
+     * {@code current} itself to leave the table unchanged.
+     *
+     * @return the entry now stored for {@code id}, or {@code null}
+     */
+    UserEntry compute(String id, UnaryOperator<UserEntry> update);
+
+    int size();
+
+    /**
+     * Every entry, in no particular order.
+     */
+    Stream<UserEntry> entries();
+
+    /**
+     * Entries whose ids sort after {@code after} in {@link UserService#ID_ORDER}, in
+     * that order, or from the first id when {@code after} is {@code null}.
+     */
+    Iterator<UserEntry> entriesAfter(String after);
+
+    /**
+     * Pass every entry matching the lowercase filters (see {@link UserEntry#matches})
+     * to {@code results}.
+     *
+     * @return how many entries were examined
+     */
+    long find(String nameFilter, String emailFilter, Consumer<UserEntry> results);
+
+    /**
+     * Pass every entry whose lowercase email equals {@code emailKey} to {@code results}.
+     */
+    void findByEmail(String emailKey, Consumer<UserEntry> results);
+
+    /**
+     * Up to {@code limit} entries matching {@code query}, best first (see
+     * {@link UserSearchIndex}).
+     */
+    List<UserEntry> search(UserSearchIndex.Query query, int limit);
+
+    int indexEmailKeyCount();
+
+    int indexGramCount();
+
+    int indexSaturatedGramCount();
+
+    int searchTokenCount();
+}
@@ -0,0 +1,141 @@
+package com.acme;
+
+import io.helidon.webserver.http.HttpRouting;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Tenants served side by side from one deployment, each under
+ * {@code /t/{tenant}/users} with the full set of {@code /users} endpoints.
+ * <p>
+ * Every tenant has a {@link UserService} of its own, so its own table, locks,
+ * indexes, id sequence, change feed and storage, limited by its own
+ * {@link UserQuota}, and a pair of {@link ConcurrencyLimiter}s that the
+ * {@link AdmissionFilter} uses for its requests instead of the global ones. A
+ * tenant loading users in bulk therefore only competes with itself for slots,
+ * map segments and counters. Tenants are fixed at startup; a request for a tenant
+ * that does not exist gets the router's 404. Tenant stores are never sharded
+ * across a cluster.
+ */
+final class UserTenants {
+    /** Route template prefix used to label tenant requests in metrics. */
+    static final String ROUTE_PREFIX = "/t/{tenant}";
+    private static final Pattern NAME = Pattern.compile("[a-z0-9][a-z0-9_-]{0,31}");
+
+    /**
+     * One tenant's store, routes and request budget.
+     */
+    static final class Tenant {
+        final String name;
+        /** {@code /t/} and the name, which every path of the tenant starts with. */
+        final String prefix;
+        final UserRoutes routes;
+        /** Requests in flight, in place of the global limiter. */
+        final ConcurrencyLimiter requests;
+        /** Expensive requests in flight, in place of the shared expensive limiter. */
+        final ConcurrencyLimiter expensive;
+
+        Tenant(String name, UserService service, ConcurrencyLimiter requests, ConcurrencyLimiter expensive) {
+            if (!NAME.matcher(name).matches()) {
+                throw new IllegalArgumentException("Invalid tenant name: " + name
+                        + "; use up to 32 lowercase letters, digits, '-' and '_'");
+            }
+            this.name = name;
+            this.prefix = "/t/" + name;
+            this.routes = new UserRoutes(service);
+            this.requests = requests;
+            this.expensive = expensive;
+        }
+
+        UserService service() {
+            return routes.service();
+        }
+    }
+
+    private final List<Tenant> tenants;
+
+    UserTenants(List<Tenant> tenants) {
+        for (int i = 0; i < tenants.size(); i++) {
+            for (int j = 0; j < i; j++) {
+                if (tenants.get(i).name.equals(tenants.get(j).name)) {
+                    throw new IllegalArgumentException("Duplicate tenant: " + tenants.get(i).name);
+                }
+            }
+        }
+        this.tenants = List.copyOf(tenants);
+    }
+
+    List<Tenant> all() {
+        return tenants;
+    }
+
+    /**
+     * The tenant named {@code name}, or {@code null}.
+     */
+    Tenant get(String name) {
+        for (Tenant tenant : tenants) {
+            if (tenant.name.equals(name)) {
+                return tenant;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * The tenant whose routes {@code path} falls under, or {@code null}. Compares in
+     * place; there are few enough tenants that a scan beats hashing a substring.
+     */
+    Tenant match(String path) {
+        for (Tenant tenant : tenants) {
+            int length = tenant.prefix.length();
+            if (path.startsWith(tenant.prefix) && (path.length() == length || path.charAt(length) == '/')) {
+                return tenant;
+            }
+        }
+        return null;
+    }
+
+    void register(HttpRouting.Builder rules) {
+        for (Tenant tenant : tenants) {
+            tenant.routes.register(rules, tenant.prefix);
+        }
+    }
+
+    /**
+     * Snapshot every tenant's storage, reporting the first failure after trying them all.
+     */
+    void snapshot() throws IOException {
+        forEachStore(UserService::snapshot);
+    }
+
+    /**
+     * Close every tenant's storage, reporting the first failure after trying them all.
+     */
+    void close() throws IOException {
+        forEachStore(UserService::close);
+    }
+
+    private interface StoreAction {
+        void apply(UserService service) throws IOException;
+    }
+
+    private void forEachStore(StoreAction action) throws IOException {
+        IOException failure = null;
+        for (Tenant tenant : tenants) {
+            try {
+                action.apply(tenant.service());
+            } catch (IOException e) {
+                if (failure == null) {
+                    failure = e;
+                } else {
+                    failure.addSuppressed(e);
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package com.acme;
+
+import io.helidon.http.Method;
+import org.junit.jupiter.api.Test;
+
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for classifying requests for admission control.
+ */
+class AdmissionFilterTest {
+
+    /**
+     * Unpaged and filtered listings, ranked searches, exports and imports are expensive; lookups and pages are not
+     */
+    @Test
+    void testExpensiveRequests() {
+        assertTrue(expensive(Method.GET, "/users"));
+        assertTrue(expensive(Method.GET, "/users", "name"));
+        assertTrue(expensive(Method.GET, "/users", "email", "limit"));
+        assertTrue(expensive(Method.GET, "/users/search", "q"));
+        assertTrue(expensive(Method.GET, "/users/search", "q", "limit"));
+        assertTrue(expensive(Method.GET, "/users/export"));
+        assertTrue(expensive(Method.POST, "/users/import"));
+
+        assertFalse(expensive(Method.GET, "/users", "limit"));
+        assertFalse(expensive(Method.GET, "/users", "after", "limit"));
+        assertFalse(expensive(Method.GET, "/users/search-tips"));
+        assertFalse(expensive(Method.GET, "/users/42"));
+        assertFalse(expensive(Method.POST, "/users"));
+        assertFalse(expensive(Method.POST, "/users/search"));
+    }
+
+    /**
+     * Requests under a tenant prefix are classified by the rest of their path
+     */
+    @Test
+    void testTenantPaths() {
+        String prefix = "/t/search";
+        assertTrue(AdmissionFilter.isExpensive(Method.GET, prefix + "/users/search", prefix.length(),
+                Set.of("q")::contains));
+        assertTrue(AdmissionFilter.isExpensive(Method.GET, prefix + "/users", prefix.length(), Set.of()::contains));
+        assertFalse(AdmissionFilter.isExpensive(Method.GET, prefix + "/users/7", prefix.length(), Set.of()::contains));
+    }
+
+    private static boolean expensive(Method method, String path, String... parameters) {
+        return AdmissionFilter.isExpensive(method, path, 0, Set.of(parameters)::contains);
+    }
+}
@@ -0,0 +1,120 @@
+package com.acme;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.function.IntSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Allocation budgets for the per-request paths that should not allocate once warm,
+ * measured with the JVM's per-thread allocation counter. A change that starts
+ * allocating on one of these paths fails here rather than only showing up as GC
+ * pressure under load.
+ */
+class AllocationTest {
+    private static final int WARMUP = 50_000;
+    private static final int OPS = 100_000;
+    private static final int ROUNDS = 5;
+
+    private static com.sun.management.ThreadMXBean threads;
+    /** Keeps the measured results live so the JIT cannot drop the calls. */
+    static volatile int blackhole;
+
+    @BeforeAll
+    static void checkSupport() {
+        boolean supported = ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean bean
+                && bean.isThreadAllocatedMemorySupported();
+        assumeTrue(supported, "per-thread allocation counter not available");
+        threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        threads.setThreadAllocatedMemoryEnabled(true);
+    }
+
+    /**
+     * Average bytes allocated per call of {@code op} after warming it up, the lowest
+     * of a few rounds so a compilation still queued at the end of warmup does not count
+     */
+    private static double bytesPerOp(IntSupplier op) {
+        int sink = 0;
+        for (int i = 0; i < WARMUP; i++) {
+            sink += op.getAsInt();
+        }
+        double best = Double.MAX_VALUE;
+        for (int round = 0; round < ROUNDS && best >= 1; round++) {
+            long before = threads.getCurrentThreadAllocatedBytes();
+            for (int i = 0; i < OPS; i++) {
+                sink += op.getAsInt();
+            }
+            best = Math.min(best, (double) (threads.getCurrentThreadAllocatedBytes() - before) / OPS);
+        }
+        blackhole = sink;
+        return best;
+    }
+
+    /**
+     * A hit on GET /users/{id} reuses the entry's cached JSON and entity tag
+     */
+    @Test
+    void testLookupDoesNotAllocate() {
+        UserService service = new UserService();
+        String id = "1";
+        UserEntry first = service.getEntry(id);
+        assertSame(service.etag(first), service.etag(first));
+        assertEquals(service.etag(first.version()), service.etag(first));
+
+        double bytes = bytesPerOp(() -> {
+            UserEntry entry = service.getEntry(id);
+            return entry.json().length + service.etag(entry).length();
+        });
+        assertTrue(bytes < 1, "lookup allocated " + bytes + " bytes/op");
+    }
+
+    /**
+     * Validating a write and blank checks do not trim or otherwise copy their input
+     */
+    @Test
+    void testValidationDoesNotAllocate() {
+        User user = new User(null, "  Alice Johnson ", "alice@example.com");
+        assertNull(Main.validateUser(user));
+        assertTrue(Main.isBlank(" \t\n"));
+        assertFalse(Main.isBlank(" a "));
+
+        double bytes = bytesPerOp(() -> (Main.validateUser(user) == null ? 1 : 0) + (Main.isBlank("  x") ? 1 : 0));
+        assertTrue(bytes < 1, "validation allocated " + bytes + " bytes/op");
+    }
+
+    /**
+     * A 404 allocates only its payload, which matches a full encode of the error
+     */
+    @Test
+    void testNotFoundPayload() {
+        for (String id : new String[]{"9", "missing-user", "quote\"d", "zoë"}) {
+            assertArrayEquals(Main.errorJson("User not found", "No user with id: " + id),
+                    UserRoutes.notFoundJson(id), id);
+        }
+        int size = UserRoutes.notFoundJson("123456").length;
+        double bytes = bytesPerOp(() -> UserRoutes.notFoundJson("123456").length);
+        // One byte array: its length plus an object header and padding.
+        assertTrue(bytes <= size + 24, "404 payload allocated " + bytes + " bytes/op for " + size + " bytes");
+    }
+
+    /**
+     * With no recording and no sampled trace, instrumentation creates no events
+     */
+    @Test
+    void testDisabledTracingDoesNotAllocate() {
+        assertNull(Tracing.recorder());
+        assertFalse(Tracing.recording());
+        double bytes = bytesPerOp(() -> {
+            Tracing.OperationEvent operation = Tracing.beginOperation("findUsers");
+            Tracing.SerializationEvent serialization = Tracing.beginSerialization("users");
+            Tracing.end(serialization, 1, 100);
+            Tracing.end(operation, 10, 1);
+            return operation.results + serialization.bytes;
+        });
+        assertTrue(bytes < 1, "disabled tracing allocated " + bytes + " bytes/op");
+    }
+}
@@ -0,0 +1,191 @@
+package com.acme;
+
+import io.helidon.webserver.WebServer;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Integration tests for cluster mode.
+ * Starts three nodes on localhost, each with its own store, and talks to them over HTTP.
+ */
+class ClusterTest {
+
+    static final List<String> NODES = List.of(
+            "http://localhost:8091", "http://localhost:8092", "http://localhost:8093");
+
+    static List<WebServer> servers = new ArrayList<>();
+    static List<UserService> services = new ArrayList<>();
+    static List<UserCluster> clusters = new ArrayList<>();
+    static HttpClient client;
+
+    @BeforeAll
+    static void startCluster() throws Exception {
+        for (String node : NODES) {
+            UserService service = new UserService(UserStorage.inMemory());
+            UserCluster cluster = new UserCluster(node, NODES)
+                    .cacheRemoteUsers(1000, Duration.ofMinutes(1), Duration.ofSeconds(1));
+            UserRoutes users = new UserRoutes(service, cluster);
+            WebServer server = WebServer.builder()
+                    .port(URI.create(node).getPort())
+                    .routing(rules -> Main.routing(rules, users))
+                    .build();
+            server.start();
+            servers.add(server);
+            services.add(service);
+            clusters.add(cluster);
+        }
+        client = HttpClient.newBuilder()
+                .connectTimeout(Duration.ofSeconds(5))
+                .build();
+        Thread.sleep(100);
+    }
+
+    @AfterAll
+    static void stopCluster() {
+        servers.forEach(WebServer::stop);
+    }
+
+    /**
+     * Test a user created through any node lands on its owner and is readable through every node
+     */
+    @Test
+    void testRequestsAreForwardedToOwner() throws Exception {
+        String id = "fwd-1";
+        HttpResponse<String> created = send("POST", NODES.get(0) + "/users",
+                "{\"id\":\"" + id + "\",\"name\":\"Forwarded\",\"email\":\"fwd@example.com\"}");
+        assertEquals(201, created.statusCode());
+
+        int owner = NODES.indexOf(new ConsistentHashRing(NODES, ConsistentHashRing.DEFAULT_VIRTUAL_NODES).owner(id));
+        for (int i = 0; i < NODES.size(); i++) {
+            assertEquals(i == owner, services.get(i).getUserById(id).isPresent(), "Stored on node " + i);
+            HttpResponse<String> read = send("GET", NODES.get(i) + "/users/" + id, null);
+            assertEquals(200, read.statusCode());
+            assertTrue(read.body().contains("Forwarded"));
+            assertTrue(read.headers().firstValue("ETag").isPresent());
+        }
+
+        HttpResponse<String> updated = send("PUT", NODES.get((owner + 1) % 3) + "/users/" + id,
+                "{\"name\":\"Moved\",\"email\":\"fwd@example.com\"}");
+        assertEquals(200, updated.statusCode());
+        assertEquals("Moved", services.get(owner).getUserById(id).orElseThrow().getName());
+
+        assertEquals(204, send("DELETE", NODES.get((owner + 2) % 3) + "/users/" + id, null).statusCode());
+        assertEquals(404, send("GET", NODES.get(owner) + "/users/" + id, null).statusCode());
+    }
+
+    /**
+     * Test reads of another node's user are cached until a write through the same node
+     */
+    @Test
+    void testRemoteReadsAreCached() throws Exception {
+        String id = "cached-1";
+        int owner = NODES.indexOf(clusters.get(0).owner(id));
+        int reader = (owner + 1) % 3;
+        assertEquals(201, send("POST", NODES.get(owner) + "/users",
+                "{\"id\":\"" + id + "\",\"name\":\"Cached\",\"email\":\"cached@example.com\"}").statusCode());
+
+        ReadThroughCache<String, UserCluster.RemoteUser> cache = clusters.get(reader).remoteUsers();
+        long hits = cache.hits();
+        assertTrue(send("GET", NODES.get(reader) + "/users/" + id, null).body().contains("Cached"));
+        assertTrue(send("GET", NODES.get(reader) + "/users/" + id, null).body().contains("Cached"));
+        assertEquals(hits + 1, cache.hits());
+
+        assertEquals(200, send("PUT", NODES.get(reader) + "/users/" + id,
+                "{\"name\":\"Recached\",\"email\":\"cached@example.com\"}").statusCode());
+        assertTrue(send("GET", NODES.get(reader) + "/users/" + id, null).body().contains("Recached"));
+    }
+
+    /**
+     * Test generated ids are always ones the creating node owns
+     */
+    @Test
+    void testGeneratedIdsAreOwnedLocally() throws Exception {
+        for (int i = 0; i < 10; i++) {
+            HttpResponse<String> created = send("POST", NODES.get(1) + "/users",
+                    "{\"name\":\"Generated " + i + "\",\"email\":\"gen" + i + "@example.com\"}");
+            assertEquals(201, created.statusCode());
+            String id = JsonReader.readUser(created.body().getBytes(StandardCharsets.UTF_8)).getId();
+            assertTrue(services.get(1).getUserById(id).isPresent(), "Generated id " + id + " not local");
+        }
+    }
+
+    /**
+     * Test searches and pages gather users from every node
+     */
+    @Test
+    void testListingsGatherAllNodes() throws Exception {
+        Set<String> ids = new HashSet<>();
+        for (int i = 0; i < 30; i++) {
+            String id = "g" + (100 + i);
+            ids.add(id);
+            assertEquals(201, send("POST", NODES.get(i % 3) + "/users",
+                    "{\"id\":\"" + id + "\",\"name\":\"Gathered " + i + "\",\"email\":\"gathered@example.com\"}")
+                    .statusCode());
+        }
+        for (UserService service : services) {
+            assertTrue(service.findUsers(null, "gathered@").size() < 30, "One node holds every user");
+        }
+
+        HttpResponse<String> search = send("GET", NODES.get(2) + "/users?email=gathered@", null);
+        assertEquals(200, search.statusCode());
+        assertEquals(30, search.body().split("Gathered").length - 1);
+
+        Set<String> paged = new HashSet<>();
+        String previous = null;
+        String cursor = null;
+        do {
+            HttpResponse<String> page = send("GET", NODES.get(0) + "/users?limit=7"
+                    + (cursor == null ? "" : "&after=" + cursor), null);
+            assertEquals(200, page.statusCode());
+            for (User user : readUsers(page.body())) {
+                if (previous != null) {
+                    assertTrue(UserService.ID_ORDER.compare(previous, user.getId()) < 0, "Out of order");
+                }
+                previous = user.getId();
+                paged.add(user.getId());
+            }
+            cursor = page.headers().firstValue("X-Next-Cursor").orElse(null);
+        } while (cursor != null);
+        assertTrue(paged.containsAll(ids), "Pages missed users");
+
+        HttpResponse<String> all = send("GET", NODES.get(1) + "/users", null);
+        assertEquals(200, all.statusCode());
+        assertEquals(paged.size(), readUsers(all.body()).size());
+    }
+
+    private static List<User> readUsers(String json) throws Exception {
+        JsonSequenceReader reader = new JsonSequenceReader(
+                new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)), 64 * 1024);
+        List<User> users = new ArrayList<>();
+        for (byte[] element = reader.next(); element != null; element = reader.next()) {
+            users.add(JsonReader.readUser(element));
+        }
+        return users;
+    }
+
+    private static HttpResponse<String> send(String method, String url, String body) throws Exception {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create(url))
+                .header("Content-Type", "application/json")
+                .method(method, body == null
+                        ? HttpRequest.BodyPublishers.noBody()
+                        : HttpRequest.BodyPublishers.ofString(body))
+                .build();
+        return client.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+}
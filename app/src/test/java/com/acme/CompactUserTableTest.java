@@ -0,0 +1,173 @@
+package com.acme;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ConcurrentModificationException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for the compact user layout.
+ */
+class CompactUserTableTest {
+
+    private static UserService compactService() {
+        return new UserService(UserStorage.inMemory(), UserService.Layout.COMPACT);
+    }
+
+    private static List<String> ids(List<User> users) {
+        return users.stream().map(User::getId).collect(Collectors.toList());
+    }
+
+    /**
+     * Only canonical numbers of up to 18 digits are stored as primitive keys
+     */
+    @Test
+    void testCompactKey() {
+        assertEquals(0, CompactUserTable.compactKey("0"));
+        assertEquals(42, CompactUserTable.compactKey("42"));
+        assertEquals(999_999_999_999_999_999L, CompactUserTable.compactKey("999999999999999999"));
+        assertEquals(-1, CompactUserTable.compactKey("007"));
+        assertEquals(-1, CompactUserTable.compactKey("1000000000000000000"));
+        assertEquals(-1, CompactUserTable.compactKey("-1"));
+        assertEquals(-1, CompactUserTable.compactKey("abc"));
+        assertEquals(-1, CompactUserTable.compactKey(""));
+    }
+
+    /**
+     * Create, read, update and delete round-trip names, emails and versions
+     */
+    @Test
+    void testCrud() {
+        UserService service = compactService();
+        User created = service.createUser(new User(null, "Zoë Ångström", "zoe@example.com"));
+        User named = service.createUser(new User("alice", "Alice", null));
+
+        assertEquals("1", created.getId());
+        assertEquals(created.getName(), service.getUserById("1").orElseThrow().getName());
+        assertEquals(created.getVersion(), service.getUserById("1").orElseThrow().getVersion());
+        assertNull(service.getUserById("alice").orElseThrow().getEmail());
+        assertEquals(2, service.size());
+
+        User updated = service.updateUser("1", new User(null, "Zoe", "zoe@new.example")).orElseThrow();
+        assertNotEquals(created.getVersion(), updated.getVersion());
+        assertEquals("zoe@new.example", service.getUserById("1").orElseThrow().getEmail());
+        assertThrows(ConcurrentModificationException.class,
+                () -> service.updateUser("1", new User(null, "Stale", "s@example.com"), created.getVersion()));
+        assertTrue(service.updateUser("404", named).isEmpty());
+
+        assertTrue(service.deleteUser("1"));
+        assertFalse(service.deleteUser("1"));
+        assertTrue(service.getUserById("1").isEmpty());
+        assertEquals(List.of("alice"), ids(service.getAllUsers()));
+    }
+
+    /**
+     * Pages merge compact and other ids in ID_ORDER, from any cursor
+     */
+    @Test
+    void testPagingMixesIds() {
+        UserService service = compactService();
+        for (String id : List.of("b", "1000", "007", "3", "a", "10000000000000000000", "20", "999")) {
+            service.createUser(new User(id, "User " + id, id + "@example.com"));
+        }
+        List<String> all = List.of("3", "20", "007", "999", "1000", "10000000000000000000", "a", "b");
+
+        assertEquals(all, ids(service.getUsersPage(null, 100)));
+        for (int i = 0; i < all.size(); i++) {
+            assertEquals(all.subList(i + 1, all.size()), ids(service.getUsersPage(all.get(i), 100)),
+                    "after " + all.get(i));
+        }
+        assertEquals(List.of("20", "007"), ids(service.getUsersPage("3", 2)));
+        assertEquals(List.of("007", "999", "1000"), ids(service.getUsersPage("99", 3)));
+
+        service.deleteUser("999");
+        assertEquals(List.of("1000"), ids(service.getUsersPage("007", 1)));
+    }
+
+    /**
+     * Scanned searches match case-insensitively over ASCII and non-ASCII fields
+     */
+    @Test
+    void testSearch() {
+        UserService service = compactService();
+        service.createUser(new User("10", "Grace Hopper", "Grace@Navy.mil"));
+        service.createUser(new User("11", "ÉMILE Zola", "emile@example.com"));
+        service.createUser(new User("x", "Grace Kelly", "kelly@example.com"));
+
+        assertEquals(List.of("10", "x"), ids(service.findUsers("GRACE", null)).stream().sorted().toList());
+        assertEquals(List.of("10"), ids(service.findUsers("grace", "navy")));
+        assertEquals(List.of("11"), ids(service.findUsers("émile", null)));
+        assertEquals(List.of("10"), ids(service.findUsersByExactEmail("grace@navy.MIL")));
+        assertTrue(service.findUsersByExactEmail("grace@navy").isEmpty());
+        assertEquals(3, service.findUsers(null, "@").size());
+        assertEquals(4, service.findScanLength().count());
+    }
+
+    /**
+     * Ranked search scores every compact and other-id user
+     */
+    @Test
+    void testRankedSearch() {
+        UserService service = compactService();
+        service.createUser(new User("10", "Grace Hopper", "hopper@navy.mil"));
+        service.createUser(new User("11", "ÉMILE Zola", "emile@example.com"));
+        service.createUser(new User("x", "Gracelyn Kelly", "grace@example.com"));
+
+        assertEquals(List.of("10", "x"), ids(service.searchUsers("grace", 10)));
+        assertEquals(List.of("11"), ids(service.searchUsers("Émil", 10)));
+        assertEquals(List.of("10"), ids(service.searchUsers("hoppr navy", 10)));
+    }
+
+    /**
+     * Rewriting the same users reclaims superseded records
+     */
+    @Test
+    void testArenaCompaction() {
+        CompactUserTable table = new CompactUserTable();
+        String padding = "x".repeat(100);
+        for (int round = 0; round < 50; round++) {
+            for (int id = 0; id < 1000; id++) {
+                User user = new User(Integer.toString(id), "User " + id + padding, round + "@example.com",
+                        (long) round);
+                table.compute(user.getId(), previous -> new UserEntry(user));
+            }
+        }
+        assertEquals(1000, table.size());
+        assertEquals("49@example.com", table.get("999").user.getEmail());
+        assertTrue(table.arenaBytes() < 1000L * 150 * 8, "arena holds " + table.arenaBytes() + " bytes");
+    }
+
+    /**
+     * Random inserts, updates and deletes agree with a HashMap, including deletes
+     * that shift colliding keys back
+     */
+    @Test
+    void testRandomOperationsMatchHashMap() {
+        CompactUserTable table = new CompactUserTable();
+        Map<String, String> expected = new HashMap<>();
+        Random random = new Random(42);
+        for (int i = 0; i < 50_000; i++) {
+            String id = Integer.toString(random.nextInt(5_000));
+            if (random.nextInt(3) == 0) {
+                table.compute(id, previous -> null);
+                expected.remove(id);
+            } else {
+                User user = new User(id, "User " + id, i + "@example.com", (long) i);
+                table.compute(id, previous -> new UserEntry(user));
+                expected.put(id, user.getEmail());
+            }
+        }
+        assertEquals(expected.size(), table.size());
+        for (int id = 0; id < 5_000; id++) {
+            UserEntry entry = table.get(Integer.toString(id));
+            assertEquals(expected.get(Integer.toString(id)), entry == null ? null : entry.user.getEmail());
+        }
+        assertEquals(expected.size(), table.entries().count());
+    }
+}
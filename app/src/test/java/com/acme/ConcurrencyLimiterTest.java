@@ -0,0 +1,60 @@
+package com.acme;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for the adaptive concurrency limit.
+ */
+class ConcurrencyLimiterTest {
+
+    private static void window(ConcurrencyLimiter limiter, AtomicLong now, long latencyNanos) {
+        for (int i = 0; i < 20; i++) {
+            assertTrue(limiter.tryAcquire());
+            limiter.release(latencyNanos);
+        }
+        now.addAndGet(ConcurrencyLimiter.WINDOW_NANOS);
+        assertTrue(limiter.tryAcquire());
+        limiter.release(latencyNanos);
+    }
+
+    /**
+     * Slots beyond the limit are refused until one is released
+     */
+    @Test
+    void testLimitsInFlight() {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(2, 1, 10, () -> 0L);
+        assertTrue(limiter.tryAcquire());
+        assertTrue(limiter.tryAcquire());
+        assertFalse(limiter.tryAcquire());
+        limiter.releaseUnsampled();
+        assertTrue(limiter.tryAcquire());
+        assertEquals(2, limiter.inFlight());
+    }
+
+    /**
+     * The limit grows while latency holds steady and shrinks once it climbs
+     */
+    @Test
+    void testAdaptsToLatency() {
+        AtomicLong now = new AtomicLong();
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(20, 4, 1000, now::get);
+        for (int i = 0; i < 20; i++) {
+            window(limiter, now, 1_000_000);
+        }
+        int grown = limiter.limit();
+        assertTrue(grown > 20, "limit " + grown);
+
+        for (int i = 0; i < 20; i++) {
+            window(limiter, now, 20_000_000);
+        }
+        assertTrue(limiter.limit() < grown / 2, "limit " + limiter.limit() + " after " + grown);
+        for (int i = 0; i < 200; i++) {
+            window(limiter, now, 1_000_000_000);
+        }
+        assertTrue(limiter.limit() >= 4);
+    }
+}
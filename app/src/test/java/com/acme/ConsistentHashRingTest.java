@@ -0,0 +1,66 @@
+package com.acme;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ConsistentHashRingTest {
+
+    private static final List<String> NODES = List.of("http://a:8080", "http://b:8080", "http://c:8080");
+
+    /** Test every node gets a fair share of sequential ids */
+    @Test
+    void testKeysAreSpreadEvenly() {
+        ConsistentHashRing ring = new ConsistentHashRing(NODES, ConsistentHashRing.DEFAULT_VIRTUAL_NODES);
+        Map<String, Integer> counts = new HashMap<>();
+        for (int i = 1; i <= 30_000; i++) {
+            counts.merge(ring.owner(String.valueOf(i)), 1, Integer::sum);
+        }
+        assertEquals(3, counts.size());
+        for (int count : counts.values()) {
+            assertTrue(count > 7_000 && count < 13_000, "Uneven share: " + counts);
+        }
+    }
+
+    /** Test rings built from the same nodes agree, whatever the order they are listed in */
+    @Test
+    void testOwnershipIsStable() {
+        ConsistentHashRing ring = new ConsistentHashRing(NODES, ConsistentHashRing.DEFAULT_VIRTUAL_NODES);
+        ConsistentHashRing other = new ConsistentHashRing(List.of(NODES.get(2), NODES.get(0), NODES.get(1)),
+                ConsistentHashRing.DEFAULT_VIRTUAL_NODES);
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(ring.owner("user-" + i), other.owner("user-" + i));
+        }
+    }
+
+    /** Test adding a node only moves keys to the new node */
+    @Test
+    void testAddingNodeMovesFewKeys() {
+        ConsistentHashRing ring = new ConsistentHashRing(NODES, ConsistentHashRing.DEFAULT_VIRTUAL_NODES);
+        ConsistentHashRing grown = new ConsistentHashRing(List.of(NODES.get(0), NODES.get(1), NODES.get(2),
+                "http://d:8080"), ConsistentHashRing.DEFAULT_VIRTUAL_NODES);
+        int moved = 0;
+        for (int i = 0; i < 20_000; i++) {
+            String key = String.valueOf(i);
+            String before = ring.owner(key);
+            String after = grown.owner(key);
+            if (!before.equals(after)) {
+                assertEquals("http://d:8080", after);
+                moved++;
+            }
+        }
+        assertTrue(moved > 3_000 && moved < 7_000, "Moved " + moved + " of 20000 keys");
+    }
+
+    /** Test a single-node ring owns everything */
+    @Test
+    void testSingleNode() {
+        ConsistentHashRing ring = new ConsistentHashRing(List.of("http://a:8080"), 1);
+        assertEquals("http://a:8080", ring.owner("anything"));
+        assertThrows(IllegalArgumentException.class, () -> new ConsistentHashRing(List.of(), 10));
+    }
+}
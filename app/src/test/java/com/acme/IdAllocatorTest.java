@@ -0,0 +1,88 @@
+package com.acme;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class IdAllocatorTest {
+
+    /** Test ids are dense and in order while only one thread allocates */
+    @Test
+    void testUncontendedIdsAreSequential() {
+        IdAllocator allocator = new IdAllocator(1);
+        for (long expected = 1; expected <= 5000; expected++) {
+            assertEquals(expected, allocator.next());
+        }
+        assertFalse(allocator.isStriped());
+    }
+
+    /** Test concurrent allocation never repeats an id or hands out a reserved one */
+    @Test
+    void testConcurrentIdsAreUniqueAndAvoidReserved() throws Exception {
+        IdAllocator allocator = new IdAllocator(1);
+        Set<Long> generated = ConcurrentHashMap.newKeySet();
+        Set<Long> reserved = ConcurrentHashMap.newKeySet();
+        int threads = 8;
+        int perThread = 50_000;
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int worker = t;
+            workers.add(Thread.ofPlatform().start(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+                for (int i = 0; i < perThread; i++) {
+                    if (worker == 0 && i % 100 == 0) {
+                        // Far enough apart that each is still ahead of the sequence.
+                        long id = 1_000_000L * (i / 100 + 1) + i;
+                        allocator.reserve(id);
+                        reserved.add(id);
+                    } else {
+                        assertTrue(generated.add(allocator.next()), "Duplicate id");
+                    }
+                }
+            }));
+        }
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        assertEquals(threads * perThread - perThread / 100, generated.size());
+        for (long id : reserved) {
+            assertFalse(generated.contains(id), "Generated reserved id " + id);
+        }
+    }
+
+    /** Test a reserved id inside a block already carved out is skipped */
+    @Test
+    void testReserveInsideOutstandingBlock() {
+        IdAllocator allocator = new IdAllocator(1, true);
+        assertEquals(1, allocator.next());
+        assertEquals(2, allocator.next());
+        allocator.reserve(500);
+        long next = allocator.next();
+        assertTrue(next > 500, "Generated " + next);
+        allocator.reserve(next + 10);
+        long after = allocator.next();
+        assertTrue(after > next + 10, "Generated " + after);
+    }
+
+    /** Test reserving an id ahead of the sequence moves it past the id */
+    @Test
+    void testReserveAdvancesSequence() {
+        IdAllocator allocator = new IdAllocator(1);
+        allocator.next();
+        allocator.reserve(500);
+        allocator.reserve(10);
+        assertEquals(501, allocator.next());
+    }
+}
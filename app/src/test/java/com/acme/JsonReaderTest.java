@@ -0,0 +1,55 @@
+package com.acme;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class JsonReaderTest {
+
+    /**
+     * Test known properties are read, unknown ones skipped and null leaves a property unset
+     */
+    @Test
+    void testReadUser() {
+        User user = read(" {\"name\" : \"Alice\", \"extra\": {\"a\": [1, 2.5e3, true, null, \"x\"]},"
+                + " \"email\":\"alice@example.com\", \"id\": null}\n");
+        assertNull(user.getId());
+        assertEquals("Alice", user.getName());
+        assertEquals("alice@example.com", user.getEmail());
+
+        assertEquals("42", read("{\"id\":42}").getId());
+        assertEquals("7", read("{\"\\u0069d\":\"7\"}").getId());
+        assertEquals("Zoë \"Z\"", read("{\"name\":\"Zo\\u00eb \\\"Z\\\"\"}").getName());
+        assertEquals("Zoë", read("{\"name\":\"Zoë\"}").getName());
+        assertNull(read("{}").getName());
+    }
+
+    /**
+     * Test malformed bodies are rejected
+     */
+    @Test
+    void testMalformed() {
+        for (String body : new String[]{"", "null", "[]", "{", "{\"name\":}", "{\"name\":\"a\"", "{\"name\":\"a\"} x",
+                "{name:\"a\"}", "{\"name\":\"a\",}", "{\"name\":\"a\nb\"}", "{\"name\":\"\\q\"}", "{\"id\":true}",
+                "{\"x\":tru}", "{\"x\":[1,]}"}) {
+            assertThrows(IllegalArgumentException.class, () -> read(body), body);
+        }
+    }
+
+    /**
+     * Test bare string elements, as used for batch delete ids
+     */
+    @Test
+    void testReadString() {
+        assertEquals("abc", JsonReader.readString("\"abc\"".getBytes(StandardCharsets.UTF_8)));
+        assertNull(JsonReader.readString("null".getBytes(StandardCharsets.UTF_8)));
+        assertThrows(IllegalArgumentException.class,
+                () -> JsonReader.readString("\"a\" \"b\"".getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static User read(String json) {
+        return JsonReader.readUser(json.getBytes(StandardCharsets.UTF_8));
+    }
+}
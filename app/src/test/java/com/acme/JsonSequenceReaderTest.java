@@ -0,0 +1,59 @@
+package com.acme;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for splitting JSON arrays and NDJSON streams into elements.
+ */
+class JsonSequenceReaderTest {
+
+    private static List<String> split(String body, int maxElementBytes) throws Exception {
+        JsonSequenceReader reader = new JsonSequenceReader(
+                new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8)), maxElementBytes);
+        List<String> elements = new ArrayList<>();
+        byte[] element;
+        while ((element = reader.next()) != null) {
+            elements.add(new String(element, StandardCharsets.UTF_8));
+        }
+        return elements;
+    }
+
+    /**
+     * Array elements keep nested brackets and escaped quotes intact
+     */
+    @Test
+    void testSplitsArray() throws Exception {
+        String body = " [ {\"name\":\"a]\\\"b\",\"tags\":[1,{\"x\":2}]} , \"id-7\" ,42 ] \n";
+        assertEquals(List.of("{\"name\":\"a]\\\"b\",\"tags\":[1,{\"x\":2}]}", "\"id-7\"", "42"), split(body, 1024));
+        assertEquals(List.of(), split("[]", 1024));
+        assertEquals(List.of(), split("", 1024));
+    }
+
+    /**
+     * NDJSON is a whitespace-separated sequence of values
+     */
+    @Test
+    void testSplitsNdjson() throws Exception {
+        String body = "{\"id\":\"1\"}\n{\"id\":\"2\"}\r\n\n{\"id\":\"3\"}";
+        assertEquals(List.of("{\"id\":\"1\"}", "{\"id\":\"2\"}", "{\"id\":\"3\"}"), split(body, 1024));
+    }
+
+    /**
+     * Structural errors and oversized elements are rejected
+     */
+    @Test
+    void testRejectsMalformedInput() {
+        assertThrows(IllegalArgumentException.class, () -> split("[{\"a\":1} {\"b\":2}]", 1024));
+        assertThrows(IllegalArgumentException.class, () -> split("[{\"a\":1}", 1024));
+        assertThrows(IllegalArgumentException.class, () -> split("{\"a\":\"open", 1024));
+        assertThrows(IllegalArgumentException.class, () -> split("[1] 2", 1024));
+        assertThrows(IllegalArgumentException.class, () -> split("[\"" + "x".repeat(2000) + "\"]", 1024));
+    }
+}
@@ -0,0 +1,79 @@
+package com.acme;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class JsonWriterTest {
+
+    /**
+     * Test properties are written in lexicographic order with nulls omitted, as JSON-B does
+     */
+    @Test
+    void testUserAndErrorLayout() {
+        assertEquals("{\"email\":\"alice@example.com\",\"id\":\"1\",\"name\":\"Alice Johnson\"}",
+                json(JsonWriter.toBytes(new User("1", "Alice Johnson", "alice@example.com"))));
+        assertEquals("{\"email\":\"bob@example.com\",\"name\":\"Bob\"}",
+                json(JsonWriter.toBytes(new User(null, "Bob", "bob@example.com"))));
+        assertEquals("{}", json(JsonWriter.toBytes(new User())));
+        assertEquals("{\"details\":\"No user with id: 9\",\"message\":\"User not found\"}",
+                json(JsonWriter.toBytes(new ErrorResponse("User not found", "No user with id: 9"))));
+        assertEquals("[]", json(JsonWriter.toBytes(List.of())));
+        assertEquals("[{\"id\":\"1\"},{\"id\":\"2\"}]",
+                json(JsonWriter.toBytes(List.of(new User("1", null, null), new User("2", null, null)))));
+    }
+
+    /**
+     * Test change feed events nest the user and omit it for deletes
+     */
+    @Test
+    void testChangeEvents() {
+        JsonWriter writer = new JsonWriter();
+        writer.change(new UserChange(5, UserChange.Type.UPDATED, "1", new User("1", "A", "a@example.com", 9L)), "e-5");
+        assertEquals("{\"cursor\":\"e-5\",\"id\":\"1\",\"type\":\"update\","
+                + "\"user\":{\"email\":\"a@example.com\",\"id\":\"1\",\"name\":\"A\",\"version\":9}}",
+                json(writer.toByteArray()));
+        writer.reset();
+        writer.change(new UserChange(6, UserChange.Type.DELETED, "1", null), "e-6");
+        assertEquals("{\"cursor\":\"e-6\",\"id\":\"1\",\"type\":\"delete\"}", json(writer.toByteArray()));
+        writer.reset();
+        writer.feedEvent("reset", "e-6");
+        assertEquals("{\"cursor\":\"e-6\",\"type\":\"reset\"}", json(writer.toByteArray()));
+    }
+
+    /**
+     * Test batch results always carry index and status
+     */
+    @Test
+    void testBatchResult() {
+        JsonWriter writer = new JsonWriter(4);
+        writer.batchResult(new BatchResult(3, 201, "7", null, null));
+        assertEquals("{\"id\":\"7\",\"index\":3,\"status\":201}", json(writer.toByteArray()));
+        writer.reset();
+        writer.batchResult(new BatchResult(0, 400, null, "Validation error", "name is required."));
+        assertEquals("{\"details\":\"name is required.\",\"index\":0,\"message\":\"Validation error\",\"status\":400}",
+                json(writer.toByteArray()));
+    }
+
+    /**
+     * Test escaping and UTF-8 encoding, including characters outside the BMP
+     */
+    @Test
+    void testStringEncoding() throws Exception {
+        String value = "q\"b\\s/\n\t\u0001 é € \uD83D\uDE00";
+        JsonWriter writer = new JsonWriter(2);
+        writer.string(value);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writer.writeTo(out);
+        assertEquals("\"q\\\"b\\\\s/\\n\\t\\u0001 é € \uD83D\uDE00\"", out.toString(StandardCharsets.UTF_8));
+        assertEquals(value, JsonReader.readString(out.toByteArray()));
+    }
+
+    private static String json(byte[] bytes) {
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,74 @@
+package com.acme;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/**
+ * Startup benchmark for {@link LogUserStorage}: time to rebuild a {@link UserService}
+ * from a pure log replay and from a memory-mapped snapshot.
+ * <p>
+ * Run with {@code ./gradlew :app:storageStartupBenchmark -Pusers=1000000}.
+ */
+public final class LogUserStorageStartupBenchmark {
+    private static final int RUNS = 3;
+
+    public static void main(String[] args) throws IOException {
+        int users = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        Path dir = Files.createTempDirectory("user-storage-bench");
+        try {
+            long writeStart = System.nanoTime();
+            try (UserService service = new UserService(new LogUserStorage(dir, LogUserStorage.SyncMode.INTERVAL))) {
+                for (int i = 0; i < users; i++) {
+                    service.createUser(new User(null, "User " + i, "user" + i + "@example.com"));
+                }
+            }
+            System.out.printf("write   %,d users: %,d ms%n", users, millisSince(writeStart));
+
+            report("replay", users, dir);
+
+            LogUserStorage storage = new LogUserStorage(dir, LogUserStorage.SyncMode.INTERVAL);
+            UserService loaded = new UserService(storage);
+            try {
+                long snapshotStart = System.nanoTime();
+                storage.snapshot();
+                System.out.printf("snapshot %,d users: %,d ms%n", users, millisSince(snapshotStart));
+            } finally {
+                loaded.close();
+            }
+
+            report("mmap snapshot", users, dir);
+        } finally {
+            try (Stream<Path> files = Files.walk(dir)) {
+                files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+        }
+    }
+
+    private static void report(String label, int users, Path dir) throws IOException {
+        long[] runs = new long[RUNS];
+        for (int run = 0; run < RUNS; run++) {
+            System.gc();
+            long start = System.nanoTime();
+            try (UserService service = new UserService(new LogUserStorage(dir, LogUserStorage.SyncMode.INTERVAL))) {
+                runs[run] = millisSince(start);
+                if (service.getAllUsers().size() != users) {
+                    throw new IllegalStateException("Expected " + users + " users after " + label);
+                }
+            }
+        }
+        Arrays.sort(runs);
+        System.out.printf("startup (%s) %,d users: best %,d ms, median %,d ms%n",
+                label, users, runs[0], runs[RUNS / 2]);
+    }
+
+    private static long millisSince(long start) {
+        return (System.nanoTime() - start) / 1_000_000;
+    }
+
+    private LogUserStorageStartupBenchmark() {
+    }
+}
@@ -0,0 +1,242 @@
+package com.acme;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for the write-ahead log storage engine: restart recovery, snapshots and torn writes.
+ */
+class LogUserStorageTest {
+
+    @TempDir
+    Path dir;
+
+    private UserService open(LogUserStorage.SyncMode mode) {
+        return new UserService(new LogUserStorage(dir, mode));
+    }
+
+    /**
+     * Every sync mode must bring back the same state after a clean restart
+     */
+    @Test
+    void testRestartRecoversAllModes() throws Exception {
+        for (LogUserStorage.SyncMode mode : LogUserStorage.SyncMode.values()) {
+            Path modeDir = dir.resolve(mode.name());
+            try (UserService service = new UserService(new LogUserStorage(modeDir, mode))) {
+                service.createUser(new User(null, "Ada", "ada@example.com"));
+                service.createUser(new User("x", "Xavier", "x@example.com"));
+                service.updateUser("x", new User(null, "Xena", "xena@example.com"));
+                service.createUser(new User(null, "Gone", "gone@example.com"));
+                service.deleteUser("2");
+            }
+            try (UserService service = new UserService(new LogUserStorage(modeDir, mode))) {
+                assertEquals("Ada", service.getUserById("1").orElseThrow().getName(), mode.name());
+                assertEquals("Xena", service.getUserById("x").orElseThrow().getName(), mode.name());
+                assertTrue(service.getUserById("2").isEmpty(), mode.name());
+                assertEquals(List.of("x"), service.findUsers("xena", null).stream()
+                        .map(User::getId).collect(Collectors.toList()));
+                // The id sequence continues after the replayed numeric ids.
+                assertEquals("3", service.createUser(new User(null, "Next", "next@example.com")).getId());
+            }
+        }
+    }
+
+    /**
+     * A snapshot folds the log; later writes replay on top of it
+     */
+    @Test
+    void testSnapshotThenTailReplay() throws Exception {
+        LogUserStorage storage = new LogUserStorage(dir, LogUserStorage.SyncMode.PER_BATCH);
+        try (UserService service = new UserService(storage)) {
+            for (int i = 0; i < 100; i++) {
+                service.createUser(new User(null, "User " + i, "u" + i + "@example.com"));
+            }
+            storage.snapshot();
+            service.deleteUser("1");
+            service.updateUser("2", new User(null, "Renamed", "renamed@example.com"));
+        }
+        assertTrue(Files.exists(dir.resolve(LogUserStorage.SNAPSHOT)));
+        try (Stream<Path> files = Files.list(dir)) {
+            assertEquals(2, files.count(), "snapshot plus the tail segment");
+        }
+        try (UserService service = open(LogUserStorage.SyncMode.PER_BATCH)) {
+            assertTrue(service.getUserById("1").isEmpty());
+            assertEquals("Renamed", service.getUserById("2").orElseThrow().getName());
+            assertEquals(99, service.getAllUsers().size());
+        }
+    }
+
+    /**
+     * Segments rotate at the size threshold and are compacted in the background
+     */
+    @Test
+    void testAutomaticCompaction() throws Exception {
+        try (UserService service = new UserService(new LogUserStorage(dir, LogUserStorage.SyncMode.INTERVAL,
+                Duration.ofMillis(10), 4 * 1024))) {
+            for (int i = 0; i < 2000; i++) {
+                service.createUser(new User("u" + (i % 50), "User " + i, "u" + i + "@example.com"));
+            }
+        }
+        try (UserService service = open(LogUserStorage.SyncMode.INTERVAL)) {
+            assertEquals(50, service.getAllUsers().size());
+            assertEquals("User 1999", service.getUserById("u49").orElseThrow().getName());
+        }
+    }
+
+    /**
+     * A partial record at the end of the log is dropped on startup, not treated as fatal
+     */
+    @Test
+    void testTornTailIsTruncated() throws Exception {
+        try (UserService service = open(LogUserStorage.SyncMode.PER_WRITE)) {
+            service.createUser(new User("a", "Kept", "kept@example.com"));
+        }
+        Path segment;
+        try (Stream<Path> files = Files.list(dir)) {
+            segment = files.filter(path -> path.getFileName().toString().endsWith(".log"))
+                    .filter(path -> path.toFile().length() > 0)
+                    .findFirst().orElseThrow();
+        }
+        long validLength = Files.size(segment);
+        byte[] torn = UserRecords.encodePut(new User("b", "Torn", "torn@example.com"));
+        Files.write(segment, java.util.Arrays.copyOf(torn, torn.length - 3), StandardOpenOption.APPEND);
+
+        try (UserService service = open(LogUserStorage.SyncMode.PER_WRITE)) {
+            assertTrue(service.getUserById("a").isPresent());
+            assertTrue(service.getUserById("b").isEmpty());
+        }
+        assertEquals(validLength, Files.size(segment));
+    }
+
+    /**
+     * A damaged record with more after it fails startup instead of dropping what follows
+     */
+    @Test
+    void testCorruptRecordFailsStartup() throws Exception {
+        try (UserService service = open(LogUserStorage.SyncMode.PER_WRITE)) {
+            for (int i = 0; i < 3; i++) {
+                service.createUser(new User(null, "User " + i, "u" + i + "@example.com"));
+            }
+        }
+        Path segment = segments().get(0);
+        byte[] bytes = Files.readAllBytes(segment);
+        bytes[UserRecords.HEADER + 3] ^= 1;
+        Files.write(segment, bytes);
+
+        LogUserStorage storage = new LogUserStorage(dir, LogUserStorage.SyncMode.PER_WRITE);
+        IOException failure = assertThrows(IOException.class, () -> storage.load((id, user) -> {
+        }, id -> {
+        }));
+        assertTrue(failure.getMessage().contains("at byte 0 of " + bytes.length), failure.getMessage());
+        storage.close();
+        assertArrayEquals(bytes, Files.readAllBytes(segment));
+    }
+
+    /**
+     * Only the newest segment may end in a torn write; a partial record in an older one is corruption
+     */
+    @Test
+    void testTornOlderSegmentFailsStartup() throws Exception {
+        try (UserService service = open(LogUserStorage.SyncMode.PER_WRITE)) {
+            service.createUser(new User("a", "Kept", "kept@example.com"));
+        }
+        try (UserService service = open(LogUserStorage.SyncMode.PER_WRITE)) {
+            service.createUser(new User("c", "Later", "later@example.com"));
+        }
+        List<Path> segments = segments();
+        assertTrue(segments.size() >= 2);
+        byte[] torn = UserRecords.encodePut(new User("b", "Torn", "torn@example.com"));
+        Files.write(segments.get(0), java.util.Arrays.copyOf(torn, torn.length - 3), StandardOpenOption.APPEND);
+
+        assertThrows(UncheckedIOException.class, () -> open(LogUserStorage.SyncMode.PER_WRITE));
+    }
+
+    private List<Path> segments() throws Exception {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.filter(path -> path.getFileName().toString().endsWith(".log")).sorted().toList();
+        }
+    }
+
+    /**
+     * A failure while restoring a record aborts startup and leaves the log intact
+     */
+    @Test
+    void testRestoreFailureKeepsLog() throws Exception {
+        try (UserService service = open(LogUserStorage.SyncMode.PER_WRITE)) {
+            for (int i = 0; i < 3; i++) {
+                service.createUser(new User(null, "User " + i, "u" + i + "@example.com"));
+            }
+        }
+        long before = logBytes();
+
+        LogUserStorage storage = new LogUserStorage(dir, LogUserStorage.SyncMode.PER_WRITE);
+        IllegalStateException failure = assertThrows(IllegalStateException.class, () -> storage.load((id, user) -> {
+            if (id.equals("2")) {
+                throw new IllegalStateException("restore failed");
+            }
+        }, id -> {
+        }));
+        assertEquals("restore failed", failure.getMessage());
+        storage.close();
+
+        assertEquals(before, logBytes());
+        try (UserService service = open(LogUserStorage.SyncMode.PER_WRITE)) {
+            assertEquals(3, service.getAllUsers().size());
+        }
+    }
+
+    private long logBytes() throws Exception {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.filter(path -> path.getFileName().toString().endsWith(".log"))
+                    .mapToLong(path -> path.toFile().length())
+                    .sum();
+        }
+    }
+
+    /**
+     * Group commit under concurrent writers loses nothing
+     */
+    @Test
+    void testConcurrentGroupCommit() throws Exception {
+        int threads = 8;
+        int perThread = 200;
+        try (UserService service = open(LogUserStorage.SyncMode.PER_BATCH)) {
+            ExecutorService pool = Executors.newFixedThreadPool(threads);
+            try {
+                Future<?>[] futures = new Future<?>[threads];
+                for (int t = 0; t < threads; t++) {
+                    futures[t] = pool.submit(() -> {
+                        for (int i = 0; i < perThread; i++) {
+                            service.createUser(new User(null, "Writer", "writer@example.com"));
+                        }
+                    });
+                }
+                for (Future<?> future : futures) {
+                    future.get();
+                }
+            } finally {
+                pool.shutdown();
+                assertTrue(pool.awaitTermination(10, TimeUnit.SECONDS));
+            }
+        }
+        try (UserService service = open(LogUserStorage.SyncMode.PER_BATCH)) {
+            assertEquals(threads * perThread, service.getAllUsers().size());
+        }
+    }
+}
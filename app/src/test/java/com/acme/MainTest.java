@@ -10,4 +10,19 @@ class MainTest {
     void mainClassLoads() {
         assertDoesNotThrow(() -> Class.forName("com.acme.Main"));
     }
+
+    @Test
+    void etagMatchesLists() {
+        assertTrue(Main.etagMatches("\"a-1\"", "\"a-1\"", true));
+        assertTrue(Main.etagMatches("\"x\", W/\"a-1\"", "\"a-1\"", true));
+        assertFalse(Main.etagMatches("W/\"a-1\"", "\"a-1\"", false));
+        assertTrue(Main.etagMatches("*", "\"a-1\"", false));
+        assertFalse(Main.etagMatches("\"a-2\"", "\"a-1\"", true));
+        assertFalse(Main.etagMatches("", "\"a-1\"", true));
+    }
+
+    @Test
+    void serverLeavesShutdownToLifecycle() {
+        assertFalse(Main.serverConfig(0).shutdownHook());
+    }
 }
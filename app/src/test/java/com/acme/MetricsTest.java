@@ -0,0 +1,69 @@
+package com.acme;
+
+import io.helidon.http.Method;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MetricsTest {
+
+    /**
+     * Test route templates match whole segments and collapse path parameters
+     */
+    @Test
+    void testRouteMatching() {
+        String[] byId = {"users", null};
+        assertTrue(Metrics.matches(byId, "/users/42"));
+        assertFalse(Metrics.matches(byId, "/users"));
+        assertFalse(Metrics.matches(byId, "/users/"));
+        assertFalse(Metrics.matches(byId, "/users/42/extra"));
+        assertFalse(Metrics.matches(new String[]{"users"}, "/users:batch"));
+        assertTrue(Metrics.matches(new String[]{"users:batch"}, "/users:batch"));
+    }
+
+    /**
+     * Test requests are counted per route, method and status, with unknown paths as "other"
+     */
+    @Test
+    void testScrapeCountsByRouteAndStatus() {
+        Metrics metrics = new Metrics(List.of("/users", "/users/{id}"));
+        metrics.record(Method.GET, "/users/1", 200, 1_000_000);
+        metrics.record(Method.GET, "/users/2", 200, 3_000_000);
+        metrics.record(Method.GET, "/users/x", 404, 200_000);
+        metrics.record(Method.POST, "/users", 400, 100_000);
+        metrics.record(Method.GET, "/nope", 404, 100_000);
+
+        String text = metrics.scrape(new Metrics.Sources(new UserService()));
+        assertTrue(text.contains("http_requests_total{route=\"/users/{id}\",method=\"GET\",status=\"200\"} 2\n"));
+        assertTrue(text.contains("http_requests_total{route=\"/users/{id}\",method=\"GET\",status=\"404\"} 1\n"));
+        assertTrue(text.contains("http_requests_total{route=\"/users\",method=\"POST\",status=\"400\"} 1\n"));
+        assertTrue(text.contains("http_requests_total{route=\"other\",method=\"GET\",status=\"404\"} 1\n"));
+        assertTrue(text.contains(
+                "http_request_duration_seconds_bucket{route=\"/users/{id}\",method=\"GET\",le=\"0.0005\"} 1\n"));
+        assertTrue(text.contains(
+                "http_request_duration_seconds_bucket{route=\"/users/{id}\",method=\"GET\",le=\"0.001\"} 2\n"));
+        assertTrue(text.contains(
+                "http_request_duration_seconds_bucket{route=\"/users/{id}\",method=\"GET\",le=\"+Inf\"} 3\n"));
+        assertTrue(text.contains("http_request_duration_seconds_count{route=\"/users/{id}\",method=\"GET\"} 3\n"));
+        assertTrue(text.contains("users_total 2\n"));
+    }
+
+    /**
+     * Test searches record how many entries they examined
+     */
+    @Test
+    void testFindScanLength() {
+        UserService service = new UserService();
+        service.findUsers("alice", null);
+        service.findUsers("a", null);
+
+        StringBuilder out = new StringBuilder();
+        service.findScanLength().write(out, "scan", "");
+        String text = out.toString();
+        assertTrue(text.contains("scan_bucket{le=\"10\"} 2\n"), text);
+        assertTrue(text.contains("scan_count 2\n"), text);
+        assertTrue(text.contains("scan_sum 3\n"), text);
+    }
+}
@@ -0,0 +1,141 @@
+package com.acme;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ReadThroughCacheTest {
+
+    /**
+     * Stand-in for a remote store: a map read with a configurable delay, counting loads.
+     */
+    static final class SlowStore implements ReadThroughCache.Loader<String, String> {
+        final Map<String, String> values = new ConcurrentHashMap<>();
+        final AtomicInteger loads = new AtomicInteger();
+        volatile long latencyMillis;
+        volatile boolean failing;
+
+        @Override
+        public String load(String key) throws IOException {
+            loads.incrementAndGet();
+            try {
+                Thread.sleep(latencyMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (failing) {
+                throw new IOException("store unavailable");
+            }
+            return values.get(key);
+        }
+    }
+
+    private static final long TTL = TimeUnit.SECONDS.toNanos(10);
+
+    /** Test hits, TTL expiry and negative caching against a fake clock */
+    @Test
+    void testTtlAndNegativeCaching() throws Exception {
+        SlowStore store = new SlowStore();
+        store.values.put("1", "Alice");
+        AtomicLong now = new AtomicLong();
+        ReadThroughCache<String, String> cache = new ReadThroughCache<>(store, 100, TTL, TTL / 10, now::get);
+
+        assertEquals("Alice", cache.get("1"));
+        assertEquals("Alice", cache.get("1"));
+        assertNull(cache.get("missing"));
+        assertNull(cache.get("missing"));
+        assertEquals(2, store.loads.get());
+        assertEquals(2, cache.hits());
+        assertEquals(2, cache.misses());
+
+        store.values.put("missing", "Late");
+        now.addAndGet(TTL / 10);
+        assertEquals("Late", cache.get("missing"), "Negative entry outlived its TTL");
+        store.values.put("1", "Changed");
+        assertEquals("Alice", cache.get("1"));
+        now.addAndGet(TTL);
+        assertEquals("Changed", cache.get("1"));
+
+        cache.invalidate("1");
+        store.values.put("1", "Again");
+        assertEquals("Again", cache.get("1"));
+    }
+
+    /** Test concurrent misses for one key share a single slow load */
+    @Test
+    void testConcurrentMissesAreCoalesced() throws Exception {
+        SlowStore store = new SlowStore();
+        store.values.put("1", "Alice");
+        store.latencyMillis = 200;
+        ReadThroughCache<String, String> cache = new ReadThroughCache<>(store, 100, TTL, TTL, System::nanoTime);
+        int threads = 16;
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<String>> results = new ArrayList<>();
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < threads; i++) {
+                results.add(executor.submit(() -> {
+                    start.await();
+                    return cache.get("1");
+                }));
+            }
+            start.countDown();
+            for (Future<String> result : results) {
+                assertEquals("Alice", result.get(5, TimeUnit.SECONDS));
+            }
+        }
+        assertEquals(1, store.loads.get());
+        assertEquals(1, cache.loads());
+    }
+
+    /** Test failed loads are reported to every waiter and not cached */
+    @Test
+    void testFailuresAreNotCached() throws Exception {
+        SlowStore store = new SlowStore();
+        store.values.put("1", "Alice");
+        store.failing = true;
+        ReadThroughCache<String, String> cache = new ReadThroughCache<>(store, 100, TTL, TTL, System::nanoTime);
+        assertThrows(IOException.class, () -> cache.get("1"));
+        store.failing = false;
+        assertEquals("Alice", cache.get("1"));
+        assertEquals(1, cache.loadFailures());
+    }
+
+    /** Test keys read again survive a scan of one-off keys */
+    @Test
+    void testFrequentKeysSurviveScan() throws Exception {
+        SlowStore store = new SlowStore();
+        for (int i = 0; i < 10_000; i++) {
+            store.values.put("k" + i, "v" + i);
+        }
+        int capacity = ReadThroughCache.SEGMENTS * 10;
+        ReadThroughCache<String, String> cache = new ReadThroughCache<>(store, capacity, TTL, TTL, System::nanoTime);
+        for (int round = 0; round < 2; round++) {
+            for (int i = 0; i < 50; i++) {
+                cache.get("k" + i);
+            }
+        }
+        for (int i = 1000; i < 10_000; i++) {
+            cache.get("k" + i);
+        }
+        assertTrue(cache.size() <= capacity);
+        assertTrue(cache.evictions() > 0);
+        int loads = store.loads.get();
+        for (int i = 0; i < 50; i++) {
+            cache.get("k" + i);
+        }
+        assertTrue(store.loads.get() - loads < 10, "Hot keys were evicted: " + (store.loads.get() - loads));
+    }
+}
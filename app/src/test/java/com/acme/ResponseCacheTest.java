@@ -0,0 +1,60 @@
+package com.acme;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ResponseCacheTest {
+
+    private static ResponseCache.Entry entry(long version, String body) {
+        return new ResponseCache.Entry(version, "application/json", body.getBytes(StandardCharsets.UTF_8), null);
+    }
+
+    /**
+     * Test entries are only served for the store version they were built at
+     */
+    @Test
+    void testVersioned() {
+        ResponseCache cache = new ResponseCache(10, 1024);
+        ResponseCache.Entry cached = cache.put("k", entry(1, "[]"));
+        assertSame(cached, cache.get("k", 1));
+        assertNull(cache.get("k", 2));
+        assertNull(cache.get("other", 1));
+    }
+
+    /**
+     * Test keys tell apart parts that contain the separator, and null from empty parts
+     */
+    @Test
+    void testKeysAreUnambiguous() {
+        assertNotEquals(ResponseCache.key("search", "a\nb", ""), ResponseCache.key("search", "a", "b\n"));
+        assertNotEquals(ResponseCache.key("search", "a\n1:b", null), ResponseCache.key("search", "a", "b"));
+        assertNotEquals(ResponseCache.key("search", null, "x"), ResponseCache.key("search", "", "x"));
+        assertNotEquals(ResponseCache.key("page", "10", null), ResponseCache.key("page", "1", "0"));
+        assertEquals(ResponseCache.key("search", "a", "b"), ResponseCache.key("search", "a", "b"));
+    }
+
+    /**
+     * Test encoded bodies are computed once and oversized bodies are not kept
+     */
+    @Test
+    void testEncodedBodiesAndLimits() {
+        ResponseCache cache = new ResponseCache(2, 64);
+        ResponseCache.Entry cached = cache.put("k", entry(1, "[1,2,3]"));
+        assertSame(cached.body(ResponseEncoding.Coding.GZIP), cached.body(ResponseEncoding.Coding.GZIP));
+        assertSame(cached.body, cached.body(ResponseEncoding.Coding.IDENTITY));
+
+        cache.put("big", entry(1, "x".repeat(65)));
+        assertNull(cache.get("big", 1));
+
+        cache.put("a", entry(2, "[]"));
+        cache.put("b", entry(2, "[]"));
+        assertNull(cache.get("k", 1), "stale entries go first");
+        assertEquals(2, cache.size());
+        cache.put("c", entry(2, "[]"));
+        assertNotNull(cache.get("c", 2));
+        assertTrue(cache.size() <= 2);
+    }
+}
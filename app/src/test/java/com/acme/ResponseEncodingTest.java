@@ -0,0 +1,55 @@
+package com.acme;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ResponseEncodingTest {
+
+    /**
+     * Test gzip is preferred, q=0 refuses a coding and * covers unlisted ones
+     */
+    @Test
+    void testNegotiate() {
+        assertEquals(ResponseEncoding.Coding.IDENTITY, ResponseEncoding.negotiate(null));
+        assertEquals(ResponseEncoding.Coding.IDENTITY, ResponseEncoding.negotiate("br"));
+        assertEquals(ResponseEncoding.Coding.GZIP, ResponseEncoding.negotiate("gzip, deflate, br"));
+        assertEquals(ResponseEncoding.Coding.GZIP, ResponseEncoding.negotiate("GZIP;q=0.5"));
+        assertEquals(ResponseEncoding.Coding.DEFLATE, ResponseEncoding.negotiate("gzip;q=0.2, deflate"));
+        assertEquals(ResponseEncoding.Coding.DEFLATE, ResponseEncoding.negotiate("gzip;q=0, *"));
+        assertEquals(ResponseEncoding.Coding.GZIP, ResponseEncoding.negotiate("*"));
+        assertEquals(ResponseEncoding.Coding.IDENTITY, ResponseEncoding.negotiate("*;q=0"));
+    }
+
+    /**
+     * Test both codings round-trip through the JDK decoders
+     */
+    @Test
+    void testEncode() throws IOException {
+        byte[] data = "{\"name\":\"Alice\"},".repeat(200).getBytes(StandardCharsets.UTF_8);
+        byte[] gzip = ResponseEncoding.encode(data, ResponseEncoding.Coding.GZIP);
+        byte[] deflate = ResponseEncoding.encode(data, ResponseEncoding.Coding.DEFLATE);
+
+        assertTrue(gzip.length < data.length / 10);
+        assertArrayEquals(data, new GZIPInputStream(new ByteArrayInputStream(gzip)).readAllBytes());
+        assertArrayEquals(data, new InflaterInputStream(new ByteArrayInputStream(deflate)).readAllBytes());
+        assertSame(data, ResponseEncoding.encode(data, ResponseEncoding.Coding.IDENTITY));
+    }
+
+    /**
+     * Test encoded representations get their own strong tags
+     */
+    @Test
+    void testEtag() {
+        assertEquals("\"a-1\"", ResponseEncoding.etag("\"a-1\"", ResponseEncoding.Coding.IDENTITY));
+        assertEquals("\"a-1-gzip\"", ResponseEncoding.etag("\"a-1\"", ResponseEncoding.Coding.GZIP));
+        assertTrue(Main.matchesAnyCoding("\"a-1-deflate\"", "\"a-1\"", false));
+        assertFalse(Main.matchesAnyCoding("\"a-2-gzip\"", "\"a-1\"", false));
+    }
+}
@@ -0,0 +1,289 @@
+package com.acme;
+
+import io.helidon.webserver.WebServer;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for draining requests and running the shutdown steps.
+ */
+class ServerLifecycleTest {
+
+    static final String BASE_URL = "http://localhost:8094";
+
+    @TempDir
+    Path dir;
+
+    /**
+     * Under concurrent writes, shutdown waits for every admitted request, and every acknowledged write survives a restart
+     */
+    @Test
+    void testShutdownUnderLoad() throws Exception {
+        UserService service = new UserService(new LogUserStorage(dir, LogUserStorage.SyncMode.INTERVAL));
+        ServerLifecycle lifecycle = new ServerLifecycle(Duration.ZERO, Duration.ofSeconds(30));
+        AtomicInteger inFlightAtStop = new AtomicInteger(-1);
+        List<String> steps = new ArrayList<>();
+        lifecycle.onShutdown("snapshot", () -> {
+                    steps.add("snapshot");
+                    service.snapshot();
+                })
+                .onShutdown("stop", () -> {
+                    steps.add("stop");
+                    inFlightAtStop.set(lifecycle.inFlight());
+                })
+                .onShutdown("close", () -> {
+                    steps.add("close");
+                    service.close();
+                });
+
+        Queue<String> acknowledged = new ConcurrentLinkedQueue<>();
+        AtomicInteger refused = new AtomicInteger();
+        CountDownLatch warm = new CountDownLatch(500);
+        List<Thread> clients = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            int client = t;
+            clients.add(Thread.ofPlatform().start(() -> {
+                for (int i = 0; ; i++) {
+                    if (!lifecycle.enter()) {
+                        refused.incrementAndGet();
+                        return;
+                    }
+                    try {
+                        User user = service.createUser(
+                                new User(null, "Client " + client, "c" + client + "-" + i + "@example.com"));
+                        // Writing the response takes a while after the store has the user.
+                        Thread.sleep(1);
+                        acknowledged.add(user.getId());
+                        warm.countDown();
+                    } catch (InterruptedException e) {
+                        return;
+                    } finally {
+                        lifecycle.exit();
+                    }
+                }
+            }));
+        }
+        assertTrue(warm.await(30, TimeUnit.SECONDS));
+        assertEquals(ServerLifecycle.State.RUNNING, lifecycle.state());
+
+        lifecycle.shutdown();
+        for (Thread client : clients) {
+            client.join(TimeUnit.SECONDS.toMillis(30));
+            assertFalse(client.isAlive());
+        }
+
+        assertEquals(ServerLifecycle.State.STOPPED, lifecycle.state());
+        assertEquals(List.of("snapshot", "stop", "close"), steps);
+        assertEquals(0, inFlightAtStop.get());
+        assertEquals(8, refused.get());
+        assertFalse(lifecycle.enter());
+        assertTrue(Files.exists(dir.resolve(LogUserStorage.SNAPSHOT)));
+
+        try (UserService restarted = new UserService(new LogUserStorage(dir, LogUserStorage.SyncMode.INTERVAL))) {
+            assertEquals(acknowledged.size(), restarted.size());
+            for (String id : acknowledged) {
+                assertTrue(restarted.getUserById(id).isPresent(), id);
+            }
+        }
+    }
+
+    /**
+     * Through HTTP: health turns to draining, late writes get 503 with Retry-After and Connection: close, the
+     * steps run in Main's order, and every acknowledged write survives a restart
+     */
+    @Test
+    void testShutdownOverHttp() throws Exception {
+        UserService service = new UserService(new LogUserStorage(dir, LogUserStorage.SyncMode.INTERVAL));
+        ServerLifecycle lifecycle = new ServerLifecycle(Duration.ofMillis(300), Duration.ofSeconds(30));
+        UserRoutes users = new UserRoutes(service);
+        WebServer server = WebServer.builder()
+                .port(URI.create(BASE_URL).getPort())
+                .routing(rules -> Main.routing(rules, users, lifecycle))
+                .build();
+        server.start();
+        HttpClient client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(5))
+                .build();
+        // Runs first, once requests are refused but before the server stops.
+        AtomicReference<HttpResponse<String>> refusedWrite = new AtomicReference<>();
+        lifecycle.onShutdown("probe", () -> refusedWrite.set(client.send(createRequest("late", "late@example.com"),
+                HttpResponse.BodyHandlers.ofString())));
+        Main.shutdownSteps(lifecycle, server, service, null);
+        assertEquals(List.of("probe", "snapshot user storage", "stop the server", "close user storage"),
+                lifecycle.steps().subList(0, 4));
+
+        Queue<String> acknowledged = new ConcurrentLinkedQueue<>();
+        Queue<HttpResponse<String>> refused = new ConcurrentLinkedQueue<>();
+        CountDownLatch warm = new CountDownLatch(200);
+        List<Thread> clients = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            int n = t;
+            clients.add(Thread.ofPlatform().start(() -> {
+                for (int i = 0; ; i++) {
+                    HttpResponse<String> response;
+                    try {
+                        response = client.send(createRequest("Client " + n, "c" + n + "-" + i + "@example.com"),
+                                HttpResponse.BodyHandlers.ofString());
+                    } catch (IOException | InterruptedException e) {
+                        // The server has stopped.
+                        return;
+                    }
+                    if (response.statusCode() != 201) {
+                        refused.add(response);
+                        return;
+                    }
+                    acknowledged.add(JsonReader.readUser(response.body().getBytes(StandardCharsets.UTF_8)).getId());
+                    warm.countDown();
+                }
+            }));
+        }
+        assertTrue(warm.await(30, TimeUnit.SECONDS));
+
+        Thread shutdown = Thread.ofPlatform().start(lifecycle::shutdown);
+        while (lifecycle.state() == ServerLifecycle.State.RUNNING) {
+            Thread.onSpinWait();
+        }
+        HttpResponse<String> health = client.send(HttpRequest.newBuilder(URI.create(BASE_URL + "/health")).GET().build(),
+                HttpResponse.BodyHandlers.ofString());
+        assertEquals(503, health.statusCode());
+        assertEquals("DRAINING", health.body());
+        assertEquals("close", health.headers().firstValue("Connection").orElse(null));
+
+        shutdown.join(TimeUnit.SECONDS.toMillis(30));
+        assertFalse(shutdown.isAlive());
+        for (Thread c : clients) {
+            c.join(TimeUnit.SECONDS.toMillis(30));
+            assertFalse(c.isAlive());
+        }
+        assertEquals(ServerLifecycle.State.STOPPED, lifecycle.state());
+        assertNotNull(refusedWrite.get());
+        refused.add(refusedWrite.get());
+        for (HttpResponse<String> response : refused) {
+            assertEquals(503, response.statusCode());
+            assertEquals("1", response.headers().firstValue("Retry-After").orElse(null));
+            assertEquals("close", response.headers().firstValue("Connection").orElse(null));
+        }
+        assertThrows(IOException.class, () -> client.send(createRequest("after", "after@example.com"),
+                HttpResponse.BodyHandlers.ofString()));
+        assertTrue(Files.exists(dir.resolve(LogUserStorage.SNAPSHOT)));
+
+        try (UserService restarted = new UserService(new LogUserStorage(dir, LogUserStorage.SyncMode.INTERVAL))) {
+            assertEquals(acknowledged.size(), restarted.size());
+            for (String id : acknowledged) {
+                assertTrue(restarted.getUserById(id).isPresent(), id);
+            }
+            assertTrue(restarted.findUsers(null, "late@example.com").isEmpty());
+        }
+    }
+
+    /**
+     * SIGTERM to a running server drains through the lifecycle: health reports draining during the readiness delay
+     * instead of the server stopping at once
+     */
+    @Test
+    void testSigtermDrains() throws Exception {
+        String baseUrl = "http://localhost:8095";
+        Process server = new ProcessBuilder(
+                Path.of(System.getProperty("java.home"), "bin", "java").toString(),
+                "-cp", System.getProperty("java.class.path"),
+                "-Dserver.port=" + URI.create(baseUrl).getPort(),
+                "-Dserver.shutdown.readiness-delay-ms=3000",
+                Main.class.getName())
+                .redirectErrorStream(true)
+                .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                .start();
+        try {
+            HttpClient client = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(1)).build();
+            HttpRequest health = HttpRequest.newBuilder(URI.create(baseUrl + "/health")).GET().build();
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+            while (true) {
+                try {
+                    if (client.send(health, HttpResponse.BodyHandlers.ofString()).statusCode() == 200) {
+                        break;
+                    }
+                } catch (IOException e) {
+                    // Not listening yet.
+                }
+                assertTrue(System.nanoTime() < deadline, "server did not start");
+                Thread.sleep(50);
+            }
+
+            server.destroy();
+            HttpResponse<String> draining = null;
+            deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(2);
+            while (draining == null && System.nanoTime() < deadline) {
+                HttpResponse<String> response = client.send(health, HttpResponse.BodyHandlers.ofString());
+                if (response.statusCode() == 503) {
+                    draining = response;
+                }
+            }
+            assertNotNull(draining);
+            assertEquals("DRAINING", draining.body());
+            assertTrue(server.waitFor(30, TimeUnit.SECONDS));
+        } finally {
+            server.destroyForcibly();
+        }
+    }
+
+    private static HttpRequest createRequest(String name, String email) {
+        return HttpRequest.newBuilder(URI.create(BASE_URL + "/users"))
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(
+                        "{\"name\":\"" + name + "\",\"email\":\"" + email + "\"}"))
+                .build();
+    }
+
+    /**
+     * Requests are served while readiness reports draining, and a stuck request only delays the steps until the deadline
+     */
+    @Test
+    void testReadinessDelayAndDrainDeadline() throws Exception {
+        ServerLifecycle lifecycle = new ServerLifecycle(Duration.ofMillis(200), Duration.ofMillis(100));
+        List<String> steps = new ArrayList<>();
+        lifecycle.onShutdown("fail", () -> {
+                    throw new IllegalStateException("step failed");
+                })
+                .onShutdown("stop", () -> steps.add("stop"));
+        assertTrue(lifecycle.enter());
+
+        long start = System.nanoTime();
+        Thread shutdown = Thread.ofPlatform().start(lifecycle::shutdown);
+        while (lifecycle.state() == ServerLifecycle.State.RUNNING) {
+            Thread.onSpinWait();
+        }
+        assertEquals(ServerLifecycle.State.DRAINING, lifecycle.state());
+        assertTrue(lifecycle.enter());
+        lifecycle.exit();
+
+        // A second shutdown, e.g. a repeated signal, waits for the first.
+        lifecycle.shutdown();
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        shutdown.join();
+        assertTrue(elapsedMillis >= 250, "stopped after " + elapsedMillis + " ms");
+        assertEquals(ServerLifecycle.State.STOPPED, lifecycle.state());
+        assertEquals(List.of("stop"), steps);
+        assertEquals(1, lifecycle.inFlight());
+        assertFalse(lifecycle.enter());
+    }
+}
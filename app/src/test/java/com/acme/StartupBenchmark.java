@@ -0,0 +1,127 @@
+package com.acme;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Startup benchmark for the server process: time from launching {@code java} to
+ * the first successful {@code GET /hello}, and the process's resident set size
+ * at that point, with and without the class-data sharing archive.
+ * <p>
+ * Run with {@code ./gradlew :app:startupBenchmark -Pruns=10}, which builds the thin
+ * jar layout and the archive first. RSS is read from {@code /proc}, so it is only
+ * reported on Linux.
+ */
+public final class StartupBenchmark {
+    private static final Duration TIMEOUT = Duration.ofSeconds(60);
+
+    public static void main(String[] args) throws Exception {
+        Path jar = Path.of(args[0]);
+        Path archive = Path.of(args[1]);
+        int runs = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+
+        report("default CDS", jar, List.of(), runs);
+        if (Files.exists(archive)) {
+            report("AppCDS", jar, List.of("-XX:SharedArchiveFile=" + archive), runs);
+        } else {
+            System.out.println("No archive at " + archive + "; run :app:cdsArchive first");
+        }
+    }
+
+    private static void report(String label, Path jar, List<String> jvmArgs, int runs) throws Exception {
+        long[] millis = new long[runs];
+        long[] rssKb = new long[runs];
+        for (int run = 0; run < runs; run++) {
+            long[] result = startOnce(jar, jvmArgs);
+            millis[run] = result[0];
+            rssKb[run] = result[1];
+        }
+        Arrays.sort(millis);
+        Arrays.sort(rssKb);
+        System.out.printf("%-12s first request: median %,d ms (min %,d, max %,d); RSS median %s%n",
+                label, millis[runs / 2], millis[0], millis[runs - 1],
+                rssKb[runs / 2] < 0 ? "n/a" : String.format("%,d KB", rssKb[runs / 2]));
+    }
+
+    /**
+     * @return milliseconds to the first successful request and RSS in KB, or -1 if unknown
+     */
+    private static long[] startOnce(Path jar, List<String> jvmArgs) throws Exception {
+        int port = freePort();
+        List<String> command = new ArrayList<>();
+        command.add(Path.of(System.getProperty("java.home"), "bin", "java").toString());
+        command.addAll(jvmArgs);
+        command.add("-Dserver.port=" + port);
+        command.add("-jar");
+        command.add(jar.toString());
+
+        HttpClient client = HttpClient.newBuilder()
+                .connectTimeout(Duration.ofMillis(200))
+                .build();
+        HttpRequest hello = HttpRequest.newBuilder(URI.create("http://localhost:" + port + "/hello"))
+                .timeout(Duration.ofSeconds(1))
+                .build();
+
+        long start = System.nanoTime();
+        Process process = new ProcessBuilder(command)
+                .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                .redirectError(ProcessBuilder.Redirect.INHERIT)
+                .start();
+        try {
+            long deadline = start + TIMEOUT.toNanos();
+            while (true) {
+                try {
+                    if (client.send(hello, HttpResponse.BodyHandlers.discarding()).statusCode() == 200) {
+                        break;
+                    }
+                } catch (IOException e) {
+                    // Not listening yet.
+                }
+                if (!process.isAlive() || System.nanoTime() > deadline) {
+                    throw new IllegalStateException("Server did not answer within " + TIMEOUT);
+                }
+                Thread.sleep(5);
+            }
+            long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            return new long[]{millis, rssKb(process.pid())};
+        } finally {
+            process.destroy();
+            if (!process.waitFor(10, TimeUnit.SECONDS)) {
+                process.destroyForcibly();
+            }
+        }
+    }
+
+    private static long rssKb(long pid) throws IOException {
+        Path status = Path.of("/proc", Long.toString(pid), "status");
+        if (!Files.exists(status)) {
+            return -1;
+        }
+        for (String line : Files.readAllLines(status)) {
+            if (line.startsWith("VmRSS:")) {
+                return Long.parseLong(line.substring(6).replace("kB", "").trim());
+            }
+        }
+        return -1;
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private StartupBenchmark() {
+    }
+}
@@ -0,0 +1,84 @@
+package com.acme;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for the per-client token buckets.
+ */
+class TokenBucketLimiterTest {
+
+    /**
+     * A client can spend its burst at once, then refills at the configured rate
+     */
+    @Test
+    void testBurstThenRate() {
+        AtomicLong now = new AtomicLong();
+        TokenBucketLimiter limiter = new TokenBucketLimiter(10, 5, now::get);
+        for (int i = 0; i < 5; i++) {
+            assertEquals(0, limiter.tryAcquire("a", 1));
+        }
+        long wait = limiter.tryAcquire("a", 1);
+        assertEquals(100_000_000L, wait);
+        assertEquals(0, limiter.tryAcquire("b", 1), "other clients are unaffected");
+
+        now.addAndGet(wait);
+        assertEquals(0, limiter.tryAcquire("a", 1));
+        assertTrue(limiter.tryAcquire("a", 1) > 0);
+    }
+
+    /**
+     * Expensive requests take several tokens, and never more than a burst holds
+     */
+    @Test
+    void testCost() {
+        AtomicLong now = new AtomicLong();
+        TokenBucketLimiter limiter = new TokenBucketLimiter(10, 20, now::get);
+        assertEquals(0, limiter.tryAcquire("a", 10));
+        assertEquals(0, limiter.tryAcquire("a", 10));
+        assertEquals(1_000_000_000L, limiter.tryAcquire("a", 10));
+        assertTrue(limiter.tryAcquire("a", 21) > 0);
+    }
+
+    /**
+     * Concurrent takes never grant more than the burst
+     */
+    @Test
+    void testConcurrentTakes() throws Exception {
+        TokenBucketLimiter limiter = new TokenBucketLimiter(0.001, 1000, () -> 0L);
+        AtomicInteger granted = new AtomicInteger();
+        Thread[] threads = new Thread[8];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 500; i++) {
+                    if (limiter.tryAcquire("shared", 1) == 0) {
+                        granted.incrementAndGet();
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(1000, granted.get());
+    }
+
+    /**
+     * Idle clients' buckets are dropped once a shard fills up
+     */
+    @Test
+    void testIdleBucketsArePurged() {
+        AtomicLong now = new AtomicLong();
+        TokenBucketLimiter limiter = new TokenBucketLimiter(1000, 1, now::get);
+        for (int i = 0; i < 100_000; i++) {
+            limiter.tryAcquire("client-" + i, 1);
+            now.addAndGet(1_000_000);
+        }
+        assertTrue(limiter.size() <= TokenBucketLimiter.SHARDS * 4096, "kept " + limiter.size() + " buckets");
+    }
+}
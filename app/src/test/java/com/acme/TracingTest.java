@@ -0,0 +1,132 @@
+package com.acme;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for flight recorder events and sampled traces.
+ */
+class TracingTest {
+
+    @TempDir
+    Path dir;
+
+    @AfterEach
+    void uninstall() {
+        Tracing.install(null);
+    }
+
+    /**
+     * Searches, serialization and requests are recorded as JFR events with their counts
+     */
+    @Test
+    void testFlightRecorderEvents() throws Exception {
+        UserService service = new UserService();
+        Path file = dir.resolve("users.jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable("com.acme.Request");
+            recording.enable("com.acme.UserOperation");
+            recording.enable("com.acme.Serialization");
+            recording.start();
+            assertTrue(Tracing.recording());
+            Tracing.RequestEvent request = Tracing.beginRequest("GET", "/users");
+            JsonWriter.toBytes(service.findUsers("ali", null));
+            Tracing.endRequest(request, 200);
+            recording.stop();
+            recording.dump(file);
+        }
+        assertFalse(Tracing.recording());
+
+        List<RecordedEvent> events = RecordingFile.readAllEvents(file);
+        RecordedEvent find = single(events, "com.acme.UserOperation");
+        assertEquals("findUsers", find.getString("operation"));
+        assertEquals(1, find.getInt("results"));
+        assertTrue(find.getLong("scanned") >= 1);
+        RecordedEvent json = single(events, "com.acme.Serialization");
+        assertEquals("users", json.getString("payload"));
+        assertEquals(1, json.getInt("users"));
+        RecordedEvent req = single(events, "com.acme.Request");
+        assertEquals("/users", req.getString("path"));
+        assertEquals(200, req.getInt("status"));
+        assertEquals(0, req.getLong("trace"));
+        assertFalse(req.getStartTime().isAfter(find.getStartTime()));
+    }
+
+    private static RecordedEvent single(List<RecordedEvent> events, String name) {
+        List<RecordedEvent> matching = events.stream()
+                .filter(event -> event.getEventType().getName().equals(name))
+                .toList();
+        assertEquals(1, matching.size(), name);
+        return matching.get(0);
+    }
+
+    /**
+     * A sampled request's service and serialization spans are recorded under its trace and exported
+     */
+    @Test
+    void testSampledTraceExport() throws Exception {
+        TraceRecorder recorder = new TraceRecorder(1.0, 100);
+        Tracing.install(recorder);
+        UserService service = new UserService();
+
+        Tracing.RequestEvent request = Tracing.beginRequest("GET", "/users/search");
+        JsonWriter.toBytes(service.searchUsers("alice", 10));
+        Tracing.endRequest(request, 200);
+        // Outside any request nothing is recorded.
+        service.findUsers("bob", null);
+
+        List<TraceRecorder.Span> spans = recorder.spans();
+        assertEquals(List.of("UserService.searchUsers", "json users", "GET /users/search"),
+                spans.stream().map(span -> span.name).toList());
+        TraceRecorder.Span root = spans.get(2);
+        for (TraceRecorder.Span span : spans) {
+            assertEquals(root.traceId, span.traceId);
+            assertTrue(span.startNanos >= root.startNanos);
+            assertTrue(span.startNanos + span.durationNanos <= root.startNanos + root.durationNanos);
+        }
+        assertEquals("\"scanned\":-1,\"results\":1", spans.get(0).args);
+
+        Path file = dir.resolve("trace.json");
+        assertEquals(3, recorder.export(file));
+        String json = Files.readString(file);
+        assertTrue(json.startsWith("{\"displayTimeUnit\":\"ms\",\"traceEvents\":["));
+        assertTrue(json.contains("{\"name\":\"GET /users/search\",\"cat\":\"request\",\"ph\":\"X\",\"pid\":1,\"tid\":"
+                + root.traceId + ",\"ts\":"));
+        assertTrue(json.contains(",\"args\":{\"trace\":" + root.traceId + ",\"status\":200}}"));
+    }
+
+    /**
+     * Sampling keeps roughly the configured fraction, and the ring keeps the newest spans
+     */
+    @Test
+    void testSamplingAndRing() {
+        TraceRecorder none = new TraceRecorder(0.0, 10);
+        TraceRecorder some = new TraceRecorder(0.25, 10);
+        int sampled = 0;
+        for (int i = 0; i < 10_000; i++) {
+            assertNull(none.sample());
+            if (some.sample() != null) {
+                sampled++;
+            }
+        }
+        assertTrue(sampled > 2000 && sampled < 3000, "sampled " + sampled);
+
+        TraceRecorder ring = new TraceRecorder(1.0, 3);
+        TraceRecorder.Trace trace = ring.sample();
+        for (int i = 0; i < 5; i++) {
+            trace.span("step " + i, "test", i, i + 1, null);
+        }
+        assertEquals(List.of("step 2", "step 3", "step 4"), ring.spans().stream().map(span -> span.name).toList());
+        assertThrows(IllegalArgumentException.class, () -> new TraceRecorder(1.5, 10));
+    }
+}
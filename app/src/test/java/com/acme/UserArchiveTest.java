@@ -0,0 +1,135 @@
+package com.acme;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for store export and import through the binary archive format.
+ */
+class UserArchiveTest {
+
+    @TempDir
+    Path dir;
+
+    private static UserService populated(int count) {
+        UserService service = new UserService(UserStorage.inMemory(), UserService.Layout.HASH);
+        for (int i = 0; i < count; i++) {
+            service.createUser(new User(null, "User " + i, "user" + i + "@example.com"));
+        }
+        service.createUser(new User("zoë", "Zoë Ångström", null));
+        service.createUser(new User("anon", null, "anon@example.com"));
+        return service;
+    }
+
+    private static void assertSameUsers(UserService expected, UserService actual) {
+        assertEquals(expected.size(), actual.size());
+        expected.streamAllUsers().forEach(user -> {
+            User copy = actual.getUserById(user.getId()).orElseThrow();
+            assertEquals(user.getName(), copy.getName());
+            assertEquals(user.getEmail(), copy.getEmail());
+        });
+    }
+
+    /**
+     * Files round-trip every user across several blocks, plain and gzipped
+     */
+    @Test
+    void testFileRoundTrip() throws Exception {
+        UserService source = populated(UserArchive.BLOCK_USERS * 2 + 17);
+        for (boolean compress : new boolean[]{false, true}) {
+            Path file = dir.resolve("users-" + compress + ".bin");
+            assertEquals(source.size(), source.exportUsers(file, compress));
+            assertEquals(compress, UserArchive.isGzipped(file));
+
+            UserService target = new UserService(UserStorage.inMemory(), UserService.Layout.HASH);
+            UserArchive.Imported imported = target.importUsers(file, id -> true);
+            assertEquals(source.size(), imported.imported);
+            assertEquals(0, imported.skipped);
+            assertSameUsers(source, target);
+            // Imported ids are reserved like any client-supplied id.
+            assertNotNull(target.getUserById(target.createUser(new User(null, "New", "new@example.com")).getId()));
+            assertEquals(source.size() + 1, target.size());
+        }
+    }
+
+    /**
+     * A failed file export leaves neither a partial temporary file nor a changed target
+     */
+    @Test
+    void testFailedFileExportCleansUp() throws Exception {
+        // A non-empty directory cannot be replaced by the finished archive.
+        Path file = Files.createDirectory(dir.resolve("users.bin"));
+        Files.writeString(file.resolve("keep"), "kept");
+        assertThrows(IOException.class, () -> populated(10).exportUsers(file, false));
+        assertFalse(Files.exists(dir.resolve("users.bin.tmp")));
+        assertEquals("kept", Files.readString(file.resolve("keep")));
+    }
+
+    /**
+     * Streams import like files, and ids the predicate rejects are counted as skipped
+     */
+    @Test
+    void testStreamImportWithPredicate() throws Exception {
+        UserService source = populated(100);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        source.exportUsers(out, true);
+
+        UserService target = new UserService(UserStorage.inMemory(), UserService.Layout.HASH);
+        UserArchive.Imported imported = target.importUsers(new ByteArrayInputStream(out.toByteArray()),
+                id -> id.endsWith("7"));
+        assertEquals(10, imported.imported);
+        assertEquals(source.size() - 10, imported.skipped);
+        assertEquals("User 16", target.getUserById("17").orElseThrow().getName());
+        assertTrue(target.getUserById("18").isEmpty());
+    }
+
+    /**
+     * A flipped bit, a cut-off trailer or another format rejects the archive before any user is loaded
+     */
+    @Test
+    void testCorruptArchivesImportNothing() throws Exception {
+        UserService source = populated(UserArchive.BLOCK_USERS + 1);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        source.exportUsers(out, false);
+        byte[] archive = out.toByteArray();
+
+        byte[] flipped = archive.clone();
+        flipped[flipped.length - 100] ^= 1;
+        byte[] truncated = Arrays.copyOf(archive, archive.length - 3);
+        byte[] notAnArchive = "{\"name\":\"json\"}".getBytes();
+        for (byte[] bad : new byte[][]{flipped, truncated, notAnArchive}) {
+            UserService target = new UserService(UserStorage.inMemory(), UserService.Layout.HASH);
+            assertThrows(IllegalArgumentException.class,
+                    () -> target.importUsers(new ByteArrayInputStream(bad), id -> true));
+            assertEquals(0, target.size());
+        }
+    }
+
+    /**
+     * A failure to store an imported user is reported as itself, not as a corrupt archive
+     */
+    @Test
+    void testSinkFailurePropagates() throws Exception {
+        Path file = dir.resolve("users.bin");
+        populated(10).exportUsers(file, false);
+        UncheckedIOException diskFull = new UncheckedIOException(new IOException("No space left on device"));
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            UserArchive.verify(channel);
+            assertSame(diskFull, assertThrows(UncheckedIOException.class, () -> UserArchive.read(channel, user -> {
+                throw diskFull;
+            })));
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package com.acme;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for the user change feed.
+ */
+class UserChangeFeedTest {
+
+    private static List<Long> sequences(List<UserChange> changes) {
+        return changes.stream().map(change -> change.sequence).collect(Collectors.toList());
+    }
+
+    /**
+     * Subscribers read changes after their position, in batches
+     */
+    @Test
+    void testPollFromPosition() throws Exception {
+        UserChangeFeed feed = new UserChangeFeed(16);
+        feed.publish(UserChange.Type.CREATED, "1", new User("1", "A", "a@example.com", 1L));
+        feed.publish(UserChange.Type.DELETED, "1", null);
+        feed.publish(UserChange.Type.CREATED, "2", new User("2", "B", "b@example.com", 2L));
+
+        try (UserChangeFeed.Subscription subscription = feed.subscribe(1)) {
+            assertEquals(1, feed.subscribers());
+            List<UserChange> changes = subscription.poll(1, 0, TimeUnit.SECONDS);
+            assertEquals(List.of(2L), sequences(changes));
+            assertEquals(UserChange.Type.DELETED, changes.get(0).type);
+            assertNull(changes.get(0).user);
+            assertEquals(List.of(3L), sequences(subscription.poll(10, 0, TimeUnit.SECONDS)));
+            assertTrue(subscription.poll(10, 10, TimeUnit.MILLISECONDS).isEmpty());
+            assertEquals(3, subscription.position());
+        }
+        assertEquals(0, feed.subscribers());
+    }
+
+    /**
+     * A waiting subscriber wakes up as soon as a change is published
+     */
+    @Test
+    void testPollWaitsForPublish() throws Exception {
+        UserChangeFeed feed = new UserChangeFeed(16);
+        try (UserChangeFeed.Subscription subscription = feed.subscribe(feed.lastSequence())) {
+            CompletableFuture<List<UserChange>> poll = CompletableFuture.supplyAsync(() -> {
+                try {
+                    return subscription.poll(10, 10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+            Thread.sleep(50);
+            feed.publish(UserChange.Type.CREATED, "1", new User("1", "A", "a@example.com", 1L));
+            assertEquals(List.of(1L), sequences(poll.get(5, TimeUnit.SECONDS)));
+        }
+    }
+
+    /**
+     * A subscriber that falls further behind than the ring skips to the oldest change held
+     */
+    @Test
+    void testSlowSubscriberSkipsOverwrittenChanges() throws Exception {
+        UserChangeFeed feed = new UserChangeFeed(4);
+        try (UserChangeFeed.Subscription subscription = feed.subscribe(0)) {
+            for (int i = 1; i <= 10; i++) {
+                feed.publish(UserChange.Type.UPDATED, "1", new User("1", "A", "a@example.com", (long) i));
+            }
+            assertEquals(List.of(7L, 8L, 9L, 10L), sequences(subscription.poll(100, 0, TimeUnit.SECONDS)));
+        }
+    }
+
+    /**
+     * Cursors only resolve on the instance that issued them
+     */
+    @Test
+    void testCursors() {
+        UserChangeFeed feed = new UserChangeFeed(4);
+        feed.publish(UserChange.Type.DELETED, "1", null);
+        feed.publish(UserChange.Type.DELETED, "2", null);
+
+        assertEquals(2, feed.parseCursor(feed.cursor(2)));
+        assertEquals(0, feed.parseCursor(feed.cursor(0)));
+        assertEquals(-1, feed.parseCursor(feed.cursor(3)));
+        assertEquals(-1, feed.parseCursor(new UserChangeFeed(4).cursor(1)));
+        assertEquals(-1, feed.parseCursor("garbage"));
+        assertEquals(-1, feed.parseCursor(feed.cursor(1) + "zz"));
+    }
+
+    /**
+     * Concurrent writers and a following subscriber see every change once, in sequence order
+     */
+    @Test
+    void testConcurrentPublishers() throws Exception {
+        int writers = 8;
+        int perWriter = 5_000;
+        UserChangeFeed feed = new UserChangeFeed(writers * perWriter);
+        try (UserChangeFeed.Subscription subscription = feed.subscribe(0)) {
+            CompletableFuture<List<Long>> reader = CompletableFuture.supplyAsync(() -> {
+                List<Long> seen = new ArrayList<>();
+                try {
+                    while (seen.size() < writers * perWriter) {
+                        seen.addAll(sequences(subscription.poll(100, 5, TimeUnit.SECONDS)));
+                    }
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+                return seen;
+            });
+            List<Thread> threads = new ArrayList<>();
+            for (int t = 0; t < writers; t++) {
+                String id = Integer.toString(t);
+                threads.add(Thread.ofPlatform().start(() -> {
+                    for (int i = 0; i < perWriter; i++) {
+                        feed.publish(UserChange.Type.DELETED, id, null);
+                    }
+                }));
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            List<Long> seen = reader.get(30, TimeUnit.SECONDS);
+            assertEquals(writers * perWriter, seen.size());
+            for (int i = 0; i < seen.size(); i++) {
+                assertEquals(i + 1L, (long) seen.get(i));
+            }
+        }
+    }
+}
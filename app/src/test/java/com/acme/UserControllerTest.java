@@ -5,11 +5,17 @@ import org.junit.jupiter.api.AfterAll;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
 
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.net.URI;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
 import java.time.Duration;
+import java.util.zip.GZIPInputStream;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -64,6 +70,64 @@ class UserControllerTest {
         assertTrue(response.body().startsWith("["), "Expected JSON array");
     }
 
+    /**
+     * Test GET /users?limit= - keyset pagination with a next-cursor header
+     */
+    @Test
+    void testGetUsersPaged() throws Exception {
+        HttpRequest request = HttpRequest.newBuilder()
+                .GET()
+                .uri(URI.create(baseURL + "/users?limit=1"))
+                .build();
+
+        HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+        assertEquals(200, response.statusCode());
+        assertTrue(response.body().startsWith("["), "Expected JSON array");
+        String cursor = response.headers().firstValue("X-Next-Cursor").orElse(null);
+        assertNotNull(cursor, "Full page should carry a next cursor");
+
+        HttpRequest next = HttpRequest.newBuilder()
+                .GET()
+                .uri(URI.create(baseURL + "/users?limit=1&after=" + cursor))
+                .build();
+        HttpResponse<String> nextResponse = client.send(next, HttpResponse.BodyHandlers.ofString());
+        assertEquals(200, nextResponse.statusCode());
+        assertFalse(nextResponse.body().contains("\"id\":\"" + cursor + "\""), "Cursor row must not repeat");
+    }
+
+    /**
+     * Test GET /users?limit= with an out-of-range limit - should return 400
+     */
+    @Test
+    void testGetUsersInvalidLimit() throws Exception {
+        HttpRequest request = HttpRequest.newBuilder()
+                .GET()
+                .uri(URI.create(baseURL + "/users?limit=0"))
+                .build();
+
+        HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+        assertEquals(400, response.statusCode());
+        assertTrue(response.body().contains("Invalid limit"));
+    }
+
+    /**
+     * Test GET /users streamed as NDJSON - one JSON object per line
+     */
+    @Test
+    void testGetAllUsersNdjson() throws Exception {
+        HttpRequest request = HttpRequest.newBuilder()
+                .GET()
+                .uri(URI.create(baseURL + "/users"))
+                .header("Accept", "application/x-ndjson")
+                .build();
+
+        HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+        assertEquals(200, response.statusCode());
+        for (String line : response.body().split("\n")) {
+            assertTrue(line.startsWith("{") && line.endsWith("}"), "Expected one JSON object per line");
+        }
+    }
+
     /**
      * Test GET /users/{id} with non-existent ID - should return 404
      */
@@ -210,6 +274,169 @@ class UserControllerTest {
         assertTrue(updateResponse.body().contains("\"email\":\"eve-updated@example.com\""));
     }
 
+    /**
+     * Test GET /users/{id} with If-None-Match - 304 until the user changes
+     */
+    @Test
+    void testConditionalGetUser() throws Exception {
+        HttpResponse<String> createResponse = client.send(HttpRequest.newBuilder()
+                .POST(HttpRequest.BodyPublishers.ofString("{\"id\":\"etag-1\",\"name\":\"Tag\",\"email\":\"tag@example.com\"}"))
+                .uri(URI.create(baseURL + "/users"))
+                .header("Content-Type", "application/json")
+                .build(), HttpResponse.BodyHandlers.ofString());
+        assertEquals(201, createResponse.statusCode());
+
+        HttpResponse<String> first = client.send(HttpRequest.newBuilder()
+                .GET().uri(URI.create(baseURL + "/users/etag-1")).build(), HttpResponse.BodyHandlers.ofString());
+        assertEquals(200, first.statusCode());
+        String etag = first.headers().firstValue("ETag").orElseThrow();
+
+        HttpResponse<String> cached = client.send(HttpRequest.newBuilder()
+                .GET().uri(URI.create(baseURL + "/users/etag-1"))
+                .header("If-None-Match", "\"other\", " + etag)
+                .build(), HttpResponse.BodyHandlers.ofString());
+        assertEquals(304, cached.statusCode());
+        assertEquals("", cached.body());
+
+        client.send(HttpRequest.newBuilder()
+                .PUT(HttpRequest.BodyPublishers.ofString("{\"name\":\"Tag Two\",\"email\":\"tag@example.com\"}"))
+                .uri(URI.create(baseURL + "/users/etag-1"))
+                .header("Content-Type", "application/json")
+                .build(), HttpResponse.BodyHandlers.ofString());
+
+        HttpResponse<String> changed = client.send(HttpRequest.newBuilder()
+                .GET().uri(URI.create(baseURL + "/users/etag-1"))
+                .header("If-None-Match", etag)
+                .build(), HttpResponse.BodyHandlers.ofString());
+        assertEquals(200, changed.statusCode());
+        assertTrue(changed.body().contains("Tag Two"));
+        assertNotEquals(etag, changed.headers().firstValue("ETag").orElseThrow());
+    }
+
+    /**
+     * Test PUT /users/{id} with If-Match - 412 once the ETag is stale
+     */
+    @Test
+    void testConditionalUpdateUser() throws Exception {
+        HttpResponse<String> createResponse = client.send(HttpRequest.newBuilder()
+                .POST(HttpRequest.BodyPublishers.ofString("{\"id\":\"match-1\",\"name\":\"Match\",\"email\":\"match@example.com\"}"))
+                .uri(URI.create(baseURL + "/users"))
+                .header("Content-Type", "application/json")
+                .build(), HttpResponse.BodyHandlers.ofString());
+        assertEquals(201, createResponse.statusCode());
+        String etag = createResponse.headers().firstValue("ETag").orElseThrow();
+
+        HttpRequest update = HttpRequest.newBuilder()
+                .PUT(HttpRequest.BodyPublishers.ofString("{\"name\":\"Match Two\",\"email\":\"match@example.com\"}"))
+                .uri(URI.create(baseURL + "/users/match-1"))
+                .header("Content-Type", "application/json")
+                .header("If-Match", etag)
+                .build();
+        HttpResponse<String> first = client.send(update, HttpResponse.BodyHandlers.ofString());
+        assertEquals(200, first.statusCode());
+        assertNotEquals(etag, first.headers().firstValue("ETag").orElseThrow());
+
+        HttpResponse<String> stale = client.send(update, HttpResponse.BodyHandlers.ofString());
+        assertEquals(412, stale.statusCode());
+        assertTrue(stale.body().contains("Precondition failed"));
+    }
+
+    /**
+     * Test GET /users compresses large listings for clients that accept gzip, and not small ones
+     */
+    @Test
+    void testCompressedListing() throws Exception {
+        StringBuilder body = new StringBuilder();
+        for (int i = 0; i < 30; i++) {
+            body.append("{\"id\":\"gz-").append(i).append("\",\"name\":\"Gzip User ").append(i)
+                    .append("\",\"email\":\"gzip").append(i).append("@example.com\"}\n");
+        }
+        client.send(HttpRequest.newBuilder()
+                .POST(HttpRequest.BodyPublishers.ofString(body.toString()))
+                .uri(URI.create(baseURL + "/users:batch"))
+                .header("Content-Type", "application/x-ndjson")
+                .build(), HttpResponse.BodyHandlers.ofString());
+
+        HttpResponse<byte[]> response = client.send(HttpRequest.newBuilder()
+                .GET().uri(URI.create(baseURL + "/users?name=gzip+user"))
+                .header("Accept-Encoding", "gzip")
+                .build(), HttpResponse.BodyHandlers.ofByteArray());
+        assertEquals(200, response.statusCode());
+        assertEquals("gzip", response.headers().firstValue("Content-Encoding").orElse(null));
+        assertTrue(response.headers().firstValue("ETag").orElse("").endsWith("-gzip\""));
+        String json = new String(new GZIPInputStream(new ByteArrayInputStream(response.body())).readAllBytes(),
+                StandardCharsets.UTF_8);
+        assertTrue(json.contains("\"id\":\"gz-29\""));
+
+        HttpResponse<String> revalidated = client.send(HttpRequest.newBuilder()
+                .GET().uri(URI.create(baseURL + "/users?name=gzip+user"))
+                .header("Accept-Encoding", "gzip")
+                .header("If-None-Match", response.headers().firstValue("ETag").orElseThrow())
+                .build(), HttpResponse.BodyHandlers.ofString());
+        assertEquals(304, revalidated.statusCode());
+
+        HttpResponse<String> small = client.send(HttpRequest.newBuilder()
+                .GET().uri(URI.create(baseURL + "/users/gz-1"))
+                .header("Accept-Encoding", "gzip")
+                .build(), HttpResponse.BodyHandlers.ofString());
+        assertTrue(small.headers().firstValue("Content-Encoding").isEmpty());
+        assertTrue(small.body().contains("Gzip User 1"));
+    }
+
+    /**
+     * Test GET /users/changes - SSE events for a create, resumable by cursor
+     */
+    @Test
+    void testChangeStream() throws Exception {
+        HttpResponse<InputStream> stream = client.send(HttpRequest.newBuilder()
+                .GET().uri(URI.create(baseURL + "/users/changes"))
+                .header("Accept", "text/event-stream")
+                .build(), HttpResponse.BodyHandlers.ofInputStream());
+        assertEquals(200, stream.statusCode());
+        assertTrue(stream.headers().firstValue("Content-Type").orElse("").startsWith("text/event-stream"));
+
+        client.send(HttpRequest.newBuilder()
+                .POST(HttpRequest.BodyPublishers.ofString("{\"id\":\"feed-1\",\"name\":\"Feed\",\"email\":\"feed@example.com\"}"))
+                .uri(URI.create(baseURL + "/users"))
+                .header("Content-Type", "application/json")
+                .build(), HttpResponse.BodyHandlers.ofString());
+
+        String cursor = null;
+        try (BufferedReader lines = new BufferedReader(
+                new InputStreamReader(stream.body(), StandardCharsets.UTF_8))) {
+            String event = null;
+            String line;
+            while ((line = lines.readLine()) != null) {
+                if (line.startsWith("id: ")) {
+                    cursor = line.substring(4);
+                } else if (line.startsWith("event: ")) {
+                    event = line.substring(7);
+                } else if (line.startsWith("data: ") && line.contains("\"feed-1\"")) {
+                    assertEquals("create", event);
+                    assertTrue(line.contains("\"email\":\"feed@example.com\""));
+                    break;
+                }
+            }
+        }
+        assertNotNull(cursor);
+
+        client.send(HttpRequest.newBuilder()
+                .DELETE().uri(URI.create(baseURL + "/users/feed-1")).build(), HttpResponse.BodyHandlers.ofString());
+        HttpResponse<InputStream> resumed = client.send(HttpRequest.newBuilder()
+                .GET().uri(URI.create(baseURL + "/users/changes?after=" + cursor))
+                .build(), HttpResponse.BodyHandlers.ofInputStream());
+        assertTrue(resumed.headers().firstValue("Content-Type").orElse("").startsWith("application/x-ndjson"));
+        try (BufferedReader lines = new BufferedReader(
+                new InputStreamReader(resumed.body(), StandardCharsets.UTF_8))) {
+            String line;
+            do {
+                line = lines.readLine();
+            } while (line != null && !line.contains("\"id\":\"feed-1\""));
+            assertNotNull(line);
+            assertTrue(line.contains("\"type\":\"delete\""));
+        }
+    }
+
     /**
      * Test CREATE then DELETE flow
      */
@@ -254,6 +481,82 @@ class UserControllerTest {
         assertEquals(404, getResponse.statusCode());
     }
 
+    /**
+     * Test POST /users:batch - array body with one invalid item
+     */
+    @Test
+    void testBatchCreate() throws Exception {
+        String body = "[{\"name\":\"Ivy\",\"email\":\"ivy@example.com\"},"
+                + "{\"name\":\"NoEmail\"},"
+                + "{\"id\":\"batch-jack\",\"name\":\"Jack\",\"email\":\"jack@example.com\"}]";
+        HttpRequest request = HttpRequest.newBuilder()
+                .POST(HttpRequest.BodyPublishers.ofString(body))
+                .uri(URI.create(baseURL + "/users:batch"))
+                .header("Content-Type", "application/json")
+                .build();
+
+        HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+        assertEquals(200, response.statusCode());
+        assertTrue(response.body().contains("\"succeeded\":2"));
+        assertTrue(response.body().contains("\"failed\":1"));
+        assertTrue(response.body().contains("email is required"));
+
+        HttpRequest get = HttpRequest.newBuilder()
+                .GET()
+                .uri(URI.create(baseURL + "/users/batch-jack"))
+                .build();
+        assertEquals(200, client.send(get, HttpResponse.BodyHandlers.ofString()).statusCode());
+    }
+
+    /**
+     * Test PUT /users:batch and POST /users:batchDelete with NDJSON bodies
+     */
+    @Test
+    void testBatchUpdateAndDeleteNdjson() throws Exception {
+        String create = "{\"id\":\"batch-k1\",\"name\":\"Kim\",\"email\":\"kim@example.com\"}\n"
+                + "{\"id\":\"batch-k2\",\"name\":\"Kai\",\"email\":\"kai@example.com\"}\n";
+        client.send(HttpRequest.newBuilder()
+                .POST(HttpRequest.BodyPublishers.ofString(create))
+                .uri(URI.create(baseURL + "/users:batch"))
+                .header("Content-Type", "application/x-ndjson")
+                .build(), HttpResponse.BodyHandlers.ofString());
+
+        String update = "{\"id\":\"batch-k1\",\"name\":\"Kim Updated\",\"email\":\"kim@example.com\"}\n"
+                + "{\"id\":\"batch-missing\",\"name\":\"Nobody\",\"email\":\"no@example.com\"}\n";
+        HttpResponse<String> updateResponse = client.send(HttpRequest.newBuilder()
+                .PUT(HttpRequest.BodyPublishers.ofString(update))
+                .uri(URI.create(baseURL + "/users:batch"))
+                .header("Content-Type", "application/x-ndjson")
+                .build(), HttpResponse.BodyHandlers.ofString());
+        assertEquals(200, updateResponse.statusCode());
+        assertTrue(updateResponse.body().contains("\"succeeded\":1"));
+        assertTrue(updateResponse.body().contains("\"status\":404"));
+
+        HttpResponse<String> deleteResponse = client.send(HttpRequest.newBuilder()
+                .POST(HttpRequest.BodyPublishers.ofString("\"batch-k1\"\n\"batch-k2\"\n"))
+                .uri(URI.create(baseURL + "/users:batchDelete"))
+                .header("Content-Type", "application/x-ndjson")
+                .build(), HttpResponse.BodyHandlers.ofString());
+        assertEquals(200, deleteResponse.statusCode());
+        assertTrue(deleteResponse.body().contains("\"succeeded\":2"));
+    }
+
+    /**
+     * Test POST /users:batch with a body that is not JSON - should return 400
+     */
+    @Test
+    void testBatchInvalidJson() throws Exception {
+        HttpRequest request = HttpRequest.newBuilder()
+                .POST(HttpRequest.BodyPublishers.ofString("[{\"name\":\"open"))
+                .uri(URI.create(baseURL + "/users:batch"))
+                .header("Content-Type", "application/json")
+                .build();
+
+        HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+        assertEquals(400, response.statusCode());
+        assertTrue(response.body().contains("Invalid JSON"));
+    }
+
     /**
      * Test query parameters - filter by name
      */
@@ -279,6 +582,34 @@ class UserControllerTest {
         assertTrue(queryResponse.body().contains("Grace") || queryResponse.body().contains("[]"));
     }
 
+    /**
+     * Test ranked search with a typo, and a missing query
+     */
+    @Test
+    void testSearchUsers() throws Exception {
+        String createJson = "{\"name\":\"Margaret Hamilton\",\"email\":\"margaret@mit.edu\"}";
+        HttpRequest createRequest = HttpRequest.newBuilder()
+                .POST(HttpRequest.BodyPublishers.ofString(createJson))
+                .uri(URI.create(baseURL + "/users"))
+                .header("Content-Type", "application/json")
+                .build();
+        client.send(createRequest, HttpResponse.BodyHandlers.ofString());
+
+        HttpRequest searchRequest = HttpRequest.newBuilder()
+                .GET()
+                .uri(URI.create(baseURL + "/users/search?q=hamiltn&limit=5"))
+                .build();
+        HttpResponse<String> searchResponse = client.send(searchRequest, HttpResponse.BodyHandlers.ofString());
+        assertEquals(200, searchResponse.statusCode());
+        assertTrue(searchResponse.body().contains("Margaret Hamilton"));
+
+        HttpRequest missingRequest = HttpRequest.newBuilder()
+                .GET()
+                .uri(URI.create(baseURL + "/users/search"))
+                .build();
+        assertEquals(400, client.send(missingRequest, HttpResponse.BodyHandlers.ofString()).statusCode());
+    }
+
     /**
      * Test query parameters - filter by email
      */
@@ -334,6 +665,28 @@ class UserControllerTest {
         assertTrue(response.body().contains("Hello"));
     }
 
+    /**
+     * Test GET /metrics - Prometheus text with request counters and store gauges
+     */
+    @Test
+    void testMetrics() throws Exception {
+        client.send(HttpRequest.newBuilder().GET().uri(URI.create(baseURL + "/users/does-not-exist")).build(),
+                HttpResponse.BodyHandlers.discarding());
+
+        HttpRequest request = HttpRequest.newBuilder()
+                .GET()
+                .uri(URI.create(baseURL + "/metrics"))
+                .build();
+
+        HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+        assertEquals(200, response.statusCode());
+        assertTrue(response.headers().firstValue("Content-Type").orElse("").startsWith("text/plain"));
+        assertTrue(response.body().contains(
+                "http_requests_total{route=\"/users/{id}\",method=\"GET\",status=\"404\"}"));
+        assertTrue(response.body().contains("http_request_duration_seconds_bucket{"));
+        assertTrue(response.body().contains("users_total "));
+    }
+
     /**
      * Helper method to extract ID from JSON response
      * Parses {"id":1,"name":"...","email":"..."} format
@@ -0,0 +1,433 @@
+package com.acme;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ConcurrentModificationException;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for UserService search and its secondary indexes.
+ */
+class UserServiceTest {
+
+    private static List<String> ids(List<User> users) {
+        return users.stream().map(User::getId).sorted().collect(Collectors.toList());
+    }
+
+    private static List<String> rankedIds(List<User> users) {
+        return users.stream().map(User::getId).collect(Collectors.toList());
+    }
+
+    /**
+     * Ranked search puts whole words before prefixes, shorter prefixes first, names before emails
+     */
+    @Test
+    void testSearchUsersRanksWordsThenPrefixes() {
+        UserService service = new UserService();
+        service.createUser(new User("1", "Alexander Hamilton", "ah@treasury.gov"));
+        service.createUser(new User("2", "Alex Trebek", "host@jeopardy.com"));
+        service.createUser(new User("3", "Grace Hopper", "alex@navy.mil"));
+        service.createUser(new User("4", "Ada Lovelace", "ada@engine.org"));
+
+        assertEquals(List.of("2", "3", "1"), rankedIds(service.searchUsers("alex", 10)));
+        assertEquals(List.of("2"), rankedIds(service.searchUsers("alex", 1)));
+        assertEquals(List.of("2"), rankedIds(service.searchUsers("Alex TREB", 10)));
+        assertTrue(service.searchUsers("alex lovelace", 10).isEmpty());
+        assertTrue(service.searchUsers(" @ ", 10).isEmpty());
+    }
+
+    /**
+     * Typos are tolerated by length: none under three characters, one up to five, two from six
+     */
+    @Test
+    void testSearchUsersToleratesTypos() {
+        UserService service = new UserService();
+        service.createUser(new User("1", "Grace Hopper", "grace@navy.mil"));
+        service.createUser(new User("2", "Katherine Johnson", "kj@nasa.gov"));
+
+        assertEquals(List.of("1"), rankedIds(service.searchUsers("grase", 10)));
+        assertEquals(List.of("1"), rankedIds(service.searchUsers("hoper", 10)));
+        assertEquals(List.of("2"), rankedIds(service.searchUsers("kathrine jonson", 10)));
+        assertEquals(List.of("2"), rankedIds(service.searchUsers("katerhine", 10)));
+        assertTrue(service.searchUsers("gx", 10).isEmpty());
+        assertTrue(service.searchUsers("grxxe", 10).isEmpty());
+        // Typos are only looked for among words with the same first letter.
+        assertTrue(service.searchUsers("frace", 10).isEmpty());
+    }
+
+    /**
+     * The ranked index follows updates and deletes
+     */
+    @Test
+    void testSearchIndexFollowsUpdateAndDelete() {
+        UserService service = new UserService();
+        int seedTokens = service.searchTokenCount();
+        service.createUser(new User("10", "Henry Ford", "henry@ford.com"));
+        service.updateUser("10", new User("10", "Harry Ford", "harry@ford.com"));
+
+        assertTrue(service.searchUsers("henry", 10).isEmpty());
+        assertEquals(List.of("10"), rankedIds(service.searchUsers("harry", 10)));
+        service.deleteUser("10");
+        assertTrue(service.searchUsers("ford", 10).isEmpty());
+        assertEquals(seedTokens, service.searchTokenCount());
+    }
+
+    /**
+     * Words too common to index are still found, through a bounded scan
+     */
+    @Test
+    void testSearchUsersWithSaturatedWords() {
+        UserService service = new UserService();
+        int count = UserSearchIndex.MAX_POSTING + 10;
+        for (int i = 0; i < count; i++) {
+            service.createUser(new User(null, "Common Name", "user" + i + "@example.com"));
+        }
+        service.createUser(new User("x", "Rare Name", "rare@example.com"));
+
+        assertEquals(5, service.searchUsers("common", 5).size());
+        assertEquals(List.of("x"), rankedIds(service.searchUsers("name rare", 10)));
+        assertEquals(List.of("x"), rankedIds(service.searchUsers("rare example", 10)));
+    }
+
+    /**
+     * Filters of three or more characters go through the trigram index
+     */
+    @Test
+    void testFindUsersByLongFilter() {
+        UserService service = new UserService();
+        service.createUser(new User("10", "Grace Hopper", "grace@navy.mil"));
+        service.createUser(new User("11", "Grace Kelly", "kelly@example.com"));
+
+        assertEquals(List.of("10", "11"), ids(service.findUsers("GRACE", null)));
+        assertEquals(List.of("10"), ids(service.findUsers("grace", "navy")));
+        assertEquals(List.of("11"), ids(service.findUsers(null, "kelly@")));
+        assertTrue(service.findUsers("zzz", null).isEmpty());
+    }
+
+    /**
+     * Filters shorter than a trigram fall back to scanning normalized entries
+     */
+    @Test
+    void testFindUsersByShortFilter() {
+        UserService service = new UserService();
+        service.createUser(new User("10", "Xu", "xu@example.com"));
+
+        assertEquals(List.of("10"), ids(service.findUsers("xu", null)));
+        assertEquals(List.of("1", "10", "2"), ids(service.findUsers(null, "@")));
+        assertEquals(3, service.findUsers("  ", "").size());
+    }
+
+    /**
+     * Updates and deletes must move the user out of stale postings
+     */
+    @Test
+    void testIndexFollowsUpdateAndDelete() {
+        UserService service = new UserService();
+        service.createUser(new User("10", "Henry Ford", "henry@ford.com"));
+
+        service.updateUser("10", new User(null, "Harry Ford", "harry@ford.com"));
+        assertTrue(service.findUsers("henry", null).isEmpty());
+        assertTrue(service.findUsersByExactEmail("henry@ford.com").isEmpty());
+        assertEquals(List.of("10"), ids(service.findUsers("harry", null)));
+        assertEquals(List.of("10"), ids(service.findUsersByExactEmail("HARRY@ford.com")));
+
+        assertTrue(service.deleteUser("10"));
+        assertTrue(service.findUsers("harry", null).isEmpty());
+        assertTrue(service.findUsersByExactEmail("harry@ford.com").isEmpty());
+        assertFalse(service.deleteUser("10"));
+    }
+
+    /**
+     * Updating a missing user must not create it
+     */
+    @Test
+    void testUpdateMissingUser() {
+        UserService service = new UserService();
+        assertTrue(service.updateUser("404", new User(null, "Nobody", "no@body.com")).isEmpty());
+        assertTrue(service.getUserById("404").isEmpty());
+        assertTrue(service.findUsers("nobody", null).isEmpty());
+    }
+
+    /**
+     * Concurrent writers on distinct ids leave the indexes consistent with the store
+     */
+    @Test
+    void testConcurrentWritersKeepIndexConsistent() throws Exception {
+        UserService service = new UserService();
+        int threads = 8;
+        int perThread = 500;
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            Future<?>[] futures = new Future<?>[threads];
+            for (int t = 0; t < threads; t++) {
+                int thread = t;
+                futures[t] = pool.submit(() -> {
+                    for (int i = 0; i < perThread; i++) {
+                        String id = "t" + thread + "-" + i;
+                        service.createUser(new User(id, "Writer " + id, id + "@old.example"));
+                        service.updateUser(id, new User(null, "Writer " + id, id + "@new.example"));
+                        if (i % 2 == 0) {
+                            service.deleteUser(id);
+                        }
+                    }
+                });
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            pool.shutdown();
+            assertTrue(pool.awaitTermination(10, TimeUnit.SECONDS));
+        }
+
+        assertTrue(service.findUsers(null, "old.example").isEmpty());
+        assertEquals(threads * perThread / 2, service.findUsers(null, "new.example").size());
+        assertEquals(threads * perThread / 2, service.findUsers("writer", null).size());
+    }
+
+    /**
+     * Keyset pages walk every user exactly once in id order
+     */
+    @Test
+    void testUsersPageWalksAllUsersInOrder() {
+        UserService service = new UserService();
+        service.createUser(new User("10", "Ten", "ten@example.com"));
+        service.createUser(new User("9", "Nine", "nine@example.com"));
+        service.createUser(new User("abc", "Letters", "abc@example.com"));
+        service.deleteUser("2");
+
+        List<String> seen = new java.util.ArrayList<>();
+        String cursor = null;
+        while (true) {
+            List<User> page = service.getUsersPage(cursor, 2);
+            page.forEach(user -> seen.add(user.getId()));
+            if (page.size() < 2) {
+                break;
+            }
+            cursor = page.get(page.size() - 1).getId();
+        }
+        assertEquals(List.of("1", "9", "10", "abc"), seen);
+        assertEquals(List.of("10", "abc"), service.getUsersPage("9", 5).stream().map(User::getId).collect(Collectors.toList()));
+    }
+
+    /**
+     * Batch methods report per-item outcomes in input order
+     */
+    @Test
+    void testBatchOperations() {
+        UserService service = new UserService();
+        List<User> created = service.createUsers(List.of(
+                new User(null, "Batch One", "one@example.com"),
+                new User("b2", "Batch Two", "two@example.com")));
+        assertEquals("3", created.get(0).getId());
+        assertEquals("b2", created.get(1).getId());
+
+        List<java.util.Optional<User>> updated = service.updateUsers(List.of(
+                new User("b2", "Batch Two v2", "two@example.com"),
+                new User("missing", "Nobody", "no@example.com")));
+        assertEquals("Batch Two v2", updated.get(0).orElseThrow().getName());
+        assertTrue(updated.get(1).isEmpty());
+
+        assertEquals(List.of(true, false, true), service.deleteUsers(List.of("3", "missing", "b2")));
+        assertTrue(service.findUsers("batch", null).isEmpty());
+    }
+
+    /**
+     * Every write gives the user a new version and bumps the store version
+     */
+    @Test
+    void testVersionsAndCachedJson() {
+        UserService service = new UserService();
+        long storeVersion = service.version();
+        UserEntry created = service.getEntry(service.createUser(new User("v1", "Vera", "vera@example.com")).getId());
+        assertTrue(service.version() > storeVersion);
+        assertArrayEquals(JsonWriter.toBytes(created.user), created.json());
+
+        service.updateUser("v1", new User(null, "Vera Two", "vera@example.com"));
+        UserEntry updated = service.getEntry("v1");
+        assertTrue(updated.version() > created.version());
+        assertNotEquals(service.etag(created.version()), service.etag(updated.version()));
+        assertTrue(new String(updated.json(), java.nio.charset.StandardCharsets.UTF_8).contains("Vera Two"));
+
+        long beforeMiss = service.version();
+        service.deleteUser("missing");
+        assertEquals(beforeMiss, service.version());
+        service.deleteUser("v1");
+        assertTrue(service.version() > beforeMiss);
+        assertNull(service.getEntry("v1"));
+    }
+
+    /**
+     * Every applied mutation is published on the change feed, rejected ones are not
+     */
+    @Test
+    void testMutationsArePublished() throws Exception {
+        UserService service = new UserService();
+        try (UserChangeFeed.Subscription subscription = service.changes().subscribe(service.changes().lastSequence())) {
+            User created = service.createUser(new User("10", "Ada", "ada@example.com"));
+            service.updateUser("10", new User(null, "Ada L", "ada@example.com"));
+            assertThrows(ConcurrentModificationException.class,
+                    () -> service.updateUser("10", new User(null, "Stale", "ada@example.com"), created.getVersion()));
+            service.updateUser("404", new User(null, "Nobody", "no@example.com"));
+            service.deleteUser("10");
+            service.deleteUser("10");
+
+            List<UserChange> changes = subscription.poll(100, 0, TimeUnit.SECONDS);
+            assertEquals(List.of(UserChange.Type.CREATED, UserChange.Type.UPDATED, UserChange.Type.DELETED),
+                    changes.stream().map(change -> change.type).collect(Collectors.toList()));
+            assertEquals(created.getVersion(), changes.get(0).user.getVersion());
+            assertEquals("Ada L", changes.get(1).user.getName());
+            assertEquals("10", changes.get(2).id);
+        }
+    }
+
+    /**
+     * Compare-and-set increments from many threads are never lost
+     */
+    @Test
+    void testCompareAndSetUpdatesAreNotLost() throws Exception {
+        UserService service = new UserService();
+        service.createUser(new User("counter", "0", "counter@example.com"));
+        int threads = 8;
+        int perThread = 500;
+        runConcurrently(threads, thread -> {
+            for (int i = 0; i < perThread; i++) {
+                while (true) {
+                    User current = service.getUserById("counter").orElseThrow();
+                    int next = Integer.parseInt(current.getName()) + 1;
+                    try {
+                        service.updateUser("counter", new User(null, String.valueOf(next), current.getEmail()),
+                                current.getVersion());
+                        break;
+                    } catch (ConcurrentModificationException e) {
+                        // Another thread got there first; re-read and retry.
+                    }
+                }
+            }
+        });
+
+        assertEquals(String.valueOf(threads * perThread), service.getUserById("counter").orElseThrow().getName());
+        assertThrows(ConcurrentModificationException.class,
+                () -> service.updateUser("counter", new User(null, "stale", "counter@example.com"), 0));
+    }
+
+    /**
+     * Generated ids from many threads are unique and never replace a user created with a client id
+     */
+    @Test
+    void testConcurrentGeneratedIdsNeverCollide() throws Exception {
+        UserService service = new UserService(UserStorage.inMemory());
+        int threads = 8;
+        int perThread = 2_000;
+        runConcurrently(threads, thread -> {
+            for (int i = 0; i < perThread; i++) {
+                if (thread == 0) {
+                    // Numeric client ids the generator has not reached when they are created.
+                    String id = String.valueOf(1_000_000 - i);
+                    service.createUser(new User(id, "Client " + id, "client@example.com"));
+                } else {
+                    service.createUser(new User(null, "Generated", "generated@example.com"));
+                }
+            }
+        });
+
+        assertEquals(threads * perThread, service.size());
+        assertEquals(perThread, service.findUsersByExactEmail("client@example.com").size());
+        for (User user : service.findUsersByExactEmail("client@example.com")) {
+            assertEquals("Client " + user.getId(), user.getName());
+        }
+    }
+
+    /**
+     * Updates racing deletes and re-creates never resurrect a deleted user or leave the indexes behind
+     */
+    @Test
+    void testConcurrentCreateUpdateDeleteStress() throws Exception {
+        UserService service = new UserService();
+        int ids = 32;
+        int threads = 8;
+        int perThread = 5_000;
+        runConcurrently(threads, thread -> {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            for (int i = 0; i < perThread; i++) {
+                String id = "s" + random.nextInt(ids);
+                switch (random.nextInt(4)) {
+                    case 0 -> service.createUser(new User(id, "Created " + id, id + "@stress.example"));
+                    case 1 -> service.updateUser(id, new User(null, "Updated " + id, id + "@stress.example"));
+                    case 2 -> service.getUserById(id).ifPresent(current -> {
+                        try {
+                            service.updateUser(id, new User(null, "Swapped " + id, id + "@stress.example"),
+                                    current.getVersion());
+                        } catch (ConcurrentModificationException ignored) {
+                            // Lost the race; the other writer's change stands.
+                        }
+                    });
+                    default -> service.deleteUser(id);
+                }
+            }
+        });
+
+        for (int i = 0; i < ids; i++) {
+            String id = "s" + i;
+            boolean present = service.getUserById(id).isPresent();
+            assertEquals(present ? List.of(id) : List.of(), ids(service.findUsersByExactEmail(id + "@stress.example")));
+            assertEquals(present, ids(service.findUsers(null, "stress.example")).contains(id));
+        }
+        List<String> paged = service.getUsersPage(null, 1000).stream().map(User::getId).sorted().collect(Collectors.toList());
+        assertEquals(ids(service.getAllUsers()), paged);
+
+        // With creators gone, updates racing deletes must not bring anyone back.
+        runConcurrently(threads, thread -> {
+            for (int round = 0; round < 50; round++) {
+                for (int i = 0; i < ids; i++) {
+                    String id = "s" + i;
+                    if (thread % 2 == 0) {
+                        service.deleteUser(id);
+                    } else {
+                        service.updateUser(id, new User(null, "Late " + id, id + "@stress.example"));
+                    }
+                }
+            }
+        });
+        assertTrue(service.findUsers(null, "stress.example").isEmpty());
+        for (int i = 0; i < ids; i++) {
+            assertTrue(service.getUserById("s" + i).isEmpty());
+        }
+    }
+
+    private interface Worker {
+        void run(int thread) throws Exception;
+    }
+
+    private static void runConcurrently(int threads, Worker worker) throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        try {
+            Future<?>[] futures = new Future<?>[threads];
+            for (int t = 0; t < threads; t++) {
+                int thread = t;
+                futures[t] = pool.submit(() -> {
+                    start.await();
+                    worker.run(thread);
+                    return null;
+                });
+            }
+            start.countDown();
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            pool.shutdown();
+            assertTrue(pool.awaitTermination(30, TimeUnit.SECONDS));
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package com.acme;
+
+import java.util.Locale;
+
+/**
+ * Footprint benchmark for the {@link UserService.Layout}s: retained heap per user
+ * after filling an in-memory store, plus the time a short-filter search takes.
+ * <p>
+ * Run with {@code ./gradlew :app:storeFootprintBenchmark -Pusers=1000000}.
+ */
+public final class UserStoreFootprintBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int users = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        for (UserService.Layout layout : UserService.Layout.values()) {
+            long before = usedHeap();
+            UserService service = new UserService(UserStorage.inMemory(), layout);
+            long fillStart = System.nanoTime();
+            for (int i = 0; i < users; i++) {
+                service.createUser(new User(null, "User " + i, "user" + i + "@example.com"));
+            }
+            long fillMillis = millisSince(fillStart);
+            long retained = usedHeap() - before;
+
+            long searchStart = System.nanoTime();
+            int found = service.findUsers(null, "user4242@").size();
+            long searchMillis = millisSince(searchStart);
+
+            System.out.printf("%-8s %,d users: %,d bytes/user, fill %,d ms, search %,d ms (%d found)%n",
+                    layout.name().toLowerCase(Locale.ROOT), users, retained / users, fillMillis, searchMillis, found);
+            if (service.size() != users) {
+                throw new IllegalStateException("Expected " + users + " users in " + layout);
+            }
+            service.close();
+        }
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static long millisSince(long start) {
+        return (System.nanoTime() - start) / 1_000_000;
+    }
+
+    private UserStoreFootprintBenchmark() {
+    }
+}
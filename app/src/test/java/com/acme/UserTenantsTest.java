@@ -0,0 +1,201 @@
+package com.acme;
+
+import io.helidon.http.Method;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for tenant stores and their quotas.
+ */
+class UserTenantsTest {
+
+    @TempDir
+    Path dir;
+
+    private static UserService limited(int maxUsers, long maxBytes) {
+        return new UserService(UserStorage.inMemory(), UserService.Layout.HASH, new UserQuota(maxUsers, maxBytes));
+    }
+
+    private static UserTenants.Tenant tenant(String name, UserService service) {
+        return new UserTenants.Tenant(name, service, new ConcurrencyLimiter(4, 1, 4, System::nanoTime),
+                new ConcurrencyLimiter(1, 1, 1, System::nanoTime));
+    }
+
+    /**
+     * A full store refuses creates without storing or publishing them, and deletes make room again
+     */
+    @Test
+    void testUserQuota() {
+        UserService service = limited(2, Long.MAX_VALUE);
+        service.createUser(new User(null, "Alice", "alice@example.com"));
+        service.createUser(new User(null, "Bob", "bob@example.com"));
+        long sequence = service.changes().lastSequence();
+
+        assertThrows(UserQuota.Exceeded.class, () -> service.createUser(new User(null, "Carol", "carol@example.com")));
+        assertThrows(UserQuota.Exceeded.class, () -> service.createUser(new User("x", "Carol", "carol@example.com")));
+        assertEquals(2, service.size());
+        assertEquals(sequence, service.changes().lastSequence());
+        assertEquals(2, service.quota().users());
+
+        // Replacing an existing id does not add a user.
+        service.createUser(new User("1", "Alicia", "alice@example.com"));
+        assertTrue(service.deleteUser("2"));
+        assertNotNull(service.createUser(new User(null, "Carol", "carol@example.com")));
+        assertEquals(2, service.quota().users());
+    }
+
+    /**
+     * Updates that grow past the byte quota fail, shrinking ones succeed, and batches mark refusals with null
+     */
+    @Test
+    void testByteQuotaAndBatches() {
+        User small = new User("1", "Al", "al@example.com");
+        UserService service = limited(10, UserQuota.bytes(small) * 2 + 10);
+        service.createUser(small);
+        String longName = "A".repeat(200);
+        assertThrows(UserQuota.Exceeded.class,
+                () -> service.updateUser("1", new User("1", longName, "al@example.com")));
+        assertEquals("Al", service.getUserById("1").orElseThrow().getName());
+        service.updateUser("1", new User("1", "A", "al@example.com"));
+
+        List<User> created = service.createUsers(List.of(
+                new User(null, "Bo", "bo@example.com"), new User(null, longName, "big@example.com")));
+        assertNotNull(created.get(0));
+        assertNull(created.get(1));
+        List<Optional<User>> updated = service.updateUsers(List.of(
+                new User("1", longName, "al@example.com"), new User("missing", "Cy", "cy@example.com")));
+        assertNull(updated.get(0));
+        assertEquals(Optional.empty(), updated.get(1));
+        assertEquals(2, service.size());
+        assertEquals(service.streamAllUsers().mapToLong(UserQuota::bytes).sum(), service.quota().bytes());
+    }
+
+    /**
+     * A write the storage fails to append is refunded to the quota
+     */
+    @Test
+    void testFailedAppendIsRefunded() {
+        AtomicBoolean failing = new AtomicBoolean();
+        UserStorage storage = new UserStorage() {
+            @Override
+            public void load(BiConsumer<String, User> put, Consumer<String> delete) {
+            }
+
+            @Override
+            public long appendPut(User user) {
+                return append();
+            }
+
+            @Override
+            public long appendDelete(String id) {
+                return append();
+            }
+
+            private long append() {
+                if (failing.get()) {
+                    throw new UncheckedIOException(new IOException("No space left on device"));
+                }
+                return 0;
+            }
+
+            @Override
+            public void await(long position) {
+            }
+
+            @Override
+            public void snapshot() {
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        UserService service = new UserService(storage, UserService.Layout.HASH, new UserQuota(10, Long.MAX_VALUE));
+        service.createUser(new User("1", "Alice", "alice@example.com"));
+        long bytes = service.quota().bytes();
+
+        failing.set(true);
+        for (int i = 0; i < 20; i++) {
+            assertThrows(UncheckedIOException.class,
+                    () -> service.createUser(new User(null, "Bob", "bob@example.com")));
+            assertThrows(UncheckedIOException.class,
+                    () -> service.updateUser("1", new User("1", "Alice Longer Name", "alice@example.com")));
+            assertThrows(UncheckedIOException.class, () -> service.deleteUser("1"));
+        }
+        assertEquals(1, service.quota().users());
+        assertEquals(bytes, service.quota().bytes());
+    }
+
+    /**
+     * Users replayed from storage count against the quota even when it is now smaller
+     */
+    @Test
+    void testReplayedUsersCount() throws Exception {
+        try (UserService service = new UserService(new LogUserStorage(dir, LogUserStorage.SyncMode.PER_WRITE))) {
+            for (int i = 0; i < 3; i++) {
+                service.createUser(new User(null, "User " + i, "user" + i + "@example.com"));
+            }
+        }
+        try (UserService service = new UserService(new LogUserStorage(dir, LogUserStorage.SyncMode.PER_WRITE),
+                UserService.Layout.HASH, new UserQuota(2, Long.MAX_VALUE))) {
+            assertEquals(3, service.size());
+            assertEquals(3, service.quota().users());
+            assertThrows(UserQuota.Exceeded.class, () -> service.createUser(new User(null, "New", "new@example.com")));
+            assertTrue(service.deleteUser("1"));
+            assertTrue(service.deleteUser("2"));
+            assertNotNull(service.createUser(new User(null, "New", "new@example.com")));
+        }
+    }
+
+    /**
+     * Tenants have their own id sequences and are matched by whole path segments
+     */
+    @Test
+    void testTenants() {
+        UserTenants tenants = new UserTenants(List.of(
+                tenant("search", limited(10, Long.MAX_VALUE)), tenant("billing", limited(10, Long.MAX_VALUE))));
+        User inSearch = tenants.get("search").service().createUser(new User(null, "Alice", "alice@example.com"));
+        User inBilling = tenants.get("billing").service().createUser(new User(null, "Bob", "bob@example.com"));
+        assertEquals("1", inSearch.getId());
+        assertEquals("1", inBilling.getId());
+        assertEquals("Alice", tenants.get("search").service().getUserById("1").orElseThrow().getName());
+
+        assertSame(tenants.get("search"), tenants.match("/t/search/users/1"));
+        assertSame(tenants.get("billing"), tenants.match("/t/billing"));
+        assertNull(tenants.match("/t/searching/users"));
+        assertNull(tenants.match("/users/1"));
+        assertNull(tenants.get("other"));
+
+        assertThrows(IllegalArgumentException.class, () -> tenant("Bad Name", limited(1, 1)));
+        assertThrows(IllegalArgumentException.class,
+                () -> new UserTenants(List.of(tenant("a", limited(1, 1)), tenant("a", limited(1, 1)))));
+    }
+
+    /**
+     * Tenant requests share route templates, and each tenant's usage is reported under its name
+     */
+    @Test
+    void testTenantMetrics() {
+        UserTenants tenants = new UserTenants(List.of(tenant("search", limited(10, 100_000))));
+        tenants.get("search").service().createUser(new User(null, "Alice", "alice@example.com"));
+        Metrics metrics = new Metrics(Main.ROUTES);
+        metrics.record(Method.GET, "/t/search/users/1", 200, 1_000);
+
+        String text = metrics.scrape(new Metrics.Sources(new UserService()).tenants(tenants));
+        assertTrue(text.contains("http_requests_total{route=\"/t/{tenant}/users/{id}\",method=\"GET\",status=\"200\"} 1\n"));
+        assertTrue(text.contains("users_tenant_users{tenant=\"search\"} 1\n"));
+        assertTrue(text.contains("users_tenant_max_bytes{tenant=\"search\"} 100000\n"));
+        assertTrue(text.contains("admission_tenant_in_flight{tenant=\"search\"} 0\n"));
+    }
+}
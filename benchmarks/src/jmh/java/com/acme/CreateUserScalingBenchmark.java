@@ -0,0 +1,74 @@
+package com.acme;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Concurrent inserts with server-generated ids. Run at several thread counts to
+ * see how they scale with cores:
+ * <pre>
+ * ./gradlew :benchmarks:jmh -PjmhIncludes=CreateUserScaling -PjmhThreads=1
+ * ./gradlew :benchmarks:jmh -PjmhIncludes=CreateUserScaling -PjmhThreads=8
+ * </pre>
+ * {@code sharedCounter} is the single {@code AtomicLong} ids used to come from,
+ * with the parse and {@code updateAndGet} every insert used to pay, as a baseline
+ * for {@code idAllocator}.
+ * <p>
+ * {@code createUser} does not scale linearly with cores, and is not expected to:
+ * ids and user versions come from stripes and the change feed takes no lock, but
+ * every insert still makes two increments of shared counters, the change feed's
+ * sequence and the store version, which keep one total order of writes for feed
+ * cursors and for listing caches and their tags. {@code sharedIncrements} is those
+ * two increments alone, the ceiling {@code createUser} approaches as threads grow.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class CreateUserScalingBenchmark {
+
+    UserService service;
+    IdAllocator allocator;
+    AtomicLong counter;
+    AtomicLong sequence;
+    AtomicLong version;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        service = new UserService(UserStorage.inMemory());
+        allocator = new IdAllocator(1);
+        counter = new AtomicLong(1);
+        sequence = new AtomicLong();
+        version = new AtomicLong();
+    }
+
+    @Benchmark
+    public User createUser() {
+        return service.createUser(new User(null, "Scaling", "scaling@example.com"));
+    }
+
+    @Benchmark
+    public long idAllocator() {
+        return allocator.next();
+    }
+
+    @Benchmark
+    public long sharedCounter() {
+        long id = counter.getAndIncrement();
+        long parsed = Long.parseLong(String.valueOf(id));
+        return counter.updateAndGet(current -> Math.max(current, parsed + 1));
+    }
+
+    @Benchmark
+    public long sharedIncrements() {
+        return sequence.incrementAndGet() + version.incrementAndGet();
+    }
+}
@@ -0,0 +1,58 @@
+package com.acme;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link UserService#findUsers} at several store sizes and filter selectivities:
+ * <ul>
+ *     <li>{@code unique} - one match, answered from the trigram index</li>
+ *     <li>{@code one-percent} - one domain in a hundred</li>
+ *     <li>{@code all} - every user; at 100k its trigrams are saturated, so it scans</li>
+ *     <li>{@code short} - two characters, too short for the index, so it scans</li>
+ * </ul>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class FindUsersBenchmark {
+
+    @Param({"1000", "100000"})
+    int size;
+
+    @Param({"unique", "one-percent", "all", "short"})
+    String filter;
+
+    UserService service;
+    String emailFilter;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        service = new UserService();
+        for (int i = 0; i < size; i++) {
+            service.createUser(UserServiceBenchmark.seedUser(i));
+        }
+        emailFilter = switch (filter) {
+            case "unique" -> "user" + (size / 2) + "@";
+            case "one-percent" -> "@domain42.";
+            case "all" -> ".example";
+            case "short" -> "42";
+            default -> throw new IllegalArgumentException(filter);
+        };
+    }
+
+    @Benchmark
+    public List<User> findUsers() {
+        return service.findUsers(null, emailFilter);
+    }
+}
@@ -0,0 +1,102 @@
+package com.acme;
+
+import jakarta.json.bind.Jsonb;
+import jakarta.json.bind.JsonbBuilder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JSON-B binding of {@link User} and {@code List<User>}, driven the way
+ * helidon-http-media-jsonb drives it: one shared {@link Jsonb} instance writing to
+ * and reading from byte streams with the declared generic type. The {@code codec*}
+ * benchmarks do the same work with {@link JsonWriter} and {@link JsonReader}, which
+ * the request handlers use.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class JsonBindingBenchmark {
+    private static final Type USER_LIST = new ArrayList<User>() { }.getClass().getGenericSuperclass();
+
+    @Param({"10", "1000"})
+    int listSize;
+
+    Jsonb jsonb;
+    User user;
+    List<User> users;
+    byte[] userJson;
+    byte[] usersJson;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        jsonb = JsonbBuilder.create();
+        user = new User("42", "Alice Johnson", "alice@example.com");
+        users = new ArrayList<>(listSize);
+        for (int i = 0; i < listSize; i++) {
+            users.add(new User(String.valueOf(i), "User " + i, "user" + i + "@example.com"));
+        }
+        userJson = serialize(user, User.class);
+        usersJson = serialize(users, USER_LIST);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        jsonb.close();
+    }
+
+    private byte[] serialize(Object value, Type type) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(256);
+        jsonb.toJson(value, type, out);
+        return out.toByteArray();
+    }
+
+    @Benchmark
+    public byte[] serializeUser() {
+        return serialize(user, User.class);
+    }
+
+    @Benchmark
+    public byte[] serializeUserList() {
+        return serialize(users, USER_LIST);
+    }
+
+    @Benchmark
+    public User deserializeUser() {
+        return jsonb.fromJson(new ByteArrayInputStream(userJson), User.class);
+    }
+
+    @Benchmark
+    public List<User> deserializeUserList() {
+        return jsonb.fromJson(new ByteArrayInputStream(usersJson), USER_LIST);
+    }
+
+    @Benchmark
+    public byte[] codecSerializeUser() {
+        return JsonWriter.toBytes(user);
+    }
+
+    @Benchmark
+    public byte[] codecSerializeUserList() {
+        return JsonWriter.toBytes(users);
+    }
+
+    @Benchmark
+    public User codecDeserializeUser() {
+        return JsonReader.readUser(userJson);
+    }
+}
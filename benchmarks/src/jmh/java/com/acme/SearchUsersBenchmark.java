@@ -0,0 +1,59 @@
+package com.acme;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link UserService#searchUsers} for the top 10 at several store sizes:
+ * <ul>
+ *     <li>{@code prefix} - the start of one email's local part</li>
+ *     <li>{@code typo} - a local part with a letter dropped and one changed</li>
+ *     <li>{@code two-terms} - a saturated word plus a prefix, driven by the prefix</li>
+ *     <li>{@code saturated} - a word every user has, so it scans a bounded number of users</li>
+ * </ul>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SearchUsersBenchmark {
+
+    @Param({"100000", "1000000"})
+    int size;
+
+    @Param({"prefix", "typo", "two-terms", "saturated"})
+    String query;
+
+    UserService service;
+    String q;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        service = new UserService();
+        for (int i = 0; i < size; i++) {
+            service.createUser(UserServiceBenchmark.seedUser(i));
+        }
+        int id = size / 2 + 1234;
+        q = switch (query) {
+            case "prefix" -> "user" + id / 10;
+            case "typo" -> "usr" + (id + 1) % 10 + Integer.toString(id).substring(1);
+            case "two-terms" -> "user " + id / 10;
+            case "saturated" -> "example";
+            default -> throw new IllegalArgumentException(query);
+        };
+    }
+
+    @Benchmark
+    public List<User> searchUsers() {
+        return service.searchUsers(q, 10);
+    }
+}
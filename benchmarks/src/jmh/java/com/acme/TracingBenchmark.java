@@ -0,0 +1,63 @@
+package com.acme;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * What instrumentation adds to a request's service call and serialization, by
+ * {@code mode}:
+ * <ul>
+ *     <li>{@code off} - no trace recorder and no flight recording, as in production by default</li>
+ *     <li>{@code unsampled} - a recorder at 1%, for the other 99% of requests</li>
+ *     <li>{@code sampled} - every request traced, the cost a sampled request pays</li>
+ * </ul>
+ * {@code off} and {@code unsampled} should match an uninstrumented build within
+ * noise and allocate nothing extra; compare with {@code -PjmhProfilers=gc}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class TracingBenchmark {
+
+    @Param({"off", "unsampled", "sampled"})
+    String mode;
+
+    UserService service;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        service = new UserService();
+        for (int i = 0; i < 1000; i++) {
+            service.createUser(UserServiceBenchmark.seedUser(i));
+        }
+        Tracing.install(switch (mode) {
+            case "off" -> null;
+            case "unsampled" -> new TraceRecorder(0.01, 100_000);
+            case "sampled" -> new TraceRecorder(1.0, 100_000);
+            default -> throw new IllegalArgumentException(mode);
+        });
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        Tracing.install(null);
+    }
+
+    @Benchmark
+    public byte[] findAndSerialize() {
+        Tracing.RequestEvent request = Tracing.beginRequest("GET", "/users");
+        byte[] body = JsonWriter.toBytes(service.findUsers(null, "user500@"));
+        Tracing.endRequest(request, 200);
+        return body;
+    }
+}
@@ -0,0 +1,87 @@
+package com.acme;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * UserService hot paths at several store sizes. Search is covered separately by
+ * {@link FindUsersBenchmark}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class UserServiceBenchmark {
+
+    @Param({"1000", "100000"})
+    int size;
+
+    UserService service;
+    String[] ids;
+    int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        service = new UserService();
+        ids = new String[size];
+        for (int i = 0; i < size; i++) {
+            ids[i] = service.createUser(seedUser(i)).getId();
+        }
+    }
+
+    /**
+     * Seeded users look like {@code User 123 / user123@domain23.example}.
+     */
+    static User seedUser(int i) {
+        return new User(null, "User " + i, "user" + i + "@domain" + (i % 100) + ".example");
+    }
+
+    /**
+     * A write state that is rebuilt every iteration so the store size stays near {@code size}.
+     */
+    @State(Scope.Benchmark)
+    public static class WriteState {
+        UserService service;
+        int counter;
+
+        @Setup(Level.Iteration)
+        public void setUp(UserServiceBenchmark benchmark) {
+            service = new UserService();
+            for (int i = 0; i < benchmark.size; i++) {
+                service.createUser(seedUser(i));
+            }
+            counter = benchmark.size;
+        }
+    }
+
+    @Benchmark
+    public User createUser(WriteState state) {
+        return state.service.createUser(seedUser(state.counter++));
+    }
+
+    @Benchmark
+    public Object getUserById() {
+        String id = ids[next++ % ids.length];
+        return service.getUserById(id).orElse(null);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public List<User> getAllUsers() {
+        return service.getAllUsers();
+    }
+
+    @Benchmark
+    public List<User> getUsersPage() {
+        return service.getUsersPage(ids[next++ % ids.length], 100);
+    }
+}
@@ -0,0 +1,308 @@
+package com.acme;
+
+import io.helidon.webserver.WebServer;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * End-to-end load generator.
+ * <p>
+ * Starts the application's routing on a random port in this JVM, preloads users
+ * through {@code POST /users:batch}, then runs {@code --clients} virtual-thread
+ * clients in a closed loop for {@code --duration} seconds, each picking an
+ * operation from {@code --mix}. Latency is recorded per operation in HdrHistogram
+ * after a {@code --warmup} period and reported as throughput plus percentiles.
+ * With {@code --max-p99-ms} the process exits non-zero when any operation's p99
+ * exceeds the limit, so it can gate a deploy. Admission control is off unless
+ * {@code --admission=true}, since every client shares one address.
+ * <p>
+ * {@code --protocol} picks how clients talk to the server: {@code http1} (the
+ * default) over a pool of kept-alive connections, {@code http2} multiplexed over
+ * one {@code h2c} connection, or {@code compare} to run the same mix with each in
+ * turn and print the HTTP/2 throughput and p99 against HTTP/1.1.
+ * <pre>
+ * ./gradlew :loadtest:run --args="--clients=2000 --duration=30 --mix=get:50,search:20,create:10,update:10,delete:5,hello:5"
+ * ./gradlew :loadtest:run --args="--protocol=compare --mix=get:100"
+ * </pre>
+ */
+public final class LoadTest {
+
+    enum Operation {
+        HELLO, GET, LIST, SEARCH, CREATE, UPDATE, DELETE
+    }
+
+    private final int clients;
+    private final Duration duration;
+    private final Duration warmup;
+    private final int preload;
+    private final Map<Operation, Integer> mix;
+    private final double maxP99Millis;
+    private final boolean admission;
+    private final List<HttpClient.Version> versions;
+
+    private final Map<Operation, Recorder> recorders = new EnumMap<>(Operation.class);
+    private final Map<Operation, LongAdder> errors = new EnumMap<>(Operation.class);
+    private final Queue<String> deletable = new ConcurrentLinkedQueue<>();
+    private final AtomicLong createdIds = new AtomicLong();
+    private final Operation[] weightedOperations;
+
+    private HttpClient client;
+    private String baseUrl;
+    private volatile boolean recording;
+
+    LoadTest(Map<String, String> options) {
+        this.clients = Integer.parseInt(options.getOrDefault("clients", "1000"));
+        this.duration = Duration.ofSeconds(Long.parseLong(options.getOrDefault("duration", "30")));
+        this.warmup = Duration.ofSeconds(Long.parseLong(options.getOrDefault("warmup", "5")));
+        this.preload = Integer.parseInt(options.getOrDefault("preload", "10000"));
+        this.mix = parseMix(options.getOrDefault("mix",
+                "hello:5,get:45,list:2,search:18,create:10,update:10,delete:10"));
+        this.maxP99Millis = Double.parseDouble(options.getOrDefault("max-p99-ms", "0"));
+        this.admission = Boolean.parseBoolean(options.getOrDefault("admission", "false"));
+        this.versions = switch (options.getOrDefault("protocol", "http1")) {
+            case "http1" -> List.of(HttpClient.Version.HTTP_1_1);
+            case "http2" -> List.of(HttpClient.Version.HTTP_2);
+            case "compare" -> List.of(HttpClient.Version.HTTP_1_1, HttpClient.Version.HTTP_2);
+            default -> throw new IllegalArgumentException("--protocol must be http1, http2 or compare");
+        };
+        int totalWeight = mix.values().stream().mapToInt(Integer::intValue).sum();
+        this.weightedOperations = new Operation[totalWeight];
+        int i = 0;
+        for (Map.Entry<Operation, Integer> entry : mix.entrySet()) {
+            for (int w = 0; w < entry.getValue(); w++) {
+                weightedOperations[i++] = entry.getKey();
+            }
+        }
+        for (Operation operation : Operation.values()) {
+            recorders.put(operation, new Recorder(3));
+            errors.put(operation, new LongAdder());
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new LinkedHashMap<>();
+        for (String arg : args) {
+            if (!arg.startsWith("--") || !arg.contains("=")) {
+                throw new IllegalArgumentException("Expected --name=value, got: " + arg);
+            }
+            int eq = arg.indexOf('=');
+            options.put(arg.substring(2, eq), arg.substring(eq + 1));
+        }
+        System.exit(new LoadTest(options).run() ? 0 : 1);
+    }
+
+    static Map<Operation, Integer> parseMix(String value) {
+        Map<Operation, Integer> mix = new EnumMap<>(Operation.class);
+        for (String part : value.split(",")) {
+            String[] kv = part.trim().split(":");
+            mix.put(Operation.valueOf(kv[0].trim().toUpperCase(Locale.ROOT)), Integer.parseInt(kv[1].trim()));
+        }
+        return mix;
+    }
+
+    boolean run() throws Exception {
+        // Read when Main initializes, as the routing is built.
+        System.setProperty("users.admission.enabled", Boolean.toString(admission));
+        WebServer server = Main.serverConfig(0).build().start();
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            baseUrl = "http://localhost:" + server.port();
+            client = client(HttpClient.Version.HTTP_1_1, executor);
+            preloadUsers();
+            boolean passed = true;
+            Map<HttpClient.Version, Histogram> totals = new EnumMap<>(HttpClient.Version.class);
+            Map<HttpClient.Version, Double> seconds = new EnumMap<>(HttpClient.Version.class);
+            for (HttpClient.Version version : versions) {
+                client = client(version, executor);
+                System.out.printf("%nRunning %d clients for %ds (warmup %ds) against %s over %s%n",
+                        clients, duration.toSeconds(), warmup.toSeconds(), baseUrl, version);
+                long measured = measure();
+                Histogram total = new Histogram(3);
+                passed &= report(measured, total);
+                totals.put(version, total);
+                seconds.put(version, measured / 1e9);
+            }
+            if (versions.size() > 1) {
+                Histogram http1 = totals.get(HttpClient.Version.HTTP_1_1);
+                Histogram http2 = totals.get(HttpClient.Version.HTTP_2);
+                System.out.printf("%nHTTP/2 vs HTTP/1.1: throughput x%.2f, p99 x%.2f%n",
+                        (http2.getTotalCount() / seconds.get(HttpClient.Version.HTTP_2))
+                                / (http1.getTotalCount() / seconds.get(HttpClient.Version.HTTP_1_1)),
+                        (double) http2.getValueAtPercentile(99) / http1.getValueAtPercentile(99));
+            }
+            return passed;
+        } finally {
+            server.stop();
+        }
+    }
+
+    private static HttpClient client(HttpClient.Version version, ExecutorService executor) {
+        return HttpClient.newBuilder()
+                .version(version)
+                .connectTimeout(Duration.ofSeconds(10))
+                .executor(executor)
+                .build();
+    }
+
+    /**
+     * Run the clients through warmup and measurement with the current client.
+     *
+     * @return nanoseconds measured
+     */
+    private long measure() throws InterruptedException {
+        long start = System.nanoTime();
+        long warmupEnd = start + warmup.toNanos();
+        long end = warmupEnd + duration.toNanos();
+        long measured;
+        // Closing waits for every client, so phases never overlap.
+        try (ExecutorService loops = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < clients; i++) {
+                loops.submit(() -> clientLoop(end));
+            }
+            TimeUnit.NANOSECONDS.sleep(warmupEnd - System.nanoTime());
+            recorders.values().forEach(Recorder::reset);
+            errors.values().forEach(LongAdder::reset);
+            recording = true;
+            long measureStart = System.nanoTime();
+            TimeUnit.NANOSECONDS.sleep(end - measureStart);
+            recording = false;
+            measured = System.nanoTime() - measureStart;
+        }
+        return measured;
+    }
+
+    private void preloadUsers() throws Exception {
+        int chunk = 1000;
+        for (int from = 0; from < preload; from += chunk) {
+            StringBuilder body = new StringBuilder();
+            for (int i = from; i < Math.min(preload, from + chunk); i++) {
+                body.append("{\"id\":\"lt-").append(i).append("\",\"name\":\"Load User ").append(i)
+                        .append("\",\"email\":\"load").append(i).append("@domain").append(i % 100)
+                        .append(".example\"}\n");
+            }
+            HttpResponse<Void> response = client.send(HttpRequest.newBuilder()
+                    .uri(URI.create(baseUrl + "/users:batch"))
+                    .header("Content-Type", "application/x-ndjson")
+                    .POST(HttpRequest.BodyPublishers.ofString(body.toString()))
+                    .build(), HttpResponse.BodyHandlers.discarding());
+            if (response.statusCode() != 200) {
+                throw new IllegalStateException("Preload failed with status " + response.statusCode());
+            }
+        }
+    }
+
+    private void clientLoop(long end) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        while (System.nanoTime() < end) {
+            Operation operation = weightedOperations[random.nextInt(weightedOperations.length)];
+            long start = System.nanoTime();
+            boolean ok;
+            try {
+                ok = execute(operation, random);
+            } catch (Exception e) {
+                ok = false;
+            }
+            if (recording) {
+                recorders.get(operation).recordValue((System.nanoTime() - start) / 1000);
+                if (!ok) {
+                    errors.get(operation).increment();
+                }
+            }
+        }
+    }
+
+    private boolean execute(Operation operation, ThreadLocalRandom random) throws Exception {
+        String preloaded = "lt-" + random.nextInt(Math.max(1, preload));
+        return switch (operation) {
+            case HELLO -> send(get("/hello")) == 200;
+            case GET -> send(get("/users/" + preloaded)) == 200;
+            case LIST -> send(get("/users?limit=100&after=" + preloaded)) == 200;
+            case SEARCH -> send(get("/users?email=@domain" + random.nextInt(100) + ".")) == 200;
+            case CREATE -> {
+                String id = "lt-new-" + createdIds.incrementAndGet();
+                boolean created = send(json("POST", "/users", id, "Created " + id)) == 201;
+                if (created) {
+                    deletable.add(id);
+                }
+                yield created;
+            }
+            case UPDATE -> send(json("PUT", "/users/" + preloaded, null, "Updated " + preloaded)) == 200;
+            case DELETE -> {
+                String id = deletable.poll();
+                yield id == null || send(HttpRequest.newBuilder(URI.create(baseUrl + "/users/" + id))
+                        .DELETE().build()) == 204;
+            }
+        };
+    }
+
+    private HttpRequest get(String path) {
+        return HttpRequest.newBuilder(URI.create(baseUrl + path)).GET().build();
+    }
+
+    private HttpRequest json(String method, String path, String id, String name) {
+        String body = "{" + (id == null ? "" : "\"id\":\"" + id + "\",")
+                + "\"name\":\"" + name + "\",\"email\":\"" + name.replace(' ', '.').toLowerCase(Locale.ROOT) + "@example.com\"}";
+        return HttpRequest.newBuilder(URI.create(baseUrl + path))
+                .header("Content-Type", "application/json")
+                .method(method, HttpRequest.BodyPublishers.ofString(body))
+                .build();
+    }
+
+    private int send(HttpRequest request) throws Exception {
+        return client.send(request, HttpResponse.BodyHandlers.discarding()).statusCode();
+    }
+
+    /**
+     * Print one row per operation and the sum of them, which is also added to {@code total}.
+     */
+    private boolean report(long measuredNanos, Histogram total) {
+        double seconds = measuredNanos / 1e9;
+        boolean passed = true;
+        System.out.printf("%n%-8s %10s %10s %8s %9s %9s %9s %9s %9s%n",
+                "op", "requests", "req/s", "errors", "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms");
+        for (Operation operation : mix.keySet()) {
+            Histogram histogram = recorders.get(operation).getIntervalHistogram();
+            total.add(histogram);
+            passed &= printRow(operation.name().toLowerCase(Locale.ROOT), histogram, errors.get(operation).sum(), seconds);
+        }
+        long totalErrors = errors.values().stream().mapToLong(LongAdder::sum).sum();
+        printRow("total", total, totalErrors, seconds);
+        if (!passed) {
+            System.out.printf("%nFAILED: p99 above %.1f ms%n", maxP99Millis);
+        }
+        return passed;
+    }
+
+    private boolean printRow(String label, Histogram histogram, long errorCount, double seconds) {
+        double p99 = histogram.getValueAtPercentile(99) / 1000.0;
+        System.out.printf("%-8s %10d %10.0f %8d %9.2f %9.2f %9.2f %9.2f %9.2f%n",
+                label,
+                histogram.getTotalCount(),
+                histogram.getTotalCount() / seconds,
+                errorCount,
+                histogram.getValueAtPercentile(50) / 1000.0,
+                histogram.getValueAtPercentile(90) / 1000.0,
+                p99,
+                histogram.getValueAtPercentile(99.9) / 1000.0,
+                histogram.getMaxValue() / 1000.0);
+        return maxP99Millis <= 0 || p99 <= maxP99Millis;
+    }
+}